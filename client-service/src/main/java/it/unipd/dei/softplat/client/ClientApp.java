@@ -13,10 +13,15 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
@@ -25,18 +30,17 @@ import org.springframework.web.client.RestTemplate;
 import it.unipd.dei.softplat.client.model.QueryResult;
 import it.unipd.dei.softplat.client.model.QueryTopic;
 import it.unipd.dei.softplat.client.service.ClientService;
+import it.unipd.dei.softplat.http.service.HttpClientService;
 
 @SpringBootApplication(scanBasePackages = {"it.unipd.dei.softplat"})
 public class ClientApp {
 
     // BlockingQueue to hold the query results
     public static final BlockingQueue<QueryResult> resultQueue = new ArrayBlockingQueue<>(1);
-    // BlockingQueue to hold the monitoring status
-    public static final BlockingQueue<String> monitoringQueue = new ArrayBlockingQueue<>(1);
     
     @Bean
     public RestTemplate restTemplate() {
-        return new RestTemplate();
+        return HttpClientService.createRestTemplate();
     }
 
     /**
@@ -154,6 +158,8 @@ public class ClientApp {
         boolean apiStatus = false;
         String issue = "";
         String label = "";
+        // Issues monitored, by the label of their corpus
+        Map<String, String> monitoredIssues = new LinkedHashMap<>();
         // Create a Scanner to read user input
         Scanner scanner = new Scanner(System.in);
 
@@ -176,6 +182,10 @@ public class ClientApp {
                         System.out.println("Available commands are:"
                                 + "\n- help: Show this help message"
                                 + "\n- monitor: Start monitoring a new issue"
+                                + "\n- monitors: List the monitors and their state"
+                                + "\n- pause: Pause a monitor"
+                                + "\n- resume: Resume a paused monitor"
+                                + "\n- cancel: Cancel a monitor"
                                 + "\n- query: Extract articles related to a specific issue"
                                 + "\n- status: Check the status of the monitoring and API rate limit"
                                 + "\n- exit: Exit the application");
@@ -190,10 +200,13 @@ public class ClientApp {
                     case "status":
 
                         // Check the status of the monitoring and API rate limit
-                        monitoringStatus = clientService.monitoringStatus();
+                        // (the monitoring is enabled while an issue corpus is monitored, a cancel can remove the last one)
+                        monitoringStatus = !monitoredIssues.isEmpty();
                         apiStatus = clientService.apiRateLimitStatus();
                         if (monitoringStatus) {
-                            System.out.println("Monitoring is enabled for issue query <" + issue + "> with issue corpus <" + label +">.");
+                            for (Map.Entry<String, String> monitored : monitoredIssues.entrySet()) {
+                                System.out.println("Monitoring is enabled for issue query <" + monitored.getValue() + "> with issue corpus <" + monitored.getKey() + ">.");
+                            }
                         } else {
                             System.out.println("Monitoring is not enabled. Please start monitoring an issue first.");
                         
@@ -207,14 +220,6 @@ public class ClientApp {
 
                     case "monitor":
 
-                        // Check if monitoring is already enabled
-                        monitoringStatus = clientService.monitoringStatus();
-                        if (monitoringStatus) {
-                            System.out.println("Monitoring is already enabled. You can query the articles related to the monitored issue <" + issue + "> with issue corpus <" + label + ">.");
-                            System.out.println("If you want to monitor a new issue, please restart the application.");
-                            continue; // Skip
-                        }
-
                         // Monitoring logic
                         System.out.println("Please enter IN ORDER the following details for the monitoring:"
                                 +"\n1. The issue you want to monitor (e.g., artificial intelligence)"
@@ -227,6 +232,10 @@ public class ClientApp {
                         issue = readNonEmptyString(scanner, "Enter the issue to monitor (use \"...\" to exact match): ");
 
                         label = normalizeString(scanner, "Enter a label for the issue corpus: ");
+                        if (monitoredIssues.containsKey(label)) {
+                            System.out.println("The issue corpus <" + label + "> is already monitored for issue query <" + monitoredIssues.get(label) + ">.");
+                            continue; // Skip
+                        }
 
                         Date startDate = readDate(scanner, "Enter the start date (yyyy-MM-dd'T'HH:mm:ss'Z): ", true);
 
@@ -238,14 +247,18 @@ public class ClientApp {
                             }
                         } while (endDate != null && endDate.before(startDate));
                         
-                        monitoringQueue.clear(); // Clear the queue
                         // Call the service to start the monitoring
-                        clientService.sendMonitoringRequest(issue, label, startDate, endDate);
+                        String startedId = clientService.sendMonitoringRequest(issue, label, startDate, endDate);
+                        if (startedId == null) {
+                            System.out.println("Unable to start the monitoring. Please try again later.");
+                            continue;
+                        }
                         // Wait for the monitoring to complete
-                        System.out.println("Monitoring request sent. Waiting for confirmation...");
-                        String monitoringConfirm = monitoringQueue.take(); // Wait for the status from the queue
-                        // Read the status from the queue
+                        System.out.println("Monitoring request sent (monitor <" + startedId + ">). Waiting for confirmation...");
+                        String monitoringConfirm = clientService.waitMonitorStatus(startedId); // Wait for the status of this monitor
+                        // Read the status of the monitor
                         if (monitoringConfirm.equals("Monitoring is enabled")) {
+                            monitoredIssues.put(label, issue);
                             System.out.println("Monitoring started successfully for issue: " + issue);
                             System.out.println("You can now query the articles related to this issue.");
                             System.out.println("Full monitoring will require some time, please be patient.");
@@ -253,13 +266,12 @@ public class ClientApp {
                             System.out.println("API rate limit exceeded. Please try again tomorrow.");
                             System.exit(0); // Exit the application
                         }
-                        monitoringQueue.clear(); // Clear the queue for the next monitoring request
                         break;
 
                     case "query":
 
                         // Query logic
-                        monitoringStatus = clientService.monitoringStatus();
+                        monitoringStatus = !monitoredIssues.isEmpty();
                         apiStatus = clientService.apiRateLimitStatus();
                         if (!monitoringStatus) {
                             System.out.println("Monitoring is not enabled. Please start monitoring an issue first.");
@@ -286,6 +298,14 @@ public class ClientApp {
 
                         String queryTopic = readNonEmptyString(scanner, "Enter the query topic (use \"...\" to exact match): ");
 
+                        String corpus = monitoredIssues.size() == 1 ? monitoredIssues.keySet().iterator().next() : "";
+                        while (!monitoredIssues.isEmpty() && !monitoredIssues.containsKey(corpus)) {
+                            corpus = normalizeString(scanner, "Enter the issue corpus to query " + monitoredIssues.keySet() + ": ");
+                            if (!monitoredIssues.containsKey(corpus)) {
+                                System.out.println("The issue corpus <" + corpus + "> is not monitored.");
+                            }
+                        }
+
                         int numTopics = readIntValues(scanner, "Enter the number of topics to extract: ");
 
                         int numTopWordsPerTopic = readIntValues(scanner, "Enter the number of top words per topic: ");
@@ -301,7 +321,7 @@ public class ClientApp {
                         } while (startQueryDate != null && endQueryDate != null && startQueryDate.after(endQueryDate));
                         
                         // Call the service to send the query request
-                        clientService.sendQueryRequest(queryTopic, label, numTopics, numTopWordsPerTopic, startQueryDate, endQueryDate);
+                        clientService.sendQueryRequest(queryTopic, corpus, numTopics, numTopWordsPerTopic, startQueryDate, endQueryDate);
                         System.out.println("Query sent. Waiting for results...");
                         QueryResult result = resultQueue.take(); // Wait for the result from the queue
                         clientService.processQueryResult(result.getQuery(), new ArrayList<>(result.getTopics()));
@@ -321,6 +341,49 @@ public class ClientApp {
                         resultQueue.clear(); // Clear the queue for the next query    
                         break;
                     
+                    case "monitors":
+
+                        // List the monitors registered in the Monitoring service
+                        String monitors = clientService.listMonitors();
+                        if (monitors == null) {
+                            System.out.println("Unable to retrieve the monitors. Please try again later.");
+                            continue;
+                        }
+                        JSONArray monitorList = new JSONArray(monitors);
+                        if (monitorList.length() == 0) {
+                            System.out.println("No monitors are registered.");
+                        }
+                        for (int i = 0; i < monitorList.length(); i++) {
+                            JSONObject monitor = monitorList.getJSONObject(i);
+                            JSONObject usage = monitor.has("usage") ? monitor.getJSONObject("usage") : new JSONObject();
+                            System.out.println("Monitor " + monitor.getString("monitorId") + " [" + monitor.getString("state") + "]"
+                                + " issue query <" + monitor.getString("issueString") + "> with issue corpus <" + monitor.getString("label") + ">"
+                                + (monitor.getBoolean("continuous") ? ", continuous" : "")
+                                + ", articles: " + usage.optLong("articles") + ", API calls: " + usage.optLong("apiCalls"));
+                        }
+                        break;
+
+                    case "pause":
+                    case "resume":
+
+                        // Send the command for a monitor to the Monitoring service
+                        String monitorId = readNonEmptyString(scanner, "Enter the ID of the monitor (type 'monitors' for a list of the monitors): ");
+                        System.out.println(clientService.sendMonitorCommand(userInput.toLowerCase(), monitorId));
+                        break;
+
+                    case "cancel":
+
+                        // Cancel a monitor, so that its issue corpus can be monitored again
+                        String cancelledId = readNonEmptyString(scanner, "Enter the ID of the monitor (type 'monitors' for a list of the monitors): ");
+                        String cancelledLabel = clientService.cancelMonitor(cancelledId);
+                        if (cancelledLabel == null) {
+                            System.out.println("Unable to cancel the monitor <" + cancelledId + ">. Type 'monitors' for a list of the monitors.");
+                            continue;
+                        }
+                        monitoredIssues.remove(cancelledLabel);
+                        System.out.println("Monitor <" + cancelledId + "> cancelled, the issue corpus <" + cancelledLabel + "> is no longer monitored.");
+                        break;
+
                     default:
                         
                         System.out.println("Unknown command. Type 'help' for assistance.");
@@ -95,7 +95,7 @@ public class ClientController {
             return ResponseEntity.badRequest().body("Status cannot be null or empty.");
         }
         
-        clientService.processMessageStatus(status, message);
+        clientService.processMessageStatus(status, message, messageDTO.getMonitorId());
         logger.info("Status message processed successfully: " + message);
         return ResponseEntity.ok("Status message processed successfully.");
     }
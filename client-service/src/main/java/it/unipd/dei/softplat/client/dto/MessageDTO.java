@@ -16,6 +16,8 @@ public class MessageDTO {
     private String message;
     @NotNull @NotEmpty
     private String status;
+    // The ID of the monitor the status belongs to, null if the status is not about a monitor
+    private String monitorId;
 
     /**
      * Default constructor for MessageDTO.
@@ -65,4 +67,20 @@ public class MessageDTO {
     public void setStatus(String status) {
         this.status = status;
     }
+
+    /**
+     * Gets the ID of the monitor.
+     * @return the monitor ID, or null
+     */
+    public String getMonitorId() {
+        return monitorId;
+    }
+
+    /**
+     * Sets the ID of the monitor.
+     * @param monitorId the monitor ID to set
+     */
+    public void setMonitorId(String monitorId) {
+        this.monitorId = monitorId;
+    }
 }
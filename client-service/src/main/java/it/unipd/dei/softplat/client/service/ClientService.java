@@ -11,10 +11,14 @@ package it.unipd.dei.softplat.client.service;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -31,6 +35,8 @@ public class ClientService {
     private final HttpClientService httpClientService;
     boolean isMonitoringEnabled;
     boolean isApiRateLimitExceeded;
+    // The last status received for each monitor, until it is read by the ClientApp
+    private final Map<String, String> monitorStatuses = new HashMap<>();
 
     // For logging
     private static final Logger logger = LogManager.getLogger(ClientService.class);
@@ -50,8 +56,9 @@ public class ClientService {
      * @param label
      * @param startDate
      * @param endDate
+     * @return the ID of the monitor started, or null if the request failed
      */
-    public void sendMonitoringRequest(String issueString, String label, Date startDate, Date endDate) {
+    public String sendMonitoringRequest(String issueString, String label, Date startDate, Date endDate) {
         DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
         // JSON object to hold the monitoring request data
         JSONObject monitoringRequest = new JSONObject();
@@ -85,9 +92,91 @@ public class ClientService {
                 catch (InterruptedException e) {
                     Thread.currentThread().interrupt(); // Restore interrupted status
                     logger.error("Thread was interrupted while waiting to retry.");
+                    return null;
                 }
             }
         }
+        if (response == null || response.getStatusCode() != HttpStatus.OK) {
+            return null;
+        }
+        // The Monitoring service answers with the ID of the monitor, which its statuses carry
+        try {
+            return new JSONObject(response.getBody()).optString("monitorId", null);
+        } catch (JSONException e) {
+            logger.warn("Invalid response to the monitoring request: " + response.getBody());
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the monitors registered in the Monitoring service.
+     * @return the JSON array of the monitors, or null if the request failed
+     */
+    public String listMonitors() {
+        ResponseEntity<String> response = httpClientService.getRequest("http://monitoring-service:8081/monitoring/monitors/");
+        if (response != null && response.getStatusCode() == HttpStatus.OK) {
+            return response.getBody();
+        }
+        logger.warn("Failed to retrieve the monitors. Response: " + (response != null ? response.getBody() : "No response received"));
+        return null;
+    }
+
+    /**
+     * Sends a command for a monitor to the Monitoring service.
+     * The command is not retried: the Monitoring service answers with an error if the monitor is unknown
+     * or not in a state for the command (e.g. resuming a monitor not paused).
+     * @param command "pause" or "resume" (a monitor is cancelled by cancelMonitor)
+     * @param monitorId
+     * @return the message of the Monitoring service
+     */
+    public String sendMonitorCommand(String command, String monitorId) {
+        JSONObject monitorRequest = new JSONObject();
+        monitorRequest.put("monitorId", monitorId);
+        ResponseEntity<String> response = httpClientService.postRequest("http://monitoring-service:8081/monitoring/monitors/" + command + "/", monitorRequest.toString());
+        if (response != null && response.getStatusCode() == HttpStatus.OK) {
+            logger.info("Command " + command + " sent successfully for monitor: " + monitorId);
+            return response.getBody();
+        }
+        logger.warn("Failed to send command " + command + " for monitor: " + monitorId + ". Response: " + (response != null ? response.getBody() : "No response received"));
+        return response != null && response.getBody() != null ? response.getBody() : "No response received from the Monitoring service.";
+    }
+
+    /**
+     * Cancels a monitor in the Monitoring service.
+     * The issue corpus of the monitor is read from the list of the monitors before the cancel,
+     * since the Monitoring service removes the monitor once cancelled.
+     * @param monitorId
+     * @return the issue corpus of the monitor cancelled, or null if the monitor is unknown or the cancel failed
+     */
+    public String cancelMonitor(String monitorId) {
+        String monitors = listMonitors();
+        if (monitors == null) {
+            return null;
+        }
+        String label = null;
+        JSONArray monitorList = new JSONArray(monitors);
+        for (int i = 0; i < monitorList.length(); i++) {
+            JSONObject monitor = monitorList.getJSONObject(i);
+            if (monitorId.equals(monitor.optString("monitorId"))) {
+                label = monitor.optString("label");
+            }
+        }
+        if (label == null) {
+            logger.warn("Monitor not found: " + monitorId);
+            return null;
+        }
+        JSONObject monitorRequest = new JSONObject();
+        monitorRequest.put("monitorId", monitorId);
+        ResponseEntity<String> response = httpClientService.postRequest("http://monitoring-service:8081/monitoring/monitors/cancel/", monitorRequest.toString());
+        if (response != null && response.getStatusCode() == HttpStatus.OK) {
+            logger.info("Monitor " + monitorId + " of issue corpus " + label + " cancelled successfully.");
+            synchronized (monitorStatuses) {
+                monitorStatuses.remove(monitorId);
+            }
+            return label;
+        }
+        logger.warn("Failed to cancel monitor: " + monitorId + ". Response: " + (response != null ? response.getBody() : "No response received"));
+        return null;
     }
 
     /**
@@ -170,37 +259,50 @@ public class ClientService {
 
     /**
      * Checks if monitoring is enabled based on the status and message received from the client.
-     * This method will update the isMonitoringEnabled flag and notify the ClientApp if monitoring is enabled.
+     * This method will update the isMonitoringEnabled flag and keep the status of the monitor,
+     * so that the ClientApp waiting for the monitor can read it. It never blocks the request of the Monitoring service.
      * @param status
      * @param message
+     * @param monitorId the ID of the monitor the status belongs to, or null
      */
-    public void processMessageStatus(String status, String message) {
+    public void processMessageStatus(String status, String message, String monitorId) {
         if (status.equals("MONITORING")) {
+            String monitorStatus = null;
             if (message.contains("Monitoring completed")) {
                 // Monitoring is enabled
                 isMonitoringEnabled = true;
                 logger.info("Monitoring is enabled. Message: " + message);
-                try {
-                    // Notify the ClientApp that monitoring is now enabled
-                    ClientApp.monitoringQueue.put("Monitoring is enabled");
-                }
-                catch (InterruptedException e) {
-                    Thread.currentThread().interrupt(); // Restore interrupted status
-                    logger.error("Thread was interrupted while trying to put the message in the queue.");
-                }
+                monitorStatus = "Monitoring is enabled";
             } else {
                 if(message.contains("API rate limit exceeded")) {
                     logger.error("API rate limit exceeded.");
                     isApiRateLimitExceeded = true;
                     // Unable to continue due to API rate limit
-                    try {
-                        ClientApp.monitoringQueue.put("API rate limit exceeded");
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt(); // Restore interrupted status
-                        logger.error("Thread was interrupted while trying to put the message in the queue.");
-                    }
+                    monitorStatus = "API rate limit exceeded";
                 }
             }
+            if (monitorStatus != null && monitorId != null) {
+                // Notify the ClientApp waiting for this monitor, a status of another monitor does not wake it up
+                synchronized (monitorStatuses) {
+                    monitorStatuses.put(monitorId, monitorStatus);
+                    monitorStatuses.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the status of a monitor sent by the Monitoring service, and removes it.
+     * @param monitorId
+     * @return "Monitoring is enabled" or "API rate limit exceeded"
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public String waitMonitorStatus(String monitorId) throws InterruptedException {
+        synchronized (monitorStatuses) {
+            while (!monitorStatuses.containsKey(monitorId)) {
+                monitorStatuses.wait();
+            }
+            return monitorStatuses.remove(monitorId);
         }
     }
 
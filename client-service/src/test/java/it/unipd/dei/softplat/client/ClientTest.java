@@ -10,6 +10,7 @@ package it.unipd.dei.softplat.client;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
@@ -139,15 +140,17 @@ public class ClientTest {
 
     /**
      * This test method is intended to test the sendMonitoringRequest method of the ClientService.
-     * It mocks the HttpClientService and verifies that the postRequest method is called with the correct parameters.
+     * It mocks the HttpClientService and verifies that the postRequest method is called with the correct parameters
+     * and that the ID of the monitor is returned. Then it checks that the statuses are read by the monitor they belong to.
+     * @throws InterruptedException
      */
     @Test
-    public void testSendMonitoringRequest() {
+    public void testSendMonitoringRequest() throws InterruptedException {
         // Mock configuration
         when(httpClientService.postRequest(
             eq("http://monitoring-service:8081/monitoring/start/"),
             anyString())
-        ).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+        ).thenReturn(new ResponseEntity<>("{\"monitorId\": \"monitor-ai\", \"message\": \"ok\"}", HttpStatus.OK));
 
         // Create a valid issue string
         String issueString = "artificial intelligence";
@@ -160,9 +163,46 @@ public class ClientTest {
         Date endDate = cal2.getTime();
 
         // Call the sendMonitoringRequest method
-        service_test.sendMonitoringRequest(issueString, label, startDate, endDate);
+        assertEquals("monitor-ai", service_test.sendMonitoringRequest(issueString, label, startDate, endDate));
         // Verify that the postRequest method of HttpClientService was called with the correct parameters
         verify(httpClientService).postRequest(eq("http://monitoring-service:8081/monitoring/start/"), anyString());
+
+        // The statuses are matched by monitor: a status of another monitor is not read for this one
+        service_test.processMessageStatus("MONITORING", "API rate limit exceeded for query: climate", "monitor-climate");
+        service_test.processMessageStatus("MONITORING", "Monitoring completed for query: " + issueString, "monitor-ai");
+        assertEquals("Monitoring is enabled", service_test.waitMonitorStatus("monitor-ai"));
+        assertEquals("API rate limit exceeded", service_test.waitMonitorStatus("monitor-climate"));
+    }
+
+    /**
+     * This test method is intended to test the commands for the monitors of the ClientService.
+     * It mocks the HttpClientService and verifies that the monitors are listed, and that the commands
+     * are sent to the endpoint of their action with the ID of the monitor,
+     * and that the cancel of a monitor returns its issue corpus.
+     */
+    @Test
+    public void testMonitorCommands() {
+        // Mock configuration
+        when(httpClientService.getRequest("http://monitoring-service:8081/monitoring/monitors/"))
+            .thenReturn(new ResponseEntity<>("[]", HttpStatus.OK));
+        when(httpClientService.postRequest(eq("http://monitoring-service:8081/monitoring/monitors/pause/"), anyString()))
+            .thenReturn(new ResponseEntity<>("Monitor \"id\" paused successfully.", HttpStatus.OK));
+        when(httpClientService.postRequest(eq("http://monitoring-service:8081/monitoring/monitors/resume/"), anyString()))
+            .thenReturn(new ResponseEntity<>("Error: 409 Conflict", HttpStatus.INTERNAL_SERVER_ERROR));
+
+        assertEquals("[]", service_test.listMonitors());
+        assertEquals("Monitor \"id\" paused successfully.", service_test.sendMonitorCommand("pause", "id"));
+        assertEquals("Error: 409 Conflict", service_test.sendMonitorCommand("resume", "id"));
+        verify(httpClientService).postRequest("http://monitoring-service:8081/monitoring/monitors/pause/", "{\"monitorId\":\"id\"}");
+
+        // The cancel returns the issue corpus of the monitor, to remove it from the monitored ones
+        when(httpClientService.getRequest("http://monitoring-service:8081/monitoring/monitors/"))
+            .thenReturn(new ResponseEntity<>("[{\"monitorId\":\"id\",\"label\":\"ai\"}]", HttpStatus.OK));
+        when(httpClientService.postRequest(eq("http://monitoring-service:8081/monitoring/monitors/cancel/"), anyString()))
+            .thenReturn(new ResponseEntity<>("Monitor \"id\" cancelled successfully.", HttpStatus.OK));
+        assertEquals("ai", service_test.cancelMonitor("id"));
+        assertNull(service_test.cancelMonitor("unknown"), "An unknown monitor should not be cancelled");
+        verify(httpClientService).postRequest("http://monitoring-service:8081/monitoring/monitors/cancel/", "{\"monitorId\":\"id\"}");
     }
 
     /**
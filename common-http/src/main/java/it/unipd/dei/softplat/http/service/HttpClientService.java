@@ -13,9 +13,12 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.HttpClientErrorException;
 
 /**
@@ -40,12 +43,24 @@ public class HttpClientService {
         this.restTemplate = restTemplate;
     }
 
+    /**
+     * This method creates the RestTemplate used by the services to send their requests.
+     * The request body is not buffered in memory: it is sent in chunks while it is written,
+     * so that a body streamed by the caller is never held whole in memory.
+     * @return the RestTemplate
+     */
+    public static RestTemplate createRestTemplate() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setBufferRequestBody(false);
+        return new RestTemplate(requestFactory);
+    }
+
     /**
      * This method is intended to send a POST request to a specified URL with a JSON body.
      * It uses the RestTemplate to create an HTTP request with the provided JSON body and headers.
      * @param url
      * @param JSONBody
-     * @return the response status of the POST request
+     * @return the response of the POST request, with the status, headers and body of a client error (4xx)
      * @throws HttpClientErrorException if the request fails
      */
     public ResponseEntity<String> postRequest(String url, String JSONBody) {
@@ -68,7 +83,42 @@ public class HttpClientService {
         }
         catch (HttpClientErrorException e) {
             System.out.println("Failed to send POST request to " + url + ". Error: " + e.getMessage());
-            return new ResponseEntity<String>("Error: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            // Keep the status and headers of the error, e.g. 429 with Retry-After, so the caller can react to them
+            return new ResponseEntity<String>(e.getResponseBodyAsString(), e.getResponseHeaders(), e.getStatusCode());
+        }
+        return statusRequest;
+    }
+
+    /**
+     * This method is intended to send a POST request to a specified URL with a JSON body
+     * written directly into the request body stream, without building it in memory first.
+     * The body is streamed to the connection only with a non-buffering RestTemplate (see createRestTemplate).
+     * The body may be written more than once if the caller retries the request.
+     * @param url
+     * @param JSONBody the writer of the JSON body
+     * @return the response of the POST request, with the status, headers and body of a client error (4xx)
+     * @throws HttpClientErrorException if the request fails
+     */
+    public ResponseEntity<String> postRequest(String url, StreamingHttpOutputMessage.Body JSONBody) {
+        // Checking if the URL is null or empty
+        if (url == null || url.isEmpty()) {
+            return new ResponseEntity<String>("Error: URL cannot be null or empty", HttpStatus.BAD_REQUEST);
+        }
+
+        ResponseEntity<String> statusRequest;
+
+        // Sending a POST request to the specified URL, writing the JSON body in the request stream
+        try {
+            statusRequest = restTemplate.execute(url, HttpMethod.POST, request -> {
+                // Setting the content type to application/json
+                request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                JSONBody.writeTo(request.getBody());
+            }, restTemplate.responseEntityExtractor(String.class));
+        }
+        catch (HttpClientErrorException e) {
+            System.out.println("Failed to send POST request to " + url + ". Error: " + e.getMessage());
+            // Keep the status and headers of the error, e.g. 429 with Retry-After, so the caller can react to them
+            return new ResponseEntity<String>(e.getResponseBodyAsString(), e.getResponseHeaders(), e.getStatusCode());
         }
         return statusRequest;
     }
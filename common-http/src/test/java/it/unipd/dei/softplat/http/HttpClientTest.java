@@ -10,19 +10,28 @@ package it.unipd.dei.softplat.http;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import com.sun.net.httpserver.HttpServer;
+
 import it.unipd.dei.softplat.http.service.HttpClientService;
 
 @ExtendWith(MockitoExtension.class)
@@ -79,15 +88,68 @@ public class HttpClientTest {
 
         ResponseEntity<String> response = httpClientService.postRequest(url, jsonBody);
 
-        // Check if the response is not null and has the expected status code
+        // Check if the response is not null and has the status code of the error
         assertNotNull(response);
-        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertNotNull(response.getBody());
         
         // Verifica che RestTemplate sia stato chiamato
         verify(restTemplate).postForEntity(eq(url), org.mockito.ArgumentMatchers.any(), eq(String.class));
     }
 
+    @Test
+    public void testPostRequest_tooManyRequests() {
+        String url = "http://datamanager-service:8082/datamanager/save-articles/";
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "30");
+
+        org.mockito.Mockito.when(
+            restTemplate.postForEntity(eq(url), org.mockito.ArgumentMatchers.any(), eq(String.class))
+        ).thenThrow(HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers,
+            "Ingestion limit reached".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+
+        ResponseEntity<String> response = httpClientService.postRequest(url, "[]");
+
+        // Check that the status, the Retry-After header and the body of the error reach the caller
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        assertEquals("30", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals("Ingestion limit reached", response.getBody());
+    }
+
+    @Test
+    public void testPostRequest_streamedBody() throws Exception {
+        // Local server recording how the body is received
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        AtomicReference<String> transferEncoding = new AtomicReference<>();
+        AtomicReference<String> contentLength = new AtomicReference<>();
+        AtomicReference<String> receivedBody = new AtomicReference<>();
+        server.createContext("/", exchange -> {
+            transferEncoding.set(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+            contentLength.set(exchange.getRequestHeaders().getFirst("Content-Length"));
+            receivedBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+        try {
+            HttpClientService streamingService = new HttpClientService(HttpClientService.createRestTemplate());
+            String url = "http://localhost:" + server.getAddress().getPort() + "/";
+            String jsonBody = "[" + "{\"key\":\"value\"},".repeat(10000) + "{}]";
+
+            ResponseEntity<String> response = streamingService.postRequest(url, out -> out.write(jsonBody.getBytes(StandardCharsets.UTF_8)));
+
+            // Check that the body is sent in chunks while it is written, not buffered to compute its length
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals("chunked", transferEncoding.get());
+            assertNull(contentLength.get());
+            assertEquals(jsonBody, receivedBody.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
     @Test
     public void testGetRequest() {
         // Create a valid URL
@@ -8,20 +8,26 @@
 
 package it.unipd.dei.softplat.datamanager.controller;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import jakarta.validation.Valid;
 
 import it.unipd.dei.softplat.datamanager.model.Article;
-import it.unipd.dei.softplat.datamanager.service.DataManagerService;
+import it.unipd.dei.softplat.datamanager.service.NearDuplicateDetector;
+import it.unipd.dei.softplat.datamanager.service.OutboxService;
+import it.unipd.dei.softplat.datamanager.service.SeenArticleFilter;
 
 /**
  * This class is intended to handle requests related to data management.
@@ -29,18 +35,24 @@ import it.unipd.dei.softplat.datamanager.service.DataManagerService;
 @RestController
 public class DataManagerController {
     
-    private final DataManagerService dataService;
+    private final OutboxService outboxService;
+    private final SeenArticleFilter seenFilter;
+    private final NearDuplicateDetector nearDuplicateDetector;
 
     // For logging
     private static final Logger logger = LogManager.getLogger(DataManagerController.class);
 
     /**
      * Default constructor for DataManagerController.
-     * @param dataService The service to handle data management operations.
+     * @param outboxService The service storing the articles until they are delivered.
+     * @param seenFilter The filter dropping the articles already received.
+     * @param nearDuplicateDetector The detector marking or dropping the near-duplicate articles.
      */
     @Autowired
-    public DataManagerController(DataManagerService dataService) {
-        this.dataService = dataService;
+    public DataManagerController(OutboxService outboxService, SeenArticleFilter seenFilter, NearDuplicateDetector nearDuplicateDetector) {
+        this.outboxService = outboxService;
+        this.seenFilter = seenFilter;
+        this.nearDuplicateDetector = nearDuplicateDetector;
     }
 
     /**
@@ -57,9 +69,66 @@ public class DataManagerController {
             return ResponseEntity.badRequest().body("No articles received.");
         }
 
-        // Start the service
-        dataService.storingArticles(topicsArticles);
+        // Drop the articles already received
+        List<Article> freshArticles = seenFilter.filter(topicsArticles);
+        if (freshArticles.isEmpty()) {
+            logger.info("All the articles were already received.");
+            return ResponseEntity.ok().body("Articles with topics received successfully.");
+        }
+
+        // Mark or drop the near-duplicates of the articles already received
+        List<Article> uniqueArticles = nearDuplicateDetector.filter(freshArticles);
+        if (uniqueArticles.isEmpty()) {
+            logger.info("All the articles were near-duplicates.");
+            return ResponseEntity.ok().body("Articles with topics received successfully.");
+        }
+
+        // Store the articles in the outbox, they are delivered in the background
+        boolean stored;
+        try {
+            stored = outboxService.append(uniqueArticles);
+        } catch (IOException e) {
+            seenFilter.forget(freshArticles);
+            nearDuplicateDetector.forget(uniqueArticles);
+            logger.error("Error storing the articles in the outbox: " + e.getMessage());
+            return ResponseEntity.internalServerError().body("Error storing the articles.");
+        }
+        // Ask the caller to slow down if the backlog is full
+        if (!stored) {
+            seenFilter.forget(freshArticles);
+            nearDuplicateDetector.forget(uniqueArticles);
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(outboxService.getRetryAfterSeconds()))
+                    .body("Ingestion backlog full, retry later.");
+        }
         logger.info("Articles with topics received successfully.");
         return ResponseEntity.ok().body("Articles with topics received successfully.");
     }
+
+    /**
+     * This method returns the backlog of the outbox for each sink and the delivery counters.
+     * @return ResponseEntity with the outbox metrics.
+     */
+    @GetMapping("/datamanager/outbox/stats/")
+    public ResponseEntity<?> getOutboxStats() {
+        return ResponseEntity.ok().body(outboxService.getStats().toString());
+    }
+
+    /**
+     * This method returns the number of articles received and dropped as duplicates, and the dedup ratio.
+     * @return ResponseEntity with the seen article filter metrics.
+     */
+    @GetMapping("/datamanager/seen/stats/")
+    public ResponseEntity<?> getSeenStats() {
+        return ResponseEntity.ok().body(seenFilter.getStats().toString());
+    }
+
+    /**
+     * This method returns the number of articles checked and found as near-duplicates, and the near-duplicate ratio.
+     * @return ResponseEntity with the near-duplicate detector metrics.
+     */
+    @GetMapping("/datamanager/neardup/stats/")
+    public ResponseEntity<?> getNearDuplicateStats() {
+        return ResponseEntity.ok().body(nearDuplicateDetector.getStats().toString());
+    }
 }
@@ -46,6 +46,8 @@ public class Article {
     private String webUrl;
     @NotNull @NotEmpty
     private String bodyText;
+    // Set by the near-duplicate detector when the article is marked as a near-duplicate
+    private String duplicateOf;
 
     /**
      * Default constructor for Article.
@@ -243,4 +245,20 @@ public class Article {
     public void setBodyText(String bodyText) {
         this.bodyText = bodyText;
     }
+
+    /**
+     * Returns the ID of the article this article is a near-duplicate of.
+     * @return the ID of the original article, or null if the article is not a near-duplicate
+     */
+    public String getDuplicateOf() {
+        return this.duplicateOf;
+    }
+
+    /**
+     * Sets the ID of the article this article is a near-duplicate of.
+     * @param duplicateOf
+     */
+    public void setDuplicateOf(String duplicateOf) {
+        this.duplicateOf = duplicateOf;
+    }
 }
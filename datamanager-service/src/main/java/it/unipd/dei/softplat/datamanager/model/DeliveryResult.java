@@ -0,0 +1,89 @@
+/**
+ * DeliveryResult.java
+ * 
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.model;
+
+/**
+ * This class represents the outcome of delivering a list of articles to a sink
+ * (the MongoDB Service or the Elasticsearch Service).
+ * It contains the name of the sink, the number of articles delivered and the number of articles
+ * that could not be delivered.
+ */
+public class DeliveryResult {
+
+    private String sink;
+    private int delivered;
+    private int failed;
+
+    /**
+     * Default constructor for DeliveryResult.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public DeliveryResult() { }
+
+    /**
+     * Constructor for DeliveryResult.
+     * This constructor initializes a DeliveryResult object with the provided parameters.
+     * @param sink
+     * @param delivered
+     * @param failed
+     */
+    public DeliveryResult(String sink, int delivered, int failed) {
+        this.sink = sink;
+        this.delivered = delivered;
+        this.failed = failed;
+    }
+
+    /**
+     * Returns the name of the sink.
+     * @return the sink name
+     */
+    public String getSink() {
+        return this.sink;
+    }
+
+    /**
+     * Sets the name of the sink.
+     * @param sink
+     */
+    public void setSink(String sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Returns the number of articles delivered to the sink.
+     * @return the number of delivered articles
+     */
+    public int getDelivered() {
+        return this.delivered;
+    }
+
+    /**
+     * Sets the number of articles delivered to the sink.
+     * @param delivered
+     */
+    public void setDelivered(int delivered) {
+        this.delivered = delivered;
+    }
+
+    /**
+     * Returns the number of articles that could not be delivered to the sink.
+     * @return the number of failed articles
+     */
+    public int getFailed() {
+        return this.failed;
+    }
+
+    /**
+     * Sets the number of articles that could not be delivered to the sink.
+     * @param failed
+     */
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+}
@@ -8,22 +8,26 @@
 
 package it.unipd.dei.softplat.datamanager.service;
 
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.http.StreamingHttpOutputMessage;
 import org.springframework.stereotype.Service;
 
 import it.unipd.dei.softplat.datamanager.model.Article;
+import it.unipd.dei.softplat.datamanager.model.DeliveryResult;
 import it.unipd.dei.softplat.http.service.HttpClientService;
 
 /**
@@ -31,13 +35,26 @@ import it.unipd.dei.softplat.http.service.HttpClientService;
  * specifically storing articles in MongoDB and Elasticsearch.
  * It processes a list of articles, prepares them for storage,
  * and sends them in batches to the respective services.
+ * The articles are read from the outbox by one sender for each service.
+ * @see OutboxService
  */
 @Service
 public class DataManagerService {
     
+    public static final String MONGODB_SINK = "mongodb";
+    public static final String ELASTICSEARCH_SINK = "elasticsearch";
+    private static final String MONGODB_SAVE_URL = "http://mongodb-service:8085/mongodb/save/";
+    private static final String ELASTICSEARCH_INDEX_URL = "http://elasticsearch-service:8083/elastic/index/";
+
     @Value("${data.batch.size}")
     private int batchSize;
+    // Maximum number of requests in flight to each sink
+    @Value("${data.sink.max.in.flight:4}")
+    private int maxInFlight;
+    private final Map<String, Semaphore> inFlightRequests = new ConcurrentHashMap<>();
     private final HttpClientService httpClientService;
+    // The deliveries block on the HTTP requests and the retry sleeps, so each one runs on its own virtual thread
+    private final ExecutorService sinkExecutor = Executors.newVirtualThreadPerTaskExecutor();
     
     // For logging
     private static final Logger logger = LogManager.getLogger(DataManagerService.class);
@@ -51,182 +68,152 @@ public class DataManagerService {
     }
 
     /**
-     * This method receives a list of articles with topics extracted
-     * and stores them in MongoDB and Elasticsearch.
+     * This method delivers a list of articles with topics extracted to a sink:
+     * MongoDB (mongodb) or Elasticsearch (elasticsearch).
+     * It is called by the outbox sender of the sink, so each sink is served on its own.
+     * @param sink the name of the sink
      * @param articles
+     * @return the result of the delivery
      */
-    @Async
-    public void storingArticles(List<Article> articles){
-
-        ArrayList<JSONObject> mongoArticles = new ArrayList<>();
-        ArrayList<JSONObject> elasticArticles = new ArrayList<>();
-        DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
+    public DeliveryResult deliver(String sink, List<Article> articles) {
+        return deliver(sink, articles, batchSize);
+    }
 
+    /**
+     * This method delivers a list of articles with topics extracted to a sink,
+     * in bulk requests of at most chunkSize articles.
+     * @param sink the name of the sink
+     * @param articles
+     * @param chunkSize the maximum number of articles of a request
+     * @return the result of the delivery
+     */
+    public DeliveryResult deliver(String sink, List<Article> articles, int chunkSize) {
+        if (!MONGODB_SINK.equals(sink) && !ELASTICSEARCH_SINK.equals(sink)) {
+            throw new IllegalArgumentException("Unknown sink: " + sink);
+        }
+        List<Article> sinkArticles = new ArrayList<>(articles.size());
         for (Article article : articles) {
             if(article == null) {
                 logger.warn("Received null article.");
             } else {
-                // Prepare MongoArticle and ElasticArticle to be processed later
-                JSONObject mngArticle = new JSONObject();
-                mngArticle.put("id", article.getId());
-                mngArticle.put("type", article.getType());
-                mngArticle.put("sectionID", article.getSectionId());
-                mngArticle.put("sectionName", article.getSectionName());
-                mngArticle.put("webPublicationDate", formatter.format(article.getWebPublicationDate().toInstant()));
-                mngArticle.put("webTitle", article.getWebTitle());
-                mngArticle.put("webUrl", article.getWebUrl());
-                mngArticle.put("bodyText", article.getBodyText());
-                JSONObject elArticle = new JSONObject();
-                elArticle.put("id", article.getId());
-                elArticle.put("issueString", article.getissueString());
-                elArticle.put("label", article.getLabel());
-                elArticle.put("type", article.getType());
-                elArticle.put("webPublicationDate", formatter.format(article.getWebPublicationDate().toInstant()));
-                elArticle.put("webTitle", article.getWebTitle());
-                elArticle.put("bodyText", article.getBodyText());
-
-                mongoArticles.add(mngArticle);
-                elasticArticles.add(elArticle);
+                sinkArticles.add(article);
             }
         }
-        // Send the batch of articles to the MongoDB Service
-        if (mongoArticles.size() >= batchSize || !mongoArticles.isEmpty()) {
-            mongoArticles = sendToMongodbService(mongoArticles, articles.get(0).getLabel());
-        }
-        // Send the batch of articles to the ElastiSearch Service
-        if (elasticArticles.size() >= batchSize || !elasticArticles.isEmpty()) {
-            elasticArticles = sendToElasticsearchService(elasticArticles, articles.get(0).getLabel());
-        }
-
-        // Send the JSON articles left to the MongoDB Service
-        if (!mongoArticles.isEmpty()) {
-            mongoArticles = sendToMongodbService(mongoArticles, articles.get(0).getLabel());
-        }
-        // Check if some articles are left
-        if (!mongoArticles.isEmpty()) {
-            logger.error("Some articles were not sent to the MongoDB Service.");
-        } else {
-            logger.info("All articles sent to the MongoDB Service successfully.");
+        if (sinkArticles.isEmpty()) {
+            logger.warn("No valid articles to deliver to " + sink + ".");
+            return new DeliveryResult(sink, 0, 0);
         }
+        // The payloads are written straight from the articles, so only the dates are prepared here
+        String[] dates = SinkPayloadWriter.formatDates(sinkArticles);
+        // Enrichment: the normalized tokens are computed once and stored with the MongoDB document,
+        // so the topic queries do not preprocess the body texts again
+        String[][] tokens = MONGODB_SINK.equals(sink) ? TextFeatureExtractor.extractTokens(sinkArticles) : null;
+        String collectionName = sinkArticles.get(0).getLabel();
+        return dispatch(sink, MONGODB_SINK.equals(sink) ? MONGODB_SAVE_URL : ELASTICSEARCH_INDEX_URL, sinkArticles, dates, tokens, collectionName, Math.max(1, chunkSize));
+    }
 
-        // Send articles left to the ElasticSearch Service
-        if (!elasticArticles.isEmpty()) {
-            elasticArticles = sendToElasticsearchService(elasticArticles, articles.get(0).getLabel());
-        }
-        // Check if some articles are left
-        if (!elasticArticles.isEmpty()) {
-            logger.error("Some articles were not sent to the Elasticsearch Service.");
-        } else {
-            logger.info("All articles sent to the Elasticsearch Service successfully.");
-        }
+    /**
+     * This method builds the result of a delivery interrupted by an unexpected error
+     * (e.g., the sink is unreachable).
+     * @param sink
+     * @param total the number of articles to deliver
+     * @param error
+     * @return the result of the delivery, with all the articles failed
+     */
+    private DeliveryResult failedDelivery(String sink, int total, Throwable error) {
+        logger.error("Error delivering " + total + " articles to " + sink + ": " + error.getMessage());
+        return new DeliveryResult(sink, 0, total);
     }
 
     /**
-     * This method sends a batch of articles to the MongoDB Service.
-     * @param mongoArticles
+     * This method delivers a list of articles to a sink, split in chunks of chunkSize articles.
+     * The chunks are sent concurrently, with at most data.sink.max.in.flight requests in flight
+     * for each sink (shared by all the deliveries to that sink), and each chunk is retried on its own.
+     * @param sink the name of the sink
+     * @param url the URL of the endpoint of the sink
+     * @param articles
+     * @param dates the formatted publication dates of the articles
+     * @param tokens the normalized tokens of the articles, or null if the sink does not store them
      * @param collectionName
-     * @return
+     * @param chunkSize the maximum number of articles of a chunk
+     * @return the result of the delivery
      */
-    public ArrayList<JSONObject> sendToMongodbService (ArrayList<JSONObject> mongoArticles, String collectionName) {
-        // Take the first batchSize articles from the mongoArticles list
-        ArrayList<JSONObject> articleBatch = new ArrayList<>(mongoArticles.subList(0, Math.min(batchSize, mongoArticles.size())));
-        // Create a SaveArticleDTO object to send the articles
-        JSONObject saveArticleDTO = new JSONObject();
-        saveArticleDTO.put("articles", new JSONArray(articleBatch));
-        saveArticleDTO.put("collectionName", collectionName);
-        // Send articles to the MongoDB Service
-        ResponseEntity<String> responseMongoDB = httpClientService.postRequest("http://mongodb-service:8085/mongodb/save/", saveArticleDTO.toString());
-        if (responseMongoDB != null && responseMongoDB.getStatusCode() == HttpStatus.OK) {
-            logger.info("Batch of articles sent to MongoDB Service successfully.");
-            // Remove the sent articles from the mongoArticles list
-            mongoArticles.removeAll(articleBatch);
-            return mongoArticles; // Return the remaining articles to be processed
-        } else {
-            // If it fails, I try again
-            logger.warn("Failed to send batch of articles to MongoDB Service. Status: " + (responseMongoDB != null ? responseMongoDB.getStatusCode() : "No response received"));    
-            int attempts = 0;
-            while (!mongoArticles.isEmpty() && attempts < 5) {
-                // Take the first batchSize articles from the mongoArticles list
-                articleBatch = new ArrayList<>(mongoArticles.subList(0, Math.min(batchSize, mongoArticles.size())));
-                // Create a SaveArticleDTO object to send the articles
-                saveArticleDTO = new JSONObject();
-                saveArticleDTO.put("articles", new JSONArray(articleBatch));
-                saveArticleDTO.put("collectionName", collectionName); // Assuming all articles have the same issueString
-                // Send articles to the MongoDB Service
-                responseMongoDB = httpClientService.postRequest("http://mongodb-service:8085/mongodb/save/", saveArticleDTO.toString());
-                if (responseMongoDB != null && responseMongoDB.getStatusCode() == HttpStatus.OK) {
-                    logger.info("Batch of articles sent to MongoDB Service successfully after " + (attempts + 1) + " attempts.");
-                    // Remove the sent articles from the mongoArticles list
-                    mongoArticles.removeAll(articleBatch);
-                    return mongoArticles; // Return the remaining articles to be processed
-                } else {
-                    attempts++;
-                    // Sleep for a while before retrying
-                    try {
-                        Thread.sleep(2000 * attempts); // Sleep for 2 * attempts seconds before retrying
-                    } catch (InterruptedException e) {
-                        logger.error("Retry interrupted: " + e.getMessage());
-                        Thread.currentThread().interrupt(); // Restore the interrupted status
-                    }
-                    logger.warn("Failed to send batch of articles to MongoDB Service. Status: " + (responseMongoDB != null ? responseMongoDB.getStatusCode() : "No response received"));
-                }   
+    private DeliveryResult dispatch(String sink, String url, List<Article> articles, String[] dates, String[][] tokens, String collectionName, int chunkSize) {
+        Semaphore inFlight = inFlightRequests.computeIfAbsent(sink, name -> new Semaphore(maxInFlight));
+        List<CompletableFuture<DeliveryResult>> chunks = new ArrayList<>();
+        for (int from = 0; from < articles.size(); from += chunkSize) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(from + chunkSize, articles.size());
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                logger.error("Delivery to " + sink + " interrupted: " + e.getMessage());
+                Thread.currentThread().interrupt(); // Restore the interrupted status
+                chunks.add(CompletableFuture.completedFuture(new DeliveryResult(sink, 0, articles.size() - from)));
+                break;
             }
+            chunks.add(CompletableFuture
+                .supplyAsync(() -> sendChunk(sink, url, articles, dates, tokens, chunkFrom, chunkTo, collectionName), sinkExecutor)
+                .exceptionally(e -> failedDelivery(sink, chunkTo - chunkFrom, e))
+                .whenComplete((result, e) -> inFlight.release()));
+        }
+
+        // Wait for all the chunks and sum their results
+        int delivered = 0;
+        int failed = 0;
+        for (CompletableFuture<DeliveryResult> chunk : chunks) {
+            DeliveryResult result = chunk.join();
+            delivered += result.getDelivered();
+            failed += result.getFailed();
         }
-        return mongoArticles; // Return the remaining articles to be processed
+        if (failed > 0) {
+            logger.error(failed + " articles were not sent to " + sink + ".");
+        } else {
+            logger.info("All articles sent to " + sink + " successfully.");
+        }
+        return new DeliveryResult(sink, delivered, failed);
     }
 
     /**
-     * This method sends a batch of articles to the Elasticsearch Service.
-     * @param elasticArticles
+     * This method sends a chunk of articles to a sink, retrying up to 5 times if it fails.
+     * The DTO (SaveArticleDTO or IndexArticleDTO) is written straight into the request body.
+     * @param sink the name of the sink
+     * @param url the URL of the endpoint of the sink
+     * @param articles
+     * @param dates the formatted publication dates of the articles
+     * @param tokens the normalized tokens of the articles, or null if the sink does not store them
+     * @param from the index of the first article of the chunk
+     * @param to the index after the last article of the chunk
      * @param collectionName
-     * @return
+     * @return the result of the delivery of the chunk
      */
-    public ArrayList<JSONObject> sendToElasticsearchService (ArrayList<JSONObject> elasticArticles, String collectionName) {
-        // Take the first batchSize articles from the mongoArticles list
-        ArrayList<JSONObject> articleBatch = new ArrayList<>(elasticArticles.subList(0, Math.min(batchSize, elasticArticles.size())));
-        // Create an IndexArticleDTO object to send the articles
-        JSONObject IndexArticleDTO = new JSONObject();
-        IndexArticleDTO.put("articles", new JSONArray(articleBatch));
-        IndexArticleDTO.put("collectionName", collectionName);
-        // Send articles to the ElastiSearch Service
-        ResponseEntity<String> responseElasticSearch = httpClientService.postRequest("http://elasticsearch-service:8083/elastic/index/", IndexArticleDTO.toString());
-        if (responseElasticSearch != null && responseElasticSearch.getStatusCode() == HttpStatus.OK) {
-            logger.info("Batch of articles sent to ElastiSearch Service successfully.");
-            // Remove the sent articles from the mongoArticles list
-            elasticArticles.removeAll(articleBatch);
-            return elasticArticles; // Return the remaining articles to be processed
-        } else {
-            // If it fails, the array is not cleared and the next iteration will try to send the same set of articles plus a new one again
-            logger.warn("Failed to send batch of articles to ElastiSearch Service. Status: " + (responseElasticSearch != null ? responseElasticSearch.getStatusCode() : "No response received"));
-            // Send articles left to the ElasticSearch Service
-            int attempts = 0;
-            while (!elasticArticles.isEmpty() && attempts < 5) {
-                // Take the first batchSize articles from the elasticArticles list
-                articleBatch = new ArrayList<>(elasticArticles.subList(0, Math.min(batchSize, elasticArticles.size())));
-                // Create an IndexArticleDTO object to send the articles
-                IndexArticleDTO = new JSONObject();
-                IndexArticleDTO.put("articles", new JSONArray(articleBatch));
-                IndexArticleDTO.put("collectionName", collectionName);
-                // Send articles to the ElastiSearch Service
-                responseElasticSearch = httpClientService.postRequest("http://elasticsearch-service:8083/elastic/index/", IndexArticleDTO.toString());
-                if (responseElasticSearch != null && responseElasticSearch.getStatusCode() == HttpStatus.OK) {
-                    logger.info("Batch of articles sent to ElastiSearch Service successfully after " + (attempts + 1) + " attempts.");
-                    // Remove the sent articles from the elasticArticles list
-                    elasticArticles.removeAll(articleBatch);
-                    return elasticArticles; // Return the remaining articles to be processed
-                } else {
-                    attempts++;
-                    // Sleep for a while before retrying
-                    try {
-                        Thread.sleep(2000 * attempts); // Sleep for 2 * attempts seconds before retrying
-                    } catch (InterruptedException e) {
-                        logger.error("Retry interrupted: " + e.getMessage());
-                        Thread.currentThread().interrupt(); // Restore the interrupted status
-                    }
-                    logger.warn("Failed to send batch of articles to ElastiSearch Service. Status: " + (responseElasticSearch != null ? responseElasticSearch.getStatusCode() : "No response received"));
-                }
+    private DeliveryResult sendChunk(String sink, String url, List<Article> articles, String[] dates, String[][] tokens, int from, int to, String collectionName) {
+        int chunkSize = to - from;
+        StreamingHttpOutputMessage.Body body = out -> SinkPayloadWriter.write(sink, out, articles, dates, tokens, from, to, collectionName);
+
+        int attempts = 0;
+        while (true) {
+            ResponseEntity<String> response = httpClientService.postRequest(url, body);
+            if (response != null && response.getStatusCode() == HttpStatus.OK) {
+                logger.info("Chunk of " + chunkSize + " articles sent to " + sink + " after " + (attempts + 1) + " attempts: "
+                    + chunkSize + " delivered, 0 failed.");
+                return new DeliveryResult(sink, chunkSize, 0);
+            }
+            attempts++;
+            logger.warn("Failed to send chunk of articles to " + sink + ". Status: " + (response != null ? response.getStatusCode() : "No response received"));
+            if (attempts > 5) {
+                logger.error("Chunk of " + chunkSize + " articles not sent to " + sink + " after " + attempts + " attempts: 0 delivered, "
+                    + chunkSize + " failed.");
+                return new DeliveryResult(sink, 0, chunkSize);
+            }
+            // Sleep for a while before retrying
+            try {
+                Thread.sleep(2000 * attempts); // Sleep for 2 * attempts seconds before retrying
+            } catch (InterruptedException e) {
+                logger.error("Retry interrupted: " + e.getMessage());
+                Thread.currentThread().interrupt(); // Restore the interrupted status
+                return new DeliveryResult(sink, 0, chunkSize);
             }
         }
-        return elasticArticles; // Return the remaining articles to be processed   
     }
 }
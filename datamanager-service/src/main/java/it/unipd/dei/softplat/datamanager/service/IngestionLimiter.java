@@ -0,0 +1,136 @@
+/**
+ * IngestionLimiter.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * This class is intended to bound the articles accepted by the Data Manager but not yet delivered to every sink.
+ * The backlog is limited both by number of articles and by size of the body texts:
+ * when a new batch would exceed one of the limits it is rejected, so that the caller can retry later.
+ * A batch larger than the limits is accepted only when the backlog is empty, so it is never rejected forever.
+ * It also estimates the drain rate of the backlog, to suggest how long the caller should wait.
+ */
+public class IngestionLimiter {
+
+    private final long maxArticles;
+    private final long maxBodyBytes;
+    private long pendingArticles;
+    private long pendingBodyBytes;
+    private final AtomicLong acceptedBatches = new AtomicLong();
+    private final AtomicLong rejectedBatches = new AtomicLong();
+    // Counters for the drain rate
+    private long drainedArticles;
+    private double drainRate;
+    private long lastRateTime = System.currentTimeMillis();
+    private long lastRateDrained;
+
+    /**
+     * Constructor for IngestionLimiter.
+     * @param maxArticles the maximum number of articles in the backlog
+     * @param maxBodyBytes the maximum size of the body texts in the backlog, in bytes
+     */
+    public IngestionLimiter(long maxArticles, long maxBodyBytes) {
+        this.maxArticles = maxArticles;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * This method adds a batch to the backlog if it does not exceed the limits.
+     * @param articles the number of articles of the batch
+     * @param bodyBytes the size of the body texts of the batch
+     * @return true if the batch was accepted, false if the backlog is full
+     */
+    public synchronized boolean tryAcquire(long articles, long bodyBytes) {
+        boolean empty = pendingArticles == 0 && pendingBodyBytes == 0;
+        if (!empty && (pendingArticles + articles > maxArticles || pendingBodyBytes + bodyBytes > maxBodyBytes)) {
+            rejectedBatches.incrementAndGet();
+            return false;
+        }
+        pendingArticles += articles;
+        pendingBodyBytes += bodyBytes;
+        acceptedBatches.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * This method adds a batch to the backlog even if it exceeds the limits.
+     * It is used for the batches already accepted before a restart, which are part of the backlog anyway:
+     * the new batches are rejected until the backlog drains under the limits.
+     * @param articles the number of articles of the batch
+     * @param bodyBytes the size of the body texts of the batch
+     */
+    public synchronized void forceAcquire(long articles, long bodyBytes) {
+        pendingArticles += articles;
+        pendingBodyBytes += bodyBytes;
+        acceptedBatches.incrementAndGet();
+    }
+
+    /**
+     * This method removes a batch delivered to every sink from the backlog.
+     * @param articles the number of articles of the batch
+     * @param bodyBytes the size of the body texts of the batch
+     */
+    public synchronized void release(long articles, long bodyBytes) {
+        pendingArticles = Math.max(0, pendingArticles - articles);
+        pendingBodyBytes = Math.max(0, pendingBodyBytes - bodyBytes);
+        drainedArticles += articles;
+        updateDrainRate();
+    }
+
+    /**
+     * This method estimates how many seconds the caller should wait before retrying a rejected batch,
+     * based on the current backlog and drain rate.
+     * @return the number of seconds to wait, between 1 and 60
+     */
+    public synchronized long getRetryAfterSeconds() {
+        updateDrainRate();
+        if (drainRate <= 0) {
+            return 5;
+        }
+        return Math.max(1, Math.min(60, (long) Math.ceil(pendingArticles / drainRate)));
+    }
+
+    /**
+     * This method returns the backlog, the limits, their utilization and the drain rate.
+     * @return a JSON object with the ingestion metrics
+     */
+    public synchronized JSONObject getStats() {
+        updateDrainRate();
+        JSONObject stats = new JSONObject();
+        stats.put("pendingArticles", pendingArticles);
+        stats.put("maxArticles", maxArticles);
+        stats.put("articleUtilization", (double) pendingArticles / maxArticles);
+        stats.put("pendingBodyBytes", pendingBodyBytes);
+        stats.put("maxBodyBytes", maxBodyBytes);
+        stats.put("bodyBytesUtilization", (double) pendingBodyBytes / maxBodyBytes);
+        stats.put("acceptedBatches", acceptedBatches.get());
+        stats.put("rejectedBatches", rejectedBatches.get());
+        stats.put("drainRate", drainRate);
+        return stats;
+    }
+
+    /**
+     * This method updates the drain rate (articles per second) as an exponentially weighted moving average,
+     * at most once per second.
+     */
+    private void updateDrainRate() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastRateTime;
+        if (elapsed < 1000) {
+            return;
+        }
+        double currentRate = (drainedArticles - lastRateDrained) * 1000.0 / elapsed;
+        drainRate = drainRate == 0 ? currentRate : 0.7 * drainRate + 0.3 * currentRate;
+        lastRateDrained = drainedArticles;
+        lastRateTime = now;
+    }
+}
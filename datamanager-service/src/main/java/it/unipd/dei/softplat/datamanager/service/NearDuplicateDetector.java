@@ -0,0 +1,602 @@
+/**
+ * NearDuplicateDetector.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import it.unipd.dei.softplat.datamanager.model.Article;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * This class is intended to detect the near-duplicate articles (e.g., syndicated articles and the versions of a live blog),
+ * before they are stored in the outbox and delivered to MongoDB and Elasticsearch.
+ * The body text of each article is reduced to a MinHash signature of its shingles (3 consecutive normalized tokens),
+ * whose matching positions estimate the Jaccard similarity of two articles.
+ * The signatures are indexed with locality-sensitive hashing: the signature is split in bands,
+ * and only the articles sharing at least one band are compared.
+ * An article whose estimated similarity with an article of the same label reaches the threshold
+ * is marked with the ID of that article or dropped, depending on the mode.
+ * For each label it keeps a bounded index of the most recent articles,
+ * which is saved to a snapshot file periodically and on shutdown, and loaded on startup.
+ */
+@Service
+public class NearDuplicateDetector {
+
+    public static final String MODE_OFF = "off";
+    public static final String MODE_MARK = "mark";
+    public static final String MODE_DROP = "drop";
+
+    private static final int SHINGLE_SIZE = 3;
+    // The hash functions must be the same across restarts, for the signatures of the snapshot
+    private static final long HASH_SEED = 0x5eed5eedL;
+
+    private final String mode;
+    private final double threshold;
+    private final int numHashes;
+    private final int bands;
+    private final int capacity;
+    private final Path snapshotFile;
+    // The hash functions h(x) = a * x + b of the MinHash signature
+    private final long[] multipliers;
+    private final long[] increments;
+    // The LSH indexes of the articles, by label
+    private final Map<String, LshIndex> indexes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService snapshotExecutor;
+    private volatile boolean changed;
+    // Counters for the near-duplicate ratio
+    private final AtomicLong checkedArticles = new AtomicLong();
+    private final AtomicLong nearDuplicates = new AtomicLong();
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(NearDuplicateDetector.class);
+
+    /**
+     * Default constructor for NearDuplicateDetector.
+     * It loads the snapshot file, if it exists, and schedules the periodic snapshots.
+     * @param mode what to do with the near-duplicates: off, mark or drop
+     * @param threshold the estimated Jaccard similarity above which an article is a near-duplicate
+     * @param numHashes the number of hash functions of the MinHash signature
+     * @param bands the number of LSH bands (it must divide the number of hash functions)
+     * @param capacity the maximum number of articles indexed for each label
+     * @param snapshotFile the path of the snapshot file
+     * @param snapshotInterval the interval between two snapshots, in seconds (0 to save only on shutdown)
+     */
+    @Autowired
+    public NearDuplicateDetector(@Value("${data.neardup.mode:mark}") String mode,
+            @Value("${data.neardup.threshold:0.8}") double threshold,
+            @Value("${data.neardup.hashes:64}") int numHashes,
+            @Value("${data.neardup.bands:16}") int bands,
+            @Value("${data.neardup.capacity:50000}") int capacity,
+            @Value("${data.neardup.snapshot:outbox/near-duplicates.bin}") String snapshotFile,
+            @Value("${data.neardup.snapshot.interval:60}") int snapshotInterval) {
+        if (!MODE_OFF.equals(mode) && !MODE_MARK.equals(mode) && !MODE_DROP.equals(mode)) {
+            throw new IllegalArgumentException("Unknown near-duplicate mode: " + mode);
+        }
+        if (bands <= 0 || numHashes % bands != 0) {
+            throw new IllegalArgumentException("The number of bands must divide the number of hash functions.");
+        }
+        this.mode = mode;
+        this.threshold = threshold;
+        this.numHashes = numHashes;
+        this.bands = bands;
+        this.capacity = capacity;
+        this.snapshotFile = Path.of(snapshotFile);
+        Random random = new Random(HASH_SEED);
+        this.multipliers = new long[numHashes];
+        this.increments = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            multipliers[i] = random.nextLong() | 1L;
+            increments[i] = random.nextLong();
+        }
+        if (MODE_OFF.equals(mode)) {
+            snapshotExecutor = null;
+            return;
+        }
+        load();
+        if (snapshotInterval > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("neardup-snapshot").factory());
+            snapshotExecutor.scheduleWithFixedDelay(this::snapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        } else {
+            snapshotExecutor = null;
+        }
+    }
+
+    /**
+     * This method checks a batch of articles against the articles already indexed for their label
+     * (including the previous articles of the batch).
+     * The near-duplicates are marked with the ID of the most similar article, or dropped,
+     * and are not indexed; the other articles are indexed.
+     * @param articles
+     * @return the articles, without the near-duplicates if the mode is drop
+     */
+    public List<Article> filter(List<Article> articles) {
+        if (MODE_OFF.equals(mode)) {
+            return articles;
+        }
+        List<Article> kept = new ArrayList<>(articles.size());
+        int found = 0;
+        for (Article article : articles) {
+            if (article == null) {
+                continue;
+            }
+            int[] signature = signature(article.getBodyText());
+            if (signature == null) {
+                // Not enough text to compare
+                kept.add(article);
+                continue;
+            }
+            LshIndex index = indexes.computeIfAbsent(String.valueOf(article.getLabel()), label -> new LshIndex(capacity, numHashes, bands));
+            String original;
+            synchronized (index) {
+                original = index.findDuplicate(article.getId(), signature, threshold);
+                if (original == null) {
+                    index.add(article.getId(), signature);
+                }
+            }
+            if (original == null) {
+                kept.add(article);
+                continue;
+            }
+            found++;
+            if (MODE_MARK.equals(mode)) {
+                article.setDuplicateOf(original);
+                kept.add(article);
+            }
+        }
+        checkedArticles.addAndGet(articles.size());
+        nearDuplicates.addAndGet(found);
+        changed = true;
+        if (found > 0) {
+            logger.info((MODE_DROP.equals(mode) ? "Dropped " : "Marked ") + found + " of " + articles.size() + " articles as near-duplicates.");
+        }
+        return kept;
+    }
+
+    /**
+     * This method forgets a batch of articles, e.g. when it could not be stored,
+     * so that they are not reported as near-duplicates of themselves when they are sent again.
+     * @param articles
+     */
+    public void forget(List<Article> articles) {
+        for (Article article : articles) {
+            LshIndex index = indexes.get(String.valueOf(article.getLabel()));
+            if (index != null) {
+                synchronized (index) {
+                    index.remove(article.getId());
+                }
+            }
+        }
+        changed = true;
+    }
+
+    /**
+     * This method returns the mode, the number of articles checked and of near-duplicates found,
+     * and the number of articles indexed for each label.
+     * @return a JSON object with the detector metrics
+     */
+    public JSONObject getStats() {
+        long checked = checkedArticles.get();
+        long duplicates = nearDuplicates.get();
+        JSONObject stats = new JSONObject();
+        stats.put("mode", mode);
+        stats.put("threshold", threshold);
+        stats.put("checkedArticles", checked);
+        stats.put("nearDuplicates", duplicates);
+        stats.put("nearDuplicateRatio", checked == 0 ? 0.0 : (double) duplicates / checked);
+        JSONObject labels = new JSONObject();
+        for (Map.Entry<String, LshIndex> entry : indexes.entrySet()) {
+            synchronized (entry.getValue()) {
+                labels.put(entry.getKey(), entry.getValue().size());
+            }
+        }
+        stats.put("indexedArticles", labels);
+        return stats;
+    }
+
+    /**
+     * This method saves the indexed signatures to the snapshot file, if they changed since the last snapshot.
+     * The snapshot is written to a temporary file and then moved, so a crash never leaves a partial snapshot.
+     */
+    public synchronized void snapshot() {
+        if (!changed || MODE_OFF.equals(mode)) {
+            return;
+        }
+        changed = false;
+        try {
+            Path parent = snapshotFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temporary = parent.resolve(snapshotFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(numHashes);
+                out.writeInt(indexes.size());
+                for (Map.Entry<String, LshIndex> entry : indexes.entrySet()) {
+                    LshIndex index = entry.getValue();
+                    synchronized (index) {
+                        out.writeUTF(entry.getKey());
+                        index.writeTo(out);
+                    }
+                }
+            }
+            Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            changed = true;
+            logger.error("Error saving the near-duplicate snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method stops the periodic snapshots and saves the last one.
+     */
+    @PreDestroy
+    public void close() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+        snapshot();
+    }
+
+    /**
+     * This method loads the indexed signatures from the snapshot file, if it exists.
+     */
+    private void load() {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != numHashes) {
+                // The signatures were computed with other hash functions
+                logger.warn("The near-duplicate snapshot has a different number of hash functions, it is ignored.");
+                return;
+            }
+            int labels = in.readInt();
+            for (int i = 0; i < labels; i++) {
+                String label = in.readUTF();
+                LshIndex index = new LshIndex(capacity, numHashes, bands);
+                index.readFrom(in);
+                indexes.put(label, index);
+                loaded += index.size();
+            }
+            logger.info("Loaded " + loaded + " near-duplicate signatures from " + snapshotFile + ".");
+        } catch (IOException e) {
+            // The detector is only an optimization, so it starts empty
+            indexes.clear();
+            logger.error("Error loading the near-duplicate snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method computes the MinHash signature of a text:
+     * for each hash function, the minimum hash of the shingles of its normalized tokens.
+     * @param text
+     * @return the signature, or null if the text has no tokens
+     */
+    private int[] signature(String text) {
+        String[] tokens = TextFeatureExtractor.tokenize(text);
+        if (tokens.length == 0) {
+            return null;
+        }
+        long[] tokenHashes = new long[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            tokenHashes[i] = tokens[i].hashCode() * 0x9e3779b97f4a7c15L;
+        }
+        int[] signature = new int[numHashes];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        // A text shorter than a shingle is a single shingle
+        int shingles = Math.max(1, tokens.length - SHINGLE_SIZE + 1);
+        for (int s = 0; s < shingles; s++) {
+            long shingle = 0;
+            for (int t = s; t < Math.min(s + SHINGLE_SIZE, tokens.length); t++) {
+                shingle = Long.rotateLeft(shingle, 21) ^ tokenHashes[t];
+            }
+            shingle = mix(shingle);
+            for (int i = 0; i < numHashes; i++) {
+                // The 31 most significant bits of a * x + b, a non-negative int
+                int hash = (int) ((multipliers[i] * shingle + increments[i]) >>> 33);
+                if (hash < signature[i]) {
+                    signature[i] = hash;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * This method mixes the bits of a 64-bit value (the finalizer of SplitMix64).
+     * @param value
+     * @return the mixed value
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * This class represents the LSH index of the articles of a label.
+     * The signatures are kept in a ring of at most capacity slots, so the oldest article is evicted when it is full.
+     * The buckets are an open-addressing table from the hash of a band to the head of a linked list of slots,
+     * with one link per slot and band, to avoid an object for each entry.
+     * It is not thread-safe: the caller synchronizes on the index.
+     */
+    private static final class LshIndex {
+
+        private static final int NONE = -1;
+        private static final long EMPTY_KEY = 0;
+
+        private final int capacity;
+        private final int numHashes;
+        private final int bands;
+        private final int rows;
+        // The ring of the indexed articles
+        private String[] ids = new String[0];
+        private int[] signatures = new int[0];
+        private final Map<String, Integer> slots = new HashMap<>();
+        private int nextSlot;
+        // The buckets: keys and heads of the table, and the links of the lists (slot * bands + band)
+        private long[] keys = new long[0];
+        private int[] heads = new int[0];
+        private int usedKeys;
+        private int[] links = new int[0];
+
+        private LshIndex(int capacity, int numHashes, int bands) {
+            this.capacity = Math.max(1, capacity);
+            this.numHashes = numHashes;
+            this.bands = bands;
+            this.rows = numHashes / bands;
+            resizeTable(1024);
+        }
+
+        private int size() {
+            return slots.size();
+        }
+
+        /**
+         * This method finds the most similar article sharing at least one band with a signature.
+         * @param id the ID of the article, which is not compared with itself
+         * @param signature
+         * @param threshold the minimum estimated similarity
+         * @return the ID of the most similar article, or null if none reaches the threshold
+         */
+        private String findDuplicate(String id, int[] signature, double threshold) {
+            String best = null;
+            int bestMatches = (int) Math.ceil(threshold * numHashes) - 1;
+            Set<Integer> compared = new HashSet<>();
+            for (int band = 0; band < bands; band++) {
+                int position = find(bandKey(signature, 0, band));
+                if (position < 0) {
+                    continue;
+                }
+                for (int link = heads[position]; link != NONE; link = links[link]) {
+                    int slot = link / bands;
+                    if (id.equals(ids[slot]) || !compared.add(slot)) {
+                        continue;
+                    }
+                    int matches = 0;
+                    int offset = slot * numHashes;
+                    for (int i = 0; i < numHashes; i++) {
+                        if (signatures[offset + i] == signature[i]) {
+                            matches++;
+                        }
+                    }
+                    if (matches > bestMatches) {
+                        bestMatches = matches;
+                        best = ids[slot];
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * This method indexes the signature of an article, replacing its previous version
+         * and evicting the oldest article if the ring is full.
+         * @param id
+         * @param signature
+         */
+        private void add(String id, int[] signature) {
+            remove(id);
+            int slot = nextSlot;
+            nextSlot = (nextSlot + 1) % capacity;
+            if (slot >= ids.length) {
+                int length = Math.min(capacity, Math.max(16, ids.length * 2));
+                ids = Arrays.copyOf(ids, length);
+                signatures = Arrays.copyOf(signatures, length * numHashes);
+                links = Arrays.copyOf(links, length * bands);
+            } else if (ids[slot] != null) {
+                remove(ids[slot]);
+            }
+            ids[slot] = id;
+            slots.put(id, slot);
+            System.arraycopy(signature, 0, signatures, slot * numHashes, numHashes);
+            for (int band = 0; band < bands; band++) {
+                long key = bandKey(signatures, slot * numHashes, band);
+                int position = find(key);
+                if (position < 0) {
+                    if (usedKeys + 1 > keys.length * 3 / 4) {
+                        rebuildTable();
+                    }
+                    position = insertKey(key);
+                }
+                int link = slot * bands + band;
+                links[link] = heads[position];
+                heads[position] = link;
+            }
+        }
+
+        /**
+         * This method removes an article from the index, if it is indexed.
+         * @param id
+         */
+        private void remove(String id) {
+            Integer slot = slots.remove(id);
+            if (slot == null) {
+                return;
+            }
+            for (int band = 0; band < bands; band++) {
+                int position = find(bandKey(signatures, slot * numHashes, band));
+                int target = slot * bands + band;
+                int previous = NONE;
+                for (int link = heads[position]; link != NONE; previous = link, link = links[link]) {
+                    if (link == target) {
+                        if (previous == NONE) {
+                            heads[position] = links[link];
+                        } else {
+                            links[previous] = links[link];
+                        }
+                        break;
+                    }
+                }
+            }
+            ids[slot] = null;
+        }
+
+        /**
+         * This method computes the key of a band of a signature, never equal to the empty key.
+         * @param signature
+         * @param offset the position of the signature in the array
+         * @param band
+         * @return the key of the band
+         */
+        private long bandKey(int[] signature, int offset, int band) {
+            long key = band + 1;
+            for (int row = band * rows; row < (band + 1) * rows; row++) {
+                key = (key ^ signature[offset + row]) * 0x100000001b3L;
+            }
+            key = mix(key);
+            return key == EMPTY_KEY ? 1 : key;
+        }
+
+        /**
+         * This method finds the position of a key in the table.
+         * @param key
+         * @return the position of the key, or -1 if it is not in the table
+         */
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int position = (int) key & mask; keys[position] != EMPTY_KEY; position = (position + 1) & mask) {
+                if (keys[position] == key) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * This method inserts a key, not in the table yet, with an empty list.
+         * @param key
+         * @return the position of the key
+         */
+        private int insertKey(long key) {
+            int mask = keys.length - 1;
+            int position = (int) key & mask;
+            while (keys[position] != EMPTY_KEY) {
+                position = (position + 1) & mask;
+            }
+            keys[position] = key;
+            heads[position] = NONE;
+            usedKeys++;
+            return position;
+        }
+
+        /**
+         * This method rebuilds the table when it is three quarters full, dropping the keys with an empty list
+         * (left by the removed articles) and growing it if needed.
+         */
+        private void rebuildTable() {
+            long[] oldKeys = keys;
+            int[] oldHeads = heads;
+            int live = 0;
+            for (int position = 0; position < oldKeys.length; position++) {
+                if (oldKeys[position] != EMPTY_KEY && oldHeads[position] != NONE) {
+                    live++;
+                }
+            }
+            resizeTable(Math.max(1024, Integer.highestOneBit(Math.max(1, live) * 2 - 1) << 1));
+            for (int position = 0; position < oldKeys.length; position++) {
+                if (oldKeys[position] != EMPTY_KEY && oldHeads[position] != NONE) {
+                    heads[insertKey(oldKeys[position])] = oldHeads[position];
+                }
+            }
+        }
+
+        /**
+         * This method replaces the table with an empty table of the given length.
+         * @param length a power of two
+         */
+        private void resizeTable(int length) {
+            keys = new long[length];
+            heads = new int[length];
+            usedKeys = 0;
+        }
+
+        /**
+         * This method writes the indexed articles, from the oldest to the newest.
+         * @param out
+         * @throws IOException
+         */
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(slots.size());
+            for (int i = 0; i < ids.length; i++) {
+                int slot = (nextSlot + i) % ids.length;
+                if (ids[slot] != null) {
+                    out.writeUTF(ids[slot]);
+                    for (int j = 0; j < numHashes; j++) {
+                        out.writeInt(signatures[slot * numHashes + j]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * This method reads and indexes the articles written by writeTo.
+         * @param in
+         * @throws IOException
+         */
+        private void readFrom(DataInputStream in) throws IOException {
+            int articles = in.readInt();
+            int[] signature = new int[numHashes];
+            for (int i = 0; i < articles; i++) {
+                String id = in.readUTF();
+                for (int j = 0; j < numHashes; j++) {
+                    signature[j] = in.readInt();
+                }
+                add(id, signature);
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * OutboxLog.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * This class is intended to implement an append-only log of records stored in memory-mapped segment files.
+ * Each record is stored as [length][CRC32][payload]; the length is written last,
+ * so a record torn by a crash is detected (and ignored) when the log is opened again.
+ * A position in the log is encoded as a single long: the segment number in the upper 24 bits
+ * and the offset in the segment in the lower 40 bits.
+ * Each reader has its own named cursor, stored in a memory-mapped file of 8 bytes,
+ * and the segments already consumed by all the readers are deleted.
+ * This class is thread-safe.
+ */
+public class OutboxLog implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean sync;
+    // Mapped segments, by segment number
+    private final TreeMap<Integer, MappedByteBuffer> segments = new TreeMap<>();
+    // Mapped cursor files, by reader name
+    private final Map<String, MappedByteBuffer> cursors = new TreeMap<>();
+    private int writeSegment;
+    private int writeOffset;
+
+    /**
+     * Constructor for OutboxLog.
+     * It opens the log stored in the directory, creating it if needed,
+     * and finds the end of the last segment.
+     * @param directory the directory of the segment files
+     * @param segmentSize the size of a segment file in bytes
+     * @param sync true to force every record to disk before append returns
+     * @throws IOException if the log cannot be opened
+     */
+    public OutboxLog(Path directory, int segmentSize, boolean sync) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                .filter(name -> name.startsWith("segment-") && name.endsWith(".log"))
+                .forEach(name -> segments.put(Integer.parseInt(name.substring(8, name.length() - 4)), null));
+        }
+        if (segments.isEmpty()) {
+            writeSegment = 0;
+            segments.put(0, map(0, segmentSize));
+        } else {
+            writeSegment = segments.lastKey();
+        }
+        // Skip the complete records of the last segment
+        MappedByteBuffer buffer = segment(writeSegment);
+        writeOffset = 0;
+        byte[] record;
+        while ((record = readRecord(buffer, writeOffset)) != null) {
+            writeOffset += HEADER_SIZE + record.length;
+        }
+    }
+
+    /**
+     * This method appends a record to the log.
+     * A new segment is started when the record does not fit in the current one.
+     * @param payload
+     * @return the position after the record
+     * @throws IOException if the segment cannot be created
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        MappedByteBuffer buffer = segment(writeSegment);
+        if ((long) writeOffset + HEADER_SIZE + payload.length > buffer.capacity()) {
+            writeSegment++;
+            writeOffset = 0;
+            buffer = map(writeSegment, Math.max(segmentSize, HEADER_SIZE + payload.length));
+            segments.put(writeSegment, buffer);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.put(writeOffset + HEADER_SIZE, payload);
+        buffer.putInt(writeOffset + 4, (int) crc.getValue());
+        if (sync) {
+            buffer.force(writeOffset + 4, 4 + payload.length);
+        }
+        // The length makes the record visible, so it is written after the payload
+        buffer.putInt(writeOffset, payload.length);
+        if (sync) {
+            buffer.force(writeOffset, 4);
+        }
+        writeOffset += HEADER_SIZE + payload.length;
+        return position(writeSegment, writeOffset);
+    }
+
+    /**
+     * This method reads the record at a position.
+     * @param position
+     * @return the record, or null if there is no record at the position yet
+     * @throws IOException if the segment cannot be read
+     */
+    public synchronized Entry read(long position) throws IOException {
+        int segmentNumber = (int) (position >>> OFFSET_BITS);
+        int offset = (int) (position & OFFSET_MASK);
+        byte[] payload = readRecord(segment(segmentNumber), offset);
+        if (payload == null) {
+            // The end of a full segment: the next record is at the beginning of the next segment
+            if (segmentNumber < writeSegment) {
+                return read(position(segmentNumber + 1, 0));
+            }
+            return null;
+        }
+        return new Entry(payload, position(segmentNumber, offset + HEADER_SIZE + payload.length));
+    }
+
+    /**
+     * This method returns the position of a cursor, opening it at the beginning of the log if it does not exist.
+     * All the cursors should be opened before any of them is committed,
+     * otherwise the segments not consumed by the readers opened later may be deleted.
+     * @param name the name of the reader
+     * @return the position of the cursor
+     * @throws IOException if the cursor file cannot be opened
+     */
+    public synchronized long openCursor(String name) throws IOException {
+        MappedByteBuffer cursor = cursors.get(name);
+        if (cursor == null) {
+            Path file = directory.resolve("cursor-" + name);
+            boolean exists = Files.exists(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                cursor = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+            }
+            if (!exists) {
+                cursor.putLong(0, position(segments.firstKey(), 0));
+                cursor.force();
+            }
+            cursors.put(name, cursor);
+        }
+        return cursor.getLong(0);
+    }
+
+    /**
+     * This method moves a cursor to a position, after the records it consumed,
+     * and deletes the segments consumed by all the readers.
+     * @param name the name of the reader
+     * @param position
+     * @throws IOException if a segment cannot be deleted
+     */
+    public synchronized void commitCursor(String name, long position) throws IOException {
+        MappedByteBuffer cursor = cursors.get(name);
+        cursor.putLong(0, position);
+        cursor.force();
+
+        long minPosition = Long.MAX_VALUE;
+        for (MappedByteBuffer other : cursors.values()) {
+            minPosition = Math.min(minPosition, other.getLong(0));
+        }
+        int minSegment = (int) (minPosition >>> OFFSET_BITS);
+        while (segments.firstKey() < Math.min(minSegment, writeSegment)) {
+            int segmentNumber = segments.pollFirstEntry().getKey();
+            Files.deleteIfExists(segmentFile(segmentNumber));
+        }
+    }
+
+    /**
+     * This method returns the number of bytes of the records after a position.
+     * @param position
+     * @return the number of bytes still to be read from the position
+     */
+    public synchronized long bytesAfter(long position) {
+        int segmentNumber = (int) (position >>> OFFSET_BITS);
+        long bytes = -(position & OFFSET_MASK);
+        for (Map.Entry<Integer, MappedByteBuffer> entry : segments.tailMap(segmentNumber, true).entrySet()) {
+            if (entry.getKey() == writeSegment) {
+                bytes += writeOffset;
+            } else {
+                bytes += entry.getValue() != null ? entry.getValue().capacity() : segmentSize;
+            }
+        }
+        return Math.max(0, bytes);
+    }
+
+    /**
+     * This method returns the position after the last record of the log.
+     * @return the end position of the log
+     */
+    public synchronized long getEndPosition() {
+        return position(writeSegment, writeOffset);
+    }
+
+    /**
+     * This method returns the number of segment files of the log.
+     * @return the number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * This method forces the mapped segments and cursors to disk.
+     * The mapped buffers are released by the garbage collector.
+     */
+    @Override
+    public synchronized void close() {
+        for (MappedByteBuffer buffer : segments.values()) {
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+        for (MappedByteBuffer cursor : cursors.values()) {
+            cursor.force();
+        }
+    }
+
+    /**
+     * This method returns the mapped buffer of a segment, mapping the file if needed.
+     * @param segmentNumber
+     * @return the mapped segment
+     * @throws IOException if the segment file cannot be mapped
+     */
+    private MappedByteBuffer segment(int segmentNumber) throws IOException {
+        MappedByteBuffer buffer = segments.get(segmentNumber);
+        if (buffer == null) {
+            if (!segments.containsKey(segmentNumber)) {
+                throw new IOException("Outbox segment " + segmentNumber + " does not exist.");
+            }
+            buffer = map(segmentNumber, -1);
+            segments.put(segmentNumber, buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * This method maps a segment file in memory.
+     * @param segmentNumber
+     * @param size the size of the new segment file, or -1 to map an existing file with its own size
+     * @return the mapped segment
+     * @throws IOException if the file cannot be mapped
+     */
+    private MappedByteBuffer map(int segmentNumber, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segmentNumber), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = size < 0 ? channel.size() : size;
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    /**
+     * This method returns the path of a segment file.
+     * @param segmentNumber
+     * @return the path of the segment
+     */
+    private Path segmentFile(int segmentNumber) {
+        return directory.resolve(String.format("segment-%010d.log", segmentNumber));
+    }
+
+    /**
+     * This method reads the complete record at an offset of a segment, checking its CRC.
+     * @param buffer
+     * @param offset
+     * @return the payload of the record, or null if there is no complete record at the offset
+     */
+    private static byte[] readRecord(MappedByteBuffer buffer, int offset) {
+        if ((long) offset + HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || (long) offset + HEADER_SIZE + length > buffer.capacity()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(offset + HEADER_SIZE, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == buffer.getInt(offset + 4) ? payload : null;
+    }
+
+    /**
+     * This method encodes a position of the log.
+     * @param segmentNumber
+     * @param offset
+     * @return the encoded position
+     */
+    private static long position(int segmentNumber, int offset) {
+        return ((long) segmentNumber << OFFSET_BITS) | offset;
+    }
+
+    /**
+     * This class represents a record read from the log,
+     * with the position of the next record.
+     */
+    public static final class Entry {
+
+        private final byte[] payload;
+        private final long nextPosition;
+
+        private Entry(byte[] payload, long nextPosition) {
+            this.payload = payload;
+            this.nextPosition = nextPosition;
+        }
+
+        /**
+         * Returns the payload of the record.
+         * @return the payload
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * Returns the position of the next record.
+         * @return the next position
+         */
+        public long getNextPosition() {
+            return nextPosition;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * OutboxService.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.unipd.dei.softplat.datamanager.model.Article;
+import it.unipd.dei.softplat.datamanager.model.DeliveryResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * This class is intended to store the received articles in a durable outbox
+ * and to deliver them to MongoDB and Elasticsearch in the background.
+ * Each batch of articles is appended to a memory-mapped segment log before the request is acknowledged,
+ * and one sender for each sink replays the log with its own cursor,
+ * coalescing the small batches into larger bulk requests (see SinkAggregator).
+ * A batch that cannot be delivered is retried with an exponential backoff, without losing it
+ * and without blocking the other sink; the cursor is moved only after the delivery succeeded,
+ * so the batches not yet delivered are sent again after a restart.
+ * The backlog of batches not yet delivered to every sink is bounded (see IngestionLimiter).
+ */
+@Service
+public class OutboxService {
+
+    private static final List<String> SINKS = List.of(DataManagerService.MONGODB_SINK, DataManagerService.ELASTICSEARCH_SINK);
+    private static final TypeReference<List<Article>> ARTICLE_LIST = new TypeReference<List<Article>>() { };
+
+    private final DataManagerService dataService;
+    private final ObjectMapper objectMapper;
+    private final OutboxLog outboxLog;
+    @Value("${data.outbox.max.backoff:60000}")
+    private long maxBackoff;
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean running = true;
+    // Signals the senders that a new batch was appended
+    private final Object appended = new Object();
+    // Counters for each sink
+    private final Map<String, AtomicLong> deliveredArticles = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failedDeliveries = new ConcurrentHashMap<>();
+    private final AtomicLong appendedBatches = new AtomicLong();
+    private final Map<String, SinkAggregator> aggregators = new ConcurrentHashMap<>();
+    // Settings of the aggregators
+    @Value("${data.batch.size}")
+    private int batchSize;
+    @Value("${data.aggregator.max.batch.size:1000}")
+    private int maxBatchSize;
+    @Value("${data.aggregator.max.bytes:8388608}")
+    private long maxBytes;
+    @Value("${data.aggregator.linger:200}")
+    private long linger;
+    @Value("${data.aggregator.target.latency:1000}")
+    private long targetLatency;
+    // The batches not yet delivered to every sink: end position, number of articles and body size (guarded by appended)
+    private final ArrayDeque<long[]> backlog = new ArrayDeque<>();
+    private final IngestionLimiter ingestionLimiter;
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(OutboxService.class);
+
+    /**
+     * Default constructor for OutboxService.
+     * It opens the outbox log and the cursor of each sink.
+     * @param dataService the service delivering the articles to the sinks
+     * @param objectMapper
+     * @param directory the directory of the outbox
+     * @param segmentSize the size of a segment file in bytes
+     * @param sync true to force every batch to disk before the request is acknowledged
+     * @param maxPendingArticles the maximum number of articles not yet delivered to every sink
+     * @param maxPendingBodyBytes the maximum size of the body texts not yet delivered to every sink
+     * @throws IOException if the outbox cannot be opened
+     */
+    @Autowired
+    public OutboxService(DataManagerService dataService, ObjectMapper objectMapper,
+            @Value("${data.outbox.dir:outbox}") String directory,
+            @Value("${data.outbox.segment.size:67108864}") int segmentSize,
+            @Value("${data.outbox.sync:true}") boolean sync,
+            @Value("${data.ingestion.max.articles:50000}") long maxPendingArticles,
+            @Value("${data.ingestion.max.body.bytes:268435456}") long maxPendingBodyBytes) throws IOException {
+        this.dataService = dataService;
+        this.objectMapper = objectMapper;
+        this.outboxLog = new OutboxLog(Path.of(directory), segmentSize, sync);
+        this.ingestionLimiter = new IngestionLimiter(maxPendingArticles, maxPendingBodyBytes);
+        long minCursor = Long.MAX_VALUE;
+        for (String sink : SINKS) {
+            minCursor = Math.min(minCursor, outboxLog.openCursor(sink));
+            deliveredArticles.put(sink, new AtomicLong());
+            failedDeliveries.put(sink, new AtomicLong());
+        }
+
+        // The batches left by the previous run are part of the backlog
+        OutboxLog.Entry entry;
+        while ((entry = outboxLog.read(minCursor)) != null) {
+            List<Article> articles;
+            try {
+                articles = objectMapper.readValue(entry.getPayload(), ARTICLE_LIST);
+            } catch (JsonProcessingException e) {
+                articles = List.of();
+            }
+            long bodyBytes = bodySize(articles);
+            ingestionLimiter.forceAcquire(articles.size(), bodyBytes);
+            backlog.add(new long[] {entry.getNextPosition(), articles.size(), bodyBytes});
+            minCursor = entry.getNextPosition();
+        }
+        logger.info("Outbox opened in " + directory + " with " + outboxLog.getSegmentCount() + " segments and "
+            + backlog.size() + " batches to deliver.");
+    }
+
+    /**
+     * This method starts the sender of each sink, with its aggregator.
+     */
+    @PostConstruct
+    public void start() {
+        for (String sink : SINKS) {
+            aggregators.put(sink, new SinkAggregator(sink, batchSize, maxBatchSize, maxBytes, linger, targetLatency));
+            senders.add(Thread.ofPlatform().daemon().name("outbox-" + sink).start(() -> send(sink)));
+        }
+    }
+
+    /**
+     * This method stops the senders and flushes the outbox.
+     * The batches not yet delivered stay in the outbox and are sent after the restart.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+        for (Thread sender : senders) {
+            try {
+                sender.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Restore the interrupted status
+            }
+        }
+        outboxLog.close();
+    }
+
+    /**
+     * This method appends a batch of articles to the outbox, if the backlog is not full.
+     * When it returns true, the batch is stored and will be delivered to every sink.
+     * @param articles
+     * @return true if the batch was stored, false if the backlog is full
+     * @throws IOException if the batch cannot be stored
+     */
+    public boolean append(List<Article> articles) throws IOException {
+        long bodyBytes = bodySize(articles);
+        byte[] payload = objectMapper.writeValueAsBytes(articles);
+        synchronized (appended) {
+            if (!ingestionLimiter.tryAcquire(articles.size(), bodyBytes)) {
+                logger.warn("Ingestion backlog full, batch of " + articles.size() + " articles rejected.");
+                return false;
+            }
+            long endPosition;
+            try {
+                endPosition = outboxLog.append(payload);
+            } catch (IOException e) {
+                ingestionLimiter.release(articles.size(), bodyBytes);
+                throw e;
+            }
+            backlog.add(new long[] {endPosition, articles.size(), bodyBytes});
+            appendedBatches.incrementAndGet();
+            appended.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * This method estimates how many seconds a rejected caller should wait before retrying.
+     * @return the number of seconds to wait
+     */
+    public long getRetryAfterSeconds() {
+        return ingestionLimiter.getRetryAfterSeconds();
+    }
+
+    /**
+     * This method returns the backlog of each sink and the delivery counters.
+     * @return a JSON object with the outbox metrics
+     */
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("appendedBatches", appendedBatches.get());
+        stats.put("segments", outboxLog.getSegmentCount());
+        stats.put("ingestion", ingestionLimiter.getStats());
+        JSONObject sinks = new JSONObject();
+        for (String sink : SINKS) {
+            JSONObject sinkStats = new JSONObject();
+            try {
+                sinkStats.put("pendingBytes", outboxLog.bytesAfter(outboxLog.openCursor(sink)));
+            } catch (IOException e) {
+                sinkStats.put("pendingBytes", -1);
+            }
+            sinkStats.put("deliveredArticles", deliveredArticles.get(sink).get());
+            sinkStats.put("failedDeliveries", failedDeliveries.get(sink).get());
+            SinkAggregator aggregator = aggregators.get(sink);
+            if (aggregator != null) {
+                sinkStats.put("aggregator", aggregator.getStats());
+            }
+            sinks.put(sink, sinkStats);
+        }
+        stats.put("sinks", sinks);
+        return stats;
+    }
+
+    /**
+     * This method removes from the backlog the batches delivered to every sink.
+     * @throws IOException if a cursor cannot be read
+     */
+    private void releaseBacklog() throws IOException {
+        synchronized (appended) {
+            long minCursor = Long.MAX_VALUE;
+            for (String sink : SINKS) {
+                minCursor = Math.min(minCursor, outboxLog.openCursor(sink));
+            }
+            while (!backlog.isEmpty() && backlog.peek()[0] <= minCursor) {
+                long[] batch = backlog.poll();
+                ingestionLimiter.release(batch[1], batch[2]);
+            }
+        }
+    }
+
+    /**
+     * This method returns the size of the body texts of a batch of articles,
+     * estimated as one byte per character.
+     * @param articles
+     * @return the size of the body texts
+     */
+    private static long bodySize(List<Article> articles) {
+        long size = 0;
+        for (Article article : articles) {
+            if (article != null && article.getBodyText() != null) {
+                size += article.getBodyText().length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * This method replays the outbox to a sink, from its cursor, until the service is stopped.
+     * The batches read are coalesced by the aggregator of the sink and flushed as bulk requests;
+     * when a flush fails, it is retried with an exponential backoff (up to data.outbox.max.backoff ms).
+     * @param sink
+     */
+    private void send(String sink) {
+        SinkAggregator aggregator = aggregators.get(sink);
+        long backoff = 0;
+        while (running) {
+            try {
+                // Read the batches after the cursor until the aggregator is full
+                long position = aggregator.isEmpty() ? outboxLog.openCursor(sink) : aggregator.getEndPosition();
+                OutboxLog.Entry entry = aggregator.isFull() ? null : outboxLog.read(position);
+                if (entry != null) {
+                    try {
+                        aggregator.add(objectMapper.readValue(entry.getPayload(), ARTICLE_LIST), entry.getPayload().length,
+                            entry.getNextPosition(), System.currentTimeMillis());
+                    } catch (JsonProcessingException e) {
+                        // A batch that cannot be read would block the sink forever, so it is skipped
+                        logger.error("Skipping unreadable outbox batch for " + sink + ": " + e.getMessage());
+                        aggregator.add(List.of(), 0, entry.getNextPosition(), System.currentTimeMillis());
+                    }
+                    continue;
+                }
+
+                // Wait for a new batch, until the linger time of the pending articles has passed
+                long linger = aggregator.isEmpty() ? 1000 : aggregator.getLingerRemaining(System.currentTimeMillis());
+                if (linger > 0) {
+                    synchronized (appended) {
+                        if (outboxLog.getEndPosition() == position) {
+                            appended.wait(linger);
+                        }
+                    }
+                    continue;
+                }
+
+                // Flush the pending articles, one bulk for each label
+                long flushStart = System.currentTimeMillis();
+                boolean success = true;
+                int delivered = 0;
+                for (List<Article> articles : aggregator.getPending().values()) {
+                    DeliveryResult result = dataService.deliver(sink, articles, aggregator.getTargetBatchSize());
+                    delivered += result.getDelivered();
+                    success &= result.getFailed() == 0;
+                }
+                long endPosition = aggregator.getEndPosition();
+                aggregator.flushed(flushStart, System.currentTimeMillis(), success);
+                if (!success) {
+                    failedDeliveries.get(sink).incrementAndGet();
+                    backoff = Math.min(maxBackoff, backoff == 0 ? 1000 : backoff * 2);
+                    logger.warn("Delivery of the outbox batches to " + sink + " failed, retrying in " + backoff + " ms.");
+                    Thread.sleep(backoff);
+                    continue;
+                }
+                outboxLog.commitCursor(sink, endPosition);
+                releaseBacklog();
+                deliveredArticles.get(sink).addAndGet(delivered);
+                backoff = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Restore the interrupted status
+                break;
+            } catch (Exception e) {
+                logger.error("Error replaying the outbox to " + sink + ": " + e.getMessage());
+                e.printStackTrace();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt(); // Restore the interrupted status
+                    break;
+                }
+            }
+        }
+    }
+}
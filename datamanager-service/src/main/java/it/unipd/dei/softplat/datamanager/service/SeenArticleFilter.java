@@ -0,0 +1,269 @@
+/**
+ * SeenArticleFilter.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import it.unipd.dei.softplat.datamanager.model.Article;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * This class is intended to drop the articles already received, before they are stored in the outbox.
+ * The continuous monitoring fetches again the articles near the boundary of its time window,
+ * and a retried request may deliver the same batch twice: these exact duplicates
+ * (same ID and same title and body text) are not sent again to MongoDB and Elasticsearch.
+ * For each label it keeps a bounded LRU map from article ID to a 64-bit hash of the content,
+ * which is saved to a snapshot file periodically and on shutdown, and loaded on startup.
+ */
+@Service
+public class SeenArticleFilter {
+
+    private final Path snapshotFile;
+    private final int capacity;
+    // The LRU maps (in access order) of the articles seen, by label
+    private final Map<String, LinkedHashMap<String, Long>> seen = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService snapshotExecutor;
+    private volatile boolean changed;
+    // Counters for the dedup ratio
+    private final AtomicLong receivedArticles = new AtomicLong();
+    private final AtomicLong droppedArticles = new AtomicLong();
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(SeenArticleFilter.class);
+
+    /**
+     * Default constructor for SeenArticleFilter.
+     * It loads the snapshot file, if it exists, and schedules the periodic snapshots.
+     * @param snapshotFile the path of the snapshot file
+     * @param capacity the maximum number of articles remembered for each label
+     * @param snapshotInterval the interval between two snapshots, in seconds (0 to save only on shutdown)
+     */
+    @Autowired
+    public SeenArticleFilter(@Value("${data.seen.snapshot:outbox/seen-articles.bin}") String snapshotFile,
+            @Value("${data.seen.capacity:100000}") int capacity,
+            @Value("${data.seen.snapshot.interval:60}") int snapshotInterval) {
+        this.snapshotFile = Path.of(snapshotFile);
+        this.capacity = capacity;
+        load();
+        if (snapshotInterval > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("seen-snapshot").factory());
+            snapshotExecutor.scheduleWithFixedDelay(this::snapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        } else {
+            snapshotExecutor = null;
+        }
+    }
+
+    /**
+     * This method filters a batch of articles, dropping the ones already seen with the same content
+     * (including the duplicates inside the batch), and remembers the others as seen.
+     * @param articles
+     * @return the articles not seen before, or seen with a different content
+     */
+    public List<Article> filter(List<Article> articles) {
+        List<Article> fresh = new ArrayList<>(articles.size());
+        for (Article article : articles) {
+            if (article == null) {
+                continue;
+            }
+            long hash = contentHash(article);
+            LinkedHashMap<String, Long> labelSeen = seen.computeIfAbsent(String.valueOf(article.getLabel()), label -> newLabelMap());
+            Long previous;
+            synchronized (labelSeen) {
+                previous = labelSeen.put(article.getId(), hash);
+            }
+            if (previous == null || previous != hash) {
+                fresh.add(article);
+            }
+        }
+        receivedArticles.addAndGet(articles.size());
+        droppedArticles.addAndGet(articles.size() - fresh.size());
+        changed = true;
+        if (fresh.size() < articles.size()) {
+            logger.info("Dropped " + (articles.size() - fresh.size()) + " of " + articles.size() + " articles already received.");
+        }
+        return fresh;
+    }
+
+    /**
+     * This method forgets a batch of articles, e.g. when it could not be stored,
+     * so that it is accepted again when it is sent again.
+     * @param articles
+     */
+    public void forget(List<Article> articles) {
+        for (Article article : articles) {
+            LinkedHashMap<String, Long> labelSeen = seen.get(String.valueOf(article.getLabel()));
+            if (labelSeen != null) {
+                synchronized (labelSeen) {
+                    labelSeen.remove(article.getId());
+                }
+            }
+        }
+        changed = true;
+    }
+
+    /**
+     * This method returns the number of articles received and dropped, and the dedup ratio.
+     * @return a JSON object with the filter metrics
+     */
+    public JSONObject getStats() {
+        long received = receivedArticles.get();
+        long dropped = droppedArticles.get();
+        JSONObject stats = new JSONObject();
+        stats.put("receivedArticles", received);
+        stats.put("droppedArticles", dropped);
+        stats.put("dedupRatio", received == 0 ? 0.0 : (double) dropped / received);
+        JSONObject labels = new JSONObject();
+        for (Map.Entry<String, LinkedHashMap<String, Long>> entry : seen.entrySet()) {
+            synchronized (entry.getValue()) {
+                labels.put(entry.getKey(), entry.getValue().size());
+            }
+        }
+        stats.put("seenArticles", labels);
+        return stats;
+    }
+
+    /**
+     * This method saves the articles seen to the snapshot file, if they changed since the last snapshot.
+     * The snapshot is written to a temporary file and then moved, so a crash never leaves a partial snapshot.
+     */
+    public synchronized void snapshot() {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        try {
+            Path parent = snapshotFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temporary = parent.resolve(snapshotFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(seen.size());
+                for (Map.Entry<String, LinkedHashMap<String, Long>> entry : seen.entrySet()) {
+                    LinkedHashMap<String, Long> labelSeen = entry.getValue();
+                    synchronized (labelSeen) {
+                        out.writeUTF(entry.getKey());
+                        out.writeInt(labelSeen.size());
+                        // From the least to the most recently used, so the order is kept when loaded
+                        for (Map.Entry<String, Long> article : labelSeen.entrySet()) {
+                            out.writeUTF(article.getKey());
+                            out.writeLong(article.getValue());
+                        }
+                    }
+                }
+            }
+            Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            changed = true;
+            logger.error("Error saving the seen articles snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method stops the periodic snapshots and saves the last one.
+     */
+    @PreDestroy
+    public void close() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+        snapshot();
+    }
+
+    /**
+     * This method loads the articles seen from the snapshot file, if it exists.
+     */
+    private void load() {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            int labels = in.readInt();
+            for (int i = 0; i < labels; i++) {
+                LinkedHashMap<String, Long> labelSeen = newLabelMap();
+                seen.put(in.readUTF(), labelSeen);
+                int articles = in.readInt();
+                for (int j = 0; j < articles; j++) {
+                    labelSeen.put(in.readUTF(), in.readLong());
+                }
+                loaded += labelSeen.size();
+            }
+            logger.info("Loaded " + loaded + " seen articles from " + snapshotFile + ".");
+        } catch (IOException e) {
+            // The filter is only an optimization, so it starts empty
+            seen.clear();
+            logger.error("Error loading the seen articles snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method creates the LRU map of the articles seen for a label.
+     * @return an access-ordered map that evicts the least recently seen article when full
+     */
+    private LinkedHashMap<String, Long> newLabelMap() {
+        return new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * This method computes a 64-bit FNV-1a hash of the title and the body text of an article.
+     * @param article
+     * @return the content hash
+     */
+    static long contentHash(Article article) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, article.getWebTitle());
+        // Separator between title and body
+        hash = (hash ^ 0xffff) * 0x100000001b3L;
+        return fnv(hash, article.getBodyText());
+    }
+
+    /**
+     * This method updates a FNV-1a hash with the characters of a string.
+     * @param hash
+     * @param value
+     * @return the updated hash
+     */
+    private static long fnv(long hash, String value) {
+        if (value == null) {
+            return hash;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
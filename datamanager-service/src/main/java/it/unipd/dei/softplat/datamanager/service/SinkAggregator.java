@@ -0,0 +1,235 @@
+/**
+ * SinkAggregator.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONObject;
+
+import it.unipd.dei.softplat.datamanager.model.Article;
+
+/**
+ * This class is intended to coalesce the batches read from the outbox by the sender of a sink
+ * into larger bulk requests.
+ * The articles are grouped by label until the target batch size or the maximum number of bytes is reached,
+ * or the linger time has passed since the first pending batch was read.
+ * The target batch size adapts to the latency of the sink: it grows while the flushes are faster
+ * than the target latency, and it is halved when a flush is slower or fails.
+ * This class is used by a single sender thread, only the metrics are read by other threads.
+ */
+public class SinkAggregator {
+
+    private final String sink;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long maxBytes;
+    private final long lingerMillis;
+    private final long targetLatencyMillis;
+    private volatile int targetBatchSize;
+
+    // The pending articles, by label
+    private final Map<String, List<Article>> pending = new LinkedHashMap<>();
+    private int pendingArticles;
+    private long pendingBytes;
+    private long firstAddedMillis;
+    private long endPosition = -1;
+
+    // Metrics
+    private final Histogram batchSizes = new Histogram(new long[] {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000});
+    private final Histogram lingerLatencies = new Histogram(new long[] {0, 10, 50, 100, 200, 500, 1000, 2000, 5000});
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    /**
+     * Constructor for SinkAggregator.
+     * @param sink the name of the sink
+     * @param minBatchSize the minimum (and initial) target batch size, in articles
+     * @param maxBatchSize the maximum target batch size, in articles
+     * @param maxBytes the maximum size of the pending batches, in bytes
+     * @param lingerMillis the maximum time a batch waits for other batches, in milliseconds
+     * @param targetLatencyMillis the latency of a flush above which the target batch size is reduced
+     */
+    public SinkAggregator(String sink, int minBatchSize, int maxBatchSize, long maxBytes, long lingerMillis, long targetLatencyMillis) {
+        this.sink = sink;
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.targetBatchSize = this.minBatchSize;
+    }
+
+    /**
+     * This method adds a batch read from the outbox to the pending articles.
+     * @param articles
+     * @param bytes the size of the batch in the outbox
+     * @param nextPosition the position of the outbox after the batch
+     * @param now the current time, in milliseconds
+     */
+    public void add(List<Article> articles, int bytes, long nextPosition, long now) {
+        if (isEmpty()) {
+            firstAddedMillis = now;
+        }
+        for (Article article : articles) {
+            if (article != null) {
+                pending.computeIfAbsent(String.valueOf(article.getLabel()), label -> new ArrayList<>()).add(article);
+                pendingArticles++;
+            }
+        }
+        pendingBytes += bytes;
+        endPosition = nextPosition;
+    }
+
+    /**
+     * Returns true if no batch is pending.
+     * @return true if the aggregator is empty
+     */
+    public boolean isEmpty() {
+        return endPosition < 0;
+    }
+
+    /**
+     * Returns true if the pending articles reached the target batch size or the maximum number of bytes,
+     * so no other batch should be added.
+     * @return true if the aggregator is full
+     */
+    public boolean isFull() {
+        return pendingArticles >= targetBatchSize || pendingBytes >= maxBytes;
+    }
+
+    /**
+     * This method returns how long the pending articles can still wait for other batches.
+     * @param now the current time, in milliseconds
+     * @return the remaining linger time in milliseconds, 0 if the pending articles must be flushed
+     */
+    public long getLingerRemaining(long now) {
+        if (isEmpty() || isFull()) {
+            return 0;
+        }
+        return Math.max(0, firstAddedMillis + lingerMillis - now);
+    }
+
+    /**
+     * Returns the pending articles, by label.
+     * @return the pending articles
+     */
+    public Map<String, List<Article>> getPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the position of the outbox after the pending batches.
+     * @return the end position of the pending batches
+     */
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    /**
+     * Returns the current target batch size.
+     * @return the target batch size, in articles
+     */
+    public int getTargetBatchSize() {
+        return targetBatchSize;
+    }
+
+    /**
+     * This method records a flush of the pending articles and adapts the target batch size.
+     * If the flush succeeded, the pending articles are cleared; otherwise they are kept to be flushed again.
+     * @param flushStart the time the flush started, in milliseconds
+     * @param flushEnd the time the flush ended, in milliseconds
+     * @param success true if all the articles were delivered
+     */
+    public void flushed(long flushStart, long flushEnd, boolean success) {
+        flushes.incrementAndGet();
+        batchSizes.record(pendingArticles);
+        lingerLatencies.record(flushStart - firstAddedMillis);
+        if (!success) {
+            failedFlushes.incrementAndGet();
+            targetBatchSize = Math.max(minBatchSize, targetBatchSize / 2);
+            return;
+        }
+        if (flushEnd - flushStart > targetLatencyMillis) {
+            // The sink is slow: halve the batches
+            targetBatchSize = Math.max(minBatchSize, targetBatchSize / 2);
+        } else if (pendingArticles >= targetBatchSize) {
+            // A full batch was fast enough: grow the batches
+            targetBatchSize = Math.min(maxBatchSize, targetBatchSize + Math.max(1, targetBatchSize / 4));
+        }
+        pending.clear();
+        pendingArticles = 0;
+        pendingBytes = 0;
+        endPosition = -1;
+    }
+
+    /**
+     * This method returns the target batch size, the distribution of the flushed batch sizes
+     * and of the latency added by the linger.
+     * @return a JSON object with the aggregator metrics
+     */
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("sink", sink);
+        stats.put("targetBatchSize", targetBatchSize);
+        stats.put("flushes", flushes.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        stats.put("batchSize", batchSizes.toJson(""));
+        stats.put("lingerLatencyMs", lingerLatencies.toJson("ms"));
+        return stats;
+    }
+
+    /**
+     * This class represents a lock-free histogram with fixed buckets.
+     */
+    private static final class Histogram {
+
+        private final long[] bounds;
+        // One counter per bucket, plus one for the samples above the last bucket
+        private final AtomicLongArray buckets;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        private void record(long value) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            total.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        private JSONObject toJson(String unit) {
+            long samples = count.get();
+            JSONObject histogram = new JSONObject();
+            histogram.put("count", samples);
+            histogram.put("mean", samples == 0 ? 0 : (double) total.get() / samples);
+            histogram.put("max", max.get());
+            JSONObject bucketCounts = new JSONObject();
+            for (int i = 0; i < bounds.length; i++) {
+                bucketCounts.put("le" + bounds[i] + unit, buckets.get(i));
+            }
+            bucketCounts.put("gt" + bounds[bounds.length - 1] + unit, buckets.get(bounds.length));
+            histogram.put("buckets", bucketCounts);
+            return histogram;
+        }
+    }
+}
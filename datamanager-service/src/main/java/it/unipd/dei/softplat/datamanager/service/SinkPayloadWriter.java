@@ -0,0 +1,144 @@
+/**
+ * SinkPayloadWriter.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+
+import it.unipd.dei.softplat.datamanager.model.Article;
+
+/**
+ * This class is intended to serialize the articles into the payloads of the sinks:
+ * the SaveArticleDTO of the MongoDB Service and the IndexArticleDTO of the Elasticsearch Service.
+ * The payload is written in a single pass with a streaming JSON generator, straight from the articles
+ * into the output stream (e.g., the request body), without intermediate JSON objects or strings.
+ */
+public final class SinkPayloadWriter {
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+        .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+        .build();
+
+    private SinkPayloadWriter() { }
+
+    /**
+     * This method formats the publication dates of the articles, once per article,
+     * so that they are not formatted again when a chunk is retried.
+     * @param articles
+     * @return the publication dates in ISO-8601 format, in the order of the articles
+     */
+    public static String[] formatDates(List<Article> articles) {
+        DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
+        String[] dates = new String[articles.size()];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = formatter.format(articles.get(i).getWebPublicationDate().toInstant());
+        }
+        return dates;
+    }
+
+    /**
+     * This method writes the payload of a sink with the articles in the range [from, to).
+     * @param sink the name of the sink (mongodb or elasticsearch)
+     * @param out the output stream, left open
+     * @param articles
+     * @param dates the formatted publication dates of the articles
+     * @param tokens the normalized tokens of the articles, written only in the MongoDB payload (null to omit them)
+     * @param from the index of the first article of the payload
+     * @param to the index after the last article of the payload
+     * @param collectionName
+     * @throws IOException if the payload cannot be written
+     */
+    public static void write(String sink, OutputStream out, List<Article> articles, String[] dates, String[][] tokens, int from, int to, String collectionName) throws IOException {
+        boolean mongodb = DataManagerService.MONGODB_SINK.equals(sink);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("articles");
+            for (int i = from; i < to; i++) {
+                if (mongodb) {
+                    writeMongoArticle(generator, articles.get(i), dates[i], tokens == null ? null : tokens[i]);
+                } else {
+                    writeElasticArticle(generator, articles.get(i), dates[i]);
+                }
+            }
+            generator.writeEndArray();
+            writeField(generator, "collectionName", collectionName);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * This method writes an article in the format of the MongoDB Service (MongoArticle).
+     * @param generator
+     * @param article
+     * @param date the formatted publication date
+     * @param tokens the normalized tokens of the body text, or null to omit them
+     * @throws IOException
+     */
+    private static void writeMongoArticle(JsonGenerator generator, Article article, String date, String[] tokens) throws IOException {
+        generator.writeStartObject();
+        writeField(generator, "id", article.getId());
+        writeField(generator, "type", article.getType());
+        writeField(generator, "sectionID", article.getSectionId());
+        writeField(generator, "sectionName", article.getSectionName());
+        writeField(generator, "webPublicationDate", date);
+        writeField(generator, "webTitle", article.getWebTitle());
+        writeField(generator, "webUrl", article.getWebUrl());
+        writeField(generator, "bodyText", article.getBodyText());
+        writeField(generator, "duplicateOf", article.getDuplicateOf());
+        if (tokens != null) {
+            generator.writeArrayFieldStart("tokens");
+            for (String token : tokens) {
+                generator.writeString(token);
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("tokenCount", tokens.length);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * This method writes an article in the format of the Elasticsearch Service (ElasticArticle).
+     * @param generator
+     * @param article
+     * @param date the formatted publication date
+     * @throws IOException
+     */
+    private static void writeElasticArticle(JsonGenerator generator, Article article, String date) throws IOException {
+        generator.writeStartObject();
+        writeField(generator, "id", article.getId());
+        writeField(generator, "issueString", article.getissueString());
+        writeField(generator, "label", article.getLabel());
+        writeField(generator, "type", article.getType());
+        writeField(generator, "webPublicationDate", date);
+        writeField(generator, "webTitle", article.getWebTitle());
+        writeField(generator, "bodyText", article.getBodyText());
+        writeField(generator, "duplicateOf", article.getDuplicateOf());
+        generator.writeEndObject();
+    }
+
+    /**
+     * This method writes a string field, omitting it if the value is null.
+     * @param generator
+     * @param name
+     * @param value
+     * @throws IOException
+     */
+    private static void writeField(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * TextFeatureExtractor.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.datamanager.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import it.unipd.dei.softplat.datamanager.model.Article;
+
+/**
+ * This class is intended to compute the text features of the articles once, at ingestion time,
+ * so that they are stored with the article and not computed again for every topic query.
+ * The body text is normalized as the pipeline of the Mallet Service does:
+ * it is lowercased, split into tokens with the same regular expression
+ * and the stopwords of the same stoplist are removed.
+ */
+public final class TextFeatureExtractor {
+
+    // The same tokenizer of the Mallet Service (CharSequence2TokenSequence)
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("\\p{L}[\\p{L}\\p{P}]+\\p{L}");
+    // The stoplist file is from https://github.com/mimno/Mallet/blob/master/stoplists/en.txt, as in the Mallet Service
+    private static final Set<String> STOPWORDS = loadStopwords("/stopwords_en.txt");
+
+    private TextFeatureExtractor() { }
+
+    /**
+     * This method computes the normalized tokens of the body text of each article.
+     * @param articles
+     * @return the tokens of the articles, in the order of the articles
+     */
+    public static String[][] extractTokens(List<Article> articles) {
+        String[][] tokens = new String[articles.size()][];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = tokenize(articles.get(i).getBodyText());
+        }
+        return tokens;
+    }
+
+    /**
+     * This method lowercases a text, splits it into tokens and removes the stopwords.
+     * @param text
+     * @return the normalized tokens, empty if the text is null
+     */
+    public static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN_PATTERN.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            String token = matcher.group();
+            if (!STOPWORDS.contains(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * This method loads the stopwords from a classpath resource, one or more per line.
+     * @param resource the path of the stoplist in the classpath
+     * @return the set of the stopwords
+     */
+    private static Set<String> loadStopwords(String resource) {
+        Set<String> stopwords = new HashSet<>();
+        try (InputStream in = TextFeatureExtractor.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Stopwords file not found in classpath!");
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                for (String word : line.trim().split("\\s+")) {
+                    if (!word.isEmpty()) {
+                        stopwords.add(word.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error loading the stopwords file: " + e.getMessage(), e);
+        }
+        return stopwords;
+    }
+}
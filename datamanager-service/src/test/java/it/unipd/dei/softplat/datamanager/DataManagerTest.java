@@ -8,19 +8,37 @@
 
 package it.unipd.dei.softplat.datamanager;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -28,17 +46,32 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.web.client.ResourceAccessException;
 
 import it.unipd.dei.softplat.datamanager.controller.DataManagerController;
 import it.unipd.dei.softplat.datamanager.model.Article;
+import it.unipd.dei.softplat.datamanager.model.DeliveryResult;
+import it.unipd.dei.softplat.datamanager.service.DataManagerService;
+import it.unipd.dei.softplat.datamanager.service.IngestionLimiter;
+import it.unipd.dei.softplat.datamanager.service.NearDuplicateDetector;
+import it.unipd.dei.softplat.datamanager.service.OutboxLog;
+import it.unipd.dei.softplat.datamanager.service.OutboxService;
+import it.unipd.dei.softplat.datamanager.service.SeenArticleFilter;
+import it.unipd.dei.softplat.datamanager.service.SinkAggregator;
+import it.unipd.dei.softplat.datamanager.service.SinkPayloadWriter;
+import it.unipd.dei.softplat.datamanager.service.TextFeatureExtractor;
 import it.unipd.dei.softplat.http.service.HttpClientService;
 import it.unipd.dei.softplat.testutil.TestAsyncConfig;
 
 /**
- * This class contains unit tests for the DataManagerController.
- * It tests the getArticles method and the validation of the Article object.
+ * This class contains the tests of the Data Manager Service.
+ * It tests the saving of the articles through the DataManagerController and the DataManagerService,
+ * the outbox, the filters of the duplicate and near-duplicate articles, the aggregation, the limits
+ * and the serialization of the batches sent to the sinks, the text features and the Article object.
  */
-@SpringBootTest
+@SpringBootTest(properties = {"data.outbox.dir=target/outbox-${random.uuid}", "data.seen.snapshot=target/seen-${random.uuid}.bin",
+    "data.neardup.snapshot=target/neardup-${random.uuid}.bin"})
 @Import(TestAsyncConfig.class)
 public class DataManagerTest {
 
@@ -48,6 +81,12 @@ public class DataManagerTest {
     @Autowired @InjectMocks
     private DataManagerController controller_test;
 
+    @Autowired
+    private DataManagerService dataService;
+
+    @Autowired
+    private OutboxService outboxService;
+
     /**
      * This test method is intended to test the saveArticles method of the DataManagerController.
      * It creates a valid and an invalid ArticleTopics object and calls the saveArticles method.
@@ -58,12 +97,12 @@ public class DataManagerTest {
         // Mock configuration for MongoDB and ElasticSearch services
         when(httpClientService.postRequest(
                 eq("http://mongodb-service:8085/mongodb/save/"),
-                anyString()
+                any(StreamingHttpOutputMessage.Body.class)
             )
         ).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
         when(httpClientService.postRequest(
                 eq("http://elasticsearch-service:8083/elastic/index/"),
-                anyString()
+                any(StreamingHttpOutputMessage.Body.class)
             )
         ).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
 
@@ -90,9 +129,9 @@ public class DataManagerTest {
         assertNotNull(response, "Response should not be null");
         assertEquals(HttpStatus.OK, response.getStatusCode(), "Response should have status code 200 OK");
 
-        // Verify that the postRequest methods of DataManagerService was called with the correct parameters
-        verify(httpClientService).postRequest(eq("http://mongodb-service:8085/mongodb/save/"), anyString());
-        verify(httpClientService).postRequest(eq("http://elasticsearch-service:8083/elastic/index/"), anyString());
+        // Verify that the outbox senders called the postRequest method with the correct parameters
+        verify(httpClientService, timeout(10000)).postRequest(eq("http://mongodb-service:8085/mongodb/save/"), any(StreamingHttpOutputMessage.Body.class));
+        verify(httpClientService, timeout(10000)).postRequest(eq("http://elasticsearch-service:8083/elastic/index/"), any(StreamingHttpOutputMessage.Body.class));
 
         // Example of an invalid ArticleTopics object
         List<Article> emptyArticleList = new ArrayList<>();
@@ -112,6 +151,500 @@ public class DataManagerTest {
         assertEquals(HttpStatus.BAD_REQUEST, null_response.getStatusCode(), "Response should have status code 400 Bad Request");
     }
 
+    /**
+     * This test method is intended to test the delivery of a list of articles larger than the batch size.
+     * It stores a list of articles split in several chunks and checks that every article
+     * is delivered to both sinks.
+     */
+    @Test
+    public void testStoringArticlesInChunks() {
+        // Mock configuration for MongoDB and ElasticSearch services
+        when(httpClientService.postRequest(eq("http://mongodb-service:8085/mongodb/save/"), any(StreamingHttpOutputMessage.Body.class)))
+            .thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+        when(httpClientService.postRequest(eq("http://elasticsearch-service:8083/elastic/index/"), any(StreamingHttpOutputMessage.Body.class)))
+            .thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+
+        List<Article> articles = new ArrayList<>();
+        for (int i = 0; i < 95; i++) {
+            Article article = new Article();
+            article.setId("chunk-id-" + i);
+            article.setissueString("test issue query");
+            article.setLabel("test label");
+            article.setType("test type");
+            article.setWebPublicationDate(new Date());
+            article.setWebTitle("Test Web Title " + i);
+            article.setBodyText("This is the test body text of the article " + i + ".");
+            articles.add(article);
+        }
+
+        for (String sink : List.of(DataManagerService.MONGODB_SINK, DataManagerService.ELASTICSEARCH_SINK)) {
+            DeliveryResult result = dataService.deliver(sink, articles);
+            assertEquals(95, result.getDelivered(), "All articles should be delivered to " + sink);
+            assertEquals(0, result.getFailed(), "No articles should fail for " + sink);
+        }
+    }
+
+    /**
+     * This test method is intended to test that the sinks are delivered independently.
+     * It blocks the ElasticSearch requests and checks that the articles are still delivered to MongoDB,
+     * then makes ElasticSearch unreachable and checks the same, and finally restores ElasticSearch
+     * and checks that it receives the remaining articles from the outbox.
+     * @throws Exception
+     */
+    @Test
+    public void testIndependentSinks() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        when(httpClientService.postRequest(eq("http://mongodb-service:8085/mongodb/save/"), any(StreamingHttpOutputMessage.Body.class)))
+            .thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+        when(httpClientService.postRequest(eq("http://elasticsearch-service:8083/elastic/index/"), any(StreamingHttpOutputMessage.Body.class)))
+            .thenAnswer(invocation -> {
+                released.await(30, TimeUnit.SECONDS);
+                return new ResponseEntity<>("ok", HttpStatus.OK);
+            });
+        long mongodbStart = deliveredArticles(DataManagerService.MONGODB_SINK);
+        long elasticsearchStart = deliveredArticles(DataManagerService.ELASTICSEARCH_SINK);
+
+        try {
+            // A slow sink: MongoDB receives the articles while ElasticSearch is still blocked
+            assertTrue(outboxService.append(independentArticles("slow", 20)), "The batch should be stored");
+            assertEquals(mongodbStart + 20, waitForDelivered(DataManagerService.MONGODB_SINK, mongodbStart + 20, 10000),
+                "MongoDB should receive the articles while ElasticSearch is blocked");
+            assertEquals(elasticsearchStart, deliveredArticles(DataManagerService.ELASTICSEARCH_SINK),
+                "ElasticSearch should not have received the articles yet");
+
+            // The blocked request completes, then ElasticSearch becomes unreachable
+            when(httpClientService.postRequest(eq("http://elasticsearch-service:8083/elastic/index/"), any(StreamingHttpOutputMessage.Body.class)))
+                .thenThrow(new ResourceAccessException("Connection refused"));
+            released.countDown();
+            assertEquals(elasticsearchStart + 20, waitForDelivered(DataManagerService.ELASTICSEARCH_SINK, elasticsearchStart + 20, 10000),
+                "ElasticSearch should receive the articles of the blocked request");
+
+            // A failing sink: MongoDB still receives the new articles
+            assertTrue(outboxService.append(independentArticles("failing", 30)), "The batch should be stored");
+            assertEquals(mongodbStart + 50, waitForDelivered(DataManagerService.MONGODB_SINK, mongodbStart + 50, 10000),
+                "MongoDB should receive the articles while ElasticSearch is failing");
+            assertEquals(elasticsearchStart + 20, deliveredArticles(DataManagerService.ELASTICSEARCH_SINK),
+                "ElasticSearch should not have received the new articles");
+        } finally {
+            released.countDown();
+            // Restore ElasticSearch, so that it delivers the pending batches from the outbox
+            when(httpClientService.postRequest(eq("http://elasticsearch-service:8083/elastic/index/"), any(StreamingHttpOutputMessage.Body.class)))
+                .thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+        }
+        assertEquals(elasticsearchStart + 50, waitForDelivered(DataManagerService.ELASTICSEARCH_SINK, elasticsearchStart + 50, 30000),
+            "ElasticSearch should receive all the articles after recovering");
+    }
+
+    /**
+     * This method builds a list of articles with distinct identifiers.
+     * @param prefix the prefix of the identifiers
+     * @param count the number of articles
+     * @return the articles
+     */
+    private static List<Article> independentArticles(String prefix, int count) {
+        List<Article> articles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            articles.add(newsArticle("independent-" + prefix + "-" + i, "test label", "This is the test body text of the article " + i + "."));
+        }
+        return articles;
+    }
+
+    /**
+     * This method returns the number of articles delivered by the outbox to a sink.
+     * @param sink
+     * @return the number of delivered articles
+     */
+    private long deliveredArticles(String sink) {
+        return outboxService.getStats().getJSONObject("sinks").getJSONObject(sink).getLong("deliveredArticles");
+    }
+
+    /**
+     * This method waits until the outbox has delivered at least the expected number of articles to a sink.
+     * @param sink
+     * @param expected the number of delivered articles to wait for
+     * @param timeoutMillis the maximum time to wait
+     * @return the number of delivered articles when the wait ends
+     * @throws InterruptedException
+     */
+    private long waitForDelivered(String sink, long expected, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (deliveredArticles(sink) < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        return deliveredArticles(sink);
+    }
+
+    /**
+     * This test method is intended to test the outbox log.
+     * It appends records spanning several segments, reopens the log and checks that
+     * the records are read again from the cursor, and that the consumed segments are deleted.
+     * @param directory a temporary directory for the log
+     * @throws IOException
+     */
+    @Test
+    public void testOutboxLog(@TempDir Path directory) throws IOException {
+        byte[] record = new byte[100];
+        try (OutboxLog outboxLog = new OutboxLog(directory, 512, true)) {
+            outboxLog.openCursor("test");
+            for (int i = 0; i < 10; i++) {
+                record[0] = (byte) i;
+                outboxLog.append(record);
+            }
+            assertTrue(outboxLog.getSegmentCount() > 1, "The records should span several segments");
+        }
+
+        // Reopen the log: the records are still there
+        try (OutboxLog outboxLog = new OutboxLog(directory, 512, true)) {
+            long position = outboxLog.openCursor("test");
+            for (int i = 0; i < 5; i++) {
+                OutboxLog.Entry entry = outboxLog.read(position);
+                assertNotNull(entry, "Record " + i + " should be read");
+                assertEquals(i, entry.getPayload()[0], "Records should be read in order");
+                position = entry.getNextPosition();
+            }
+            outboxLog.commitCursor("test", position);
+            assertTrue(outboxLog.bytesAfter(position) >= 5 * 108, "The records not consumed should be pending");
+        }
+
+        // Reopen the log: the cursor starts after the consumed records
+        try (OutboxLog outboxLog = new OutboxLog(directory, 512, true)) {
+            long position = outboxLog.openCursor("test");
+            int count = 0;
+            OutboxLog.Entry entry;
+            while ((entry = outboxLog.read(position)) != null) {
+                assertEquals(5 + count, entry.getPayload()[0], "Records should be read in order");
+                position = entry.getNextPosition();
+                count++;
+            }
+            assertEquals(5, count, "Only the records not consumed should be read");
+            outboxLog.commitCursor("test", position);
+            assertEquals(1, outboxLog.getSegmentCount(), "The consumed segments should be deleted");
+            assertEquals(0, outboxLog.bytesAfter(position), "No bytes should be pending");
+        }
+    }
+
+    /**
+     * This test method is intended to test the seen article filter.
+     * It filters the same batch twice and checks that the second time the articles are dropped,
+     * unless their content changed, and that the filter is restored from its snapshot.
+     * @param directory a temporary directory for the snapshot
+     */
+    @Test
+    public void testSeenArticleFilter(@TempDir Path directory) {
+        String snapshot = directory.resolve("seen.bin").toString();
+        SeenArticleFilter filter = new SeenArticleFilter(snapshot, 100, 0);
+        List<Article> articles = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            articles.add(new Article("seen-id-" + i, "test issue query", "test label", "test type", "test section id",
+                "test section name", new Date(), "Test Web Title " + i, "https://example.com/test-article", "Body text " + i));
+        }
+        assertEquals(10, filter.filter(articles).size(), "New articles should pass the filter");
+        assertEquals(0, filter.filter(articles).size(), "Articles already received should be dropped");
+
+        // An article with a changed body passes again
+        articles.get(0).setBodyText("Updated body text");
+        assertEquals(1, filter.filter(articles).size(), "Only the changed article should pass the filter");
+        assertEquals(19.0 / 30.0, filter.getStats().getDouble("dedupRatio"), 1e-9, "The dedup ratio should be 19/30");
+
+        // The filter is restored from the snapshot
+        filter.close();
+        SeenArticleFilter restored = new SeenArticleFilter(snapshot, 100, 0);
+        assertEquals(0, restored.filter(articles).size(), "Articles seen before the restart should be dropped");
+    }
+
+    /**
+     * This test method is intended to test the near-duplicate detector.
+     * It indexes distinct articles and prints the throughput, then checks a labeled sample:
+     * slightly edited copies must be detected, while articles sharing only part of the text (as the updates
+     * of a live blog) must not. It prints the recall and the false-positive rate, and checks the snapshot.
+     * The number of distinct articles can be set with -Dneardup.articles (10000 by default, so the test stays short
+     * in the build; 100000 to measure the throughput on a large index).
+     * @param directory
+     */
+    @Test
+    public void testNearDuplicateDetector(@TempDir Path directory) {
+        String snapshot = directory.resolve("neardup.bin").toString();
+        NearDuplicateDetector detector = new NearDuplicateDetector(NearDuplicateDetector.MODE_DROP, 0.8, 64, 16, 100_000, snapshot, 0);
+        Random random = new Random(42);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder("w");
+            for (int j = 0; j < 3 + random.nextInt(6); j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = word.toString();
+        }
+
+        // Throughput on distinct articles, in batches of 100
+        int total = Integer.getInteger("neardup.articles", 10_000);
+        int kept = 0;
+        long elapsed = 0;
+        for (int from = 0; from < total; from += 100) {
+            List<Article> batch = new ArrayList<>(100);
+            for (int i = from; i < from + 100; i++) {
+                batch.add(newsArticle("bulk-id-" + i, "bulk label", randomWords(random, vocabulary, 150)));
+            }
+            long start = System.nanoTime();
+            kept += detector.filter(batch).size();
+            elapsed += System.nanoTime() - start;
+        }
+        System.out.println("Near-duplicate detection: " + total + " articles in " + (elapsed / 1_000_000) + " ms, "
+            + (total * 1_000_000_000L / elapsed) + " articles/s, " + (total - kept) + " false positives");
+        assertTrue(total - kept <= total / 1000, "Distinct articles should almost never be detected as near-duplicates");
+
+        // Labeled sample: 500 originals, 500 near-duplicates (2 words changed), 500 related articles (half of the text changed)
+        List<String> originals = new ArrayList<>();
+        List<Article> sample = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String text = randomWords(random, vocabulary, 150);
+            originals.add(text);
+            sample.add(newsArticle("original-id-" + i, "sample label", text));
+        }
+        assertEquals(500, detector.filter(sample).size(), "The originals should not be near-duplicates");
+        int detected = 0;
+        int falsePositives = 0;
+        for (int i = 0; i < 500; i++) {
+            String[] words = originals.get(i).split(" ");
+            for (int j = 0; j < 2; j++) {
+                words[random.nextInt(words.length)] = vocabulary[random.nextInt(vocabulary.length)];
+            }
+            detected += 1 - detector.filter(List.of(newsArticle("copy-id-" + i, "sample label", String.join(" ", words)))).size();
+            String[] related = originals.get(i).split(" ");
+            String update = randomWords(random, vocabulary, 75);
+            String text = String.join(" ", List.of(related).subList(0, 75)) + " " + update;
+            falsePositives += 1 - detector.filter(List.of(newsArticle("update-id-" + i, "sample label", text))).size();
+        }
+        System.out.println("Near-duplicate detection on the labeled sample: recall " + (detected / 500.0)
+            + ", false-positive rate " + (falsePositives / 500.0));
+        assertTrue(detected >= 475, "At least 95% of the near-duplicates should be detected");
+        assertTrue(falsePositives <= 5, "At most 1% of the related articles should be detected as near-duplicates");
+
+        // The index is restored from the snapshot, and other labels are independent
+        detector.close();
+        NearDuplicateDetector restored = new NearDuplicateDetector(NearDuplicateDetector.MODE_MARK, 0.8, 64, 16, 100_000, snapshot, 0);
+        Article copy = newsArticle("restored-copy-id", "sample label", originals.get(0));
+        assertEquals(1, restored.filter(List.of(copy)).size(), "A near-duplicate should be kept in mark mode");
+        assertEquals("original-id-0", copy.getDuplicateOf(), "The near-duplicate should be marked with the original ID");
+        Article otherLabel = newsArticle("other-label-id", "other label", originals.get(0));
+        restored.filter(List.of(otherLabel));
+        assertNull(otherLabel.getDuplicateOf(), "Articles of other labels should not be compared");
+    }
+
+    /**
+     * This method builds an article with the given body text.
+     * @param id
+     * @param label
+     * @param bodyText
+     * @return the article
+     */
+    private static Article newsArticle(String id, String label, String bodyText) {
+        return new Article(id, "test issue query", label, "test type", "test section id",
+            "test section name", new Date(), "Test Web Title", "https://example.com/test-article", bodyText);
+    }
+
+    /**
+     * This method builds a text of random words of a vocabulary.
+     * @param random
+     * @param vocabulary
+     * @param length the number of words
+     * @return the text
+     */
+    private static String randomWords(Random random, String[] vocabulary, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(vocabulary[random.nextInt(vocabulary.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * This test method is intended to test the micro-batching aggregator of a sink.
+     * It checks that the batches are coalesced by label until the target size or the linger time,
+     * and that the target size grows after fast flushes and is halved after a slow one.
+     */
+    @Test
+    public void testSinkAggregator() {
+        SinkAggregator aggregator = new SinkAggregator("test", 10, 40, 1_000_000, 200, 1000);
+        assertTrue(aggregator.isEmpty(), "The aggregator should start empty");
+        List<Article> batch = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Article article = new Article();
+            article.setId("aggregated-id-" + i);
+            article.setLabel(i % 2 == 0 ? "label a" : "label b");
+            batch.add(article);
+        }
+
+        // A small batch waits for the linger time
+        aggregator.add(batch, 100, 1, 0);
+        assertEquals(200, aggregator.getLingerRemaining(0), "A small batch should wait for other batches");
+        assertEquals(0, aggregator.getLingerRemaining(250), "The linger time should be over");
+        // A second batch fills the aggregator
+        aggregator.add(batch, 100, 2, 50);
+        assertTrue(aggregator.isFull(), "The aggregator should be full with 12 articles");
+        assertEquals(2, aggregator.getPending().size(), "The articles should be grouped by label");
+        assertEquals(6, aggregator.getPending().get("label a").size(), "Half of the articles should have label a");
+        assertEquals(2, aggregator.getEndPosition(), "The end position should follow the last batch");
+
+        // A fast flush of a full batch grows the target size
+        aggregator.flushed(100, 150, true);
+        assertTrue(aggregator.isEmpty(), "The aggregator should be empty after a flush");
+        assertEquals(12, aggregator.getTargetBatchSize(), "The target size should grow by a quarter");
+        // A slow flush halves it, down to the minimum
+        aggregator.add(batch, 100, 3, 200);
+        aggregator.flushed(200, 2000, true);
+        assertEquals(10, aggregator.getTargetBatchSize(), "The target size should not go below the minimum");
+        assertEquals(2, aggregator.getStats().getLong("flushes"), "Two flushes should be recorded");
+    }
+
+    /**
+     * This test method is intended to test the limits of the ingestion backlog.
+     * It fills the backlog by number of articles and by body size, and checks that the batches
+     * are rejected until the backlog is released, also when the backlog replayed after a restart exceeds the limits.
+     */
+    @Test
+    public void testIngestionLimiter() {
+        IngestionLimiter limiter = new IngestionLimiter(100, 10_000);
+        assertTrue(limiter.tryAcquire(60, 1000), "The first batch should be accepted");
+        assertFalse(limiter.tryAcquire(60, 1000), "A batch above the article limit should be rejected");
+        assertFalse(limiter.tryAcquire(10, 9500), "A batch above the body size limit should be rejected");
+        assertTrue(limiter.tryAcquire(40, 1000), "A batch within the limits should be accepted");
+        assertEquals(1.0, limiter.getStats().getDouble("articleUtilization"), 1e-9, "The backlog should be full");
+        assertEquals(2, limiter.getStats().getLong("rejectedBatches"), "Two batches should be rejected");
+        long retryAfter = limiter.getRetryAfterSeconds();
+        assertTrue(retryAfter >= 1 && retryAfter <= 60, "Retry-After should be between 1 and 60 seconds");
+
+        // Releasing the backlog accepts new batches, and a batch larger than the limits is accepted when empty
+        limiter.release(100, 2000);
+        assertTrue(limiter.tryAcquire(500, 50_000), "A large batch should be accepted when the backlog is empty");
+        assertFalse(limiter.tryAcquire(1, 1), "The backlog should be full after a large batch");
+
+        // The batches replayed after a restart are counted even above the limits
+        IngestionLimiter replayed = new IngestionLimiter(100, 10_000);
+        replayed.forceAcquire(80, 1000);
+        replayed.forceAcquire(80, 1000);
+        assertEquals(1.6, replayed.getStats().getDouble("articleUtilization"), 1e-9, "Both replayed batches should be counted");
+        assertFalse(replayed.tryAcquire(1, 1), "New batches should be rejected until the replayed backlog drains");
+        replayed.release(160, 2000);
+        assertTrue(replayed.tryAcquire(1, 1), "New batches should be accepted once the replayed backlog drains");
+    }
+
+    /**
+     * This test method is intended to measure the serialization of the articles into the sink payloads.
+     * It writes the payloads of 2000 articles with the streaming writer and with JSON objects (the previous approach),
+     * checks that they contain the same articles, and prints the throughput and the bytes allocated per article.
+     * @throws IOException
+     */
+    @Test
+    public void testSinkPayloadSerialization() throws IOException {
+        List<Article> articles = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 5000) {
+            body.append("The quick brown fox jumps over the lazy dog, \"quoted\" and accented \u00e8 text. ");
+        }
+        for (int i = 0; i < 2000; i++) {
+            Article article = new Article("serial-id-" + i, "test issue query", "test label", "test type", "test section id",
+                "test section name", new Date(), "Test Web Title " + i, "https://example.com/test-article", body.toString());
+            articles.add(article);
+        }
+        String[] dates = SinkPayloadWriter.formatDates(articles);
+
+        // Both approaches must produce the same payload
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SinkPayloadWriter.write(DataManagerService.ELASTICSEARCH_SINK, out, articles, dates, null, 0, 10, "test label");
+        JSONObject streamed = new JSONObject(out.toString(StandardCharsets.UTF_8));
+        JSONObject built = new JSONObject(buildPayload(articles.subList(0, 10), "test label"));
+        assertTrue(streamed.similar(built), "The streamed payload should match the JSON object payload");
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        OutputStream sink = OutputStream.nullOutputStream();
+        long streamingBytes = 0;
+        long objectBytes = 0;
+        // The first round warms up the JIT
+        for (int round = 0; round < 3; round++) {
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int from = 0; from < articles.size(); from += 100) {
+                SinkPayloadWriter.write(DataManagerService.ELASTICSEARCH_SINK, sink, articles, dates, null, from, from + 100, "test label");
+            }
+            long streamingNanos = System.nanoTime() - start;
+            streamingBytes = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+            allocated = threads.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            for (int from = 0; from < articles.size(); from += 100) {
+                sink.write(buildPayload(articles.subList(from, from + 100), "test label").getBytes(StandardCharsets.UTF_8));
+            }
+            long objectNanos = System.nanoTime() - start;
+            objectBytes = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+            System.out.println("Serialization round " + round + ": streaming " + (articles.size() * 1_000_000_000L / streamingNanos) + " articles/s, "
+                + (streamingBytes / articles.size()) + " bytes/article; JSON objects " + (articles.size() * 1_000_000_000L / objectNanos)
+                + " articles/s, " + (objectBytes / articles.size()) + " bytes/article");
+        }
+        assertTrue(streamingBytes < objectBytes, "The streaming writer should allocate less than the JSON objects");
+    }
+
+    /**
+     * This test method is intended to test the text features computed at ingestion time.
+     * It checks that the tokens are lowercased and stopword-filtered as in the Mallet Service,
+     * and that they are written only in the MongoDB payload, with the token count.
+     * @throws IOException
+     */
+    @Test
+    public void testTextFeatures() throws IOException {
+        String[] tokens = TextFeatureExtractor.tokenize("The Government's new plan: it was announced in London, a 10-year well-being strategy!");
+        assertArrayEquals(new String[] {"government's", "plan", "announced", "london", "year", "well-being", "strategy"}, tokens,
+            "The tokens should be lowercased and without stopwords");
+        assertEquals(0, TextFeatureExtractor.tokenize(null).length, "A null text should have no tokens");
+
+        List<Article> articles = new ArrayList<>();
+        articles.add(new Article("features-id", "test issue query", "test label", "test type", "test section id",
+            "test section name", new Date(), "Test Web Title", "https://example.com/test-article", "Climate change and the economy."));
+        String[] dates = SinkPayloadWriter.formatDates(articles);
+        String[][] articleTokens = TextFeatureExtractor.extractTokens(articles);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SinkPayloadWriter.write(DataManagerService.MONGODB_SINK, out, articles, dates, articleTokens, 0, 1, "test label");
+        JSONObject mongoArticle = new JSONObject(out.toString(StandardCharsets.UTF_8)).getJSONArray("articles").getJSONObject(0);
+        assertEquals(new JSONArray(List.of("climate", "change", "economy")).toString(), mongoArticle.getJSONArray("tokens").toString());
+        assertEquals(3, mongoArticle.getInt("tokenCount"));
+
+        out.reset();
+        SinkPayloadWriter.write(DataManagerService.ELASTICSEARCH_SINK, out, articles, dates, null, 0, 1, "test label");
+        JSONObject elasticArticle = new JSONObject(out.toString(StandardCharsets.UTF_8)).getJSONArray("articles").getJSONObject(0);
+        assertFalse(elasticArticle.has("tokens"), "The Elasticsearch payload should not contain the tokens");
+    }
+
+    /**
+     * This method builds the Elasticsearch payload of the articles with JSON objects,
+     * as the DataManagerService did before the streaming writer.
+     * @param articles
+     * @param collectionName
+     * @return the payload
+     */
+    private static String buildPayload(List<Article> articles, String collectionName) {
+        DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
+        List<JSONObject> elasticArticles = new ArrayList<>();
+        for (Article article : articles) {
+            JSONObject elArticle = new JSONObject();
+            elArticle.put("id", article.getId());
+            elArticle.put("issueString", article.getissueString());
+            elArticle.put("label", article.getLabel());
+            elArticle.put("type", article.getType());
+            elArticle.put("webPublicationDate", formatter.format(article.getWebPublicationDate().toInstant()));
+            elArticle.put("webTitle", article.getWebTitle());
+            elArticle.put("bodyText", article.getBodyText());
+            elasticArticles.add(elArticle);
+        }
+        JSONObject indexArticleDTO = new JSONObject();
+        indexArticleDTO.put("articles", new JSONArray(elasticArticles));
+        indexArticleDTO.put("collectionName", collectionName);
+        return indexArticleDTO.toString();
+    }
+
     /**
      * This test method is intended to test the validation of the Article object.
      * It checks all the getters and setters of the Article class.
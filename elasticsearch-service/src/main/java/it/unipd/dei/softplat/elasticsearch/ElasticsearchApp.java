@@ -14,6 +14,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.web.client.RestTemplate;
 
+import it.unipd.dei.softplat.http.service.HttpClientService;
+
 /**
  * This class is intended to start the Elasticsearch Service application.
  */
@@ -23,7 +25,7 @@ public class ElasticsearchApp {
 
     @Bean
     public RestTemplate restTemplate() {
-        return new RestTemplate();
+        return HttpClientService.createRestTemplate();
     }
  
     public static void main(String[] args) {
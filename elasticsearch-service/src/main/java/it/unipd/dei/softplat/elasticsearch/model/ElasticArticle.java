@@ -33,6 +33,8 @@ public class ElasticArticle {
     private String webTitle;
     @NotNull @NotEmpty
     private String bodyText;
+    // The ID of the original article, if the Data Manager marked the article as a near-duplicate
+    private String duplicateOf;
 
     /**
      * Default constructor for ElasticArticle.
@@ -177,4 +179,20 @@ public class ElasticArticle {
         this.bodyText = bodyText;
     }
 
+
+    /**
+     * Returns the ID of the article this article is a near-duplicate of.
+     * @return the ID of the original article, or null if the article is not a near-duplicate
+     */
+    public String getDuplicateOf() {
+        return this.duplicateOf;
+    }
+
+    /**
+     * Sets the ID of the article this article is a near-duplicate of.
+     * @param duplicateOf
+     */
+    public void setDuplicateOf(String duplicateOf) {
+        this.duplicateOf = duplicateOf;
+    }
 }
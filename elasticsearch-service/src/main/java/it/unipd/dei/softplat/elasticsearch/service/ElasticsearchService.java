@@ -189,6 +189,10 @@ public class ElasticsearchService {
                                 );
                                 logger.info("Using multi-match query for: " + query);
                             }
+                            // The near-duplicates marked by the Data Manager are kept out of the results (and of the topic models)
+                            b.mustNot(mn -> mn
+                                .exists(e -> e.field("duplicateOf"))
+                            );
                             if (startDate != null || endDate != null) {
                                 b.filter(f -> f
                                     .range(r -> {
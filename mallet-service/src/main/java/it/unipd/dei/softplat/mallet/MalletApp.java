@@ -13,6 +13,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.web.client.RestTemplate;
 
+import it.unipd.dei.softplat.http.service.HttpClientService;
+
 /**
  * This class is intended to start the Mallet Service application.
  */
@@ -22,7 +24,7 @@ public class MalletApp {
     
     @Bean
     public RestTemplate restTemplate() {
-        return new RestTemplate();
+        return HttpClientService.createRestTemplate();
     }
 
     public static void main(String[] args) {
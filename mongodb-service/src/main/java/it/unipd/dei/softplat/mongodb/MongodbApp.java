@@ -10,12 +10,19 @@
 
 package it.unipd.dei.softplat.mongodb;
 
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.web.client.RestTemplate;
 
+import it.unipd.dei.softplat.mongodb.service.MongodbMetricsService;
+import it.unipd.dei.softplat.http.service.HttpClientService;
+
 /**
  * This class is intended to start the MongoDB Service application.
  */
@@ -25,9 +32,37 @@ public class MongodbApp {
 
     @Bean
     public RestTemplate restTemplate() {
-        return new RestTemplate();
+        return HttpClientService.createRestTemplate();
     } 
 
+    /**
+     * Registers the metrics listeners on the MongoClient and configures its connection pool.
+     * The driver has no wait queue size limit: the wait is bounded by the maximum wait time,
+     * and the maximum number of connections being established at the same time is configurable.
+     * @param metricsService the listener recording the command and pool metrics
+     * @param maxPoolSize the maximum number of connections of the pool
+     * @param minPoolSize the minimum number of connections kept open
+     * @param maxWaitTime the maximum time (ms) to wait for a connection before failing
+     * @param maxConnecting the maximum number of connections being established concurrently
+     * @return the customizer of the MongoClient settings
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoClientSettingsCustomizer(
+            MongodbMetricsService metricsService,
+            @Value("${mongodb.pool.max.size:100}") int maxPoolSize,
+            @Value("${mongodb.pool.min.size:0}") int minPoolSize,
+            @Value("${mongodb.pool.max.wait.time:120000}") long maxWaitTime,
+            @Value("${mongodb.pool.max.connecting:2}") int maxConnecting) {
+        return settings -> settings
+                .addCommandListener(metricsService)
+                .applyToConnectionPoolSettings(pool -> pool
+                        .maxSize(maxPoolSize)
+                        .minSize(minPoolSize)
+                        .maxWaitTime(maxWaitTime, TimeUnit.MILLISECONDS)
+                        .maxConnecting(maxConnecting)
+                        .addConnectionPoolListener(metricsService));
+    }
+
     public static void main(String[] args) {
         SpringApplication.run(MongodbApp.class, args);
         System.out.println("MongoDB Service is running...");
@@ -9,23 +9,37 @@
 
 package it.unipd.dei.softplat.mongodb.controller;
 
+import java.util.Date;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 import jakarta.validation.Valid;
 
 import it.unipd.dei.softplat.mongodb.model.MongoArticle;
+import it.unipd.dei.softplat.mongodb.model.SaveResult;
+import it.unipd.dei.softplat.mongodb.service.BodyCompressionService;
+import it.unipd.dei.softplat.mongodb.service.MongodbMetricsService;
 import it.unipd.dei.softplat.mongodb.service.MongodbService;
+import it.unipd.dei.softplat.mongodb.service.MongodbWriteLimiter;
 
 import it.unipd.dei.softplat.mongodb.dto.SearchArticleDTO;
+import it.unipd.dei.softplat.mongodb.dto.QueryArticleDTO;
+import it.unipd.dei.softplat.mongodb.dto.MigrateBodyDTO;
+import it.unipd.dei.softplat.mongodb.dto.DropCollectionDTO;
 import it.unipd.dei.softplat.mongodb.dto.SaveArticleDTO;
+import it.unipd.dei.softplat.mongodb.dto.ExistingIdsDTO;
 
 /**
  * This class is intended to handle requests related to MongoDB operations.
@@ -35,6 +49,9 @@ import it.unipd.dei.softplat.mongodb.dto.SaveArticleDTO;
 public class MongodbController {
  
     private final MongodbService mongodbService;
+    private final BodyCompressionService bodyCompressionService;
+    private final MongodbMetricsService mongodbMetricsService;
+    private final MongodbWriteLimiter mongodbWriteLimiter;
 
     // For logging
     private static final Logger logger = LogManager.getLogger(MongodbController.class);
@@ -42,10 +59,16 @@ public class MongodbController {
     /**
      * Default constructor for MongodbController.
      * @param mongodbService The service to handle MongoDB operations.
+     * @param bodyCompressionService The service to handle the storage mode of the body text.
+     * @param mongodbMetricsService The service collecting the MongoDB driver metrics.
+     * @param mongodbWriteLimiter The limiter bounding the articles being saved.
      */
     @Autowired
-    public MongodbController(MongodbService mongodbService) {
+    public MongodbController(MongodbService mongodbService, BodyCompressionService bodyCompressionService, MongodbMetricsService mongodbMetricsService, MongodbWriteLimiter mongodbWriteLimiter) {
         this.mongodbService = mongodbService;
+        this.bodyCompressionService = bodyCompressionService;
+        this.mongodbMetricsService = mongodbMetricsService;
+        this.mongodbWriteLimiter = mongodbWriteLimiter;
     }
 
     /**
@@ -72,10 +95,25 @@ public class MongodbController {
             return ResponseEntity.badRequest().body("No collection name provided.");
         } 
         
-        // Start the service
-        mongodbService.saveArticles(articles, collectionName);
+        // Write the articles, or ask the caller to slow down if too many articles are being written
+        SaveResult result;
+        try {
+            result = mongodbWriteLimiter.write(articles, collectionName);
+        } catch (RuntimeException e) {
+            logger.error("Error saving articles in collection " + collectionName + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error saving articles, retry later.");
+        }
+        if (result == null) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(mongodbWriteLimiter.getRetryAfterSeconds()))
+                    .body("Too many articles being written, retry later.");
+        }
+        // The caller sends the batch again: the articles already written are skipped by their content hash
+        if (result.getFailed() > 0) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result.getFailed() + " articles not saved, retry later.");
+        }
 
-        logger.info("Articles saved successfully in collection: " + collectionName);
+        logger.info("Articles saved successfully for collection: " + collectionName);
 
         return ResponseEntity.ok().body("Articles saved successfully.");
     }
@@ -111,4 +149,137 @@ public class MongodbController {
 
         return ResponseEntity.ok().body("Articles retrieved successfully.");
     }
+
+    /**
+     * This method checks which articles of a list are already stored in a collection in MongoDB.
+     * It is expected to be called by the Monitoring service, to skip the articles it already delivered.
+     * @param existingIdsDTO
+     * @return ResponseEntity with the JSON array of the IDs stored.
+     */
+    @PostMapping("/mongodb/existing-ids/")
+    public ResponseEntity<?> existingIds(@Valid @RequestBody ExistingIdsDTO existingIdsDTO) {
+        String collectionName = existingIdsDTO.getCollectionName();
+        List<String> ids = existingIdsDTO.getIds();
+
+        // Check if the collection name and ids are valid
+        if (collectionName == null || collectionName.isEmpty()) {
+            logger.error("No collection name provided.");
+            return ResponseEntity.badRequest().body("No collection name provided.");
+        }
+        if (ids == null) {
+            logger.error("The ids list cannot be null.");
+            return ResponseEntity.badRequest().body("The ids list cannot be null.");
+        }
+
+        List<String> existing = mongodbService.findExistingIds(collectionName, ids);
+        logger.info(existing.size() + " of " + ids.size() + " articles already stored in collection: " + collectionName);
+
+        return ResponseEntity.ok().body(new JSONArray(existing).toString());
+    }
+
+    /**
+     * This method retrieves all the articles of a collection in MongoDB
+     * published in a date range, and streams them to the Mallet service.
+     * @param queryArticleDTO
+     * @return
+     */
+    @PostMapping("/mongodb/query/")
+    public ResponseEntity<?> queryArticles(@Valid @RequestBody QueryArticleDTO queryArticleDTO) {
+        // Extract the collection name, query and date range from the DTO
+        String collectionName = queryArticleDTO.getCollectionName();
+        String query = queryArticleDTO.getQuery();
+        Date startDate = queryArticleDTO.getStartDate();
+        Date endDate = queryArticleDTO.getEndDate();
+
+        // Check if the collection name, query and date range are valid
+        if (collectionName == null || collectionName.isEmpty()) {
+            logger.error("No collection name provided.");
+            return ResponseEntity.badRequest().body("No collection name provided.");
+        }
+        if (query == null || query.isEmpty()) {
+            logger.error("No query provided.");
+            return ResponseEntity.badRequest().body("No query provided.");
+        }
+        if (startDate != null && endDate != null && startDate.after(endDate)) {
+            logger.error("The start date cannot be after the end date.");
+            return ResponseEntity.badRequest().body("The start date cannot be after the end date.");
+        }
+
+        // Start the service
+        mongodbService.getArticlesByDateRange(collectionName, query, startDate, endDate);
+
+        logger.info("Query by date range started for collection: " + collectionName);
+
+        return ResponseEntity.ok().body("Query by date range started successfully.");
+    }
+
+    /**
+     * This method migrates the body text of all the articles of an existing collection
+     * to the configured storage mode (compressed or plain text).
+     * @param migrateBodyDTO
+     * @return
+     */
+    @PostMapping("/mongodb/migrate-body/")
+    public ResponseEntity<?> migrateBody(@Valid @RequestBody MigrateBodyDTO migrateBodyDTO) {
+        String collectionName = migrateBodyDTO.getCollectionName();
+
+        // Check if the collection name is valid
+        if (collectionName == null || collectionName.isEmpty()) {
+            logger.error("No collection name provided.");
+            return ResponseEntity.badRequest().body("No collection name provided.");
+        }
+
+        // Start the migration
+        bodyCompressionService.migrateCollection(collectionName);
+
+        logger.info("Body text migration started for collection: " + collectionName);
+
+        return ResponseEntity.ok().body("Body text migration started successfully.");
+    }
+
+    /**
+     * This method drops a collection, together with the body text dictionary of its articles.
+     * @param dropCollectionDTO
+     * @return
+     */
+    @PostMapping("/mongodb/drop/")
+    public ResponseEntity<?> dropCollection(@Valid @RequestBody DropCollectionDTO dropCollectionDTO) {
+        String collectionName = dropCollectionDTO.getCollectionName();
+
+        // Check if the collection name is valid
+        if (collectionName == null || collectionName.isEmpty()) {
+            logger.error("No collection name provided.");
+            return ResponseEntity.badRequest().body("No collection name provided.");
+        }
+
+        if (!mongodbService.dropCollection(collectionName)) {
+            logger.error("Collection not found: " + collectionName);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Collection not found: " + collectionName);
+        }
+
+        return ResponseEntity.ok().body("Collection dropped successfully.");
+    }
+
+    /**
+     * This method returns the number of articles written and skipped
+     * (because their content did not change) since the service started,
+     * and the articles in flight and the write rate of the write limiter.
+     * @return ResponseEntity with the save counters.
+     */
+    @GetMapping("/mongodb/save/stats/")
+    public ResponseEntity<?> getSaveStats() {
+        JSONObject stats = mongodbService.getSaveStats();
+        stats.put("writes", mongodbWriteLimiter.getStats());
+        return ResponseEntity.ok().body(stats.toString());
+    }
+
+    /**
+     * This method returns the MongoDB driver metrics: the latency histogram of each command,
+     * the connection pool usage and wait time, and the bytes sent and received.
+     * @return ResponseEntity with the metrics.
+     */
+    @GetMapping("/mongodb/metrics/")
+    public ResponseEntity<?> getMetrics() {
+        return ResponseEntity.ok().body(mongodbMetricsService.getMetrics().toString());
+    }
 }
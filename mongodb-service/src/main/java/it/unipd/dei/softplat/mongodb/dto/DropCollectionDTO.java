@@ -0,0 +1,54 @@
+/**
+ * DropCollectionDTO.java
+ * 
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.mongodb.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.NotEmpty;
+
+/**
+ * This class is intended to represent a Data Transfer Object (DTO) for dropping
+ * a collection, together with the body text dictionary of its articles.
+ * It contains the name of the collection to drop.
+ */
+public class DropCollectionDTO {
+
+    @NotNull @NotEmpty
+    private String collectionName;
+
+    /**
+     * Default constructor for DropCollectionDTO.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public DropCollectionDTO() { }
+
+    /**
+     * Constructor for DropCollectionDTO.
+     * This constructor initializes a DropCollectionDTO object with the provided parameters.
+     * @param collectionName
+     */
+    public DropCollectionDTO(String collectionName) {
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * Returns the name of the collection in MongoDB.
+     * @return the collection name
+     */
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    /**
+     * Sets the name of the collection in MongoDB.
+     * @param collectionName
+     */
+    public void setCollectionName(String collectionName) {
+        this.collectionName = collectionName;
+    }
+}
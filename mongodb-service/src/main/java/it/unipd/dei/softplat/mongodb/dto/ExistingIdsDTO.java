@@ -0,0 +1,76 @@
+/**
+ * ExistingIdsDTO.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.mongodb.dto;
+
+import java.util.List;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.NotEmpty;
+
+/**
+ * This class is intended to represent a Data Transfer Object (DTO) for checking
+ * which articles of a list are already stored in a collection of MongoDB.
+ * It contains the name of the collection and the list of article IDs to check.
+ */
+public class ExistingIdsDTO {
+
+    @NotNull @NotEmpty
+    private String collectionName;
+    @NotNull
+    private List<String> ids;
+
+    /**
+     * Default constructor for ExistingIdsDTO.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public ExistingIdsDTO() { }
+
+    /**
+     * Constructor for ExistingIdsDTO.
+     * This constructor initializes a ExistingIdsDTO object with the provided parameters.
+     * @param collectionName
+     * @param ids
+     */
+    public ExistingIdsDTO(String collectionName, List<String> ids) {
+        this.collectionName = collectionName;
+        this.ids = ids;
+    }
+
+    /**
+     * Returns the name of the collection in MongoDB.
+     * @return the collection name
+     */
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    /**
+     * Sets the name of the collection in MongoDB.
+     * @param collectionName
+     */
+    public void setCollectionName(String collectionName) {
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * Returns the list of article IDs to check.
+     * @return the list of article IDs
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * Sets the list of article IDs to check.
+     * @param ids
+     */
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * MigrateBodyDTO.java
+ * 
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.mongodb.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.NotEmpty;
+
+/**
+ * This class is intended to represent a Data Transfer Object (DTO) for migrating
+ * the body text of the articles of a collection to the configured storage mode.
+ * It contains the name of the collection to migrate.
+ */
+public class MigrateBodyDTO {
+
+    @NotNull @NotEmpty
+    private String collectionName;
+
+    /**
+     * Default constructor for MigrateBodyDTO.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public MigrateBodyDTO() { }
+
+    /**
+     * Constructor for MigrateBodyDTO.
+     * This constructor initializes a MigrateBodyDTO object with the provided parameters.
+     * @param collectionName
+     */
+    public MigrateBodyDTO(String collectionName) {
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * Returns the name of the collection in MongoDB.
+     * @return the collection name
+     */
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    /**
+     * Sets the name of the collection in MongoDB.
+     * @param collectionName
+     */
+    public void setCollectionName(String collectionName) {
+        this.collectionName = collectionName;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * QueryArticleDTO.java
+ * 
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.mongodb.dto;
+
+import java.util.Date;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.NotEmpty;
+
+/**
+ * This class is intended to represent a Data Transfer Object (DTO) for retrieving all the articles
+ * of a collection (corpus) in MongoDB published in a date range.
+ * It contains the name of the collection, the query the articles are sent for, and the date range.
+ * If the start date or the end date is null, the range is open on that side.
+ */
+public class QueryArticleDTO {
+
+    @NotNull @NotEmpty
+    private String collectionName;
+    @NotNull @NotEmpty
+    private String query;
+    private Date startDate;
+    private Date endDate;
+
+    /**
+     * Default constructor for QueryArticleDTO.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public QueryArticleDTO() { }
+
+    /**
+     * Constructor for QueryArticleDTO.
+     * This constructor initializes a QueryArticleDTO object with the provided parameters.
+     * @param collectionName
+     * @param query
+     * @param startDate
+     * @param endDate
+     */
+    public QueryArticleDTO(String collectionName, String query, Date startDate, Date endDate) {
+        this.collectionName = collectionName;
+        this.query = query;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    /**
+     * Returns the name of the collection in MongoDB.
+     * @return the collection name
+     */
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    /**
+     * Sets the name of the collection in MongoDB.
+     * @param collectionName
+     */
+    public void setCollectionName(String collectionName) {
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * Returns the query the articles are retrieved for.
+     * @return the query string
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Sets the query the articles are retrieved for.
+     * @param query
+     */
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    /**
+     * Returns the start date of the publication date range.
+     * @return the start date
+     */
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    /**
+     * Sets the start date of the publication date range.
+     * @param startDate
+     */
+    public void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
+
+    /**
+     * Returns the end date of the publication date range.
+     * @return the end date
+     */
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    /**
+     * Sets the end date of the publication date range.
+     * @param endDate
+     */
+    public void setEndDate(Date endDate) {
+        this.endDate = endDate;
+    }
+}
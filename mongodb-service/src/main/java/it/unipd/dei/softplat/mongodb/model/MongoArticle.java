@@ -7,6 +7,8 @@
  */
 package it.unipd.dei.softplat.mongodb.model;
 
+import java.util.List;
+
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Pattern;
@@ -14,7 +16,8 @@ import jakarta.validation.constraints.Pattern;
 /**
  * This class represents an article stored in MongoDB.
  * It contains fields for the article's ID, type, section ID, section name,
- * web publication date, web title, web URL, and body text.
+ * web publication date, web title, web URL, and body text, and optionally the normalized tokens
+ * of the body text and their count, and the ID of the original article if it is a near-duplicate.
  * The class includes validation annotations to ensure that the fields are not null or empty,
  */
 public class MongoArticle {
@@ -37,6 +40,11 @@ public class MongoArticle {
     private String webUrl;
     @NotNull @NotEmpty
     private String bodyText;
+    // Optional text features computed by the Data Manager at ingestion time
+    private List<String> tokens;
+    private Integer tokenCount;
+    // The ID of the original article, if the Data Manager marked the article as a near-duplicate
+    private String duplicateOf;
 
 
     /**
@@ -196,4 +204,52 @@ public class MongoArticle {
     public void setBodyText(String bodyText) {
         this.bodyText = bodyText;
     }
+
+    /**
+     * Returns the normalized tokens of the body text (lowercased, without stopwords).
+     * @return the tokens, or null if they were not computed
+     */
+    public List<String> getTokens() {
+        return this.tokens;
+    }
+
+    /**
+     * Sets the normalized tokens of the body text.
+     * @param tokens
+     */
+    public void setTokens(List<String> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Returns the number of normalized tokens of the body text.
+     * @return the token count, or null if the tokens were not computed
+     */
+    public Integer getTokenCount() {
+        return this.tokenCount;
+    }
+
+    /**
+     * Sets the number of normalized tokens of the body text.
+     * @param tokenCount
+     */
+    public void setTokenCount(Integer tokenCount) {
+        this.tokenCount = tokenCount;
+    }
+
+    /**
+     * Returns the ID of the article this article is a near-duplicate of.
+     * @return the ID of the original article, or null if the article is not a near-duplicate
+     */
+    public String getDuplicateOf() {
+        return this.duplicateOf;
+    }
+
+    /**
+     * Sets the ID of the article this article is a near-duplicate of.
+     * @param duplicateOf
+     */
+    public void setDuplicateOf(String duplicateOf) {
+        this.duplicateOf = duplicateOf;
+    }
 }
@@ -0,0 +1,88 @@
+/**
+ * SaveResult.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.mongodb.model;
+
+/**
+ * This class represents the outcome of saving a batch of articles in MongoDB.
+ * It contains the number of articles written (new or changed), the number of articles
+ * skipped because their content hash did not change, and the number of articles that failed.
+ */
+public class SaveResult {
+
+    private int written;
+    private int skipped;
+    private int failed;
+
+    /**
+     * Default constructor for SaveResult.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public SaveResult() { }
+
+    /**
+     * Constructor for SaveResult.
+     * This constructor initializes a SaveResult object with the provided parameters.
+     * @param written
+     * @param skipped
+     * @param failed
+     */
+    public SaveResult(int written, int skipped, int failed) {
+        this.written = written;
+        this.skipped = skipped;
+        this.failed = failed;
+    }
+
+    /**
+     * Returns the number of articles written (inserted or replaced).
+     * @return the number of written articles
+     */
+    public int getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Sets the number of articles written (inserted or replaced).
+     * @param written
+     */
+    public void setWritten(int written) {
+        this.written = written;
+    }
+
+    /**
+     * Returns the number of articles skipped because they were already stored unchanged.
+     * @return the number of skipped articles
+     */
+    public int getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * Sets the number of articles skipped because they were already stored unchanged.
+     * @param skipped
+     */
+    public void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+
+    /**
+     * Returns the number of articles that could not be saved.
+     * @return the number of failed articles
+     */
+    public int getFailed() {
+        return this.failed;
+    }
+
+    /**
+     * Sets the number of articles that could not be saved.
+     * @param failed
+     */
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+}
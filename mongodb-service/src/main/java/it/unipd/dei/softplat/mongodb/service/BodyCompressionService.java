@@ -0,0 +1,356 @@
+/**
+ * BodyCompressionService.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.mongodb.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+
+/**
+ * This class is intended to handle the compressed storage of the article body text.
+ * When the compression is enabled, the body text is stored as a binary field compressed with deflate,
+ * using a preset dictionary trained on a sample of the articles of each collection (corpus).
+ * The sample is gathered from the first batches of a collection, which are compressed without dictionary
+ * until it is large enough.
+ * The body text is decompressed transparently when the articles are retrieved,
+ * and plain text articles are still readable, so the mode can be enabled on existing collections.
+ */
+@Service
+public class BodyCompressionService {
+
+    // Header byte of the compressed body text: deflate without or with the corpus dictionary
+    private static final byte FORMAT_DEFLATE = 0;
+    private static final byte FORMAT_DEFLATE_DICTIONARY = 1;
+    // Deflate uses at most the last 32 KB of the preset dictionary
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    // Collection holding the dictionary of each corpus
+    private static final String DICTIONARY_COLLECTION = "bodyDictionaries";
+
+    private final MongoDatabase database;
+    private final boolean compressionEnabled;
+    @Value("${mongodb.body.dictionary.sample.size:500}")
+    private int dictionarySampleSize = 500;
+    @Value("${mongodb.body.dictionary.min.sample:50}")
+    private int minSampleSize = 50;
+    @Value("${data.batch.size}")
+    private int batchSize;
+    // Dictionaries already loaded or trained, by collection name
+    private final Map<String, byte[]> dictionaries = new ConcurrentHashMap<>();
+    // Collections known to have no dictionary yet, so that it is not looked up for each article
+    private final Set<String> missingDictionaries = ConcurrentHashMap.newKeySet();
+    // Body texts gathered to train the dictionary of the collections without one
+    private final Map<String, List<String>> pendingSamples = new ConcurrentHashMap<>();
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(BodyCompressionService.class);
+
+    /**
+     * Default constructor for BodyCompressionService.
+     * @param mongoClient
+     * @param compression the storage mode of the body text: "deflate" to compress it, "none" to store it as plain text
+     */
+    @Autowired
+    public BodyCompressionService(MongoClient mongoClient, @Value("${mongodb.body.compression:none}") String compression) {
+        this.database = mongoClient.getDatabase("softplatDB");
+        this.compressionEnabled = "deflate".equalsIgnoreCase(compression);
+        logger.info("Body text storage mode: " + (compressionEnabled ? "deflate" : "none"));
+    }
+
+    /**
+     * Returns true if the body text is stored compressed.
+     * @return true if the compression is enabled
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * This method makes sure that the dictionary of a collection is available before its articles are compressed.
+     * If the collection has no dictionary yet, the body texts are added to its sample, and the dictionary
+     * is trained once the sample has enough body texts: until then the articles are compressed without dictionary.
+     * @param collectionName
+     * @param sampleBodies the body texts to train the dictionary on, if needed
+     */
+    public void prepareDictionary(String collectionName, List<String> sampleBodies) {
+        if (!compressionEnabled || loadDictionary(collectionName) != null) {
+            return;
+        }
+        List<String> sample = pendingSamples.computeIfAbsent(collectionName, name -> new ArrayList<>());
+        byte[] dictionary;
+        synchronized (sample) {
+            for (String body : sampleBodies) {
+                if (sample.size() >= dictionarySampleSize) {
+                    break;
+                }
+                if (body != null) {
+                    sample.add(body);
+                }
+            }
+            if (sample.size() < Math.min(minSampleSize, dictionarySampleSize)) {
+                return; // Train it from a later batch
+            }
+            dictionary = trainDictionary(sample);
+        }
+        if (dictionary.length == 0) {
+            return;
+        }
+        MongoCollection<Document> collection = database.getCollection(DICTIONARY_COLLECTION);
+        try {
+            collection.createIndex(Indexes.ascending("collectionName"), new IndexOptions().unique(true));
+            collection.insertOne(new Document("collectionName", collectionName).append("dictionary", new Binary(dictionary)));
+            dictionaries.put(collectionName, dictionary);
+            logger.info("Body text dictionary of " + dictionary.length + " bytes trained for collection " + collectionName
+                    + " on " + sample.size() + " body texts.");
+        } catch (MongoWriteException e) {
+            // Another batch stored the dictionary first, use that one
+            dictionaries.remove(collectionName);
+            missingDictionaries.remove(collectionName);
+            loadDictionary(collectionName);
+        }
+        missingDictionaries.remove(collectionName);
+        pendingSamples.remove(collectionName);
+    }
+
+    /**
+     * This method removes the dictionary of a collection, stored and in memory, when the collection is dropped,
+     * so that a new collection with the same name trains its own dictionary.
+     * @param collectionName
+     */
+    public void dropDictionary(String collectionName) {
+        try {
+            database.getCollection(DICTIONARY_COLLECTION).deleteOne(Filters.eq("collectionName", collectionName));
+        } catch (Exception e) {
+            logger.error("Error removing the body text dictionary of collection " + collectionName + ": " + e.getMessage());
+        }
+        dictionaries.remove(collectionName);
+        pendingSamples.remove(collectionName);
+        missingDictionaries.add(collectionName);
+        logger.info("Body text dictionary of collection " + collectionName + " removed.");
+    }
+
+    /**
+     * This method encodes the body text of an article for storage.
+     * @param collectionName
+     * @param bodyText
+     * @return the body text itself if the compression is disabled, or the compressed body text as BSON binary
+     */
+    public Object encode(String collectionName, String bodyText) {
+        if (!compressionEnabled || bodyText == null) {
+            return bodyText;
+        }
+        byte[] dictionary = loadDictionary(collectionName);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(bodyText.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(bodyText.length() / 2 + 16);
+            output.write(dictionary != null ? FORMAT_DEFLATE_DICTIONARY : FORMAT_DEFLATE);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            return new Binary(output.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * This method decodes the body text of an article read from MongoDB.
+     * @param collectionName
+     * @param storedBody the stored body text, either plain text or compressed BSON binary
+     * @return the plain body text
+     */
+    public String decode(String collectionName, Object storedBody) {
+        if (!(storedBody instanceof Binary)) {
+            return (String) storedBody;
+        }
+        byte[] data = ((Binary) storedBody).getData();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 1, data.length - 1);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsDictionary()) {
+                    byte[] dictionary = loadDictionary(collectionName);
+                    if (dictionary == null) {
+                        // The dictionary may have been stored by another instance after it was found missing
+                        missingDictionaries.remove(collectionName);
+                        dictionary = loadDictionary(collectionName);
+                    }
+                    if (data[0] != FORMAT_DEFLATE_DICTIONARY || dictionary == null) {
+                        throw new IllegalStateException("Missing body text dictionary for collection " + collectionName + ".");
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (length == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated compressed body text in collection " + collectionName + ".");
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed body text in collection " + collectionName + ".", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * This method migrates the body text of all the articles of an existing collection
+     * to the configured storage mode: it compresses the plain text bodies if the compression is enabled,
+     * or decompresses the compressed bodies otherwise.
+     * The articles are read with a cursor and updated in bulk, batch by batch.
+     * @param collectionName
+     */
+    @Async
+    public void migrateCollection(String collectionName) {
+        MongoCollection<Document> collection = database.getCollection(collectionName);
+        long start = System.currentTimeMillis();
+
+        // Train the dictionary on a sample of the existing articles
+        if (compressionEnabled) {
+            List<String> sample = new ArrayList<>();
+            for (Document doc : collection.find(Filters.type("bodyText", "string")).projection(Projections.include("bodyText")).limit(dictionarySampleSize)) {
+                sample.add(doc.getString("bodyText"));
+            }
+            prepareDictionary(collectionName, sample);
+        }
+
+        int migrated = 0;
+        List<UpdateOneModel<Document>> updates = new ArrayList<>();
+        // Select only the articles stored in the other mode
+        try (MongoCursor<Document> cursor = collection.find(Filters.type("bodyText", compressionEnabled ? "string" : "binData"))
+                .projection(Projections.include("_id", "bodyText"))
+                .batchSize(batchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document doc = cursor.next();
+                String bodyText = decode(collectionName, doc.get("bodyText"));
+                updates.add(new UpdateOneModel<>(Filters.eq("_id", doc.get("_id")), Updates.set("bodyText", encode(collectionName, bodyText))));
+                if (updates.size() >= batchSize) {
+                    collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+                    migrated += updates.size();
+                    updates.clear();
+                }
+            }
+            if (!updates.isEmpty()) {
+                collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+                migrated += updates.size();
+            }
+        } catch (Exception e) {
+            logger.error("Error migrating the body text of collection " + collectionName + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        logger.info("Body text migration of collection " + collectionName + " to mode " + (compressionEnabled ? "deflate" : "none") + " completed: "
+                + migrated + " articles migrated in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * This method returns the dictionary of a collection, loading it from MongoDB if needed.
+     * A collection without dictionary is remembered, so it is looked up only once.
+     * @param collectionName
+     * @return the dictionary, or null if the collection has no dictionary
+     */
+    private byte[] loadDictionary(String collectionName) {
+        byte[] dictionary = dictionaries.get(collectionName);
+        if (dictionary != null || missingDictionaries.contains(collectionName)) {
+            return dictionary;
+        }
+        Document doc = database.getCollection(DICTIONARY_COLLECTION).find(Filters.eq("collectionName", collectionName)).first();
+        if (doc == null) {
+            missingDictionaries.add(collectionName);
+            return null;
+        }
+        dictionary = doc.get("dictionary", Binary.class).getData();
+        dictionaries.put(collectionName, dictionary);
+        return dictionary;
+    }
+
+    /**
+     * This method trains a deflate preset dictionary on a sample of body texts.
+     * It keeps the words and pairs of words that occur more than once, ranked by the number of bytes
+     * they would save (occurrences times length). The most useful strings are placed at the end
+     * of the dictionary, since deflate encodes closer matches with shorter distances.
+     * @param sampleBodies
+     * @return the dictionary, at most 32 KB, or an empty array if the sample is too small
+     */
+    public static byte[] trainDictionary(List<String> sampleBodies) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String body : sampleBodies) {
+            if (body == null) {
+                continue;
+            }
+            String[] words = body.split("\\s+");
+            for (int i = 0; i < words.length; i++) {
+                counts.merge(words[i] + " ", 1, Integer::sum);
+                if (i + 1 < words.length) {
+                    counts.merge(words[i] + " " + words[i + 1] + " ", 1, Integer::sum);
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1 && entry.getKey().length() > 3) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort((a, b) -> Long.compare((long) b.getValue() * b.getKey().length(), (long) a.getValue() * a.getKey().length()));
+
+        // Fill the dictionary from the end with the most useful strings
+        byte[] dictionary = new byte[MAX_DICTIONARY_SIZE];
+        int position = MAX_DICTIONARY_SIZE;
+        for (Map.Entry<String, Integer> entry : candidates) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > position) {
+                continue;
+            }
+            position -= bytes.length;
+            System.arraycopy(bytes, 0, dictionary, position, bytes.length);
+        }
+        return Arrays.copyOfRange(dictionary, position, MAX_DICTIONARY_SIZE);
+    }
+}
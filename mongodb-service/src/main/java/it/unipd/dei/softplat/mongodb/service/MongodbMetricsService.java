@@ -0,0 +1,247 @@
+/**
+ * MongodbMetricsService.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.mongodb.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.BsonDocument;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * This class is intended to collect driver-level metrics of the MongoDB client.
+ * It is registered as command listener and connection pool listener of the MongoClient,
+ * and records the latency histogram of each command (insert, update, find, ...),
+ * the time spent waiting for a connection of the pool, the number of checked-out connections,
+ * and the bytes sent to and received from MongoDB.
+ * Bulk writes are sent by the driver as insert/update commands, so they are recorded under those names.
+ */
+@Service
+public class MongodbMetricsService implements CommandListener, ConnectionPoolListener {
+
+    // Upper bounds (in milliseconds) of the latency histogram buckets
+    private static final long[] BUCKETS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final Map<String, LatencyHistogram> commandLatencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> commandFailures = new ConcurrentHashMap<>();
+    private final LatencyHistogram checkOutWait = new LatencyHistogram();
+    private final AtomicInteger checkedOutConnections = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder checkOutFailures = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    // Measuring the bytes requires encoding the command and the response again, so it can be disabled
+    @Value("${mongodb.metrics.bytes:true}")
+    private boolean measureBytes;
+
+    /**
+     * This method records the size of the command sent to MongoDB.
+     * @param event
+     */
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        if (measureBytes) {
+            bytesSent.add(sizeOf(event.getCommand()));
+        }
+    }
+
+    /**
+     * This method records the latency of a successful command and the size of its response.
+     * @param event
+     */
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        commandLatencies.computeIfAbsent(event.getCommandName(), name -> new LatencyHistogram())
+                .record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+        if (measureBytes) {
+            bytesReceived.add(sizeOf(event.getResponse()));
+        }
+    }
+
+    /**
+     * This method records the latency of a failed command.
+     * @param event
+     */
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        commandLatencies.computeIfAbsent(event.getCommandName(), name -> new LatencyHistogram())
+                .record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+        commandFailures.computeIfAbsent(event.getCommandName(), name -> new LongAdder()).increment();
+    }
+
+    /**
+     * This method records the time spent waiting for a connection of the pool.
+     * @param event
+     */
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        checkedOutConnections.incrementAndGet();
+        checkOutWait.record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+    }
+
+    /**
+     * This method records a failed attempt to get a connection of the pool (e.g., wait timeout).
+     * @param event
+     */
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        checkOutFailures.increment();
+        checkOutWait.record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+    }
+
+    /**
+     * This method records a connection returned to the pool.
+     * @param event
+     */
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedOutConnections.decrementAndGet();
+    }
+
+    /**
+     * This method records a connection opened by the pool.
+     * @param event
+     */
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        openConnections.incrementAndGet();
+    }
+
+    /**
+     * This method records a connection closed by the pool.
+     * @param event
+     */
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        openConnections.decrementAndGet();
+    }
+
+    /**
+     * This method returns a snapshot of the collected metrics.
+     * @return a JSON object with the command, pool and network metrics
+     */
+    public JSONObject getMetrics() {
+        JSONObject commands = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : commandLatencies.entrySet()) {
+            JSONObject command = entry.getValue().toJson();
+            LongAdder failures = commandFailures.get(entry.getKey());
+            command.put("failed", failures != null ? failures.sum() : 0);
+            commands.put(entry.getKey(), command);
+        }
+
+        JSONObject pool = new JSONObject();
+        pool.put("checkedOut", checkedOutConnections.get());
+        pool.put("open", openConnections.get());
+        pool.put("checkOutFailed", checkOutFailures.sum());
+        pool.put("checkOutWait", checkOutWait.toJson());
+
+        JSONObject network = new JSONObject();
+        network.put("bytesSent", bytesSent.sum());
+        network.put("bytesReceived", bytesReceived.sum());
+
+        JSONObject metrics = new JSONObject();
+        metrics.put("commands", commands);
+        metrics.put("pool", pool);
+        metrics.put("network", network);
+        return metrics;
+    }
+
+    /**
+     * This method returns the size in bytes of a BSON document.
+     * @param document
+     * @return the encoded size of the document
+     */
+    private static int sizeOf(BsonDocument document) {
+        if (document == null) {
+            return 0;
+        }
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            new BsonDocumentCodec().encode(writer, document, EncoderContext.builder().build());
+        }
+        return buffer.getSize();
+    }
+
+    /**
+     * This class represents a lock-free latency histogram with fixed buckets.
+     * It keeps the number of samples per bucket, the total and the maximum latency.
+     */
+    public static class LatencyHistogram {
+
+        // One counter per bucket, plus one for the samples above the last bucket
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_MS.length + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        /**
+         * Records a sample.
+         * @param micros the latency in microseconds
+         */
+        public void record(long micros) {
+            int bucket = 0;
+            while (bucket < BUCKETS_MS.length && micros > BUCKETS_MS[bucket] * 1000) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            totalMicros.add(micros);
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+
+        /**
+         * Returns the number of samples recorded.
+         * @return the number of samples
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the histogram as JSON object, with latencies in milliseconds.
+         * @return the count, mean, max and the number of samples per bucket
+         */
+        public JSONObject toJson() {
+            long samples = count.sum();
+            JSONObject histogram = new JSONObject();
+            histogram.put("count", samples);
+            histogram.put("meanMs", samples == 0 ? 0 : totalMicros.sum() / 1000.0 / samples);
+            histogram.put("maxMs", maxMicros.get() / 1000.0);
+            JSONObject bucketCounts = new JSONObject();
+            for (int i = 0; i < BUCKETS_MS.length; i++) {
+                bucketCounts.put("le" + BUCKETS_MS[i] + "ms", buckets.get(i));
+            }
+            bucketCounts.put("gt" + BUCKETS_MS[BUCKETS_MS.length - 1] + "ms", buckets.get(BUCKETS_MS.length));
+            histogram.put("buckets", bucketCounts);
+            return histogram;
+        }
+    }
+}
@@ -8,13 +8,30 @@
 
 package it.unipd.dei.softplat.mongodb.service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import org.bson.BsonType;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,14 +40,23 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
 
 import it.unipd.dei.softplat.mongodb.model.MongoArticle;
+import it.unipd.dei.softplat.mongodb.model.SaveResult;
 import it.unipd.dei.softplat.http.service.HttpClientService;
 
 /**
@@ -46,6 +72,12 @@ public class MongodbService {
     @Value("${data.batch.size}")
     private int batchSize;
     private final HttpClientService httpClientService;
+    private final BodyCompressionService bodyCompressionService;
+    // Counters of the articles written and skipped since the service started
+    private final AtomicLong totalWritten = new AtomicLong();
+    private final AtomicLong totalSkipped = new AtomicLong();
+    // Collections for which the publication date index is known to exist
+    private final Set<String> indexedCollections = ConcurrentHashMap.newKeySet();
 
     // For logging
     private static final Logger logger = LogManager.getLogger(MongodbService.class);
@@ -54,12 +86,14 @@ public class MongodbService {
      * Default constructor for MongodbService.
      * @param mongoClient
      * @param httpClientService
+     * @param bodyCompressionService
      */
     @Autowired
-    public MongodbService(MongoClient mongoClient, HttpClientService httpClientService) {
+    public MongodbService(MongoClient mongoClient, HttpClientService httpClientService, BodyCompressionService bodyCompressionService) {
         this.mongoClient = mongoClient;
         this.database = this.mongoClient.getDatabase("softplatDB");
         this.httpClientService = httpClientService;
+        this.bodyCompressionService = bodyCompressionService;
     }
 
     /**
@@ -73,6 +107,9 @@ public class MongodbService {
             database.createCollection(collectionName);
             MongoCollection<Document> collection = database.getCollection(collectionName);
             collection.createIndex(Indexes.ascending("id"), new IndexOptions().unique(true));
+            // Compound index to retrieve the articles of the collection by publication date range
+            collection.createIndex(Indexes.compoundIndex(Indexes.ascending("webPublicationDate"), Indexes.ascending("id")));
+            indexedCollections.add(collectionName);
             logger.info("Collection " + collectionName + " created successfully.");
         }
         catch (Exception e) {
@@ -81,6 +118,22 @@ public class MongodbService {
         }
     }
 
+    /**
+     * This method drops a collection from MongoDB, together with the body text dictionary of its articles.
+     * @param collectionName
+     * @return true if the collection existed and was dropped
+     */
+    public boolean dropCollection(String collectionName) {
+        if (!listCollections().contains(collectionName)) {
+            return false;
+        }
+        database.getCollection(collectionName).drop();
+        indexedCollections.remove(collectionName);
+        bodyCompressionService.dropDictionary(collectionName);
+        logger.info("Collection " + collectionName + " dropped successfully.");
+        return true;
+    }
+
     /**
      * This method retrieves the list of collections in the MongoDB database.
      * @return A list of collection names.
@@ -99,44 +152,207 @@ public class MongodbService {
 
     /**
      * This method is responsible for saving articles to MongoDB.
+     * Each article is stored together with a hash of its content (web title and body text).
+     * The stored hashes of the whole batch are fetched with a single query, and only new or
+     * changed articles are written with one unordered bulk write.
+     * It is called by the write limiter, one batch at a time for each collection.
      * @param articles The list of articles to be saved.
+     * @param collectionName
+     * @return the number of written, skipped and failed articles of the batch
+     * @see MongodbWriteLimiter
      */
-    @Async
-    public void saveArticles(List<MongoArticle> articles, String collectionName) {
+    public SaveResult saveArticles(List<MongoArticle> articles, String collectionName) {
         // Check if the collection exists, if not create it
         if (!listCollections().contains(collectionName)) {
             createCollection(collectionName);
         }
-        // Process articles
+        MongoCollection<Document> collection = database.getCollection(collectionName);
+
+        // Collect the articles of the batch by ID: if an ID appears more than once, the latest version is kept
+        Map<String, MongoArticle> latestArticles = new LinkedHashMap<>();
+        int skipped = 0;
         for (MongoArticle article : articles) {
             if (article == null) {
                 logger.warn("Received null article.");
-            } else {
-                // Prepare the article to be saved
-                try {
-                    // Save the article to the specified collection
-                    MongoCollection<Document> collection = database.getCollection(collectionName);
-                    // Convert the article to a Document
-                    Document articleDoc = new Document();
-                    articleDoc.append("id", article.getId())
-                              .append("type", article.getType())
-                              .append("sectionID", article.getSectionId())
-                              .append("sectionName", article.getSectionName())
-                              .append("webPublicationDate", article.getWebPublicationDate())
-                              .append("webTitle", article.getWebTitle())
-                              .append("webUrl", article.getWebUrl())
-                              .append("bodyText", article.getBodyText());
-                    // Insert the article into the collection using replaceOne with upsert option
-                    // This will update the article if it exists, or insert it if it does not
-                    collection.replaceOne(new Document("id", article.getId()), articleDoc, new ReplaceOptions().upsert(true));
-                    logger.info("Article with ID " + article.getId() + " saved successfully.");
-                } catch (Exception e) {
-                    logger.info("Error saving article with ID " + article.getId() + ": " + e.getMessage());
-                    e.printStackTrace();
+            } else if (latestArticles.put(article.getId(), article) != null) {
+                skipped++;
+            }
+        }
+        List<String> ids = new ArrayList<>(latestArticles.keySet());
+
+        // Retrieve the content hashes already stored for the batch with a single query
+        Map<String, String> storedHashes = new HashMap<>();
+        Set<String> storedTokens = new HashSet<>();
+        try {
+            for (Document doc : collection.find(Filters.in("id", ids)).projection(Projections.include("id", "contentHash", "webPublicationDate", "tokenCount"))) {
+                // Articles stored with the publication date as string are rewritten to store it as date
+                if (doc.get("webPublicationDate") instanceof Date) {
+                    storedHashes.put(doc.getString("id"), doc.getString("contentHash"));
+                }
+                if (doc.containsKey("tokenCount")) {
+                    storedTokens.add(doc.getString("id"));
                 }
             }
+        } catch (Exception e) {
+            logger.error("Error retrieving content hashes from collection " + collectionName + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        // Make sure the body text dictionary of the collection exists before compressing
+        if (bodyCompressionService.isCompressionEnabled()) {
+            List<String> sampleBodies = new ArrayList<>();
+            for (MongoArticle article : latestArticles.values()) {
+                sampleBodies.add(article.getBodyText());
+            }
+            bodyCompressionService.prepareDictionary(collectionName, sampleBodies);
+        }
+
+        // Prepare the writes only for new or changed articles
+        List<ReplaceOneModel<Document>> writes = new ArrayList<>();
+        for (MongoArticle article : latestArticles.values()) {
+            String contentHash = computeContentHash(article);
+            // Skip the article if it is unchanged, unless its tokens were not stored yet
+            if (contentHash.equals(storedHashes.get(article.getId())) && (article.getTokens() == null || storedTokens.contains(article.getId()))) {
+                skipped++;
+                continue;
+            }
+            // Convert the article to a Document
+            Document articleDoc = new Document();
+            articleDoc.append("id", article.getId())
+                      .append("type", article.getType())
+                      .append("sectionID", article.getSectionId())
+                      .append("sectionName", article.getSectionName())
+                      .append("webPublicationDate", parsePublicationDate(article.getWebPublicationDate()))
+                      .append("webTitle", article.getWebTitle())
+                      .append("webUrl", article.getWebUrl())
+                      .append("bodyText", bodyCompressionService.encode(collectionName, article.getBodyText()))
+                      .append("contentHash", contentHash);
+            if (article.getDuplicateOf() != null) {
+                articleDoc.append("duplicateOf", article.getDuplicateOf());
+            }
+            // Store the text features computed at ingestion time, so the topic queries can reuse them
+            if (article.getTokens() != null) {
+                articleDoc.append("tokens", article.getTokens())
+                          .append("tokenCount", article.getTokenCount() != null ? article.getTokenCount() : article.getTokens().size());
+            }
+            // replaceOne with upsert option: update the article if it exists, or insert it if it does not
+            writes.add(new ReplaceOneModel<>(new Document("id", article.getId()), articleDoc, new ReplaceOptions().upsert(true)));
+        }
+
+        int written = 0;
+        int failed = 0;
+        if (!writes.isEmpty()) {
+            try {
+                // Unordered, so a single failing article does not stop the rest of the batch
+                BulkWriteResult result = collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+                written = result.getModifiedCount() + result.getUpserts().size();
+            } catch (MongoBulkWriteException e) {
+                failed = e.getWriteErrors().size();
+                written = writes.size() - failed;
+                logger.error("Error saving " + failed + " articles in collection " + collectionName + ": " + e.getMessage());
+            } catch (Exception e) {
+                failed = writes.size();
+                logger.error("Error saving articles in collection " + collectionName + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        totalWritten.addAndGet(written);
+        totalSkipped.addAndGet(skipped);
+        logger.info("Batch saved to collection " + collectionName + ": " + written + " written, " + skipped + " skipped (unchanged), " + failed + " failed.");
+        return new SaveResult(written, skipped, failed);
+    }
+
+    /**
+     * This method converts the web publication date of an article into a date,
+     * so that it is stored as a BSON date and can be used in range queries.
+     * If the date cannot be parsed, the original string is returned.
+     * @param webPublicationDate the date in format YYYY-MM-DDTHH:MM:SSZ
+     * @return the publication date as Date, or the original string if it is not valid
+     */
+    private Object parsePublicationDate(String webPublicationDate) {
+        try {
+            return Date.from(Instant.parse(webPublicationDate));
+        } catch (NullPointerException | DateTimeParseException e) {
+            logger.warn("Invalid web publication date: " + webPublicationDate);
+            return webPublicationDate;
+        }
+    }
+
+    /**
+     * This method converts an article Document (BSON) into the JSON format expected by the Mallet service.
+     * The publication date is formatted back to YYYY-MM-DDTHH:MM:SSZ,
+     * also for articles stored before the date was saved as BSON date.
+     * The body text is decompressed if it is stored compressed.
+     * @param doc
+     * @param collectionName
+     * @return the article as JSON object
+     */
+    private JSONObject documentToJson(Document doc, String collectionName) {
+        Object webPublicationDate = doc.get("webPublicationDate");
+        JSONObject article = new JSONObject();
+        article.put("id", doc.getString("id"));
+        article.put("type", doc.getString("type"));
+        article.put("sectionID", doc.getString("sectionID"));
+        article.put("sectionName", doc.getString("sectionName"));
+        article.put("webPublicationDate", webPublicationDate instanceof Date ? DateTimeFormatter.ISO_INSTANT.format(((Date) webPublicationDate).toInstant()) : webPublicationDate);
+        article.put("webTitle", doc.getString("webTitle"));
+        article.put("webUrl", doc.getString("webUrl"));
+        article.put("bodyText", bodyCompressionService.decode(collectionName, doc.get("bodyText")));
+        return article;
+    }
+
+    /**
+     * This method computes the content hash of an article.
+     * The hash covers the web title and the body text, which are the fields that change
+     * when an article is updated by the newspaper.
+     * @param article
+     * @return the SHA-256 hash of the article content as hexadecimal string
+     */
+    public static String computeContentHash(MongoArticle article) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(article.getWebTitle()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0); // Separator between title and body
+            digest.update(String.valueOf(article.getBodyText()).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available in the JDK
+            throw new IllegalStateException("SHA-256 algorithm not available.", e);
+        }
+    }
+
+    /**
+     * This method returns the number of articles written and skipped since the service started.
+     * @return a JSON object with the written and skipped counters
+     */
+    public JSONObject getSaveStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("written", totalWritten.get());
+        stats.put("skipped", totalSkipped.get());
+        return stats;
+    }
+
+    /**
+     * This method returns the IDs of a list that are already stored in a collection of MongoDB,
+     * with a single query on the unique index of the IDs, reading only the IDs.
+     * @param collectionName
+     * @param ids
+     * @return the IDs stored, empty if the collection does not exist
+     */
+    public List<String> findExistingIds(String collectionName, List<String> ids) {
+        List<String> existing = new ArrayList<>();
+        if (ids.isEmpty() || !listCollections().contains(collectionName)) {
+            return existing;
+        }
+        try {
+            for (Document doc : database.getCollection(collectionName).find(Filters.in("id", ids)).projection(Projections.include("id"))) {
+                existing.add(doc.getString("id"));
+            }
+        } catch (Exception e) {
+            logger.error("Error checking the articles of collection " + collectionName + ": " + e.getMessage());
         }
-        logger.info("All articles saved successfully to collection " + collectionName + ".");
+        return existing;
     }
 
     /**
@@ -163,16 +379,7 @@ public class MongodbService {
                     continue; // Skip to the next ID
                 } 
                 // Convert the Document (BSON) to a JSON file
-                JSONObject article = new JSONObject();
-                article.put("id", doc.getString("id"));
-                article.put("type", doc.getString("type"));
-                article.put("sectionID", doc.getString("sectionID"));
-                article.put("sectionName", doc.getString("sectionName"));
-                article.put("webPublicationDate", doc.getString("webPublicationDate"));
-                article.put("webTitle", doc.getString("webTitle"));
-                article.put("webUrl", doc.getString("webUrl"));
-                article.put("bodyText", doc.getString("bodyText"));
-                articles.add(article);
+                articles.add(documentToJson(doc, collectionName));
 
                 // Send the article to the Mallet service
                 if (articles.size() >= batchSize) {
@@ -201,6 +408,80 @@ public class MongodbService {
         sendEndOfStreamToMalletService(collectionName, query);
     }
 
+    /**
+     * This method retrieves all the articles of a collection in MongoDB published in a date range
+     * and streams them to the Mallet service in batches, without going through Elasticsearch.
+     * The query uses the index on the publication date, and the cursor is read in batches
+     * so that the whole corpus is never loaded in memory.
+     * @param collectionName
+     * @param query
+     * @param startDate the start of the range (inclusive), or null for no lower bound
+     * @param endDate the end of the range (inclusive), or null for no upper bound
+     */
+    @Async
+    public void getArticlesByDateRange(String collectionName, String query, Date startDate, Date endDate) {
+        ArrayList<JSONObject> articles = new ArrayList<>();
+        // Check if the collection exists
+        if (!listCollections().contains(collectionName)) {
+            logger.error("Collection " + collectionName + " does not exist.");
+            sendEndOfStreamToMalletService(collectionName, query);
+            return;
+        }
+        MongoCollection<Document> collection = database.getCollection(collectionName);
+        // Make sure the publication date index exists also for collections created before it was introduced
+        if (indexedCollections.add(collectionName)) {
+            try {
+                collection.createIndex(Indexes.compoundIndex(Indexes.ascending("webPublicationDate"), Indexes.ascending("id")));
+            } catch (Exception e) {
+                indexedCollections.remove(collectionName);
+                logger.warn("Error creating the publication date index on collection " + collectionName + ": " + e.getMessage());
+            }
+        }
+
+        // Build the date range filter
+        List<Bson> filters = new ArrayList<>();
+        if (startDate != null) {
+            filters.add(Filters.gte("webPublicationDate", startDate));
+        }
+        if (endDate != null) {
+            filters.add(Filters.lte("webPublicationDate", endDate));
+        }
+        // Only the articles stored with a BSON date can be matched by the range
+        filters.add(Filters.type("webPublicationDate", BsonType.DATE_TIME));
+
+        int retrieved = 0;
+        try (MongoCursor<Document> cursor = collection.find(Filters.and(filters))
+                .sort(Sorts.ascending("webPublicationDate", "id"))
+                .batchSize(batchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                articles.add(documentToJson(cursor.next(), collectionName));
+                retrieved++;
+                // Send the articles to the Mallet service
+                if (articles.size() >= batchSize) {
+                    articles = sendArticlesToMalletService(articles, collectionName, query);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error retrieving articles by date range from collection " + collectionName + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        if (!articles.isEmpty()) {
+            // If there are still articles left, send them to the Mallet service
+            articles = sendArticlesToMalletService(articles, collectionName, query);
+        }
+
+        // Check if some articles are left
+        if (!articles.isEmpty()) {
+            logger.error("Some articles were not sent to the Mallet Service.");
+        } else {
+            logger.info(retrieved + " articles retrieved by date range from collection " + collectionName + ".");
+        }
+        // Send the end of stream signal to the Mallet service
+        sendEndOfStreamToMalletService(collectionName, query);
+    }
+
     /**
      * This method sends a batch of articles to the Mallet service for processing.
      * @param articles
@@ -0,0 +1,160 @@
+/**
+ * MongodbWriteLimiter.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.mongodb.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import it.unipd.dei.softplat.mongodb.model.MongoArticle;
+import it.unipd.dei.softplat.mongodb.model.SaveResult;
+
+/**
+ * This class is intended to bound the articles being saved in MongoDB.
+ * The batches received by the controller are written on the thread of the request, before the response,
+ * so that an answer 200 means that the articles are stored: the outbox of the DataManager Service keeps them
+ * until then, and sends them again if the write fails.
+ * The articles being written or waiting for the write of their collection are bounded: over the limit
+ * the batch is rejected, so that the caller can retry later instead of holding the threads and the heap.
+ * The batches of the same collection are written one at a time, in the order they arrived,
+ * so that two versions of the same article are never written out of order.
+ */
+@Service
+public class MongodbWriteLimiter {
+
+    private final MongodbService mongodbService;
+    // One permit for each article that can be written or waiting
+    private final Semaphore permits;
+    private final int maxInFlightArticles;
+    // One fair lock for each collection, so its batches are written in arrival order
+    private final Map<String, ReentrantLock> collectionLocks = new ConcurrentHashMap<>();
+    private final AtomicInteger activeWrites = new AtomicInteger();
+    // Counters for the write rate, only the articles of the successful writes are counted
+    private final AtomicLong writtenArticles = new AtomicLong();
+    private final AtomicLong rejectedBatches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private volatile double writeRate;
+    private volatile long lastRateTime = System.currentTimeMillis();
+    private volatile long lastRateWritten;
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(MongodbWriteLimiter.class);
+
+    /**
+     * Default constructor for MongodbWriteLimiter.
+     * @param mongodbService the service writing the articles
+     * @param maxInFlightArticles the maximum number of articles being written or waiting to be written
+     */
+    @Autowired
+    public MongodbWriteLimiter(MongodbService mongodbService,
+            @Value("${mongodb.write.max.in.flight:10000}") int maxInFlightArticles) {
+        this.mongodbService = mongodbService;
+        this.maxInFlightArticles = maxInFlightArticles;
+        this.permits = new Semaphore(maxInFlightArticles);
+    }
+
+    /**
+     * This method writes a batch of articles, after the batches of the same collection received before it.
+     * @param articles
+     * @param collectionName
+     * @return the result of the write, or null if too many articles are in flight and the batch was rejected
+     * @throws RuntimeException if the write fails
+     */
+    public SaveResult write(List<MongoArticle> articles, String collectionName) {
+        // A batch larger than the limit takes all the permits, so it is accepted when nothing else is in flight
+        int batchPermits = Math.min(articles.size(), maxInFlightArticles);
+        if (!permits.tryAcquire(batchPermits)) {
+            rejectedBatches.incrementAndGet();
+            logger.warn("Too many articles in flight, batch of " + articles.size() + " articles for collection " + collectionName + " rejected.");
+            return null;
+        }
+        ReentrantLock lock = collectionLocks.computeIfAbsent(collectionName, name -> new ReentrantLock(true));
+        lock.lock();
+        activeWrites.incrementAndGet();
+        try {
+            SaveResult result = mongodbService.saveArticles(articles, collectionName);
+            if (result.getFailed() > 0) {
+                failedBatches.incrementAndGet();
+            }
+            // The skipped articles are checked against their stored hash, so they are done as well
+            writtenArticles.addAndGet(result.getWritten() + result.getSkipped());
+            logger.info("Saved " + articles.size() + " articles to collection " + collectionName
+                    + " (" + result.getWritten() + " written, " + result.getSkipped() + " skipped, " + result.getFailed() + " failed).");
+            return result;
+        } catch (RuntimeException e) {
+            failedBatches.incrementAndGet();
+            throw e;
+        } finally {
+            activeWrites.decrementAndGet();
+            lock.unlock();
+            permits.release(batchPermits);
+            updateWriteRate();
+        }
+    }
+
+    /**
+     * This method estimates how many seconds the caller should wait before retrying a rejected batch,
+     * based on the articles in flight and the write rate.
+     * @return the number of seconds to wait, at least 1
+     */
+    public long getRetryAfterSeconds() {
+        double rate = writeRate;
+        long inFlight = maxInFlightArticles - permits.availablePermits();
+        if (rate <= 0) {
+            return 5;
+        }
+        return Math.max(1, Math.min(60, (long) Math.ceil(inFlight / rate)));
+    }
+
+    /**
+     * This method returns the articles in flight, the write rate and the number of rejected and failed batches.
+     * @return a JSON object with the write metrics
+     */
+    public JSONObject getStats() {
+        updateWriteRate();
+        JSONObject stats = new JSONObject();
+        stats.put("inFlightArticles", maxInFlightArticles - permits.availablePermits());
+        stats.put("maxInFlightArticles", maxInFlightArticles);
+        stats.put("activeWrites", activeWrites.get());
+        stats.put("writtenArticles", writtenArticles.get());
+        stats.put("writeRate", writeRate);
+        stats.put("rejectedBatches", rejectedBatches.get());
+        stats.put("failedBatches", failedBatches.get());
+        return stats;
+    }
+
+    /**
+     * This method updates the write rate (articles per second) as an exponentially weighted moving average,
+     * at most once per second.
+     */
+    private synchronized void updateWriteRate() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastRateTime;
+        if (elapsed < 1000) {
+            return;
+        }
+        long written = writtenArticles.get();
+        double currentRate = (written - lastRateWritten) * 1000.0 / elapsed;
+        writeRate = writeRate == 0 ? currentRate : 0.7 * writeRate + 0.3 * currentRate;
+        lastRateWritten = written;
+        lastRateTime = now;
+    }
+}
@@ -9,15 +9,29 @@
 package it.unipd.dei.softplat.mongodb;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,10 +49,18 @@ import org.testcontainers.containers.MongoDBContainer;
 import it.unipd.dei.softplat.http.service.HttpClientService;
 import it.unipd.dei.softplat.mongodb.controller.MongodbController;
 import it.unipd.dei.softplat.mongodb.model.MongoArticle;
+import it.unipd.dei.softplat.mongodb.model.SaveResult;
+import it.unipd.dei.softplat.mongodb.service.BodyCompressionService;
+import it.unipd.dei.softplat.mongodb.service.MongodbService;
+import it.unipd.dei.softplat.mongodb.service.MongodbWriteLimiter;
+import it.unipd.dei.softplat.mongodb.dto.ExistingIdsDTO;
 import it.unipd.dei.softplat.mongodb.dto.SaveArticleDTO;
 import it.unipd.dei.softplat.mongodb.dto.SearchArticleDTO;
+import it.unipd.dei.softplat.mongodb.dto.QueryArticleDTO;
 import it.unipd.dei.softplat.testutil.TestAsyncConfig;
 
+import com.mongodb.client.MongoClient;
+
 /**
  * This class is intended to test the MongodbController and MongodbService.
  * It tests the function saveArticles and dropCollection of the MongodbController,
@@ -65,6 +87,12 @@ public class MongodbTest {
     @Autowired @InjectMocks
     private MongodbController mongodbController;
 
+    @Autowired
+    private MongodbService mongodbService;
+
+    @Autowired
+    private MongoClient mongoClient;
+
     /**
      * This test method is intended to test the saveArticles method of the MongodbController.
      * It creates a sample MongoArticle and calls the saveArticles method with it.
@@ -179,6 +207,278 @@ public class MongodbTest {
         assertEquals(HttpStatus.BAD_REQUEST, nullIdResponse.getStatusCode(), "Response should have status code 400 Bad Request");
     }
 
+    /**
+     * This test method is intended to test the backpressure of the write limiter.
+     * It creates a limiter allowing a single article in flight, whose write is held until released,
+     * and checks that a second batch is rejected until the first one is written,
+     * and that a failed write is reported to the caller, frees its permit and is not counted as written.
+     */
+    @Test
+    public void testWriteLimiterBackpressure() throws Exception {
+        // Limiter allowing one article in flight, whose writes wait for the latch
+        MongodbService slowService = mock(MongodbService.class);
+        CountDownLatch release = new CountDownLatch(1);
+        when(slowService.saveArticles(anyList(), anyString())).thenAnswer(invocation -> {
+            release.await();
+            return new SaveResult(1, 0, 0);
+        });
+        MongodbWriteLimiter writeLimiter = new MongodbWriteLimiter(slowService, 1);
+
+        MongoArticle test_article = new MongoArticle(
+            "test_limiter_id",
+            "test_type",
+            "section_id_test",
+            "section_name_test",
+            "2023-10-01T12:00:00Z",
+            "Test Web Title",
+            "https://example.com/test-web-url",
+            "This is a test body text for the MongoDB article."
+        );
+
+        // The first batch holds the only permit until the latch is released
+        Thread writer = new Thread(() -> writeLimiter.write(List.of(test_article), "test_limiter_collection"));
+        writer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writeLimiter.getStats().getInt("activeWrites") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, writeLimiter.getStats().getInt("inFlightArticles"), "One article should be in flight");
+        assertNull(writeLimiter.write(List.of(test_article), "test_limiter_collection"), "Second batch should be rejected");
+        assertEquals(1, writeLimiter.getStats().getLong("rejectedBatches"), "One batch should be rejected");
+        assertTrue(writeLimiter.getRetryAfterSeconds() >= 1, "Retry-After should be at least one second");
+
+        // Once the first batch is written, the limiter accepts batches again
+        release.countDown();
+        writer.join(5000);
+        assertEquals(0, writeLimiter.getStats().getInt("inFlightArticles"), "No article should be in flight");
+        SaveResult result = writeLimiter.write(List.of(test_article), "test_limiter_collection");
+        assertNotNull(result, "Batch should be written once no article is in flight");
+        assertEquals(1, result.getWritten(), "One article should be written");
+        assertEquals(2, writeLimiter.getStats().getLong("writtenArticles"), "Two articles should be written");
+
+        // A failed write reaches the caller, so the batch is sent again, and frees its permit
+        when(slowService.saveArticles(anyList(), anyString())).thenThrow(new IllegalStateException("MongoDB unavailable"));
+        assertThrows(IllegalStateException.class, () -> writeLimiter.write(List.of(test_article), "test_limiter_collection"),
+            "The failure of the write should reach the caller");
+        assertEquals(1, writeLimiter.getStats().getLong("failedBatches"), "One batch should be failed");
+        assertEquals(0, writeLimiter.getStats().getInt("inFlightArticles"), "The failed batch should free its permit");
+        assertEquals(2, writeLimiter.getStats().getLong("writtenArticles"), "The failed batch should not be counted as written");
+    }
+
+    /**
+     * This test method is intended to test the queryArticles method of the MongodbController.
+     * It saves an article, retrieves the articles of the collection in a date range
+     * and checks that they are streamed to the Mallet service.
+     * It also tests the method with invalid parameters to ensure proper error handling.
+     */
+    @Test
+    public void testQueryArticles() {
+        // Mock configuration
+        when(httpClientService.postRequest(
+                eq("http://mallet-service:8084/mallet/accumulate/"),
+                anyString()
+            )
+        ).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+
+        // Save an article
+        MongoArticle test_article = new MongoArticle(
+            "test_query_id",
+            "test_type",
+            "section_id_test",
+            "section_name_test",
+            "2023-10-01T12:00:00Z",
+            "Test Web Title",
+            "https://example.com/test-web-url",
+            "This is a test body text for the MongoDB article."
+        );
+        mongodbController.saveArticles(new SaveArticleDTO(List.of(test_article), "test_query_collection"));
+
+        Date startDate = Date.from(Instant.parse("2023-09-01T00:00:00Z"));
+        Date endDate = Date.from(Instant.parse("2023-11-01T00:00:00Z"));
+
+        // Call the queryArticles method with a valid date range
+        ResponseEntity<?> response = mongodbController.queryArticles(new QueryArticleDTO("test_query_collection", "test_query", startDate, endDate));
+        assertNotNull(response, "Response should not be null");
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response should have status code 200 OK");
+
+        // One batch with the article and the end of stream signal
+        verify(httpClientService, times(2)).postRequest(eq("http://mallet-service:8084/mallet/accumulate/"), anyString());
+
+        // Call the queryArticles method with the start date after the end date
+        ResponseEntity<?> invalidRangeResponse = mongodbController.queryArticles(new QueryArticleDTO("test_query_collection", "test_query", endDate, startDate));
+        assertNotNull(invalidRangeResponse, "Response should not be null");
+        assertEquals(HttpStatus.BAD_REQUEST, invalidRangeResponse.getStatusCode(), "Response should have status code 400 Bad Request");
+
+        // Call the queryArticles method with a null collection name
+        ResponseEntity<?> nullCollectionResponse = mongodbController.queryArticles(new QueryArticleDTO(null, "test_query", startDate, endDate));
+        assertNotNull(nullCollectionResponse, "Response should not be null");
+        assertEquals(HttpStatus.BAD_REQUEST, nullCollectionResponse.getStatusCode(), "Response should have status code 400 Bad Request");
+    }
+
+    /**
+     * This test method is intended to test the existingIds method of the MongodbController.
+     * It saves an article and checks that only its ID is reported as stored,
+     * also for a collection that does not exist and for a null list of IDs.
+     */
+    @Test
+    public void testExistingIds() {
+        MongoArticle test_article = new MongoArticle(
+            "test_existing_id",
+            "test_type",
+            "section_id_test",
+            "section_name_test",
+            "2023-10-01T12:00:00Z",
+            "Test Web Title",
+            "https://example.com/test-web-url",
+            "This is a test body text for the MongoDB article."
+        );
+        mongodbService.saveArticles(List.of(test_article), "test_existing_collection");
+
+        ResponseEntity<?> response = mongodbController.existingIds(new ExistingIdsDTO("test_existing_collection", List.of("test_existing_id", "test_missing_id")));
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response should have status code 200 OK");
+        JSONArray existing = new JSONArray(response.getBody().toString());
+        assertEquals(1, existing.length(), "Only the stored article should be reported");
+        assertEquals("test_existing_id", existing.getString(0));
+
+        ResponseEntity<?> missingCollectionResponse = mongodbController.existingIds(new ExistingIdsDTO("test_missing_collection", List.of("test_existing_id")));
+        assertEquals(HttpStatus.OK, missingCollectionResponse.getStatusCode(), "Response should have status code 200 OK");
+        assertEquals(0, new JSONArray(missingCollectionResponse.getBody().toString()).length(), "No article should be stored in a missing collection");
+
+        ResponseEntity<?> nullIdsResponse = mongodbController.existingIds(new ExistingIdsDTO("test_existing_collection", null));
+        assertEquals(HttpStatus.BAD_REQUEST, nullIdsResponse.getStatusCode(), "Response should have status code 400 Bad Request");
+    }
+
+    /**
+     * This test method is intended to test the content hash change detection of the MongodbService.
+     * It saves the same article twice and checks that the second save is skipped,
+     * then changes the body text and checks that the article is written again.
+     */
+    @Test
+    public void testSaveArticlesSkipsUnchanged() {
+        MongoArticle test_article = new MongoArticle(
+            "test_hash_id",
+            "test_type",
+            "section_id_test",
+            "section_name_test",
+            "2023-10-01T12:00:00Z",
+            "Test Web Title",
+            "https://example.com/test-web-url",
+            "This is a test body text for the MongoDB article."
+        );
+
+        // First save: the article is new
+        SaveResult first = mongodbService.saveArticles(List.of(test_article), "test_hash_collection");
+        assertEquals(1, first.getWritten(), "New article should be written");
+        assertEquals(0, first.getSkipped(), "New article should not be skipped");
+
+        // Second save: the article is unchanged
+        SaveResult second = mongodbService.saveArticles(List.of(test_article), "test_hash_collection");
+        assertEquals(0, second.getWritten(), "Unchanged article should not be written");
+        assertEquals(1, second.getSkipped(), "Unchanged article should be skipped");
+
+        // Third save: the body text changed
+        test_article.setBodyText("This is an updated body text for the MongoDB article.");
+        SaveResult third = mongodbService.saveArticles(List.of(test_article), "test_hash_collection");
+        assertEquals(1, third.getWritten(), "Changed article should be written");
+        assertEquals(0, third.getSkipped(), "Changed article should not be skipped");
+    }
+
+    /**
+     * This test method is intended to test the getMetrics method of the MongodbController.
+     * It saves an article and checks that the find and update commands issued by the save
+     * are recorded by the driver listeners.
+     */
+    @Test
+    public void testMetrics() {
+        MongoArticle test_article = new MongoArticle(
+            "test_metrics_id",
+            "test_type",
+            "section_id_test",
+            "section_name_test",
+            "2023-10-01T12:00:00Z",
+            "Test Web Title",
+            "https://example.com/test-web-url",
+            "This is a test body text for the MongoDB article."
+        );
+        mongodbController.saveArticles(new SaveArticleDTO(List.of(test_article), "test_metrics_collection"));
+
+        ResponseEntity<?> response = mongodbController.getMetrics();
+        assertNotNull(response, "Response should not be null");
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response should have status code 200 OK");
+
+        JSONObject metrics = new JSONObject((String) response.getBody());
+        JSONObject commands = metrics.getJSONObject("commands");
+        assertTrue(commands.has("find"), "The find command should be recorded");
+        assertTrue(commands.has("update"), "The update command should be recorded");
+        assertTrue(commands.getJSONObject("update").getLong("count") > 0, "The update command should have at least one sample");
+        assertTrue(metrics.getJSONObject("network").getLong("bytesSent") > 0, "Some bytes should be sent to MongoDB");
+        assertEquals(0, metrics.getJSONObject("pool").getInt("checkedOut"), "No connection should be checked out after the save");
+    }
+
+    /**
+     * This test method is intended to test the compressed storage of the body text.
+     * It trains a dictionary on a sample of body texts, checks that the compressed body text
+     * is decompressed back to the original text, and reports the compression ratio
+     * and the encoding and decoding time per article.
+     * Then it checks that the dictionary of a collection is trained once enough body texts are gathered
+     * from its batches, and that it is removed when the collection is dropped.
+     */
+    @Test
+    public void testBodyCompression() {
+        BodyCompressionService compressionService = new BodyCompressionService(mongoClient, "deflate");
+
+        // Sample of body texts sharing the vocabulary of a corpus
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add("Article number " + i + " about climate change. The government said on Tuesday that the new policy "
+                + "on carbon emissions will be presented to the parliament next week, while the opposition asked for "
+                + "a stronger commitment on renewable energy and on the protection of the environment. " + i);
+        }
+        compressionService.prepareDictionary("test_compression_collection", bodies.subList(0, 100));
+
+        long plainBytes = 0;
+        long compressedBytes = 0;
+        long encodeTime = 0;
+        long decodeTime = 0;
+        for (String body : bodies) {
+            long start = System.nanoTime();
+            Object encoded = compressionService.encode("test_compression_collection", body);
+            encodeTime += System.nanoTime() - start;
+            assertTrue(encoded instanceof Binary, "Body text should be stored as binary");
+
+            start = System.nanoTime();
+            String decoded = compressionService.decode("test_compression_collection", encoded);
+            decodeTime += System.nanoTime() - start;
+            assertEquals(body, decoded, "Decoded body text should match the original one");
+
+            plainBytes += body.getBytes().length;
+            compressedBytes += ((Binary) encoded).length();
+        }
+        System.out.println("Body compression: " + plainBytes + " -> " + compressedBytes + " bytes, encode "
+            + (encodeTime / bodies.size() / 1000) + " us/article, decode " + (decodeTime / bodies.size() / 1000) + " us/article");
+        assertTrue(compressedBytes < plainBytes, "Compressed body texts should be smaller than the plain ones");
+
+        // Plain text body texts stored before enabling the compression are still readable
+        assertEquals("plain body text", compressionService.decode("test_compression_collection", "plain body text"));
+
+        // A collection with too few body texts is compressed without dictionary, which is trained from a later batch
+        compressionService.prepareDictionary("test_small_collection", bodies.subList(0, 10));
+        Object withoutDictionary = compressionService.encode("test_small_collection", bodies.get(0));
+        assertEquals(0, ((Binary) withoutDictionary).getData()[0], "Body text should be compressed without dictionary");
+        compressionService.prepareDictionary("test_small_collection", bodies.subList(10, 100));
+        Object withDictionary = compressionService.encode("test_small_collection", bodies.get(0));
+        assertEquals(1, ((Binary) withDictionary).getData()[0], "The dictionary should be trained from a later batch");
+        assertEquals(bodies.get(0), compressionService.decode("test_small_collection", withoutDictionary));
+        assertEquals(bodies.get(0), compressionService.decode("test_small_collection", withDictionary));
+
+        // Dropping the collection removes its dictionary, stored and in memory
+        compressionService.dropDictionary("test_small_collection");
+        assertEquals(0, mongoClient.getDatabase("softplatDB").getCollection("bodyDictionaries")
+            .countDocuments(new Document("collectionName", "test_small_collection")), "The stored dictionary should be removed");
+        assertEquals(0, ((Binary) compressionService.encode("test_small_collection", bodies.get(0))).getData()[0],
+            "Body text should be compressed without dictionary after the drop");
+    }
+
     /**
      * This test method is intended to test the MongoArticle class getters and setters.
      * It creates a MongoArticle object, sets its properties, and asserts that the getters return the expected values.
@@ -16,6 +16,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.web.client.RestTemplate;
 
+import it.unipd.dei.softplat.http.service.HttpClientService;
+
 /**
  * This class is intended to start the Monitoring Service application.
  */
@@ -25,7 +27,7 @@ public class MonitoringApp {
     
     @Bean
     public RestTemplate restTemplate() {
-        return new RestTemplate();
+        return HttpClientService.createRestTemplate();
     } 
 
     public static void main(String[] args){
@@ -13,26 +13,38 @@ package it.unipd.dei.softplat.monitoring.controller;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
+import it.unipd.dei.softplat.monitoring.model.Monitor;
+import it.unipd.dei.softplat.monitoring.model.MonitorIdRequest;
 import it.unipd.dei.softplat.monitoring.model.MonitoringRequest;
-import it.unipd.dei.softplat.monitoring.service.MonitoringService;
+import it.unipd.dei.softplat.monitoring.service.DataManagerSender;
+import it.unipd.dei.softplat.monitoring.service.GuardianRateLimiter;
+import it.unipd.dei.softplat.monitoring.service.KnownArticleStore;
+import it.unipd.dei.softplat.monitoring.service.MonitorScheduler;
 import jakarta.validation.Valid;
 
 /**
  * This class is intended to handle requests related to monitoring.
  * It provides an endpoint to start monitoring for a specific issue query.
  * The request must include the issue query, label, start date, and end date.
+ * Each request registers a monitor (continuous if it has no end date), which can be listed, paused, resumed and cancelled.
  */
 @RestController
 public class MonitoringController {
 
-    private final MonitoringService monitoringService;
+    private final MonitorScheduler monitorScheduler;
+    private final GuardianRateLimiter rateLimiter;
+    private final DataManagerSender dataManagerSender;
+    private final KnownArticleStore knownArticleStore;
 
     // For logging
     private static final Logger logger = LogManager.getLogger(MonitoringController.class);
@@ -41,14 +53,18 @@ public class MonitoringController {
      * Default constructor for MonitoringController.
      */
     @Autowired
-    public MonitoringController(MonitoringService monitoringService) {
-        this.monitoringService = monitoringService;
+    public MonitoringController(MonitorScheduler monitorScheduler, GuardianRateLimiter rateLimiter,
+            DataManagerSender dataManagerSender, KnownArticleStore knownArticleStore) {
+        this.monitorScheduler = monitorScheduler;
+        this.rateLimiter = rateLimiter;
+        this.dataManagerSender = dataManagerSender;
+        this.knownArticleStore = knownArticleStore;
     }
 
     /**
      * Handles the request to start monitoring for a specific issue query.
      * @param request The request containing the issue query, label, start date, and end date.
-     * @return A ResponseEntity indicating the result of the operation.
+     * @return A ResponseEntity with the ID of the monitor started and a message, or the error.
      */
     @PostMapping("/monitoring/start/")
     public ResponseEntity<?> startMonitoring(@Valid @RequestBody MonitoringRequest request){
@@ -70,11 +86,114 @@ public class MonitoringController {
             return ResponseEntity.badRequest().body("Start date cannot be null.");
         }
 
-        // Start the monitoring process
-        monitoringService.startMonitoring(request);
+        // Register the monitor: a request without end date is polled by the scheduler, the others run once
+        Monitor monitor = monitorScheduler.start(request);
+
+        logger.info("Monitoring " + monitor.getMonitorId() + " started for issue query: " + request.getissueString());
+
+        // The Client Service matches the statuses of the monitor by its ID
+        JSONObject started = new JSONObject();
+        started.put("monitorId", monitor.getMonitorId());
+        started.put("message", "Monitor \"" + monitor.getMonitorId() + "\" for issue query \"" + request.getissueString() + "\" started successfully.");
+        return ResponseEntity.ok(started.toString());
+    }
+
+    /**
+     * Handles the request to list the monitors.
+     * @return A ResponseEntity with the monitors, their state, their poll interval and the resources they used.
+     */
+    @GetMapping("/monitoring/monitors/")
+    public ResponseEntity<?> listMonitors() {
+        return ResponseEntity.ok().body(monitorScheduler.list().toString());
+    }
+
+    /**
+     * Handles the request to pause a monitor, keeping its checkpoint.
+     * @param request The request containing the ID of the monitor.
+     * @return A ResponseEntity indicating the result of the operation.
+     */
+    @PostMapping("/monitoring/monitors/pause/")
+    public ResponseEntity<?> pauseMonitor(@Valid @RequestBody MonitorIdRequest request) {
+        if (request == null || request.getMonitorId() == null || request.getMonitorId().isEmpty()) {
+            logger.error("Monitor ID cannot be null or empty.");
+            return ResponseEntity.badRequest().body("Monitor ID cannot be null or empty.");
+        }
+        if (monitorScheduler.get(request.getMonitorId()) == null) {
+            logger.error("Monitor not found: " + request.getMonitorId());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Monitor not found: " + request.getMonitorId());
+        }
+        if (!monitorScheduler.pause(request.getMonitorId())) {
+            logger.error("Monitor not running: " + request.getMonitorId());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Monitor not running: " + request.getMonitorId());
+        }
+        return ResponseEntity.ok("Monitor \"" + request.getMonitorId() + "\" paused successfully.");
+    }
+
+    /**
+     * Handles the request to resume a paused monitor from its checkpoint.
+     * @param request The request containing the ID of the monitor.
+     * @return A ResponseEntity indicating the result of the operation.
+     */
+    @PostMapping("/monitoring/monitors/resume/")
+    public ResponseEntity<?> resumeMonitor(@Valid @RequestBody MonitorIdRequest request) {
+        if (request == null || request.getMonitorId() == null || request.getMonitorId().isEmpty()) {
+            logger.error("Monitor ID cannot be null or empty.");
+            return ResponseEntity.badRequest().body("Monitor ID cannot be null or empty.");
+        }
+        if (monitorScheduler.get(request.getMonitorId()) == null) {
+            logger.error("Monitor not found: " + request.getMonitorId());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Monitor not found: " + request.getMonitorId());
+        }
+        if (!monitorScheduler.resume(request.getMonitorId())) {
+            logger.error("Monitor not paused: " + request.getMonitorId());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Monitor not paused: " + request.getMonitorId());
+        }
+        return ResponseEntity.ok("Monitor \"" + request.getMonitorId() + "\" resumed successfully.");
+    }
+
+    /**
+     * Handles the request to cancel a monitor, deleting its checkpoint.
+     * The old stop endpoint is kept for the clients that use it.
+     * @param request The request containing the ID of the monitor.
+     * @return A ResponseEntity indicating the result of the operation.
+     */
+    @PostMapping({"/monitoring/monitors/cancel/", "/monitoring/monitors/stop/"})
+    public ResponseEntity<?> cancelMonitor(@Valid @RequestBody MonitorIdRequest request) {
+        if (request == null || request.getMonitorId() == null || request.getMonitorId().isEmpty()) {
+            logger.error("Monitor ID cannot be null or empty.");
+            return ResponseEntity.badRequest().body("Monitor ID cannot be null or empty.");
+        }
+        if (!monitorScheduler.cancel(request.getMonitorId())) {
+            logger.error("Monitor not found: " + request.getMonitorId());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Monitor not found: " + request.getMonitorId());
+        }
+        return ResponseEntity.ok("Monitor \"" + request.getMonitorId() + "\" cancelled successfully.");
+    }
+
+    /**
+     * Handles the request for the metrics of the rate controller of The Guardian API calls.
+     * @return A ResponseEntity with the current rate, the calls allowed, rejected and throttled and the daily quota used.
+     */
+    @GetMapping("/monitoring/rate/stats/")
+    public ResponseEntity<?> getRateStats() {
+        return ResponseEntity.ok().body(rateLimiter.getStats().toString());
+    }
 
-        logger.info("Monitoring started for issue query: " + request.getissueString());
+    /**
+     * Handles the request for the metrics of the delivery of the articles to the DataManager Service.
+     * @return A ResponseEntity with the batches waiting and delivered, the failures and the time the monitors waited for the queue.
+     */
+    @GetMapping("/monitoring/delivery/stats/")
+    public ResponseEntity<?> getDeliveryStats() {
+        return ResponseEntity.ok().body(dataManagerSender.getStats().toString());
+    }
 
-        return ResponseEntity.ok("Monitoring for issue query \""+request.getissueString()+"\" started successfully.");
+    /**
+     * Handles the request for the metrics of the articles skipped because already stored.
+     * @return A ResponseEntity with the labels and articles known, and the articles found locally or in MongoDB.
+     */
+    @GetMapping("/monitoring/known/stats/")
+    public ResponseEntity<?> getKnownStats() {
+        return ResponseEntity.ok().body(knownArticleStore.getStats().toString());
     }
 }
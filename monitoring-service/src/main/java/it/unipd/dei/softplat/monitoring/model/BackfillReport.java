@@ -0,0 +1,213 @@
+/**
+ * BackfillReport.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+import org.json.JSONObject;
+
+/**
+ * This class represents the outcome of the backfill of a date range.
+ * It contains the number of windows the range was split into, the total number of results
+ * reported by The Guardian API, the number of articles fetched with their body text,
+ * the number of API calls, the elapsed time and whether the backfill was stopped by the daily quota.
+ */
+public class BackfillReport {
+
+    private String issueString;
+    private int windows;
+    private int truncatedWindows;
+    private int total;
+    private int fetched;
+    private int apiCalls;
+    private long elapsedMillis;
+    private boolean rateLimitExceeded;
+
+    /**
+     * Default constructor for BackfillReport.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public BackfillReport() { }
+
+    /**
+     * Constructor for BackfillReport.
+     * This constructor initializes a BackfillReport object for the given issue query.
+     * @param issueString
+     */
+    public BackfillReport(String issueString) {
+        this.issueString = issueString;
+    }
+
+    /**
+     * This method adds a window of the backfill to the report.
+     * @param window
+     */
+    public void addWindow(BackfillWindow window) {
+        this.windows++;
+        if (window.isTruncated()) {
+            this.truncatedWindows++;
+        }
+        this.total += window.getTotal();
+        // The articles already stored are covered, even if they are not fetched again
+        this.fetched += window.getBodies().size() + window.getKnown();
+        this.apiCalls += window.getApiCalls();
+    }
+
+    /**
+     * Returns the ratio between the articles fetched and the total number of results.
+     * @return the coverage, 1 if there are no results
+     */
+    public double getCoverage() {
+        return this.total > 0 ? (double) this.fetched / this.total : 1.0;
+    }
+
+    /**
+     * This method returns the report as a JSON object.
+     * @return a JSON object with the report
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("issueString", issueString);
+        json.put("windows", windows);
+        json.put("truncatedWindows", truncatedWindows);
+        json.put("total", total);
+        json.put("fetched", fetched);
+        json.put("coverage", getCoverage());
+        json.put("apiCalls", apiCalls);
+        json.put("elapsedMillis", elapsedMillis);
+        json.put("rateLimitExceeded", rateLimitExceeded);
+        return json;
+    }
+
+    /**
+     * Returns the issue query of the backfill.
+     * @return the issue query
+     */
+    public String getIssueString() {
+        return this.issueString;
+    }
+
+    /**
+     * Sets the issue query of the backfill.
+     * @param issueString
+     */
+    public void setIssueString(String issueString) {
+        this.issueString = issueString;
+    }
+
+    /**
+     * Returns the number of windows the range was split into.
+     * @return the number of windows
+     */
+    public int getWindows() {
+        return this.windows;
+    }
+
+    /**
+     * Sets the number of windows.
+     * @param windows
+     */
+    public void setWindows(int windows) {
+        this.windows = windows;
+    }
+
+    /**
+     * Returns the number of windows truncated at the page cap.
+     * @return the number of truncated windows
+     */
+    public int getTruncatedWindows() {
+        return this.truncatedWindows;
+    }
+
+    /**
+     * Sets the number of windows truncated at the page cap.
+     * @param truncatedWindows
+     */
+    public void setTruncatedWindows(int truncatedWindows) {
+        this.truncatedWindows = truncatedWindows;
+    }
+
+    /**
+     * Returns the total number of results of the range reported by The Guardian API.
+     * @return the total number of results
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * Sets the total number of results of the range.
+     * @param total
+     */
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    /**
+     * Returns the number of articles fetched with their body text.
+     * @return the number of articles fetched
+     */
+    public int getFetched() {
+        return this.fetched;
+    }
+
+    /**
+     * Sets the number of articles fetched with their body text.
+     * @param fetched
+     */
+    public void setFetched(int fetched) {
+        this.fetched = fetched;
+    }
+
+    /**
+     * Returns the number of API calls made, including the retries.
+     * @return the number of API calls
+     */
+    public int getApiCalls() {
+        return this.apiCalls;
+    }
+
+    /**
+     * Sets the number of API calls made.
+     * @param apiCalls
+     */
+    public void setApiCalls(int apiCalls) {
+        this.apiCalls = apiCalls;
+    }
+
+    /**
+     * Returns the elapsed time of the backfill.
+     * @return the elapsed time, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return this.elapsedMillis;
+    }
+
+    /**
+     * Sets the elapsed time of the backfill.
+     * @param elapsedMillis
+     */
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Returns true if the backfill was stopped because the daily quota of the API was exceeded.
+     * @return true if the rate limit was exceeded
+     */
+    public boolean isRateLimitExceeded() {
+        return this.rateLimitExceeded;
+    }
+
+    /**
+     * Sets whether the backfill was stopped by the daily quota of the API.
+     * @param rateLimitExceeded
+     */
+    public void setRateLimitExceeded(boolean rateLimitExceeded) {
+        this.rateLimitExceeded = rateLimitExceeded;
+    }
+}
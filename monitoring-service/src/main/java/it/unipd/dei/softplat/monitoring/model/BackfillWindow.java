@@ -0,0 +1,216 @@
+/**
+ * BackfillWindow.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.apitheguardian.bean.Article;
+
+/**
+ * This class represents a date window of a backfill, with the articles fetched in it.
+ * It contains the bounds of the window, the total number of results and of pages reported by The Guardian API,
+ * the articles with their body texts (by article ID), the number of articles skipped as already stored, the number of API calls made,
+ * whether the window was truncated at the page cap and whether all its pages were fetched.
+ */
+public class BackfillWindow {
+
+    private Date fromDate;
+    private Date toDate;
+    private int total;
+    private int pages;
+    private List<Article> articles = new ArrayList<>();
+    private Map<String, String> bodies = new HashMap<>();
+    private int known;
+    private int apiCalls;
+    private boolean truncated;
+    private boolean complete;
+
+    /**
+     * Default constructor for BackfillWindow.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public BackfillWindow() { }
+
+    /**
+     * Constructor for BackfillWindow.
+     * This constructor initializes a BackfillWindow object with the bounds of the window.
+     * @param fromDate
+     * @param toDate
+     */
+    public BackfillWindow(Date fromDate, Date toDate) {
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+    }
+
+    /**
+     * Returns the start of the window.
+     * @return the start date
+     */
+    public Date getFromDate() {
+        return this.fromDate;
+    }
+
+    /**
+     * Sets the start of the window.
+     * @param fromDate
+     */
+    public void setFromDate(Date fromDate) {
+        this.fromDate = fromDate;
+    }
+
+    /**
+     * Returns the end of the window (inclusive).
+     * @return the end date
+     */
+    public Date getToDate() {
+        return this.toDate;
+    }
+
+    /**
+     * Sets the end of the window (inclusive).
+     * @param toDate
+     */
+    public void setToDate(Date toDate) {
+        this.toDate = toDate;
+    }
+
+    /**
+     * Returns the total number of results of the window reported by The Guardian API.
+     * @return the total number of results
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * Sets the total number of results of the window.
+     * @param total
+     */
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    /**
+     * Returns the number of pages of the window reported by The Guardian API.
+     * @return the number of pages
+     */
+    public int getPages() {
+        return this.pages;
+    }
+
+    /**
+     * Sets the number of pages of the window.
+     * @param pages
+     */
+    public void setPages(int pages) {
+        this.pages = pages;
+    }
+
+    /**
+     * Returns the articles fetched in the window, in the order of the pages.
+     * @return the articles
+     */
+    public List<Article> getArticles() {
+        return this.articles;
+    }
+
+    /**
+     * Sets the articles fetched in the window.
+     * @param articles
+     */
+    public void setArticles(List<Article> articles) {
+        this.articles = articles;
+    }
+
+    /**
+     * Returns the body texts of the articles, by article ID.
+     * The articles whose body could not be fetched are missing.
+     * @return the body texts
+     */
+    public Map<String, String> getBodies() {
+        return this.bodies;
+    }
+
+    /**
+     * Sets the body texts of the articles, by article ID.
+     * @param bodies
+     */
+    public void setBodies(Map<String, String> bodies) {
+        this.bodies = bodies;
+    }
+
+    /**
+     * Returns the number of articles of the window skipped because already stored.
+     * @return the number of known articles
+     */
+    public int getKnown() {
+        return this.known;
+    }
+
+    /**
+     * Sets the number of articles of the window skipped because already stored.
+     * @param known
+     */
+    public void setKnown(int known) {
+        this.known = known;
+    }
+
+    /**
+     * Returns the number of API calls made for the window, including the retries.
+     * @return the number of API calls
+     */
+    public int getApiCalls() {
+        return this.apiCalls;
+    }
+
+    /**
+     * Sets the number of API calls made for the window.
+     * @param apiCalls
+     */
+    public void setApiCalls(int apiCalls) {
+        this.apiCalls = apiCalls;
+    }
+
+    /**
+     * Returns true if the window has more pages than the cap and could not be split further.
+     * @return true if the window was truncated
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+
+    /**
+     * Sets whether the window was truncated at the page cap.
+     * @param truncated
+     */
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    /**
+     * Returns true if all the pages of the window (up to the cap) were fetched.
+     * A window is incomplete when a page could not be fetched or the daily quota was exceeded.
+     * @return true if the window is complete
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Sets whether all the pages of the window were fetched.
+     * @param complete
+     */
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * BodyFetchResult.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class represents the outcome of fetching the body text of a list of articles
+ * from The Guardian Open Platform API.
+ * It contains the body texts by article ID, the number of API calls made
+ * and whether the daily quota of the API was exceeded.
+ */
+public class BodyFetchResult {
+
+    private Map<String, String> bodies = new HashMap<>();
+    private int apiCalls;
+    private boolean rateLimitExceeded;
+
+    /**
+     * Default constructor for BodyFetchResult.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public BodyFetchResult() { }
+
+    /**
+     * Constructor for BodyFetchResult.
+     * This constructor initializes a BodyFetchResult object with the provided parameters.
+     * @param bodies
+     * @param apiCalls
+     * @param rateLimitExceeded
+     */
+    public BodyFetchResult(Map<String, String> bodies, int apiCalls, boolean rateLimitExceeded) {
+        this.bodies = bodies;
+        this.apiCalls = apiCalls;
+        this.rateLimitExceeded = rateLimitExceeded;
+    }
+
+    /**
+     * Returns the body texts fetched, by article ID.
+     * @return the body texts
+     */
+    public Map<String, String> getBodies() {
+        return this.bodies;
+    }
+
+    /**
+     * Sets the body texts fetched, by article ID.
+     * @param bodies
+     */
+    public void setBodies(Map<String, String> bodies) {
+        this.bodies = bodies;
+    }
+
+    /**
+     * Returns the number of API calls made, including the retries.
+     * @return the number of API calls
+     */
+    public int getApiCalls() {
+        return this.apiCalls;
+    }
+
+    /**
+     * Sets the number of API calls made.
+     * @param apiCalls
+     */
+    public void setApiCalls(int apiCalls) {
+        this.apiCalls = apiCalls;
+    }
+
+    /**
+     * Returns true if the daily quota of the API was exceeded.
+     * @return true if the rate limit was exceeded
+     */
+    public boolean isRateLimitExceeded() {
+        return this.rateLimitExceeded;
+    }
+
+    /**
+     * Sets whether the daily quota of the API was exceeded.
+     * @param rateLimitExceeded
+     */
+    public void setRateLimitExceeded(boolean rateLimitExceeded) {
+        this.rateLimitExceeded = rateLimitExceeded;
+    }
+}
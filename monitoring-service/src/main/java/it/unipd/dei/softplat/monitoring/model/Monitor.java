@@ -0,0 +1,243 @@
+/**
+ * Monitor.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+import java.util.Date;
+import java.util.concurrent.Future;
+
+import org.json.JSONObject;
+
+/**
+ * This class represents a monitor registered in the MonitorScheduler.
+ * A monitor without end date is continuous: it is polled at its poll interval, shifted at random by up to its jitter.
+ * A monitor with end date runs once over its date range.
+ * It contains the request and the checkpoint of the monitor, its state, the task running or waiting to run it,
+ * the counters of its cycles and the resources it used.
+ */
+public class Monitor {
+
+    private final String monitorId;
+    private final MonitoringRequest request;
+    private final MonitoringCheckpoint checkpoint;
+    private final MonitorUsage usage = new MonitorUsage();
+    private final Date createdAt = new Date();
+    private long pollInterval;
+    private final long pollJitter;
+    private MonitorState state = MonitorState.SCHEDULED;
+    private Future<?> task;
+    private int generation;
+    private int cycles;
+    private int lastYield;
+    private Date lastPoll;
+    private Date nextPoll;
+
+    /**
+     * Constructor for Monitor.
+     * @param request
+     * @param checkpoint
+     * @param pollInterval the initial poll interval, in milliseconds
+     * @param pollJitter the maximum random shift of each poll, in milliseconds
+     */
+    public Monitor(MonitoringRequest request, MonitoringCheckpoint checkpoint, long pollInterval, long pollJitter) {
+        this.monitorId = checkpoint.getMonitorId();
+        this.request = request;
+        this.checkpoint = checkpoint;
+        this.pollInterval = pollInterval;
+        this.pollJitter = pollJitter;
+    }
+
+    /**
+     * This method records the outcome of a cycle.
+     * @param retrieved the number of articles retrieved, or -1 if the cycle was stopped
+     */
+    public synchronized void recordCycle(int retrieved) {
+        this.cycles++;
+        this.lastYield = retrieved;
+        this.lastPoll = new Date();
+    }
+
+    /**
+     * This method returns the state of the monitor as a JSON object.
+     * @return a JSON object with the monitor
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("monitorId", monitorId);
+        json.put("issueString", request.getissueString());
+        json.put("label", request.getLabel());
+        json.put("continuous", isContinuous());
+        json.put("state", state.name());
+        json.put("createdAt", createdAt.toInstant().toString());
+        json.put("windowStart", checkpoint.getWindowStart() != null ? checkpoint.getWindowStart().toInstant().toString() : JSONObject.NULL);
+        json.put("endDate", request.getEndDate() != null ? request.getEndDate().toInstant().toString() : JSONObject.NULL);
+        json.put("pollInterval", pollInterval);
+        json.put("pollJitter", pollJitter);
+        json.put("cycles", cycles);
+        json.put("articles", usage.getArticles());
+        json.put("lastYield", lastYield);
+        json.put("lastPoll", lastPoll != null ? lastPoll.toInstant().toString() : JSONObject.NULL);
+        json.put("nextPoll", nextPoll != null && state == MonitorState.SCHEDULED ? nextPoll.toInstant().toString() : JSONObject.NULL);
+        json.put("usage", usage.toJSON());
+        return json;
+    }
+
+    /**
+     * Returns the ID of the monitor.
+     * @return the monitor ID
+     */
+    public String getMonitorId() {
+        return this.monitorId;
+    }
+
+    /**
+     * Returns the request of the monitor.
+     * @return the monitoring request
+     */
+    public MonitoringRequest getRequest() {
+        return this.request;
+    }
+
+    /**
+     * Returns the checkpoint of the monitor.
+     * @return the checkpoint
+     */
+    public MonitoringCheckpoint getCheckpoint() {
+        return this.checkpoint;
+    }
+
+    /**
+     * Returns the resources used by the monitor.
+     * @return the usage
+     */
+    public MonitorUsage getUsage() {
+        return this.usage;
+    }
+
+    /**
+     * Checks if the monitor is continuous, i.e. it has no end date.
+     * @return true if the monitor is continuous
+     */
+    public boolean isContinuous() {
+        return this.request.getEndDate() == null;
+    }
+
+    /**
+     * Returns the state of the monitor.
+     * @return the state
+     */
+    public synchronized MonitorState getState() {
+        return this.state;
+    }
+
+    /**
+     * Sets the state of the monitor.
+     * @param state
+     */
+    public synchronized void setState(MonitorState state) {
+        this.state = state;
+    }
+
+    /**
+     * Returns the task running or waiting to run the monitor.
+     * @return the task, or null
+     */
+    public synchronized Future<?> getTask() {
+        return this.task;
+    }
+
+    /**
+     * Sets the task running or waiting to run the monitor.
+     * @param task
+     */
+    public synchronized void setTask(Future<?> task) {
+        this.task = task;
+    }
+
+    /**
+     * Returns the generation of the runs of the monitor.
+     * A task runs the monitor only if the generation did not change since it was scheduled.
+     * @return the generation
+     */
+    public synchronized int getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * This method starts a new generation of runs, so the tasks scheduled before are ignored,
+     * e.g. when the monitor is paused while one of its runs is stopping.
+     * @return the new generation
+     */
+    public synchronized int nextGeneration() {
+        return ++this.generation;
+    }
+
+    /**
+     * Returns the current poll interval.
+     * @return the poll interval, in milliseconds
+     */
+    public synchronized long getPollInterval() {
+        return this.pollInterval;
+    }
+
+    /**
+     * Sets the current poll interval.
+     * @param pollInterval
+     */
+    public synchronized void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Returns the maximum random shift of each poll.
+     * @return the poll jitter, in milliseconds
+     */
+    public long getPollJitter() {
+        return this.pollJitter;
+    }
+
+    /**
+     * Returns the number of cycles run.
+     * @return the number of cycles
+     */
+    public synchronized int getCycles() {
+        return this.cycles;
+    }
+
+    /**
+     * Returns the number of articles retrieved by all the runs.
+     * @return the number of articles
+     */
+    public long getArticles() {
+        return this.usage.getArticles();
+    }
+
+    /**
+     * Returns the number of articles retrieved by the last cycle, -1 if it was stopped.
+     * @return the yield of the last cycle
+     */
+    public synchronized int getLastYield() {
+        return this.lastYield;
+    }
+
+    /**
+     * Returns the time of the next poll.
+     * @return the next poll
+     */
+    public synchronized Date getNextPoll() {
+        return this.nextPoll;
+    }
+
+    /**
+     * Sets the time of the next poll.
+     * @param nextPoll
+     */
+    public synchronized void setNextPoll(Date nextPoll) {
+        this.nextPoll = nextPoll;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * MonitorIdRequest.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * This class represents a request to pause, resume or cancel a monitor.
+ * It contains the ID of the monitor, returned when it was started.
+ */
+public class MonitorIdRequest {
+    @NotNull @NotEmpty
+    private String monitorId;
+
+    /**
+     * Default constructor for MonitorIdRequest.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     * such as Spring when deserializing JSON requests.
+     */
+    public MonitorIdRequest() { }
+
+    /**
+     * Constructor for MonitorIdRequest.
+     * @param monitorId the ID of the monitor
+     */
+    public MonitorIdRequest(String monitorId) {
+        this.monitorId = monitorId;
+    }
+
+    /**
+     * Returns the ID of the monitor.
+     * @return the monitor ID
+     */
+    public String getMonitorId() {
+        return this.monitorId;
+    }
+
+    /**
+     * Sets the ID of the monitor.
+     * @param monitorId
+     */
+    public void setMonitorId(String monitorId) {
+        this.monitorId = monitorId;
+    }
+}
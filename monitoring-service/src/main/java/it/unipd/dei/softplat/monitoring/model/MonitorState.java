@@ -0,0 +1,24 @@
+/**
+ * MonitorState.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+/**
+ * This enum represents the states of a monitor in the MonitorScheduler.
+ * A monitor is SCHEDULED while it waits for its next run and RUNNING during it.
+ * A PAUSED monitor keeps its checkpoint and can be resumed, as a FAILED one (e.g. stopped by the daily quota).
+ * A COMPLETED monitor fetched all its date range and a CANCELLED one was removed with its checkpoint.
+ */
+public enum MonitorState {
+    SCHEDULED,
+    RUNNING,
+    PAUSED,
+    FAILED,
+    COMPLETED,
+    CANCELLED
+}
@@ -0,0 +1,124 @@
+/**
+ * MonitorUsage.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * This class represents the resources used by a monitor since it was started.
+ * It contains the calls to The Guardian API, the articles handed over to the DataManager Service,
+ * the articles skipped because already stored and the time spent running.
+ * The counters are updated by the threads running the monitor, and can be read at any time.
+ */
+public class MonitorUsage {
+
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong articles = new AtomicLong();
+    private final AtomicLong knownArticles = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    /**
+     * Default constructor for MonitorUsage.
+     */
+    public MonitorUsage() { }
+
+    /**
+     * This method records calls to The Guardian API.
+     * @param calls
+     */
+    public void addApiCalls(long calls) {
+        this.apiCalls.addAndGet(calls);
+    }
+
+    /**
+     * This method records articles handed over to the DataManager Service.
+     * @param count
+     */
+    public void addArticles(long count) {
+        this.articles.addAndGet(count);
+    }
+
+    /**
+     * This method records articles skipped because already stored.
+     * @param count
+     */
+    public void addKnownArticles(long count) {
+        this.knownArticles.addAndGet(count);
+    }
+
+    /**
+     * This method records a run (a cycle or a date range) and the time it took.
+     * @param nanos
+     */
+    public void addRun(long nanos) {
+        this.runs.incrementAndGet();
+        this.busyNanos.addAndGet(nanos);
+    }
+
+    /**
+     * This method returns the usage as a JSON object.
+     * @return a JSON object with the counters, and the API calls per article
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        long calls = apiCalls.get();
+        long retrieved = articles.get();
+        json.put("apiCalls", calls);
+        json.put("articles", retrieved);
+        json.put("knownArticles", knownArticles.get());
+        json.put("callsPerArticle", retrieved > 0 ? (double) calls / retrieved : JSONObject.NULL);
+        json.put("runs", runs.get());
+        json.put("busyMillis", TimeUnit.NANOSECONDS.toMillis(busyNanos.get()));
+        return json;
+    }
+
+    /**
+     * Returns the number of calls to The Guardian API.
+     * @return the API calls
+     */
+    public long getApiCalls() {
+        return this.apiCalls.get();
+    }
+
+    /**
+     * Returns the number of articles handed over to the DataManager Service.
+     * @return the articles
+     */
+    public long getArticles() {
+        return this.articles.get();
+    }
+
+    /**
+     * Returns the number of articles skipped because already stored.
+     * @return the known articles
+     */
+    public long getKnownArticles() {
+        return this.knownArticles.get();
+    }
+
+    /**
+     * Returns the number of runs.
+     * @return the runs
+     */
+    public long getRuns() {
+        return this.runs.get();
+    }
+
+    /**
+     * Returns the time spent running.
+     * @return the busy time, in milliseconds
+     */
+    public long getBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.busyNanos.get());
+    }
+}
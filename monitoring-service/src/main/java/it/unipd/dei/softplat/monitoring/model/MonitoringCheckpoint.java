@@ -0,0 +1,297 @@
+/**
+ * MonitoringCheckpoint.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+import java.util.Date;
+
+/**
+ * This class represents the progress of a monitor, saved after each batch delivered to the DataManager Service.
+ * It contains the request of the monitor, the date window being fetched, the last page delivered
+ * and the ID of the last article delivered, so that the monitor can resume from there after a restart,
+ * and the last status of the monitor sent to the Client Service.
+ * A paused monitor is registered again after a restart, but it is not run until it is resumed.
+ */
+public class MonitoringCheckpoint {
+
+    private String monitorId;
+    private String issueString;
+    private String label;
+    private Date startDate;
+    private Date endDate;
+    private Long pollInterval;
+    private Long pollJitter;
+    private Date windowStart;
+    private Date windowEnd;
+    private int page;
+    private String lastArticleId;
+    private boolean paused;
+    private String lastStatus;
+    private Date updatedAt;
+
+    /**
+     * Default constructor for MonitoringCheckpoint.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     * such as Jackson when reading the checkpoint file.
+     */
+    public MonitoringCheckpoint() { }
+
+    /**
+     * Constructor for MonitoringCheckpoint.
+     * This constructor initializes the checkpoint of a monitor at the start of its request.
+     * @param monitorId
+     * @param request
+     */
+    public MonitoringCheckpoint(String monitorId, MonitoringRequest request) {
+        this.monitorId = monitorId;
+        this.issueString = request.getissueString();
+        this.label = request.getLabel();
+        this.startDate = request.getStartDate();
+        this.endDate = request.getEndDate();
+        this.pollInterval = request.getPollInterval();
+        this.pollJitter = request.getPollJitter();
+        this.windowStart = request.getStartDate();
+        this.windowEnd = request.getEndDate();
+    }
+
+    /**
+     * This method builds the monitoring request of the checkpoint.
+     * @return the monitoring request
+     */
+    public MonitoringRequest toRequest() {
+        MonitoringRequest request = new MonitoringRequest(issueString, label, startDate, endDate);
+        request.setPollInterval(pollInterval);
+        request.setPollJitter(pollJitter);
+        return request;
+    }
+
+    /**
+     * Returns the ID of the monitor.
+     * @return the monitor ID
+     */
+    public String getMonitorId() {
+        return this.monitorId;
+    }
+
+    /**
+     * Sets the ID of the monitor.
+     * @param monitorId
+     */
+    public void setMonitorId(String monitorId) {
+        this.monitorId = monitorId;
+    }
+
+    /**
+     * Returns the issue query of the monitor.
+     * @return the issue query
+     */
+    public String getIssueString() {
+        return this.issueString;
+    }
+
+    /**
+     * Sets the issue query of the monitor.
+     * @param issueString
+     */
+    public void setIssueString(String issueString) {
+        this.issueString = issueString;
+    }
+
+    /**
+     * Returns the label of the monitor.
+     * @return the label
+     */
+    public String getLabel() {
+        return this.label;
+    }
+
+    /**
+     * Sets the label of the monitor.
+     * @param label
+     */
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Returns the start date of the request.
+     * @return the start date
+     */
+    public Date getStartDate() {
+        return this.startDate;
+    }
+
+    /**
+     * Sets the start date of the request.
+     * @param startDate
+     */
+    public void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
+
+    /**
+     * Returns the end date of the request, null for a continuous monitor.
+     * @return the end date
+     */
+    public Date getEndDate() {
+        return this.endDate;
+    }
+
+    /**
+     * Sets the end date of the request.
+     * @param endDate
+     */
+    public void setEndDate(Date endDate) {
+        this.endDate = endDate;
+    }
+
+    /**
+     * Returns the poll interval requested for a continuous monitor.
+     * @return the poll interval, in milliseconds
+     */
+    public Long getPollInterval() {
+        return this.pollInterval;
+    }
+
+    /**
+     * Sets the poll interval requested for a continuous monitor.
+     * @param pollInterval
+     */
+    public void setPollInterval(Long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Returns the poll jitter requested for a continuous monitor.
+     * @return the poll jitter, in milliseconds
+     */
+    public Long getPollJitter() {
+        return this.pollJitter;
+    }
+
+    /**
+     * Sets the poll jitter requested for a continuous monitor.
+     * @param pollJitter
+     */
+    public void setPollJitter(Long pollJitter) {
+        this.pollJitter = pollJitter;
+    }
+
+    /**
+     * Returns the start of the date window being fetched.
+     * All the articles published before it have been delivered.
+     * @return the start of the window
+     */
+    public Date getWindowStart() {
+        return this.windowStart;
+    }
+
+    /**
+     * Sets the start of the date window being fetched.
+     * @param windowStart
+     */
+    public void setWindowStart(Date windowStart) {
+        this.windowStart = windowStart;
+    }
+
+    /**
+     * Returns the end of the date window being fetched, null if it is not fixed yet.
+     * @return the end of the window
+     */
+    public Date getWindowEnd() {
+        return this.windowEnd;
+    }
+
+    /**
+     * Sets the end of the date window being fetched.
+     * @param windowEnd
+     */
+    public void setWindowEnd(Date windowEnd) {
+        this.windowEnd = windowEnd;
+    }
+
+    /**
+     * Returns the last page of the window delivered, 0 if none.
+     * @return the last page delivered
+     */
+    public int getPage() {
+        return this.page;
+    }
+
+    /**
+     * Sets the last page of the window delivered.
+     * @param page
+     */
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    /**
+     * Returns the ID of the last article delivered.
+     * @return the last article ID
+     */
+    public String getLastArticleId() {
+        return this.lastArticleId;
+    }
+
+    /**
+     * Sets the ID of the last article delivered.
+     * @param lastArticleId
+     */
+    public void setLastArticleId(String lastArticleId) {
+        this.lastArticleId = lastArticleId;
+    }
+
+    /**
+     * Returns the time the checkpoint was saved.
+     * @return the update time
+     */
+    public Date getUpdatedAt() {
+        return this.updatedAt;
+    }
+
+    /**
+     * Sets the time the checkpoint was saved.
+     * @param updatedAt
+     */
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * Returns the last status message of the monitor sent to the Client Service, null if none.
+     * @return the last status sent
+     */
+    public String getLastStatus() {
+        return this.lastStatus;
+    }
+
+    /**
+     * Sets the last status message of the monitor sent to the Client Service.
+     * @param lastStatus
+     */
+    public void setLastStatus(String lastStatus) {
+        this.lastStatus = lastStatus;
+    }
+
+    /**
+     * Checks if the monitor is paused.
+     * @return true if the monitor is paused
+     */
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * Sets whether the monitor is paused.
+     * @param paused
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+}
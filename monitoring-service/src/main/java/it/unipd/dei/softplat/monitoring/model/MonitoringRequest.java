@@ -15,7 +15,8 @@ import jakarta.validation.constraints.NotNull;
 
 /**
  * This class represents a request for monitoring issues.
- * It contains fields for the issue query, label, start date, and end date.
+ * It contains fields for the issue query, label, start date, and end date,
+ * and optionally the poll interval and jitter of a continuous monitor.
  * The class includes validation annotations to ensure that the fields are not null or empty,
  * and that the date fields follow the specified format (DD/MM/YYYY).
  */
@@ -27,6 +28,9 @@ public class MonitoringRequest {
     @NotNull
     private Date startDate;
     private Date endDate;
+    // Optional, for a continuous monitor (no end date): the poll interval and its jitter, in milliseconds
+    private Long pollInterval;
+    private Long pollJitter;
 
     /**
      * Default constructor for MonitoringRequest.
@@ -113,4 +117,36 @@ public class MonitoringRequest {
     public void setEndDate(Date endDate) {
         this.endDate = endDate;
     }
+
+    /**
+     * Returns the poll interval of a continuous monitor, null for the default one.
+     * @return the poll interval, in milliseconds
+     */
+    public Long getPollInterval() {
+        return this.pollInterval;
+    }
+
+    /**
+     * Sets the poll interval of a continuous monitor.
+     * @param pollInterval
+     */
+    public void setPollInterval(Long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Returns the maximum random shift of each poll of a continuous monitor, null for the default one.
+     * @return the poll jitter, in milliseconds
+     */
+    public Long getPollJitter() {
+        return this.pollJitter;
+    }
+
+    /**
+     * Sets the maximum random shift of each poll of a continuous monitor.
+     * @param pollJitter
+     */
+    public void setPollJitter(Long pollJitter) {
+        this.pollJitter = pollJitter;
+    }
 }
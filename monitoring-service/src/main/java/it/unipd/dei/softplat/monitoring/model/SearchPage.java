@@ -0,0 +1,116 @@
+/**
+ * SearchPage.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.apitheguardian.bean.Article;
+
+/**
+ * This class represents a page of search results of The Guardian Open Platform API.
+ * It contains the number of results and pages of the search, the articles of the page
+ * and the body texts returned with them, by article ID.
+ */
+public class SearchPage {
+
+    private int total;
+    private int pages;
+    private int currentPage;
+    private List<Article> results = new ArrayList<>();
+    private Map<String, String> bodies = new HashMap<>();
+
+    /**
+     * Default constructor for SearchPage.
+     * This constructor is required for frameworks that require a no-argument constructor,
+     */
+    public SearchPage() { }
+
+    /**
+     * Returns the number of results of the search.
+     * @return the total number of results
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * Sets the number of results of the search.
+     * @param total
+     */
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    /**
+     * Returns the number of pages of the search.
+     * @return the number of pages
+     */
+    public int getPages() {
+        return this.pages;
+    }
+
+    /**
+     * Sets the number of pages of the search.
+     * @param pages
+     */
+    public void setPages(int pages) {
+        this.pages = pages;
+    }
+
+    /**
+     * Returns the number of the page.
+     * @return the current page
+     */
+    public int getCurrentPage() {
+        return this.currentPage;
+    }
+
+    /**
+     * Sets the number of the page.
+     * @param currentPage
+     */
+    public void setCurrentPage(int currentPage) {
+        this.currentPage = currentPage;
+    }
+
+    /**
+     * Returns the articles of the page.
+     * @return the articles
+     */
+    public List<Article> getResults() {
+        return this.results;
+    }
+
+    /**
+     * Sets the articles of the page.
+     * @param results
+     */
+    public void setResults(List<Article> results) {
+        this.results = results;
+    }
+
+    /**
+     * Returns the body texts returned with the articles, by article ID.
+     * @return the body texts
+     */
+    public Map<String, String> getBodies() {
+        return this.bodies;
+    }
+
+    /**
+     * Sets the body texts returned with the articles, by article ID.
+     * @param bodies
+     */
+    public void setBodies(Map<String, String> bodies) {
+        this.bodies = bodies;
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * ArticleBodyFetcher.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.apitheguardian.bean.Article;
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import it.unipd.dei.softplat.monitoring.model.BodyFetchResult;
+
+/**
+ * This class is intended to fetch the body text of the articles found by a search,
+ * with one call to the API URL of each article.
+ * The calls are made concurrently, each on its own virtual thread, and they are paced by the
+ * GuardianRateLimiter shared by the service, so the throughput is bounded by the quota of the API key
+ * and not by the round-trip time of each call.
+ * A call answered with 429 is retried after the pause of the limiter, up to 5 times.
+ */
+@Service
+public class ArticleBodyFetcher {
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final GuardianRateLimiter rateLimiter;
+    private final String apiKey;
+    // The calls block on the HTTP requests and on the limiter, so each one runs on its own virtual thread
+    private final ExecutorService fetchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    // Bound on the requests in flight, shared by all the monitors
+    private final Semaphore inFlightRequests;
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(ArticleBodyFetcher.class);
+
+    /**
+     * Default constructor for ArticleBodyFetcher.
+     * @param rateLimiter the limiter of the calls to The Guardian API
+     * @param apiKey the key of The Guardian API
+     * @param maxInFlight the maximum number of requests in flight
+     */
+    @Autowired
+    public ArticleBodyFetcher(GuardianRateLimiter rateLimiter, @Value("${guardian.open.api.key}") String apiKey,
+            @Value("${guardian.max.in.flight:8}") int maxInFlight) {
+        this.rateLimiter = rateLimiter;
+        this.apiKey = apiKey;
+        this.inFlightRequests = new Semaphore(Math.max(1, maxInFlight));
+    }
+
+    /**
+     * This method fetches the body text of the articles concurrently.
+     * The articles without API URL, or whose body could not be fetched, are missing from the result.
+     * @param articles
+     * @return the body texts by article ID, the number of API calls and whether the daily quota was exceeded
+     */
+    public BodyFetchResult fetchBodies(List<Article> articles) {
+        Map<String, String> bodies = new ConcurrentHashMap<>();
+        AtomicInteger apiCalls = new AtomicInteger();
+        AtomicBoolean rateLimitExceeded = new AtomicBoolean();
+        List<Future<?>> fetches = new ArrayList<>(articles.size());
+        for (Article article : articles) {
+            String apiUrl = article.getApiUrl();
+            if (apiUrl == null || apiUrl.isEmpty()) {
+                logger.warn("Article API URL is missing.");
+                continue;
+            }
+            fetches.add(fetchExecutor.submit(() -> {
+                String bodyText = fetchBody(article.getId(), apiUrl, apiCalls, rateLimitExceeded);
+                if (bodyText != null) {
+                    bodies.put(article.getId(), bodyText);
+                }
+                return null;
+            }));
+        }
+        // Wait for all the fetches
+        for (Future<?> fetch : fetches) {
+            try {
+                fetch.get();
+            } catch (InterruptedException e) {
+                logger.error("Body fetching interrupted: " + e.getMessage());
+                Thread.currentThread().interrupt(); // Restore the interrupted status
+                fetches.forEach(pending -> pending.cancel(true));
+                break;
+            } catch (ExecutionException e) {
+                logger.error("Error fetching full article content: " + e.getCause().getMessage());
+            }
+        }
+        return new BodyFetchResult(bodies, apiCalls.get(), rateLimitExceeded.get());
+    }
+
+    /**
+     * This method fetches the body text of an article, retrying if the API answers 429.
+     * @param id the ID of the article
+     * @param apiUrl the API URL of the article
+     * @param apiCalls the counter of the API calls
+     * @param rateLimitExceeded set if the daily quota is exceeded
+     * @return the body text, or null if it could not be fetched
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private String fetchBody(String id, String apiUrl, AtomicInteger apiCalls, AtomicBoolean rateLimitExceeded) throws InterruptedException {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            HttpResponse<InputStream> fullArticle;
+            // The token of the limiter is taken once the request can be sent, so it is not sent during a later pause
+            inFlightRequests.acquire();
+            try {
+                if (rateLimitExceeded.get() || !rateLimiter.acquire()) {
+                    rateLimitExceeded.set(true);
+                    return null;
+                }
+                apiCalls.incrementAndGet();
+                fullArticle = GuardianClient.send(Unirest.get(apiUrl).queryString("api-key", this.apiKey).queryString("show-fields", "bodyText"));
+            } catch (UnirestException e) {
+                if (isRateLimitExceeded(e)) {
+                    rateLimiter.onQuotaExhausted();
+                    rateLimitExceeded.set(true);
+                    return null;
+                }
+                logger.error("Error fetching full article content: " + e.getMessage());
+                return null;
+            } finally {
+                inFlightRequests.release();
+            }
+
+            if (fullArticle.getStatus() == 429) {
+                if (GuardianResponseParser.readString(fullArticle.getBody()).contains("API rate limit exceeded")) {
+                    rateLimiter.onQuotaExhausted();
+                    rateLimitExceeded.set(true);
+                    return null;
+                }
+                logger.warn("Too much attempt. Status: " + fullArticle.getStatus());
+                rateLimiter.onThrottled(fullArticle);
+                continue; // Retry after the pause of the limiter
+            }
+            if (fullArticle.getStatus() != 200) {
+                logger.error("Failed to fetch full article content. Status: " + fullArticle.getStatus());
+                return null;
+            }
+            rateLimiter.onSuccess();
+
+            /**
+             * JSON response:
+             * {
+             *  "response":
+             *  {
+             *      "status":"ok",
+             *      "total":1,
+             *      "content":{
+             *          "id":"world/2023/dec/27/daihatsu-suspends-production-in-japan-after-safety-test-scandal",
+             *          ...
+             *          "fields":{
+             *              "bodyText":"Production was suspended at the last operating domestic factory of ...
+             *          }
+             *      }
+             *  }
+             * }
+             */
+            String bodyText;
+            try {
+                bodyText = GuardianResponseParser.parseBodyText(fullArticle.getBody());
+            } catch (IOException e) {
+                logger.error("Error parsing full article content: " + e.getMessage());
+                return null;
+            }
+            if (bodyText == null || bodyText.isEmpty()) {
+                logger.error("Body text is missing for article ID: " + id);
+                return null;
+            }
+            return bodyText;
+        }
+        logger.error("Unable to fetch the content of an article from The Guardian due to too many requests.");
+        logger.error("Skipping article: " + id);
+        return null;
+    }
+
+    /**
+     * This method checks if an exception was caused by the daily quota of the API being exceeded.
+     * @param e
+     * @return true if the message of a cause reports the rate limit as exceeded
+     */
+    static boolean isRateLimitExceeded(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("API rate limit exceeded")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
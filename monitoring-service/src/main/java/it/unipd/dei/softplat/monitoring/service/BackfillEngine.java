@@ -0,0 +1,405 @@
+/**
+ * BackfillEngine.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.apitheguardian.bean.Article;
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import it.unipd.dei.softplat.monitoring.model.BackfillReport;
+import it.unipd.dei.softplat.monitoring.model.BackfillWindow;
+import it.unipd.dei.softplat.monitoring.model.BodyFetchResult;
+import it.unipd.dei.softplat.monitoring.model.SearchPage;
+
+/**
+ * This class is intended to fetch all the articles of a historical date range.
+ * A single scan of a long range is truncated at the page cap, so the range is split into date windows
+ * sized from the number of results reported by the first page of each window:
+ * a window with more pages than the cap is split again, until each window stays under the cap
+ * (or it is shorter than the minimum window).
+ * The windows are fetched by a pool of workers sharing the GuardianRateLimiter of the service,
+ * and they are handed to the caller in date order, as soon as all the windows before them are done.
+ */
+@Service
+public class BackfillEngine {
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final GuardianRateLimiter rateLimiter;
+    private final ArticleBodyFetcher bodyFetcher;
+    private final String apiKey;
+    private final String guardianApiUrl;
+    private final int pageSize;
+    private final int maxPages;
+    private final long minWindowMillis;
+    private final int workers;
+    // The workers fetching the windows, shared by all the backfills
+    private final ExecutorService windowExecutor;
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(BackfillEngine.class);
+
+    /**
+     * Default constructor for BackfillEngine.
+     * @param rateLimiter the limiter of the calls to The Guardian API
+     * @param bodyFetcher the fetcher of the body texts missing from the pages
+     * @param apiKey the key of The Guardian API
+     * @param guardianApiUrl the base URL of The Guardian API
+     * @param pageSize the number of results per page
+     * @param maxPages the maximum number of pages of a window
+     * @param minWindowSeconds the length under which a window is not split
+     * @param workers the number of windows fetched at the same time
+     */
+    @Autowired
+    public BackfillEngine(GuardianRateLimiter rateLimiter, ArticleBodyFetcher bodyFetcher,
+            @Value("${guardian.open.api.key}") String apiKey,
+            @Value("${guardian.api.url:https://content.guardianapis.com}") String guardianApiUrl,
+            @Value("${guardian.page.size:200}") int pageSize,
+            @Value("${backfill.max.pages:40}") int maxPages,
+            @Value("${backfill.min.window.seconds:3600}") long minWindowSeconds,
+            @Value("${backfill.workers:4}") int workers) {
+        this.rateLimiter = rateLimiter;
+        this.bodyFetcher = bodyFetcher;
+        this.apiKey = apiKey;
+        this.guardianApiUrl = guardianApiUrl;
+        this.pageSize = pageSize;
+        this.maxPages = Math.max(1, maxPages);
+        this.minWindowMillis = minWindowSeconds * 1000;
+        this.workers = Math.max(1, workers);
+        this.windowExecutor = Executors.newFixedThreadPool(this.workers);
+    }
+
+    /**
+     * This method fetches all the articles of the issue query published in the date range.
+     * The windows are passed to the consumer in date order, on the calling thread.
+     * @param issueString
+     * @param startDate
+     * @param endDate
+     * @param consumer the consumer of the windows fetched
+     * @return the report of the backfill, with the coverage and the elapsed time
+     * @throws InterruptedException if the thread is interrupted while waiting for the windows
+     */
+    public BackfillReport backfill(String issueString, Date startDate, Date endDate, Consumer<BackfillWindow> consumer) throws InterruptedException {
+        return backfill(issueString, startDate, endDate, null, consumer);
+    }
+
+    /**
+     * This method fetches all the articles of the issue query published in the date range,
+     * skipping the articles already stored before fetching their body text.
+     * The windows are passed to the consumer in date order, on the calling thread.
+     * @param issueString
+     * @param startDate
+     * @param endDate
+     * @param knownFilter removes from a list the articles already stored and returns how many, or null
+     * @param consumer the consumer of the windows fetched
+     * @return the report of the backfill, with the coverage and the elapsed time
+     * @throws InterruptedException if the thread is interrupted while waiting for the windows
+     */
+    public BackfillReport backfill(String issueString, Date startDate, Date endDate, ToIntFunction<List<Article>> knownFilter,
+            Consumer<BackfillWindow> consumer) throws InterruptedException {
+        long start = System.nanoTime();
+        BackfillReport report = new BackfillReport(issueString);
+        AtomicBoolean rateLimitExceeded = new AtomicBoolean();
+
+        // All the windows submitted by this backfill, also the parts of the split windows not handed over yet
+        SubmittedWindows submitted = new SubmittedWindows();
+        // The windows still to hand to the consumer, in date order
+        Deque<Future<WindowResult>> pending = new ArrayDeque<>();
+        pending.add(submitWindow(issueString, startDate.getTime(), endDate.getTime(), true, knownFilter, rateLimitExceeded, submitted));
+        try {
+            while (!pending.isEmpty()) {
+                WindowResult result;
+                try {
+                    result = pending.poll().get();
+                } catch (ExecutionException e) {
+                    logger.error("Error fetching a backfill window: " + e.getCause().getMessage(), e.getCause());
+                    continue;
+                }
+                if (result.parts != null) {
+                    // The window was split: its parts take its place, in order
+                    for (int i = result.parts.size() - 1; i >= 0; i--) {
+                        pending.addFirst(result.parts.get(i));
+                    }
+                    report.setApiCalls(report.getApiCalls() + result.window.getApiCalls());
+                    continue;
+                }
+                report.addWindow(result.window);
+                consumer.accept(result.window);
+            }
+        } finally {
+            // Stop the windows still running or waiting, when the backfill is interrupted or fails
+            submitted.cancelAll();
+        }
+
+        report.setRateLimitExceeded(rateLimitExceeded.get());
+        report.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        logger.info("Backfill of query " + issueString + " from " + startDate + " to " + endDate + ": " + report.toJSON());
+        return report;
+    }
+
+    /**
+     * This method submits the fetching of a window to the workers.
+     * A window whose fetching fails is returned as incomplete, with no articles.
+     * @param issueString
+     * @param from the start of the window, in milliseconds
+     * @param to the end of the window (inclusive), in milliseconds
+     * @param first true for the window of the whole range
+     * @param knownFilter removes the articles already stored, or null
+     * @param rateLimitExceeded set if the daily quota is exceeded
+     * @param submitted the windows submitted by the backfill, to which the window is added
+     * @return the future result of the window
+     */
+    private Future<WindowResult> submitWindow(String issueString, long from, long to, boolean first,
+            ToIntFunction<List<Article>> knownFilter, AtomicBoolean rateLimitExceeded, SubmittedWindows submitted) {
+        return submitted.add(windowExecutor.submit(() -> {
+            try {
+                return fetchWindow(issueString, from, to, first, knownFilter, rateLimitExceeded, submitted);
+            } catch (RuntimeException e) {
+                logger.error("Error fetching the backfill window from " + new Date(from) + " to " + new Date(to) + ": " + e.getMessage(), e);
+                return new WindowResult(new BackfillWindow(new Date(from), new Date(to)), null);
+            }
+        }));
+    }
+
+    /**
+     * This method fetches the pages of a window, or splits it if it has too many pages.
+     * The number of parts is estimated from the total number of results of the window,
+     * and the whole range is also split to keep all the workers busy.
+     * @param issueString
+     * @param from the start of the window, in milliseconds
+     * @param to the end of the window (inclusive), in milliseconds
+     * @param first true for the window of the whole range
+     * @param knownFilter removes the articles already stored, or null
+     * @param rateLimitExceeded set if the daily quota is exceeded
+     * @param submitted the windows submitted by the backfill, to which the parts are added
+     * @return the window fetched, or its parts
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private WindowResult fetchWindow(String issueString, long from, long to, boolean first,
+            ToIntFunction<List<Article>> knownFilter, AtomicBoolean rateLimitExceeded, SubmittedWindows submitted) throws InterruptedException {
+        BackfillWindow window = new BackfillWindow(new Date(from), new Date(to));
+        SearchPage searchPage = fetchPage(issueString, window, 1, rateLimitExceeded);
+        if (searchPage == null) {
+            return new WindowResult(window, null);
+        }
+        window.setTotal(searchPage.getTotal());
+        window.setPages(searchPage.getPages());
+
+        // Split the window if it has more pages than the cap (with a margin for the uneven dates)
+        int parts = (int) Math.ceil(window.getPages() * 1.25 / maxPages);
+        if (window.getPages() <= maxPages) {
+            parts = 1;
+        }
+        if (first && window.getPages() > 1) {
+            parts = Math.max(parts, Math.min(workers, window.getPages()));
+        }
+        parts = (int) Math.min(parts, (to - from + 1) / Math.max(1, minWindowMillis));
+        if (parts > 1) {
+            List<Future<WindowResult>> windows = new ArrayList<>(parts);
+            long length = to - from + 1;
+            for (int i = 0; i < parts; i++) {
+                long partFrom = from + length * i / parts;
+                long partTo = from + length * (i + 1) / parts - 1;
+                windows.add(submitWindow(issueString, partFrom, partTo, false, knownFilter, rateLimitExceeded, submitted));
+            }
+            logger.info("Backfill window from " + window.getFromDate() + " to " + window.getToDate() + " has " + window.getPages() + " pages, split into " + parts + " windows.");
+            return new WindowResult(window, windows);
+        }
+
+        int pages = Math.min(window.getPages(), maxPages);
+        if (window.getPages() > maxPages) {
+            window.setTruncated(true);
+            logger.warn("Backfill window from " + window.getFromDate() + " to " + window.getToDate() + " truncated at " + maxPages + " of " + window.getPages() + " pages.");
+        }
+        addResults(window, searchPage);
+        boolean complete = true;
+        for (int page = 2; page <= pages && complete; page++) {
+            searchPage = fetchPage(issueString, window, page, rateLimitExceeded);
+            if (searchPage != null) {
+                addResults(window, searchPage);
+            } else {
+                complete = false;
+            }
+        }
+
+        // Fetch the body texts missing from the pages, with one request per article
+        List<Article> missingBodies = new ArrayList<>();
+        for (Article article : window.getArticles()) {
+            if (!window.getBodies().containsKey(article.getId())) {
+                missingBodies.add(article);
+            }
+        }
+        // Skip the articles already stored, without fetching their body text again. The articles whose body text
+        // came with the pages are kept, so their updated versions reach the content hash filter of the MongoDB Service
+        if (knownFilter != null && !missingBodies.isEmpty()) {
+            Set<String> known = new HashSet<>();
+            missingBodies.forEach(article -> known.add(article.getId()));
+            window.setKnown(knownFilter.applyAsInt(missingBodies));
+            missingBodies.forEach(article -> known.remove(article.getId()));
+            window.getArticles().removeIf(article -> known.contains(article.getId()));
+        }
+        if (!missingBodies.isEmpty() && !rateLimitExceeded.get()) {
+            BodyFetchResult fetched = bodyFetcher.fetchBodies(missingBodies);
+            window.setApiCalls(window.getApiCalls() + fetched.getApiCalls());
+            window.getBodies().putAll(fetched.getBodies());
+            if (fetched.isRateLimitExceeded()) {
+                rateLimitExceeded.set(true);
+            }
+        }
+        window.setComplete(complete && !rateLimitExceeded.get());
+        return new WindowResult(window, null);
+    }
+
+    /**
+     * This method fetches a page of search results of a window, with the body texts,
+     * retrying if the API answers 429.
+     * @param issueString
+     * @param window
+     * @param page
+     * @param rateLimitExceeded set if the daily quota is exceeded
+     * @return the page, or null if it could not be fetched
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private SearchPage fetchPage(String issueString, BackfillWindow window, int page, AtomicBoolean rateLimitExceeded) throws InterruptedException {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (rateLimitExceeded.get() || !rateLimiter.acquire()) {
+                rateLimitExceeded.set(true);
+                return null;
+            }
+            HttpResponse<InputStream> response;
+            try {
+                window.setApiCalls(window.getApiCalls() + 1);
+                response = GuardianClient.send(Unirest.get(guardianApiUrl + "/search")
+                        .queryString("q", issueString)
+                        .queryString("from-date", window.getFromDate().toInstant().toString())
+                        .queryString("to-date", window.getToDate().toInstant().toString())
+                        .queryString("order-by", "oldest")
+                        .queryString("show-fields", "bodyText")
+                        .queryString("page-size", pageSize)
+                        .queryString("page", page)
+                        .queryString("api-key", this.apiKey));
+            } catch (UnirestException e) {
+                if (ArticleBodyFetcher.isRateLimitExceeded(e)) {
+                    rateLimiter.onQuotaExhausted();
+                    rateLimitExceeded.set(true);
+                    return null;
+                }
+                logger.error("Error while fetching articles from The Guardian at page " + page + ": " + e.getMessage());
+                return null;
+            }
+
+            if (response.getStatus() == 429) {
+                if (GuardianResponseParser.readString(response.getBody()).contains("API rate limit exceeded")) {
+                    rateLimiter.onQuotaExhausted();
+                    rateLimitExceeded.set(true);
+                    return null;
+                }
+                logger.warn("Too much attempt. Status: " + response.getStatus());
+                rateLimiter.onThrottled(response);
+                continue; // Retry after the pause of the limiter
+            }
+            if (response.getStatus() != 200) {
+                logger.error("Failed to fetch articles from The Guardian at page: " + page + ". Status: " + response.getStatus());
+                return null;
+            }
+            rateLimiter.onSuccess();
+            try {
+                return GuardianResponseParser.parseSearchPage(response.getBody());
+            } catch (IOException e) {
+                logger.error("Error parsing the articles from The Guardian at page " + page + ": " + e.getMessage());
+                return null;
+            }
+        }
+        logger.error("Unable to fetch articles from The Guardian at page: " + page + " due to too many requests.");
+        return null;
+    }
+
+    /**
+     * This method adds the results of a page to a window, keeping the body texts returned with them.
+     * @param window
+     * @param searchPage
+     */
+    private static void addResults(BackfillWindow window, SearchPage searchPage) {
+        window.getArticles().addAll(searchPage.getResults());
+        window.getBodies().putAll(searchPage.getBodies());
+    }
+
+    /**
+     * This class represents the result of a window: the window fetched,
+     * or the future results of its parts if it was split.
+     */
+    private static final class WindowResult {
+
+        private final BackfillWindow window;
+        private final List<Future<WindowResult>> parts;
+
+        private WindowResult(BackfillWindow window, List<Future<WindowResult>> parts) {
+            this.window = window;
+            this.parts = parts;
+        }
+    }
+
+    /**
+     * The windows submitted by a backfill, so that all of them are cancelled when it stops,
+     * also the parts submitted by a window still running.
+     */
+    private static final class SubmittedWindows {
+
+        private final List<Future<WindowResult>> futures = new ArrayList<>();
+        private boolean cancelled;
+
+        /**
+         * This method adds a window submitted, cancelling it right away if the backfill has stopped.
+         * @param future the future result of the window
+         * @return the same future
+         */
+        private synchronized Future<WindowResult> add(Future<WindowResult> future) {
+            if (cancelled) {
+                future.cancel(true);
+            } else {
+                futures.removeIf(Future::isDone);
+                futures.add(future);
+            }
+            return future;
+        }
+
+        /**
+         * This method cancels all the windows submitted and not completed yet, and the ones submitted later.
+         */
+        private synchronized void cancelAll() {
+            cancelled = true;
+            futures.forEach(future -> future.cancel(true));
+            futures.clear();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * CheckpointStore.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.unipd.dei.softplat.monitoring.model.MonitoringCheckpoint;
+import it.unipd.dei.softplat.monitoring.model.MonitoringRequest;
+
+/**
+ * This class is intended to store the checkpoints of the active monitors in a local directory,
+ * one JSON file per monitor, so that they survive a restart of the service.
+ * A checkpoint is written to a temporary file and then moved over the previous one,
+ * so a crash while saving never leaves a partial checkpoint.
+ * The checkpoint of a monitor is deleted when its date range is completed.
+ */
+@Service
+public class CheckpointStore {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path directory;
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(CheckpointStore.class);
+
+    /**
+     * Default constructor for CheckpointStore.
+     * @param directory the directory of the checkpoint files
+     */
+    @Autowired
+    public CheckpointStore(@Value("${monitoring.checkpoint.dir:checkpoints}") String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * This method returns the ID of the monitor of a request,
+     * derived from its issue query, label and start date.
+     * @param request
+     * @return the monitor ID
+     */
+    public static String monitorId(MonitoringRequest request) {
+        String key = request.getissueString() + "\n" + request.getLabel() + "\n"
+            + (request.getStartDate() != null ? request.getStartDate().getTime() : "");
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * This method saves the checkpoint of a monitor, replacing the previous one.
+     * A failure is logged and does not stop the monitor.
+     * @param checkpoint
+     */
+    public void save(MonitoringCheckpoint checkpoint) {
+        checkpoint.setUpdatedAt(new Date());
+        Path file = directory.resolve(checkpoint.getMonitorId() + ".json");
+        Path temporary = directory.resolve(checkpoint.getMonitorId() + ".json.tmp");
+        try {
+            Files.createDirectories(directory);
+            Files.write(temporary, MAPPER.writeValueAsBytes(checkpoint));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Error saving the checkpoint of monitor " + checkpoint.getMonitorId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method loads the checkpoint of a monitor.
+     * @param monitorId
+     * @return the checkpoint, or null if there is none
+     */
+    public MonitoringCheckpoint load(String monitorId) {
+        return read(directory.resolve(monitorId + ".json"));
+    }
+
+    /**
+     * This method loads the checkpoints of all the active monitors.
+     * @return the checkpoints
+     */
+    public List<MonitoringCheckpoint> loadAll() {
+        List<MonitoringCheckpoint> checkpoints = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return checkpoints;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : files) {
+                MonitoringCheckpoint checkpoint = read(file);
+                if (checkpoint != null) {
+                    checkpoints.add(checkpoint);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error listing the checkpoints: " + e.getMessage());
+        }
+        return checkpoints;
+    }
+
+    /**
+     * This method deletes the checkpoint of a monitor.
+     * @param monitorId
+     */
+    public void delete(String monitorId) {
+        try {
+            Files.deleteIfExists(directory.resolve(monitorId + ".json"));
+        } catch (IOException e) {
+            logger.error("Error deleting the checkpoint of monitor " + monitorId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method reads a checkpoint file.
+     * @param file
+     * @return the checkpoint, or null if it is missing or cannot be read
+     */
+    private static MonitoringCheckpoint read(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(file.toFile(), MonitoringCheckpoint.class);
+        } catch (IOException e) {
+            logger.error("Error reading the checkpoint " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
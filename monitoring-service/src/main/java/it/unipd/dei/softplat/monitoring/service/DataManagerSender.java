@@ -0,0 +1,334 @@
+/**
+ * DataManagerSender.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import it.unipd.dei.softplat.http.service.HttpClientService;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * This class is intended to send the articles retrieved by the monitors to the DataManager Service
+ * on a dedicated thread, so that the monitors keep fetching while the earlier batches are delivered.
+ * The monitors hand over their batches through a bounded queue, and they wait only when the queue is full.
+ * The batches are sent in the order they are handed over, each one in chunks of the batch size,
+ * retrying a chunk up to 5 times (a 429 response is retried after its Retry-After, without counting as an attempt),
+ * and the callback of a batch runs only after all its chunks are delivered,
+ * e.g. to move the checkpoint of the monitor after the articles delivered.
+ * Once a batch of a delivery fails, its later batches are not sent and their callbacks are not run,
+ * so the checkpoint of the monitor stays before the articles not delivered.
+ * The articles delivered are recorded in the KnownArticleStore, so that they are not fetched again.
+ */
+@Service
+public class DataManagerSender {
+
+    private static final String SAVE_ARTICLES_URL = "http://datamanager-service:8082/datamanager/save-articles/";
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final HttpClientService httpClientService;
+    private final KnownArticleStore knownArticleStore;
+    private final int batchSize;
+    private final long retryMillis;
+    private final BlockingQueue<Batch> queue;
+    private final Thread sender;
+    private volatile boolean running = true;
+
+    // Metrics
+    private final AtomicLong deliveredBatches = new AtomicLong();
+    private final AtomicLong deliveredArticles = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttledRequests = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(DataManagerSender.class);
+
+    /**
+     * Default constructor for DataManagerSender.
+     * It starts the thread sending the batches.
+     * @param httpClientService the HTTP client used to send the articles
+     * @param knownArticleStore the store of the articles delivered
+     * @param batchSize the maximum number of articles of a request to the DataManager Service
+     * @param capacity the number of batches that can wait to be sent
+     * @param retryMillis the pause before the first retry of a request, increased at each attempt
+     */
+    @Autowired
+    public DataManagerSender(HttpClientService httpClientService, KnownArticleStore knownArticleStore,
+            @Value("${data.batch.size}") int batchSize,
+            @Value("${datamanager.delivery.queue.capacity:8}") int capacity,
+            @Value("${datamanager.delivery.retry.millis:1500}") long retryMillis) {
+        this.httpClientService = httpClientService;
+        this.knownArticleStore = knownArticleStore;
+        this.batchSize = Math.max(1, batchSize);
+        this.retryMillis = retryMillis;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.sender = new Thread(this::run, "datamanager-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * This method opens a delivery, to hand over the batches of a monitoring run and wait for them.
+     * @return the delivery
+     */
+    public Delivery open() {
+        return new Delivery();
+    }
+
+    /**
+     * This method returns the number of batches waiting, the batches and articles delivered, the failures
+     * and the time the monitors waited for the queue.
+     * @return a JSON object with the delivery metrics
+     */
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("queuedBatches", queue.size());
+        stats.put("capacity", queue.size() + queue.remainingCapacity());
+        stats.put("deliveredBatches", deliveredBatches.get());
+        stats.put("deliveredArticles", deliveredArticles.get());
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("retries", retries.get());
+        stats.put("throttledRequests", throttledRequests.get());
+        stats.put("blockedMillis", TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()));
+        return stats;
+    }
+
+    /**
+     * This method stops the sender when the application is shut down.
+     * The batches not delivered yet are dropped: the checkpoints of their monitors were not moved after them.
+     */
+    @PreDestroy
+    public void close() {
+        running = false;
+        sender.interrupt();
+        for (Batch batch = queue.poll(); batch != null; batch = queue.poll()) {
+            batch.delivery.done(false);
+        }
+    }
+
+    /**
+     * This method sends the batches handed over, in order, until the sender is closed.
+     */
+    private void run() {
+        while (running) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Delivery delivery = batch.delivery;
+            if (delivery.isStopped()) {
+                // The run of the monitor failed or was interrupted, or an earlier batch was not delivered:
+                // its later batches are not sent
+                delivery.done(false);
+                continue;
+            }
+            try {
+                boolean delivered = send(batch.articles);
+                if (delivered && batch.onDelivered != null && !delivery.cancelled) {
+                    batch.onDelivered.run();
+                }
+                delivery.done(delivered);
+            } catch (InterruptedException e) {
+                delivery.done(false);
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Error sending articles to DataManager Service: " + e.getMessage(), e);
+                delivery.crash = e;
+                delivery.done(false);
+            }
+        }
+    }
+
+    /**
+     * This method sends the articles of a batch to the DataManager Service, in chunks of the batch size.
+     * If the DataManager Service is not available, a chunk is retried up to 5 times.
+     * If it answers 429, its ingestion limit is reached: the chunk is sent again after the time in the Retry-After header
+     * (or the retry pause, without the header), and the attempt is not counted.
+     * @param articles
+     * @return true if all the articles were delivered
+     * @throws InterruptedException if the sender is closed while waiting to retry
+     */
+    private boolean send(List<JSONObject> articles) throws InterruptedException {
+        for (int from = 0; from < articles.size(); from += batchSize) {
+            List<JSONObject> chunk = articles.subList(from, Math.min(articles.size(), from + batchSize));
+            String body = new JSONArray(chunk).toString();
+            boolean delivered = false;
+            int attempt = 1;
+            while (!delivered && attempt <= MAX_ATTEMPTS) {
+                ResponseEntity<String> responseDataManager = httpClientService.postRequest(SAVE_ARTICLES_URL, body);
+                if (responseDataManager != null && responseDataManager.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+                    // The ingestion limit is reached: wait as asked, without counting the attempt
+                    long pauseMillis = retryAfterMillis(responseDataManager.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+                    logger.warn("DataManager Service is busy, sending the batch of articles again in " + pauseMillis + " ms.");
+                    throttledRequests.incrementAndGet();
+                    Thread.sleep(pauseMillis);
+                } else if (responseDataManager != null && responseDataManager.getStatusCode() == HttpStatus.OK) {
+                    logger.info("Batch of articles sent to DataManager Service successfully" + (attempt > 1 ? " after " + attempt + " attempts." : "."));
+                    delivered = true;
+                } else {
+                    logger.warn("Failed to send batch of articles to DataManager Service. Status: " + (responseDataManager != null ? responseDataManager.getStatusCode() : "No response received"));
+                    if (++attempt <= MAX_ATTEMPTS) {
+                        retries.incrementAndGet();
+                        Thread.sleep(retryMillis * (attempt - 1)); // Wait longer at each attempt
+                    }
+                }
+            }
+            if (!delivered) {
+                logger.error("Some articles were not sent to the DataManager Service.");
+                failedBatches.incrementAndGet();
+                return false;
+            }
+            deliveredArticles.addAndGet(chunk.size());
+            knownArticleStore.addDelivered(chunk);
+        }
+        deliveredBatches.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * This method returns the pause asked by a 429 response of the DataManager Service.
+     * @param retryAfter the Retry-After header, in seconds, or null
+     * @return the pause, in milliseconds: the retry pause if the header is missing or not valid
+     */
+    private long retryAfterMillis(String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid Retry-After header of DataManager Service: " + retryAfter);
+            }
+        }
+        return retryMillis;
+    }
+
+    /**
+     * This class represents the batches handed over by a monitoring run.
+     * The run can wait for all of them to be sent, and it fails as soon as the sending of one of them throws.
+     */
+    public final class Delivery {
+
+        private int pending;
+        private int failed;
+        private volatile RuntimeException crash;
+        private volatile boolean cancelled;
+
+        private Delivery() { }
+
+        /**
+         * This method hands over a batch of articles, waiting only if the queue is full.
+         * @param articles the articles, copied so the caller can reuse the list
+         * @param onDelivered the callback run by the sender after all the articles are delivered, or null
+         * @throws InterruptedException if the thread is interrupted while waiting
+         * @throws RuntimeException if the sending of an earlier batch threw it
+         */
+        public void submit(List<JSONObject> articles, Runnable onDelivered) throws InterruptedException {
+            checkCrash();
+            if (!running) {
+                throw new IllegalStateException("The sender of the DataManager Service is closed.");
+            }
+            synchronized (this) {
+                pending++;
+            }
+            long start = System.nanoTime();
+            try {
+                queue.put(new Batch(this, new ArrayList<>(articles), onDelivered));
+            } catch (InterruptedException e) {
+                done(false);
+                throw e;
+            } finally {
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * This method waits until all the batches handed over are sent.
+         * @return true if all the articles were delivered
+         * @throws InterruptedException if the thread is interrupted while waiting
+         * @throws RuntimeException if the sending of a batch threw it
+         */
+        public boolean await() throws InterruptedException {
+            synchronized (this) {
+                while (pending > 0) {
+                    wait();
+                }
+            }
+            checkCrash();
+            synchronized (this) {
+                return failed == 0;
+            }
+        }
+
+        /**
+         * This method drops the batches of the delivery not sent yet, e.g. when the monitor is paused or cancelled.
+         * The callbacks of the batches are not run anymore, so the checkpoint of the monitor does not move.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * This method checks if the later batches of the delivery must not be sent:
+         * the run of the monitor failed or was cancelled, or a batch was not delivered.
+         * @return true if the delivery is stopped
+         */
+        private synchronized boolean isStopped() {
+            return crash != null || cancelled || failed > 0;
+        }
+
+        private synchronized void done(boolean delivered) {
+            if (!delivered) {
+                failed++;
+            }
+            pending--;
+            notifyAll();
+        }
+
+        private void checkCrash() {
+            RuntimeException e = crash;
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * This class represents a batch of articles waiting to be sent.
+     */
+    private static final class Batch {
+
+        private final Delivery delivery;
+        private final List<JSONObject> articles;
+        private final Runnable onDelivered;
+
+        private Batch(Delivery delivery, List<JSONObject> articles, Runnable onDelivered) {
+            this.delivery = delivery;
+            this.articles = articles;
+            this.onDelivered = onDelivered;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * GuardianClient.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.mashape.unirest.http.HttpResponse;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mashape.unirest.request.HttpRequest;
+
+/**
+ * This class is intended to send the requests to The Guardian Open Platform API so that they can be interrupted.
+ * The blocking calls of Unirest ignore the interruption of the thread until the response arrives,
+ * so a monitor paused or cancelled would wait for its requests in flight.
+ * Here the request is sent asynchronously and the thread waits for its response:
+ * if the thread is interrupted, the request is aborted and the interruption is thrown.
+ */
+public final class GuardianClient {
+
+    /**
+     * This class is not intended to be instantiated.
+     */
+    private GuardianClient() { }
+
+    /**
+     * This method sends a request and waits for its response.
+     * @param request
+     * @return the response, with its body as bytes
+     * @throws UnirestException if the request fails, as for the blocking call
+     * @throws InterruptedException if the thread is interrupted while waiting, after aborting the request
+     */
+    public static HttpResponse<InputStream> send(HttpRequest request) throws UnirestException, InterruptedException {
+        Future<HttpResponse<InputStream>> response = request.asBinaryAsync();
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            response.cancel(true); // Abort the request in flight
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnirestException unirestException) {
+                throw unirestException;
+            }
+            throw new UnirestException(cause instanceof Exception exception ? exception : new RuntimeException(cause));
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * GuardianRateLimiter.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * This class is intended to control the rate of all the calls to The Guardian Open Platform API made by the service,
+ * from every monitor, backfill and body fetch.
+ * It is a token bucket whose rate adapts to the API with additive increase and multiplicative decrease (AIMD):
+ * each successful call raises the rate so that it grows by a fixed amount per second, up to the configured limit,
+ * and a 429 response (too many requests) cuts it by a factor, down to the minimum rate.
+ * After a 429 all the callers are paused for the time in the Retry-After header,
+ * or with an exponential backoff if the header is missing,
+ * and when the daily quota is exhausted no other call is allowed until the next day (UTC).
+ */
+@Service
+public class GuardianRateLimiter {
+
+    private final double maxRate;
+    private final double minRate;
+    private final double rateIncrease;
+    private final double rateDecrease;
+    private final double burst;
+    private final int dailyQuota;
+    private final long backoffMillis;
+
+    private double permitsPerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+    private int consecutiveThrottles;
+    private LocalDate quotaDay;
+    private int quotaUsed;
+    private boolean quotaExhausted;
+
+    // Metrics
+    private final AtomicLong acquiredPermits = new AtomicLong();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    private final AtomicLong successfulCalls = new AtomicLong();
+    private final AtomicLong throttledCalls = new AtomicLong();
+    private final AtomicLong rateDecreases = new AtomicLong();
+    private final AtomicLong retryAfterPauses = new AtomicLong();
+    private final AtomicLong waitedNanos = new AtomicLong();
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(GuardianRateLimiter.class);
+
+    /**
+     * Default constructor for GuardianRateLimiter.
+     * @param maxRate the maximum number of calls per second, which is also the initial rate
+     * @param burst the maximum number of calls allowed at once after an idle period
+     * @param dailyQuota the number of calls allowed per day (0 for no limit)
+     * @param backoffMillis the base pause after a 429 response without Retry-After, doubled at each consecutive 429
+     * @param minRate the minimum number of calls per second
+     * @param rateIncrease the increase of the rate for each second of successful calls, in calls per second
+     * @param rateDecrease the factor applied to the rate after a 429 response
+     */
+    @Autowired
+    public GuardianRateLimiter(@Value("${guardian.rate.limit:1}") double maxRate,
+            @Value("${guardian.rate.burst:1}") int burst,
+            @Value("${guardian.daily.quota:500}") int dailyQuota,
+            @Value("${increment.sleep.time:1000}") long backoffMillis,
+            @Value("${guardian.rate.min:0.05}") double minRate,
+            @Value("${guardian.rate.increase:0.05}") double rateIncrease,
+            @Value("${guardian.rate.decrease:0.5}") double rateDecrease) {
+        this.maxRate = maxRate;
+        this.minRate = Math.min(minRate, maxRate);
+        this.rateIncrease = rateIncrease;
+        this.rateDecrease = rateDecrease;
+        this.burst = Math.max(1, burst);
+        this.dailyQuota = dailyQuota;
+        this.backoffMillis = backoffMillis;
+        this.permitsPerSecond = maxRate;
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.pausedUntilNanos = lastRefillNanos;
+        this.quotaDay = LocalDate.now(ZoneOffset.UTC);
+    }
+
+    /**
+     * Constructor for GuardianRateLimiter with the default AIMD parameters.
+     * @param maxRate the maximum number of calls per second, which is also the initial rate
+     * @param burst the maximum number of calls allowed at once after an idle period
+     * @param dailyQuota the number of calls allowed per day (0 for no limit)
+     * @param backoffMillis the base pause after a 429 response without Retry-After
+     */
+    public GuardianRateLimiter(double maxRate, int burst, int dailyQuota, long backoffMillis) {
+        this(maxRate, burst, dailyQuota, backoffMillis, Math.min(0.05, maxRate), 0.05, 0.5);
+    }
+
+    /**
+     * This method waits until a call to the API is allowed and takes a token.
+     * @return true if the call can be made, false if the daily quota is exhausted
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (isQuotaExhausted()) {
+                    rejectedCalls.incrementAndGet();
+                    return false;
+                }
+                refill(now);
+                if (now - pausedUntilNanos >= 0 && tokens >= 1) {
+                    tokens -= 1;
+                    quotaUsed++;
+                    acquiredPermits.incrementAndGet();
+                    waitedNanos.addAndGet(now - start);
+                    return true;
+                }
+                long refillNanos = (long) ((1 - tokens) / permitsPerSecond * 1_000_000_000L);
+                waitNanos = Math.max(pausedUntilNanos - now, refillNanos);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(1_000_000L, waitNanos));
+        }
+    }
+
+    /**
+     * This method records a successful call: the backoff is reset and the rate is increased
+     * by rateIncrease / rate, so that it grows by rateIncrease calls per second every second.
+     */
+    public synchronized void onSuccess() {
+        consecutiveThrottles = 0;
+        successfulCalls.incrementAndGet();
+        refill(System.nanoTime());
+        permitsPerSecond = Math.min(maxRate, permitsPerSecond + rateIncrease / permitsPerSecond);
+    }
+
+    /**
+     * This method records a 429 response: all the callers are paused for the time in its Retry-After header,
+     * or for the base backoff doubled at each consecutive 429 (up to 64 times),
+     * and the rate is multiplied by the decrease factor.
+     * The 429 responses received during a pause are answers to calls made before it,
+     * so they do not decrease the rate again.
+     * @param response the 429 response, null if not available
+     * @return the pause, in milliseconds
+     */
+    public synchronized long onThrottled(HttpResponse<?> response) {
+        throttledCalls.incrementAndGet();
+        long now = System.nanoTime();
+        refill(now);
+        if (now - pausedUntilNanos < 0) {
+            return TimeUnit.NANOSECONDS.toMillis(pausedUntilNanos - now);
+        }
+        consecutiveThrottles++;
+        rateDecreases.incrementAndGet();
+        permitsPerSecond = Math.max(minRate, permitsPerSecond * rateDecrease);
+
+        long retryAfterMillis = retryAfterMillis(response != null ? response.getHeaders() : null);
+        long pauseMillis;
+        if (retryAfterMillis >= 0) {
+            retryAfterPauses.incrementAndGet();
+            pauseMillis = retryAfterMillis;
+        } else {
+            pauseMillis = backoffMillis << Math.min(6, consecutiveThrottles);
+        }
+        pausedUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(pauseMillis);
+        tokens = 0;
+        logger.warn("The Guardian API answered 429, pausing the calls for " + pauseMillis + " ms and lowering the rate to "
+            + String.format("%.3f", permitsPerSecond) + " calls/s.");
+        return pauseMillis;
+    }
+
+    /**
+     * This method records that the API reported the daily quota as exceeded:
+     * no other call is allowed until the next day.
+     */
+    public synchronized void onQuotaExhausted() {
+        if (!quotaExhausted) {
+            logger.error("API rate limit exceeded, no other call is allowed today.");
+        }
+        quotaExhausted = true;
+    }
+
+    /**
+     * Returns the current rate of the calls.
+     * @return the number of calls allowed per second
+     */
+    public synchronized double getRate() {
+        return this.permitsPerSecond;
+    }
+
+    /**
+     * This method returns the configuration of the controller, its current rate,
+     * the number of calls allowed, rejected and throttled and the time spent waiting.
+     * @return a JSON object with the rate controller metrics
+     */
+    public synchronized JSONObject getStats() {
+        long now = System.nanoTime();
+        JSONObject stats = new JSONObject();
+        stats.put("permitsPerSecond", permitsPerSecond);
+        stats.put("maxRate", maxRate);
+        stats.put("minRate", minRate);
+        stats.put("burst", burst);
+        stats.put("dailyQuota", dailyQuota);
+        stats.put("quotaUsed", quotaUsed);
+        stats.put("quotaExhausted", isQuotaExhausted());
+        stats.put("acquiredPermits", acquiredPermits.get());
+        stats.put("rejectedCalls", rejectedCalls.get());
+        stats.put("successfulCalls", successfulCalls.get());
+        stats.put("throttledCalls", throttledCalls.get());
+        stats.put("rateDecreases", rateDecreases.get());
+        stats.put("retryAfterPauses", retryAfterPauses.get());
+        stats.put("pausedMillis", Math.max(0, TimeUnit.NANOSECONDS.toMillis(pausedUntilNanos - now)));
+        stats.put("waitedMillis", TimeUnit.NANOSECONDS.toMillis(waitedNanos.get()));
+        return stats;
+    }
+
+    /**
+     * This method reads the Retry-After header of a response, as seconds or as an HTTP date.
+     * @param headers the headers of the response, with any case
+     * @return the time to wait, in milliseconds, or -1 if the header is missing or invalid
+     */
+    public static long retryAfterMillis(Map<String, List<String>> headers) {
+        if (headers == null) {
+            return -1;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (!"Retry-After".equalsIgnoreCase(header.getKey()) || header.getValue() == null || header.getValue().isEmpty()) {
+                continue;
+            }
+            String value = header.getValue().get(0).trim();
+            try {
+                return Math.max(0, Long.parseLong(value) * 1000);
+            } catch (NumberFormatException e) {
+                // Not in seconds, it should be an HTTP date
+            }
+            try {
+                Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                return Math.max(0, date.toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException e) {
+                logger.warn("Invalid Retry-After header: " + value);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This method checks the daily quota, resetting it when the day changes.
+     * @return true if no other call is allowed today
+     */
+    private boolean isQuotaExhausted() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        if (!today.equals(quotaDay)) {
+            quotaDay = today;
+            quotaUsed = 0;
+            quotaExhausted = false;
+        }
+        return quotaExhausted || (dailyQuota > 0 && quotaUsed >= dailyQuota);
+    }
+
+    /**
+     * This method adds the tokens accumulated since the last refill at the current rate, up to the burst size.
+     * @param now the current time, in nanoseconds
+     */
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / 1_000_000_000L);
+        lastRefillNanos = now;
+    }
+}
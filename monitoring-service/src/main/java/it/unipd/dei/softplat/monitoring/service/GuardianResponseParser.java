@@ -0,0 +1,203 @@
+/**
+ * GuardianResponseParser.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.apitheguardian.bean.Article;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import it.unipd.dei.softplat.monitoring.model.SearchPage;
+
+/**
+ * This class is intended to parse the responses of The Guardian Open Platform API
+ * straight from their bytes, with a single streaming pass.
+ * The results of a search are bound to Article objects as they are read, together with their body text,
+ * without building an intermediate JSON tree and serializing each result again.
+ * The reader is shared by all the calls, since it is thread-safe and costly to build.
+ */
+public final class GuardianResponseParser {
+
+    // The fields of the results not in Article (e.g. pillarId) are ignored
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectReader RESULT_READER = MAPPER.readerFor(SearchResult.class);
+
+    /**
+     * This class is not intended to be instantiated.
+     */
+    private GuardianResponseParser() { }
+
+    /**
+     * This method parses a page of search results.
+     * JSON response:
+     * {
+     *  "response":
+     *  {
+     *      "status":"ok",
+     *      "total":1,
+     *      "pages":1,
+     *      "currentPage":1,
+     *      "results":[
+     *          {
+     *              "id":"world/2023/dec/27/daihatsu-suspends-production-in-japan-after-safety-test-scandal",
+     *              ...
+     *              "fields":{ "bodyText":"Production was suspended at the last operating domestic factory of ..." }
+     *          }
+     *      ]
+     *  }
+     * }
+     * @param body the body of the response
+     * @return the page, with the body texts of the results that have one
+     * @throws IOException if the body is not a valid search response
+     */
+    public static SearchPage parseSearchPage(InputStream body) throws IOException {
+        SearchPage page = new SearchPage();
+        try (JsonParser parser = MAPPER.createParser(body)) {
+            expect(parser, JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                if ("response".equals(name)) {
+                    readSearchResponse(parser, page);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * This method parses the body text of an article, from the response of its API URL with show-fields=bodyText.
+     * @param body the body of the response
+     * @return the body text, or null if it is missing
+     * @throws IOException if the body is not valid JSON
+     */
+    public static String parseBodyText(InputStream body) throws IOException {
+        try (JsonParser parser = MAPPER.createParser(body)) {
+            expect(parser, JsonToken.START_OBJECT);
+            return findField(parser, "response", "content", "fields", "bodyText");
+        }
+    }
+
+    /**
+     * This method reads a whole response as text, e.g. to check the message of an error.
+     * @param body the body of the response
+     * @return the text, or an empty string if there is no body
+     */
+    public static String readString(InputStream body) {
+        if (body == null) {
+            return "";
+        }
+        try {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * This method reads the fields of the "response" object of a search.
+     * @param parser positioned on the start of the object
+     * @param page
+     * @throws IOException
+     */
+    private static void readSearchResponse(JsonParser parser, SearchPage page) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (name) {
+                case "total" -> page.setTotal(parser.getValueAsInt());
+                case "pages" -> page.setPages(parser.getValueAsInt());
+                case "currentPage" -> page.setCurrentPage(parser.getValueAsInt());
+                case "results" -> {
+                    if (value != JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                        break;
+                    }
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        SearchResult result = RESULT_READER.readValue(parser);
+                        if (result.fields != null && result.fields.bodyText != null && !result.fields.bodyText.isEmpty()) {
+                            page.getBodies().put(result.getId(), result.fields.bodyText);
+                        }
+                        result.fields = null;
+                        page.getResults().add(result);
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * This method looks for a field nested in the current object, skipping all the others.
+     * @param parser positioned on the start of the object
+     * @param path the names of the nested fields
+     * @return the text of the field, or null if it is missing
+     * @throws IOException
+     */
+    private static String findField(JsonParser parser, String... path) throws IOException {
+        int depth = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (!name.equals(path[depth])) {
+                parser.skipChildren();
+            } else if (depth == path.length - 1) {
+                return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+            } else if (value == JsonToken.START_OBJECT) {
+                depth++;
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method moves to the next token and checks its type.
+     * @param parser
+     * @param token the type expected
+     * @throws IOException if the token is of another type
+     */
+    private static void expect(JsonParser parser, JsonToken token) throws IOException {
+        if (parser.nextToken() != token) {
+            throw new JsonParseException(parser, "Expected " + token + " in the response of The Guardian API");
+        }
+    }
+
+    /**
+     * This class represents a search result, an Article with the fields requested with show-fields.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class SearchResult extends Article {
+        public Fields fields;
+    }
+
+    /**
+     * This class represents the fields of a search result requested with show-fields.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class Fields {
+        public String bodyText;
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * KnownArticleStore.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import com.apitheguardian.bean.Article;
+
+import it.unipd.dei.softplat.http.service.HttpClientService;
+
+/**
+ * This class is intended to remember the articles already delivered for each label,
+ * so that the monitors do not fetch again the body text of the articles of their overlapping windows.
+ * For each label it keeps a bounded LRU set of article IDs, backed by a local file with one ID per line,
+ * to which the IDs delivered are appended and which is loaded at the first use of the label.
+ * The IDs not known locally can be checked with a single request to the MongoDB Service,
+ * so that also the articles stored before the local set existed (or by another instance) are skipped.
+ */
+@Service
+public class KnownArticleStore {
+
+    private static final String EXISTING_IDS_URL = "http://mongodb-service:8085/mongodb/existing-ids/";
+    // After a failure, the MongoDB Service is not checked again for a minute
+    private static final long REMOTE_RETRY_MILLIS = 60_000;
+
+    private final HttpClientService httpClientService;
+    private final Path directory;
+    private final int capacity;
+    private final boolean remoteCheck;
+    private final Map<String, LabelIds> labels = new ConcurrentHashMap<>();
+    private volatile long remoteDisabledUntil;
+
+    // Metrics
+    private final AtomicLong checkedArticles = new AtomicLong();
+    private final AtomicLong knownLocally = new AtomicLong();
+    private final AtomicLong knownRemotely = new AtomicLong();
+    private final AtomicLong remoteChecks = new AtomicLong();
+    private final AtomicLong remoteFailures = new AtomicLong();
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(KnownArticleStore.class);
+
+    /**
+     * Default constructor for KnownArticleStore.
+     * @param httpClientService the HTTP client used to check the articles stored in MongoDB
+     * @param directory the directory of the files of the IDs
+     * @param capacity the maximum number of IDs remembered for each label
+     * @param remoteCheck true to check the IDs not known locally with the MongoDB Service
+     */
+    @Autowired
+    public KnownArticleStore(HttpClientService httpClientService,
+            @Value("${monitoring.known.dir:checkpoints/known-articles}") String directory,
+            @Value("${monitoring.known.capacity:100000}") int capacity,
+            @Value("${monitoring.known.remote:true}") boolean remoteCheck) {
+        this.httpClientService = httpClientService;
+        this.directory = Paths.get(directory);
+        this.capacity = Math.max(1, capacity);
+        this.remoteCheck = remoteCheck;
+    }
+
+    /**
+     * This method removes from a list the articles already delivered for a label.
+     * The IDs not known locally are checked with the MongoDB Service, if enabled,
+     * and the ones already stored are remembered.
+     * @param label
+     * @param articles the articles, modified in place
+     * @return the number of articles removed
+     */
+    public int removeKnown(String label, List<Article> articles) {
+        if (label == null || articles.isEmpty()) {
+            return 0;
+        }
+        LabelIds ids = ids(label);
+        List<String> unknown = new ArrayList<>();
+        int before = articles.size();
+        articles.removeIf(article -> {
+            if (ids.contains(article.getId())) {
+                return true;
+            }
+            unknown.add(article.getId());
+            return false;
+        });
+        checkedArticles.addAndGet(before);
+        knownLocally.addAndGet(before - articles.size());
+
+        Set<String> stored = new HashSet<>(findStored(label, unknown));
+        stored.retainAll(unknown);
+        if (!stored.isEmpty()) {
+            ids.addAll(stored);
+            int remaining = articles.size();
+            articles.removeIf(article -> stored.contains(article.getId()));
+            knownRemotely.addAndGet(remaining - articles.size());
+        }
+        int removed = before - articles.size();
+        if (removed > 0) {
+            logger.info("Skipping " + removed + " of " + before + " articles already stored for label: " + label);
+        }
+        return removed;
+    }
+
+    /**
+     * This method remembers the articles delivered to the DataManager Service, by their label.
+     * @param articles the JSON of the articles, with their ID and label
+     */
+    public void addDelivered(List<JSONObject> articles) {
+        Map<String, List<String>> byLabel = new HashMap<>();
+        for (JSONObject article : articles) {
+            String label = article.optString("label", null);
+            String id = article.optString("id", null);
+            if (label != null && id != null) {
+                byLabel.computeIfAbsent(label, key -> new ArrayList<>()).add(id);
+            }
+        }
+        byLabel.forEach((label, ids) -> ids(label).addAll(ids));
+    }
+
+    /**
+     * This method checks if an article was delivered for a label.
+     * @param label
+     * @param id
+     * @return true if the article is known
+     */
+    public boolean contains(String label, String id) {
+        return ids(label).contains(id);
+    }
+
+    /**
+     * This method returns the number of labels and articles remembered,
+     * and the articles checked and found locally or in MongoDB.
+     * @return a JSON object with the metrics of the store
+     */
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("labels", labels.size());
+        stats.put("knownArticles", labels.values().stream().mapToLong(LabelIds::size).sum());
+        stats.put("checkedArticles", checkedArticles.get());
+        stats.put("knownLocally", knownLocally.get());
+        stats.put("knownRemotely", knownRemotely.get());
+        stats.put("remoteChecks", remoteChecks.get());
+        stats.put("remoteFailures", remoteFailures.get());
+        return stats;
+    }
+
+    /**
+     * This method asks the MongoDB Service which articles of a list are stored in the collection of a label.
+     * @param label
+     * @param ids
+     * @return the IDs stored, empty if the check is disabled or fails
+     */
+    private List<String> findStored(String label, List<String> ids) {
+        List<String> stored = new ArrayList<>();
+        if (!remoteCheck || ids.isEmpty() || System.currentTimeMillis() < remoteDisabledUntil) {
+            return stored;
+        }
+        remoteChecks.incrementAndGet();
+        JSONObject request = new JSONObject().put("collectionName", label).put("ids", new JSONArray(ids));
+        ResponseEntity<String> response = httpClientService.postRequest(EXISTING_IDS_URL, request.toString());
+        if (response == null || response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
+            remoteFailures.incrementAndGet();
+            remoteDisabledUntil = System.currentTimeMillis() + REMOTE_RETRY_MILLIS;
+            logger.warn("Failed to check the articles stored in MongoDB Service. Status: " + (response != null ? response.getStatusCode() : "No response received"));
+            return stored;
+        }
+        try {
+            JSONArray existing = new JSONArray(response.getBody());
+            for (int i = 0; i < existing.length(); i++) {
+                stored.add(existing.getString(i));
+            }
+        } catch (JSONException e) {
+            remoteFailures.incrementAndGet();
+            logger.warn("Invalid response of MongoDB Service for the articles stored: " + e.getMessage());
+        }
+        return stored;
+    }
+
+    /**
+     * This method returns the IDs of a label, loading them from their file at the first use.
+     * @param label
+     * @return the IDs of the label
+     */
+    private LabelIds ids(String label) {
+        return labels.computeIfAbsent(label, key -> new LabelIds(
+            directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".ids")));
+    }
+
+    /**
+     * This class represents the IDs known for a label: a bounded LRU set and its file.
+     * The file is rewritten with the IDs kept when it grows over twice the capacity.
+     */
+    private final class LabelIds {
+
+        private final Path file;
+        private final LinkedHashMap<String, Boolean> ids = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        private int fileLines;
+
+        private LabelIds(Path file) {
+            this.file = file;
+            if (Files.exists(file)) {
+                try {
+                    for (String id : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                        if (!id.isEmpty()) {
+                            ids.put(id, Boolean.TRUE);
+                            fileLines++;
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.error("Error reading the known articles " + file + ": " + e.getMessage());
+                }
+            }
+        }
+
+        private synchronized boolean contains(String id) {
+            return ids.get(id) != null;
+        }
+
+        private synchronized long size() {
+            return ids.size();
+        }
+
+        private synchronized void addAll(Collection<String> newIds) {
+            List<String> added = new ArrayList<>();
+            for (String id : newIds) {
+                if (ids.put(id, Boolean.TRUE) == null) {
+                    added.add(id);
+                }
+            }
+            if (added.isEmpty()) {
+                return;
+            }
+            try {
+                Files.createDirectories(file.getParent());
+                if (fileLines + added.size() > 2L * capacity) {
+                    // Rewrite the file with the IDs kept
+                    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                    Files.write(temporary, ids.keySet(), StandardCharsets.UTF_8);
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    fileLines = ids.size();
+                } else {
+                    Files.write(file, added, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    fileLines += added.size();
+                }
+            } catch (IOException e) {
+                logger.error("Error saving the known articles " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * MonitorScheduler.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import it.unipd.dei.softplat.monitoring.model.Monitor;
+import it.unipd.dei.softplat.monitoring.model.MonitorState;
+import it.unipd.dei.softplat.monitoring.model.MonitoringCheckpoint;
+import it.unipd.dei.softplat.monitoring.model.MonitoringRequest;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * This class is intended to keep the registry of the monitors and to run them, so that they can be
+ * listed, paused, resumed and cancelled while the service is running.
+ * The continuous monitors (the ones without end date) are polled on a scheduled executor,
+ * so that a monitor occupies a thread only while one of its cycles is running and not while it waits for the next one.
+ * Each monitor has its own poll interval, shifted at random by up to its jitter so the monitors do not poll together.
+ * The interval adapts to the yield of the monitor: it is halved after a cycle that retrieved many articles
+ * and doubled after a cycle that retrieved none, between the minimum and the maximum interval.
+ * The monitors of a date range run once on their own executor.
+ * Pausing or cancelling a monitor interrupts its run: the run stops at the next page, or aborts its request in flight,
+ * and its checkpoint stays after the articles delivered. A paused monitor keeps its checkpoint, a cancelled one deletes it.
+ */
+@Service
+public class MonitorScheduler {
+
+    private final MonitoringService monitoringService;
+    private final CheckpointStore checkpointStore;
+    private final long defaultInterval;
+    private final long defaultJitter;
+    private final long minInterval;
+    private final long maxInterval;
+    private final int busyArticles;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService runner;
+
+    private final Map<String, Monitor> monitors = new ConcurrentHashMap<>();
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(MonitorScheduler.class);
+
+    /**
+     * Default constructor for MonitorScheduler.
+     * @param monitoringService the service running the monitors
+     * @param checkpointStore the store of the checkpoints
+     * @param threads the number of cycles of the continuous monitors run at the same time
+     * @param rangeThreads the number of monitors of a date range run at the same time
+     * @param defaultInterval the poll interval of the monitors that do not request one, in milliseconds
+     * @param defaultJitter the jitter of the monitors that do not request one, in milliseconds
+     * @param minInterval the shortest poll interval, in milliseconds
+     * @param maxInterval the longest poll interval, in milliseconds
+     * @param busyArticles the number of articles of a cycle over which the interval is halved
+     */
+    @Autowired
+    public MonitorScheduler(MonitoringService monitoringService, CheckpointStore checkpointStore,
+            @Value("${monitoring.scheduler.threads:4}") int threads,
+            @Value("${monitoring.range.threads:8}") int rangeThreads,
+            @Value("${monitoring.poll.interval:300000}") long defaultInterval,
+            @Value("${monitoring.poll.jitter:30000}") long defaultJitter,
+            @Value("${monitoring.poll.min.interval:60000}") long minInterval,
+            @Value("${monitoring.poll.max.interval:3600000}") long maxInterval,
+            @Value("${monitoring.poll.busy.articles:10}") int busyArticles) {
+        this.monitoringService = monitoringService;
+        this.checkpointStore = checkpointStore;
+        this.defaultInterval = defaultInterval;
+        this.defaultJitter = defaultJitter;
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.busyArticles = busyArticles;
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(1, threads));
+        this.runner = Executors.newFixedThreadPool(Math.max(1, rangeThreads));
+    }
+
+    /**
+     * Constructor for MonitorScheduler, running as many monitors of a date range as cycles at the same time.
+     * @param monitoringService the service running the monitors
+     * @param checkpointStore the store of the checkpoints
+     * @param threads the number of cycles or monitors of a date range run at the same time
+     * @param defaultInterval the poll interval of the monitors that do not request one, in milliseconds
+     * @param defaultJitter the jitter of the monitors that do not request one, in milliseconds
+     * @param minInterval the shortest poll interval, in milliseconds
+     * @param maxInterval the longest poll interval, in milliseconds
+     * @param busyArticles the number of articles of a cycle over which the interval is halved
+     */
+    public MonitorScheduler(MonitoringService monitoringService, CheckpointStore checkpointStore, int threads,
+            long defaultInterval, long defaultJitter, long minInterval, long maxInterval, int busyArticles) {
+        this(monitoringService, checkpointStore, threads, threads, defaultInterval, defaultJitter, minInterval, maxInterval, busyArticles);
+    }
+
+    /**
+     * This method starts a monitor, with its first run right away.
+     * A monitor already registered for the same request is returned as it is.
+     * @param request
+     * @return the monitor started
+     */
+    public Monitor start(MonitoringRequest request) {
+        MonitoringCheckpoint checkpoint = new MonitoringCheckpoint(CheckpointStore.monitorId(request), request);
+        return register(request, checkpoint, 0);
+    }
+
+    /**
+     * This method registers again a monitor from its checkpoint, after a restart of the service.
+     * A paused monitor stays paused. The first cycle of a continuous monitor is shifted at random by up to the jitter,
+     * so the monitors restored together do not poll together.
+     * @param checkpoint
+     * @return the monitor restored
+     */
+    public Monitor restore(MonitoringCheckpoint checkpoint) {
+        MonitoringRequest request = checkpoint.toRequest();
+        long jitter = request.getPollJitter() != null ? request.getPollJitter() : defaultJitter;
+        long delay = request.getEndDate() == null && jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0;
+        return register(request, checkpoint, delay);
+    }
+
+    /**
+     * This method pauses a monitor, interrupting its run, and saves its checkpoint as paused.
+     * @param monitorId
+     * @return true if the monitor was scheduled or running
+     */
+    public boolean pause(String monitorId) {
+        Monitor monitor = monitors.get(monitorId);
+        if (monitor == null) {
+            return false;
+        }
+        Future<?> task;
+        synchronized (monitor) {
+            if (monitor.getState() != MonitorState.SCHEDULED && monitor.getState() != MonitorState.RUNNING) {
+                return false;
+            }
+            monitor.setState(MonitorState.PAUSED);
+            monitor.nextGeneration();
+            monitor.getCheckpoint().setPaused(true);
+            task = monitor.getTask();
+        }
+        if (task != null) {
+            task.cancel(true);
+        }
+        checkpointStore.save(monitor.getCheckpoint());
+        logger.info("Monitor " + monitorId + " for query " + monitor.getRequest().getissueString() + " paused.");
+        return true;
+    }
+
+    /**
+     * This method resumes a paused monitor, or a monitor of a date range stopped by an error, from its checkpoint.
+     * @param monitorId
+     * @return true if the monitor was paused or failed
+     */
+    public boolean resume(String monitorId) {
+        Monitor monitor = monitors.get(monitorId);
+        if (monitor == null) {
+            return false;
+        }
+        synchronized (monitor) {
+            if (monitor.getState() != MonitorState.PAUSED && monitor.getState() != MonitorState.FAILED) {
+                return false;
+            }
+            monitor.setState(MonitorState.SCHEDULED);
+            monitor.getCheckpoint().setPaused(false);
+            checkpointStore.save(monitor.getCheckpoint());
+            launch(monitor, 0);
+        }
+        logger.info("Monitor " + monitorId + " for query " + monitor.getRequest().getissueString() + " resumed.");
+        return true;
+    }
+
+    /**
+     * This method cancels a monitor, interrupting its run, and deletes its checkpoint.
+     * @param monitorId
+     * @return true if the monitor was registered
+     */
+    public boolean cancel(String monitorId) {
+        Monitor monitor = monitors.remove(monitorId);
+        if (monitor == null) {
+            return false;
+        }
+        Future<?> task;
+        synchronized (monitor) {
+            monitor.setState(MonitorState.CANCELLED);
+            monitor.nextGeneration();
+            task = monitor.getTask();
+        }
+        if (task != null) {
+            task.cancel(true);
+        }
+        checkpointStore.delete(monitorId);
+        logger.info("Monitor " + monitorId + " for query " + monitor.getRequest().getissueString() + " cancelled after " + monitor.getCycles()
+            + " cycles, usage " + monitor.getUsage().toJSON());
+        return true;
+    }
+
+    /**
+     * This method returns the monitors registered, by time of the next poll.
+     * @return a JSON array with the monitors, their state and their usage
+     */
+    public JSONArray list() {
+        JSONArray list = new JSONArray();
+        monitors.values().stream()
+            .sorted(Comparator.comparing(Monitor::getNextPoll, Comparator.nullsFirst(Comparator.naturalOrder())))
+            .forEach(monitor -> list.put(monitor.toJSON()));
+        return list;
+    }
+
+    /**
+     * This method returns a monitor.
+     * @param monitorId
+     * @return the monitor, or null if it is not registered
+     */
+    public Monitor get(String monitorId) {
+        return monitors.get(monitorId);
+    }
+
+    /**
+     * This method stops the executors when the application is shut down, interrupting the runs.
+     * The checkpoints are kept, so the monitors are restored at the next start.
+     */
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        runner.shutdownNow();
+    }
+
+    /**
+     * This method registers a monitor, saves its checkpoint and launches its first run, unless it is paused.
+     * A monitor already registered with the same ID is returned as it is.
+     * @param request
+     * @param checkpoint
+     * @param delay the delay of the first cycle of a continuous monitor, in milliseconds
+     * @return the monitor
+     */
+    private Monitor register(MonitoringRequest request, MonitoringCheckpoint checkpoint, long delay) {
+        long interval = request.getPollInterval() != null ? request.getPollInterval() : defaultInterval;
+        long jitter = request.getPollJitter() != null ? request.getPollJitter() : defaultJitter;
+        Monitor monitor = new Monitor(request, checkpoint, Math.min(maxInterval, Math.max(minInterval, interval)), Math.max(0, jitter));
+        Monitor registered = monitors.putIfAbsent(monitor.getMonitorId(), monitor);
+        if (registered != null) {
+            return registered;
+        }
+        checkpointStore.save(checkpoint);
+        if (checkpoint.isPaused()) {
+            monitor.setState(MonitorState.PAUSED);
+            logger.info("Monitor " + monitor.getMonitorId() + " for query " + request.getissueString() + " registered as paused.");
+            return monitor;
+        }
+        launch(monitor, delay);
+        logger.info("Monitor " + monitor.getMonitorId() + " for query " + request.getissueString()
+            + (monitor.isContinuous() ? " scheduled every " + monitor.getPollInterval() + " ms." : " started until " + request.getEndDate() + "."));
+        return monitor;
+    }
+
+    /**
+     * This method launches the next run of a monitor, unless it was paused or cancelled:
+     * the next cycle of a continuous monitor, or the run over the date range.
+     * @param monitor
+     * @param delay the delay of the cycle, in milliseconds
+     */
+    private void launch(Monitor monitor, long delay) {
+        synchronized (monitor) {
+            MonitorState state = monitor.getState();
+            if (monitors.get(monitor.getMonitorId()) != monitor || scheduler.isShutdown()
+                    || (state != MonitorState.SCHEDULED && state != MonitorState.RUNNING)) {
+                return;
+            }
+            monitor.setState(MonitorState.SCHEDULED);
+            int generation = monitor.getGeneration();
+            if (monitor.isContinuous()) {
+                monitor.setNextPoll(new Date(System.currentTimeMillis() + delay));
+                monitor.setTask(scheduler.schedule(() -> poll(monitor, generation), delay, TimeUnit.MILLISECONDS));
+            } else {
+                monitor.setTask(runner.submit(() -> run(monitor, generation)));
+            }
+        }
+    }
+
+    /**
+     * This method marks a monitor as running, unless its generation changed since the run was launched.
+     * @param monitor
+     * @param generation the generation of the run
+     * @return true if the run can go on
+     */
+    private static boolean begin(Monitor monitor, int generation) {
+        synchronized (monitor) {
+            if (monitor.getGeneration() != generation || monitor.getState() != MonitorState.SCHEDULED) {
+                return false;
+            }
+            monitor.setState(MonitorState.RUNNING);
+            return true;
+        }
+    }
+
+    /**
+     * This method runs a cycle of a continuous monitor, adapts its interval to the yield of the cycle
+     * and schedules the next one.
+     * @param monitor
+     * @param generation the generation of the run
+     */
+    private void poll(Monitor monitor, int generation) {
+        if (!begin(monitor, generation)) {
+            return;
+        }
+        int retrieved;
+        long start = System.nanoTime();
+        try {
+            retrieved = monitoringService.runCycle(monitor.getRequest(), monitor.getCheckpoint(), monitor.getUsage());
+        } catch (RuntimeException e) {
+            logger.error("Error in the cycle of monitor " + monitor.getMonitorId() + ": " + e.getMessage(), e);
+            retrieved = -1;
+        }
+        monitor.getUsage().addRun(System.nanoTime() - start);
+        monitor.recordCycle(retrieved);
+        if (monitors.get(monitor.getMonitorId()) != monitor) {
+            // Cancelled during the cycle, which saved the checkpoint again
+            checkpointStore.delete(monitor.getMonitorId());
+            return;
+        }
+
+        long interval = monitor.getPollInterval();
+        if (retrieved < 0) {
+            // Stopped by an error or by the daily quota: wait as long as possible
+            interval = maxInterval;
+        } else if (retrieved == 0) {
+            interval = Math.min(maxInterval, interval * 2);
+        } else if (retrieved >= busyArticles) {
+            interval = Math.max(minInterval, interval / 2);
+        }
+
+        long jitter = monitor.getPollJitter();
+        long delay = interval + (jitter > 0 ? ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : 0);
+        synchronized (monitor) {
+            if (monitor.getGeneration() != generation) {
+                return; // Paused during the cycle
+            }
+            monitor.setPollInterval(interval);
+            launch(monitor, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * This method runs a monitor over its date range, and retires it once the range is completed.
+     * A monitor stopped by an error or by the daily quota is kept as failed, with its checkpoint, so it can be resumed.
+     * @param monitor
+     * @param generation the generation of the run
+     */
+    private void run(Monitor monitor, int generation) {
+        if (!begin(monitor, generation)) {
+            return;
+        }
+        boolean completed = false;
+        long start = System.nanoTime();
+        try {
+            completed = monitoringService.runMonitoring(monitor.getRequest(), monitor.getCheckpoint(), monitor.getUsage());
+        } catch (RuntimeException e) {
+            logger.error("Error in the run of monitor " + monitor.getMonitorId() + ": " + e.getMessage(), e);
+        }
+        monitor.getUsage().addRun(System.nanoTime() - start);
+        if (monitors.get(monitor.getMonitorId()) != monitor) {
+            // Cancelled during the run, which saved the checkpoint again
+            checkpointStore.delete(monitor.getMonitorId());
+            return;
+        }
+        synchronized (monitor) {
+            if (monitor.getGeneration() != generation) {
+                return; // Paused during the run
+            }
+            if (completed) {
+                monitor.setState(MonitorState.COMPLETED);
+                monitors.remove(monitor.getMonitorId(), monitor);
+                logger.info("Monitor " + monitor.getMonitorId() + " for query " + monitor.getRequest().getissueString()
+                    + " completed, usage " + monitor.getUsage().toJSON());
+            } else {
+                monitor.setState(MonitorState.FAILED);
+                logger.warn("Monitor " + monitor.getMonitorId() + " for query " + monitor.getRequest().getissueString()
+                    + " stopped before the end of its date range, it can be resumed from its checkpoint.");
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * MonitoringRecovery.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.monitoring.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import it.unipd.dei.softplat.monitoring.model.MonitoringCheckpoint;
+
+/**
+ * This class is intended to resume the active monitors when the service starts,
+ * each one from its last checkpoint.
+ */
+@Component
+public class MonitoringRecovery {
+
+    private final CheckpointStore checkpointStore;
+    private final MonitorScheduler monitorScheduler;
+    private final boolean resumeOnStartup;
+
+    // For logging
+    private static final Logger logger = LogManager.getLogger(MonitoringRecovery.class);
+
+    /**
+     * Default constructor for MonitoringRecovery.
+     * @param checkpointStore the store of the checkpoints
+     * @param monitorScheduler the registry of the monitors
+     * @param resumeOnStartup false to leave the active monitors stopped
+     */
+    @Autowired
+    public MonitoringRecovery(CheckpointStore checkpointStore, MonitorScheduler monitorScheduler,
+            @Value("${monitoring.resume.on.startup:true}") boolean resumeOnStartup) {
+        this.checkpointStore = checkpointStore;
+        this.monitorScheduler = monitorScheduler;
+        this.resumeOnStartup = resumeOnStartup;
+    }
+
+    /**
+     * This method resumes the active monitors once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeMonitors() {
+        if (!resumeOnStartup) {
+            return;
+        }
+        for (MonitoringCheckpoint checkpoint : checkpointStore.loadAll()) {
+            logger.info("Resuming monitor " + checkpoint.getMonitorId() + " for query: " + checkpoint.getIssueString()
+                + " from " + checkpoint.getWindowStart() + " at page " + (checkpoint.getPage() + 1) + ".");
+            // The paused monitors are registered again, but they are not run until they are resumed
+            monitorScheduler.restore(checkpoint);
+        }
+    }
+}
@@ -8,34 +8,37 @@
 
 package it.unipd.dei.softplat.monitoring.service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 // Client Java for The Guardian Open Platform API
-import com.apitheguardian.GuardianContentApi;
 import com.apitheguardian.bean.Article;
-import com.apitheguardian.bean.Response;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.JsonNode;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mashape.unirest.request.HttpRequest;
 
 import it.unipd.dei.softplat.http.service.HttpClientService;
+import it.unipd.dei.softplat.monitoring.model.BackfillReport;
+import it.unipd.dei.softplat.monitoring.model.BodyFetchResult;
+import it.unipd.dei.softplat.monitoring.model.MonitorUsage;
+import it.unipd.dei.softplat.monitoring.model.MonitoringCheckpoint;
 import it.unipd.dei.softplat.monitoring.model.MonitoringRequest;
+import it.unipd.dei.softplat.monitoring.model.SearchPage;
 
 /**
  * This class is intended to handle monitoring operations,
@@ -45,46 +48,59 @@ import it.unipd.dei.softplat.monitoring.model.MonitoringRequest;
 @Service
 public class MonitoringService {
 
-    private GuardianContentApi client;
+    public static final String PAGE_FETCH_MODE = "page";
+    public static final String ARTICLE_FETCH_MODE = "article";
+
     private String apiKey;
     @Value("${data.batch.size}")
     private int batchSize;
-    @Value("${init.sleep.time}")
-    int initSleepTime;
-    @Value("${increment.sleep.time}")
-    int incrementSleepTime;
+    // The base URL of The Guardian Open Platform API
+    @Value("${guardian.api.url:https://content.guardianapis.com}")
+    String guardianApiUrl;
+    // page: the body texts are requested with the search results; article: one request per article
+    @Value("${guardian.fetch.mode:page}")
+    String fetchMode;
+    // The number of results per page in the page fetch mode (at most 200 for The Guardian API)
+    @Value("${guardian.page.size:200}")
+    int pageSize;
     private final HttpClientService httpClientService;
+    private final GuardianRateLimiter rateLimiter;
+    private final ArticleBodyFetcher bodyFetcher;
+    private final BackfillEngine backfillEngine;
+    private final CheckpointStore checkpointStore;
+    private final DataManagerSender dataManagerSender;
+    private final KnownArticleStore knownArticleStore;
 
     // For logging
     private static final Logger logger = LogManager.getLogger(MonitoringService.class);
     
-    public MonitoringService(@Value("${guardian.open.api.key}") String apiKey, HttpClientService httpClientService) {
+    public MonitoringService(@Value("${guardian.open.api.key}") String apiKey, HttpClientService httpClientService,
+            GuardianRateLimiter rateLimiter, ArticleBodyFetcher bodyFetcher, BackfillEngine backfillEngine,
+            CheckpointStore checkpointStore, DataManagerSender dataManagerSender, KnownArticleStore knownArticleStore) {
 
         if (apiKey == null || apiKey.isEmpty()) {
             throw new IllegalArgumentException("The Guardian Service API environment variable is not set.");
         }
-        this.client = new GuardianContentApi(apiKey);
         this.apiKey = apiKey;
         this.httpClientService = httpClientService;
+        this.rateLimiter = rateLimiter;
+        this.bodyFetcher = bodyFetcher;
+        this.backfillEngine = backfillEngine;
+        this.checkpointStore = checkpointStore;
+        this.dataManagerSender = dataManagerSender;
+        this.knownArticleStore = knownArticleStore;
     }
 
     /**
-     * Starts the monitoring process for the given request.
+     * Runs the monitoring process for the given request, saving a checkpoint after each batch delivered.
+     * It stops as soon as the thread is interrupted (the monitor is paused or cancelled), leaving the checkpoint
+     * after the articles already delivered.
      * @param request
+     * @param checkpoint the checkpoint to resume from, or null to start from the start date
+     * @param usage the counters of the resources used by the monitor
+     * @return true if the date range was completed, so the monitor is not resumed anymore
      */
-    @Async
-    public void startMonitoring(MonitoringRequest request) {
-
-        Response responseTheGuardian;
-        ArrayList<JSONObject> retrievedArticles = new ArrayList<>();
-
-        // Variable to check if the monitoring status has been sent to the Client Service
-        boolean monitoringStatusSent = false;
-
-        // Object mapper for JSON processing
-        ObjectMapper mapper = new ObjectMapper();
-
-        int totalArticles = 0;
+    public boolean runMonitoring(MonitoringRequest request, MonitoringCheckpoint checkpoint, MonitorUsage usage) {
         
         if (request == null) {
             throw new IllegalArgumentException("Monitoring request cannot be null.");
@@ -95,31 +111,133 @@ public class MonitoringService {
         } else {
             logger.info("Monitoring completed for the given date range.");
         }
-
-        // Variable to check if the monitoring should continue indefinitely
-        boolean continueMonitoring = (request.getEndDate() == null);
         
-        Date startDate = request.getStartDate();
+        // Save the checkpoint of the new monitor, so it is resumed if the service restarts before the first batch
+        if (checkpoint == null) {
+            checkpoint = new MonitoringCheckpoint(CheckpointStore.monitorId(request), request);
+            checkpointStore.save(checkpoint);
+        } else {
+            logger.info("Resuming monitoring from " + checkpoint.getWindowStart() + " after page " + checkpoint.getPage()
+                + " and article <" + checkpoint.getLastArticleId() + ">.");
+        }
+
+        // A historical range is fetched by the backfill engine, split into date windows under the page cap
+        if (request.getEndDate() != null && PAGE_FETCH_MODE.equals(fetchMode)) {
+            return backfillRange(request, checkpoint, usage);
+        }
+
+        // The continuous monitors are polled by the MonitorScheduler, here a single cycle is run up to now
+        int delivered = runCycle(request, checkpoint, usage);
+        boolean completed = request.getEndDate() != null && delivered >= 0;
+        if (completed) {
+            // The date range is completed, so the monitor is not resumed anymore
+            checkpointStore.delete(checkpoint.getMonitorId());
+        }
+        logger.info("Monitoring process completed for query: " + request.getissueString());
+        return completed;
+    }
+
+    /**
+     * Runs a monitoring cycle: it fetches the articles published from the start of the window of the checkpoint
+     * to the end date of the request (to now for a continuous monitor), sends them to the DataManager Service
+     * and moves the checkpoint after the window.
+     * @param request
+     * @param checkpoint the checkpoint of the monitor
+     * @return the number of articles retrieved, or -1 if the cycle was stopped by an error or by the daily quota
+     */
+    public int runCycle(MonitoringRequest request, MonitoringCheckpoint checkpoint) {
+        return runCycle(request, checkpoint, new MonitorUsage());
+    }
+
+    /**
+     * Runs a monitoring cycle, recording the resources it uses in the usage of the monitor.
+     * The cycle stops between two pages, or during a request in flight, if the thread is interrupted
+     * (the monitor is paused or cancelled): its batches not sent yet are dropped and the checkpoint is not moved.
+     * @param request
+     * @param checkpoint the checkpoint of the monitor
+     * @param usage the counters of the resources used by the monitor
+     * @return the number of articles retrieved, or -1 if the cycle was stopped by an error, by the daily quota or by an interruption
+     */
+    public int runCycle(MonitoringRequest request, MonitoringCheckpoint checkpoint, MonitorUsage usage) {
+
+        ArrayList<JSONObject> retrievedArticles = new ArrayList<>();
+        // The batches are sent by the DataManagerSender while the next pages are fetched
+        DataManagerSender.Delivery delivery = dataManagerSender.open();
+
+        int totalArticles = 0;
+
+        Date startDate = checkpoint.getWindowStart();
         Date endDate;
-        
-        // Loop the section
-        do {
-            if (!continueMonitoring) {
-                // If the end date is not null, set the end date for the query
-                endDate = request.getEndDate();
-            } else {
-                // If the end date is null, set the end date to the current date
-                endDate = new Date(); // new Date() = current date and time 
+        if (request.getEndDate() != null) {
+            // If the end date is not null, set the end date for the query
+            endDate = request.getEndDate();
+        } else {
+            // If the end date is null, set the end date to the current date (or the end of the window resumed)
+            endDate = checkpoint.getWindowEnd() != null ? checkpoint.getWindowEnd() : new Date(); // new Date() = current date and time
+        }
+        // The first page to fetch, after the last one delivered when resuming
+        int firstPage = checkpoint.getPage() + 1;
+        checkpoint.setWindowStart(startDate);
+        checkpoint.setWindowEnd(endDate);
+
+        ArrayList<Article> articles = new ArrayList<>();
+        // The body texts of the articles, by ID
+        Map<String, String> bodies = new HashMap<>();
+        // The number of calls to The Guardian API of the cycle, to measure the calls per article
+        int apiCalls = 0;
+
+        int pageAttempts = 0;
+
+        /**
+         * Note: 
+         * The Guardian API has a limit of 500 requests per day and a maximum of 1 request per second.
+         * I keep 50 requests as a buffer to retry some requests in case of errors.
+         * So, the maximum number of requests per day is 450, and each page has 10 articles.
+         * Therefore, the maximum number of pages is:
+         *      450 / (10 requests for articles + 1 request for the page) = 40 pages (rounded down). 
+         * In the page fetch mode the body texts come with the page, so a page costs a single request
+         * (plus one for each body text missing from the page).
+         */
+        // The number of pages is known after the first page
+        int pages = firstPage;
+        // Loop to retrieve articles from all pages
+        for (int page = firstPage; page <= pages; page++) {
+            // Stop between the pages if the monitor was paused or cancelled
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("Monitoring interrupted for query: " + request.getissueString() + " at page " + page);
+                delivery.cancel();
+                return -1; // Exit
             }
-            // Set the date range for the query
-            client.setFromDate(startDate);
-            client.setToDate(endDate); 
-
-            // Set the label for the query
-            try{
-                responseTheGuardian = client.getContent(request.getissueString());
+            HttpResponse<InputStream> response = null;
+            try {
+                // Wait for the shared rate limiter
+                if (!rateLimiter.acquire()) {
+                    logger.error("API rate limit exceeded. Stopping monitoring.");
+                    sendMonitorStatus(checkpoint, "API rate limit exceeded", request.getissueString());
+                    return -1; // Exit
+                }
+                // Query the page [page]
+                HttpRequest pageRequest = Unirest.get(guardianApiUrl + "/search")
+                        .queryString("q", request.getissueString())
+                        .queryString("from-date", startDate.toInstant().toString())
+                        .queryString("to-date", endDate.toInstant().toString())
+                        .queryString("page", page)
+                        .queryString("api-key", this.apiKey);
+                if (PAGE_FETCH_MODE.equals(fetchMode)) {
+                    // Ask for the body texts with the results, with the largest pages allowed
+                    pageRequest = pageRequest.queryString("show-fields", "bodyText").queryString("page-size", pageSize);
+                }
+                apiCalls++;
+                usage.addApiCalls(1);
+                response = GuardianClient.send(pageRequest); // Aborted if the monitor is paused or cancelled
+            }
+            catch (InterruptedException e) {
+                logger.error("Monitoring interrupted: " + e.getMessage());
+                Thread.currentThread().interrupt(); // Restore the interrupted status
+                delivery.cancel();
+                return -1; // Exit
             }
-            catch (UnirestException e){
+            catch (UnirestException e) {
                 // Check if the exception is due to API rate limit exceeded
                 Throwable cause = e.getCause();
                 boolean found = false;
@@ -133,437 +251,354 @@ public class MonitoringService {
                 // If it is caused by API limit, log the error and stop monitoring
                 if (found) {
                     logger.error("API rate limit exceeded. Stopping monitoring.");
-                    continueMonitoring = false; // Stop monitoring if an error occurs
-                    sendStatusToClientService("MONITORING", "API rate limit exceeded", request.getissueString());
-                    return; // Exit
+                    sendMonitorStatus(checkpoint, "API rate limit exceeded", request.getissueString());
+                    return -1; // Exit
                 }
-                logger.error("Error while fetching content from The Guardian API: " + e.getMessage(), e);
-                return; // Exit
+                logger.error("Error while fetching articles from The Guardian at page " + page + ": " + e.getMessage(), e);
+                return -1; // Exit
             }
-
-            ArrayList<Article> articles = new ArrayList<>();
-
-            int pageAttempts = 0;
-            int articleAttempts = 0;
-            int sleepTime = initSleepTime;
-
-            /**
-             * Note: 
-             * The Guardian API has a limit of 500 requests per day and a maximum of 1 request per second.
-             * I keep 50 requests as a buffer to retry some requests in case of errors.
-             * So, the maximum number of requests per day is 450, and each page has 10 articles.
-             * Therefore, the maximum number of pages is:
-             *      450 / (10 requests for articles + 1 request for the page) = 40 pages (rounded down). 
-             */
-            // Loop to retrieve articles from all pages
-            for (int page = 1; page <= (request.getissueString().equals("example issue query") ? Math.min(2, responseTheGuardian.getPages()) : (responseTheGuardian.getTotal() <= 400 ? responseTheGuardian.getPages() : 40)); page++) {
-            // for (int page = 1; page <= (request.getissueString().equals("example issue query") ? Math.min(2, responseTheGuardian.getPages()) : responseTheGuardian.getPages()); page++) {
-                HttpResponse<JsonNode> response = null;
-                try {
-                    // Query the page [page]
-                    response = Unirest.get("https://content.guardianapis.com/search")
-                            .queryString("q", request.getissueString())
-                            .queryString("from-date", startDate.toInstant().toString())
-                            .queryString("to-date", endDate.toInstant().toString())
-                            .queryString("page", page)
-                            .queryString("api-key", this.apiKey)
-                            .asJson();
-                }
-                catch (UnirestException e) {
-                    // Check if the exception is due to API rate limit exceeded
-                    Throwable cause = e.getCause();
-                    boolean found = false;
-                    while (!found) {
-                        if (cause.getMessage().contains("API rate limit exceeded")) {
-                            found = true; // Stop searching for the cause
-                            break;
-                        }
-                        cause = cause.getCause();
-                    }
-                    // If it is caused by API limit, log the error and stop monitoring
-                    if (found) {
-                        logger.error("API rate limit exceeded. Stopping monitoring.");
-                        continueMonitoring = false; // Stop monitoring if an error occurs
-                        sendStatusToClientService("MONITORING", "API rate limit exceeded", request.getissueString());
-                        return; // Exit
-                    }
-                    logger.error("Error while fetching articles from The Guardian at page " + page + ": " + e.getMessage(), e);
-                    return; // Exit
-                }
-                
-                // Sleep for a while to avoid hitting the API rate limit
-                try {
-                    Thread.sleep(sleepTime);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+            
+            if (response != null && response.getStatus() == 429) {
+                if (GuardianResponseParser.readString(response.getBody()).contains("API rate limit exceeded")) {
+                    rateLimiter.onQuotaExhausted();
+                    logger.error("API rate limit exceeded. Stopping monitoring.");
+                    sendMonitorStatus(checkpoint, "API rate limit exceeded", request.getissueString());
+                    return -1; // Exit
                 }
-
                 // Check if I did too many attempts to fetch articles from a page
-                if (pageAttempts >= 5 && response != null && response.getStatus() == 429) {
-                    if (response != null && response.getBody().toString().contains("API rate limit exceeded")) {
-                        logger.error("API rate limit exceeded. Stopping monitoring.");
-                        continueMonitoring = false; // Stop monitoring if an error occurs
-                        sendStatusToClientService("MONITORING", "API rate limit exceeded", request.getissueString());
-                        return; // Exit
-                    }
+                if (++pageAttempts >= 5) {
                     logger.error("Unable to fetch articles from The Guardian at page: " + page + " due to too many requests. Status: " + response.getStatus());
                     logger.error("Skipping page: " + page);
                     pageAttempts = 0; // Reset the attempts counter
-                    // Wait some times
-                    try {
-                        Thread.sleep(1500); // Sleep for 2 seconds before retrying
-                    } catch (InterruptedException e) {
-                        logger.error("Retry interrupted: " + e.getMessage());
-                        Thread.currentThread().interrupt(); // Restore the interrupted status
-                    }
                     continue; // Skip to the next page
                 }
-                
-                // Check if I reached the limit of requests per day
-                if (pageAttempts < 5 && response != null && response.getStatus() == 429) {
-                    if (response != null && response.getBody().toString().contains("API rate limit exceeded")) {
-                        logger.error("API rate limit exceeded. Stopping monitoring.");
-                        continueMonitoring = false; // Stop monitoring if an error occurs
-                        sendStatusToClientService("MONITORING", "API rate limit exceeded", request.getissueString());
-                        return; // Exit
-                    }
-                    logger.warn("Too much attempt. Status: " + response.getStatus());
-                    pageAttempts++;
-                    // Increase the sleep time to avoid hitting the API rate limit
-                    sleepTime += incrementSleepTime * Math.pow(2, pageAttempts); // Increase the sleep time by incrementSleepTime milliseconds * 2^pageAttempts
-                    // Wait for a while before retrying
-                    try {
-                        Thread.sleep(1500); // Sleep for 2 seconds before retrying
-                    } catch (InterruptedException e) {
-                        logger.error("Retry interrupted: " + e.getMessage());
-                        Thread.currentThread().interrupt(); // Restore the interrupted status
-                    }
-                    // Retry the request for the same page
-                    page--;
-                    continue;
-                }
+                logger.warn("Too much attempt. Status: " + response.getStatus());
+                // Slow down all the calls to the API, the next one waits for the pause of the limiter
+                rateLimiter.onThrottled(response);
+                // Retry the request for the same page
+                page--;
+                continue;
+            }
 
-                // Check if the response is null or if the status is not sleepTime
-                if (response == null || response.getStatus() != 200) {
-                    logger.error("Failed to fetch articles from The Guardian at page: " + page + ". Status: " + (response != null ? response.getStatus() : "No response received"));
-                    continue; // Skip to the next page if the request failed
-                }
+            // Check if the response is null or if the status is not 200
+            if (response == null || response.getStatus() != 200) {
+                logger.error("Failed to fetch articles from The Guardian at page: " + page + ". Status: " + (response != null ? response.getStatus() : "No response received"));
+                continue; // Skip to the next page if the request failed
+            }
 
-                // No error, so reset the attempts counter
-                if (response != null && response.getStatus() == 200){
-                    pageAttempts = 0;
-                    sleepTime = Math.max(initSleepTime, sleepTime - incrementSleepTime); // Decrease the sleep time by incrementSleepTime milliseconds if it is greater than initSleepTime milliseconds  
+            // No error, so reset the attempts counter
+            pageAttempts = 0;
+            rateLimiter.onSuccess();
+
+            // Parse the response, keeping the body texts returned with the page (page fetch mode)
+            SearchPage searchPage;
+            try {
+                searchPage = GuardianResponseParser.parseSearchPage(response.getBody());
+            } catch (IOException e) {
+                logger.error("Error parsing the articles from The Guardian at page " + page + ": " + e.getMessage());
+                continue; // Skip to the next page if the response is not valid
+            }
+            pages = maxPages(request.getissueString(), searchPage.getTotal(), searchPage.getPages());
+            // Check if the results are empty
+            if (searchPage.getResults().isEmpty()) {
+                logger.warn("No articles found for the given query and date range at page: " + page);
+                continue; // Skip to the next page if no articles are found
+            }
+            articles.addAll(searchPage.getResults());
+            bodies.putAll(searchPage.getBodies());
+
+            // Fetch concurrently the body texts missing from the page, with one request per article
+            ArrayList<Article> missingBodies = new ArrayList<>();
+            for (Article article : articles) {
+                if (!bodies.containsKey(article.getId())) {
+                    missingBodies.add(article);
                 }
+            }
+            // Skip the articles already stored for the label (the windows of continuous monitoring overlap),
+            // without fetching their body text again. The articles whose body text came with the page are kept,
+            // so their updated versions reach the content hash filter of the MongoDB Service
+            usage.addKnownArticles(knownArticleStore.removeKnown(request.getLabel(), missingBodies));
+            BodyFetchResult fetched = bodyFetcher.fetchBodies(missingBodies);
+            apiCalls += fetched.getApiCalls();
+            usage.addApiCalls(fetched.getApiCalls());
+            bodies.putAll(fetched.getBodies());
+            if (fetched.isRateLimitExceeded()) {
+                logger.error("API rate limit exceeded. Stopping monitoring.");
+                sendMonitorStatus(checkpoint, "API rate limit exceeded", request.getissueString());
+                return -1; // Exit
+            }
 
-                // Parse the response
-                JSONArray results = response.getBody().getObject().getJSONObject("response").getJSONArray("results");
-                // Check if the results are empty
-                if (results.isEmpty()) {
-                    logger.warn("No articles found for the given query and date range at page: " + page);
-                    continue; // Skip to the next page if no articles are found
+            for (Article article : articles) {
+                String bodyText = bodies.get(article.getId());
+                if (bodyText == null) {
+                    continue; // The body text could not be fetched, or the article is already stored
                 }
 
-                // Convert the results to an array to Article objects
-                for (int i = 0; i < results.length(); i++) {
-                    JSONObject articleJson = results.getJSONObject(i);
-                    Article theGuradianArticle = new Article();
-                    try {
-                        theGuradianArticle = mapper.readValue(articleJson.toString(), Article.class);
-                    } catch (JsonMappingException e) {
-                        logger.error("Error mapping JSON to Article object at index " + i + ": " + e.getMessage());
-                    } catch (JsonProcessingException e) {
-                        logger.error("Error processing JSON to Article object at index " + i + ": " + e.getMessage());
-                    }
-                    // Check if the article is null
-                    if (theGuradianArticle == null) {
-                        logger.warn("Error during the conversion of article at index " + i + " to Article object.");
-                        continue; // Skip to the next article if the conversion failed
-                    } else {
-                        // Append to the articles array
-                        articles.add(theGuradianArticle);
-                    }
-
+                JSONObject articleJson = toArticleJson(request, article, bodyText);
+                retrievedArticles.add(articleJson);
+                logger.info("Article <" + article.getId() + "> retrieved: " + article.getWebTitle() + " at page " + page);
+            }
+            // Check if the retrievedArticles list has reached the batch size
+            if (retrievedArticles.size() >= batchSize) {
+                logger.info("Batch size reached (" + retrievedArticles.size() + "), sending articles to DataManager Service.");
+                totalArticles += retrievedArticles.size();
+                usage.addArticles(retrievedArticles.size());
+                String lastArticleId = retrievedArticles.get(retrievedArticles.size() - 1).optString("id");
+                int deliveredPage = page;
+                // Send the articles to the DataManager Service, once delivered all the pages up to this one are delivered
+                if (!sendArticlesToDataManager(delivery, retrievedArticles, () -> saveCheckpoint(checkpoint, startDate, deliveredPage, lastArticleId))) {
+                    return -1; // Exit
                 }
+                // Send the status to the Client Service
+                sendMonitorStatus(checkpoint, "Monitoring completed", request.getissueString());
+                retrievedArticles.clear(); // Clear the list after sending
+            }
+            // Reset the articles list for the next page
+            articles.clear();
+            bodies.clear();
+        }
 
-                for (int i = 0; i < articles.size(); i++) {
-                    Article article = articles.get(i);
-                    /**
-                     * The article is as follows:
-                     * {
-                     *   "id": "article-id",
-                     *   "type": "article_type",
-                     *   "sectionId": "section_id",
-                     *   "sectionName": "section_name",
-                     *   "webPublicationDate": "2023-10-01T12:00:00Z",
-                     *   "webTitle": "Article Title", 
-                     *   "webUrl": "https://www.theguardian.com/article-url",
-                     *   "apiUrl": "https://content.guardianapis.com/article-id",
-                     *   "isHosted": false
-                     * }
-                     */
-                    
-                    String bodyText;
-
-                    String apiurl = article.getApiUrl();
-                    if( apiurl == null || apiurl.isEmpty()) {
-                        logger.warn("Article API URL is missing.");
-                        continue;
-                    }
-
-                    // Fetch the full article content using the API URL
-                    try {
-                        /**
-                         * JSON response:
-                         * Full article: 
-                         * {
-                         *  "response":
-                         *  {
-                         *      "userTier":"developer",
-                         *      "total":1,
-                         *      "content":{
-                         *          "sectionName":"World news",
-                         *          "pillarName":"News",
-                         *          "webPublicationDate":"2023-12-27T03:46:38Z",
-                         *          "apiUrl":"https://content.guardianapis.com/world/2023/dec/27/daihatsu-suspends-production-in-japan-after-safety-test-scandal",
-                         *          "webUrl":"https://www.theguardian.com/world/2023/dec/27/daihatsu-suspends-production-in-japan-after-safety-test-scandal",
-                         *          "isHosted":false,
-                         *          "pillarId":"pillar/news",
-                         *          "webTitle":"Daihatsu suspends production in Japan after safety test scandal",
-                         *          "id":"world/2023/dec/27/daihatsu-suspends-production-in-japan-after-safety-test-scandal",
-                         *          "sectionId":"world",
-                         *          "type":"article",
-                         *          "fields":{
-                         *              "bodyText":"Production was suspended at the last operating domestic factory of Japanese automaker Daihatsu on Tuesday, as the ... 
-                         *          }
-                         *      },
-                         *      "status":"ok"
-                         *  }
-                         * }
-                         */
-                        HttpResponse<JsonNode> fullArticle = Unirest.get(apiurl).queryString("api-key", this.apiKey).queryString("show-fields", "bodyText").asJson();
-                        // Sleep for a while to avoid hitting the API rate limit
-                        try {
-                            Thread.sleep(sleepTime);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-
-                        // Check if I did too many attempts to fetch the full article content
-                        if (articleAttempts >= 5 && response != null && response.getStatus() == 429) {
-                            if (response != null && response.getBody().toString().contains("API rate limit exceeded")) {
-                                logger.error("API rate limit exceeded. Stopping monitoring.");
-                                continueMonitoring = false; // Stop monitoring if an error occurs
-                                sendStatusToClientService("MONITORING", "API rate limit exceeded", request.getissueString());
-                                return; // Exit
-                            }
-                            logger.error("Unable to fetch the content of an article from The Guardian due to too many requests. Status: " + response.getStatus());
-                            logger.error("Skipping article: " + article.getId());
-                            articleAttempts = 0; // Reset the attempts counter
-                            // Wait some times
-                            try {
-                                Thread.sleep(1500); // Sleep for 2 seconds before retrying
-                            } catch (InterruptedException e) {
-                                logger.error("Retry interrupted: " + e.getMessage());
-                                Thread.currentThread().interrupt(); // Restore the interrupted status
-                            }
-                            continue; // Skip to the next page
-                        }
+        // If there are still articles left in the retrievedArticles list, send them to the DataManager Service
+        if (!retrievedArticles.isEmpty()) {
+            logger.info("Sending remaining articles (" + retrievedArticles.size() + ") to DataManager Service.");
+            totalArticles += retrievedArticles.size();
+            usage.addArticles(retrievedArticles.size());
+            if (!sendArticlesToDataManager(delivery, retrievedArticles, null)) {
+                return -1; // Exit
+            }
+            // Send the status to the Client Service
+            sendMonitorStatus(checkpoint, "Monitoring completed", request.getissueString());
+            retrievedArticles.clear(); // Clear the list after sending
+        }
+        // Wait for the batches still being sent
+        try {
+            if (!delivery.await()) {
+                // The checkpoint stays before the articles not delivered, so they are fetched again at the next run
+                logger.error("Some articles were not delivered to the DataManager Service for query: " + request.getissueString());
+                return -1; // Exit
+            }
+        } catch (InterruptedException e) {
+            logger.error("Monitoring interrupted: " + e.getMessage());
+            Thread.currentThread().interrupt(); // Restore the interrupted status
+            delivery.cancel();
+            return -1; // Exit
+        }
 
-                        // Check if I reached the limit of requests per day
-                        if (articleAttempts < 5 && fullArticle != null && fullArticle.getStatus() == 429) {
-                            if (response != null && response.getBody().toString().contains("API rate limit exceeded")) {
-                                logger.error("API rate limit exceeded. Stopping monitoring.");
-                                continueMonitoring = false; // Stop monitoring if an error occurs
-                                sendStatusToClientService("MONITORING", "API rate limit exceeded", request.getissueString());
-                                return; // Exit
-                            }
-                            logger.warn("Too much attempt. Status: " + fullArticle.getStatus());
-                            articleAttempts++;
-                            sleepTime += incrementSleepTime * Math.pow(2, articleAttempts); // Increase the sleep time by incrementSleepTime milliseconds * 2^articleAttempts
-                            // Wait for a while before retrying
-                            try {
-                                Thread.sleep(1500); // Sleep for 2 seconds before retrying
-                            } catch (InterruptedException e) {
-                                logger.error("Retry interrupted: " + e.getMessage());
-                                Thread.currentThread().interrupt(); // Restore the interrupted status
-                            }
-                            // Retry the request for the same article
-                            i--;
-                            continue;
-                        }
-                        
-                        if (fullArticle == null || fullArticle.getStatus() != 200) {
-                            logger.error("Failed to fetch full article content. Status: " + (fullArticle != null ? fullArticle.getStatus() : "No response received"));
-                            continue;
-                        }
+        logger.info("Retrieved " + totalArticles + " articles for the query: " + request.getissueString() + " from " + startDate + " to " + endDate
+            + " with " + apiCalls + " API calls (" + (totalArticles > 0 ? String.format("%.2f", (double) apiCalls / totalArticles) : "-") + " calls per article).");
 
-                        // No error, so reset the attempts counter
-                        if (fullArticle != null && fullArticle.getStatus() == 200){
-                            articleAttempts = 0;
-                            sleepTime = Math.max(initSleepTime, sleepTime - incrementSleepTime); // Decrease the sleep time by incrementSleepTime milliseconds if it is greater than initSleepTime milliseconds
-                        }
+        // The window is delivered, the next cycle starts after it
+        checkpoint.setWindowEnd(null);
+        saveCheckpoint(checkpoint, endDate, 0, checkpoint.getLastArticleId());
+        return totalArticles;
+    }
 
-                        // Get the body text from the response
-                        JSONObject body = fullArticle.getBody().getObject().getJSONObject("response").getJSONObject("content").getJSONObject("fields");
-                        bodyText = body.getString("bodyText");
-                        if (bodyText == null || bodyText.isEmpty()) {
-                            logger.error("Body text is missing for article ID: " + article.getId());
-                            continue;
-                        }
-                    } catch (UnirestException e) {
-                        // Check if the exception is due to API rate limit exceeded
-                        Throwable cause = e.getCause();
-                        boolean found = false;
-                        while (!found) {
-                            if (cause.getMessage().contains("API rate limit exceeded")) {
-                                found = true; // Stop searching for the cause
-                                break;
-                            }
-                            cause = cause.getCause();
-                        }
-                        // If it is caused by API limit, log the error and stop monitoring
-                        if (found) {
-                            logger.error("API rate limit exceeded. Stopping monitoring.");
-                            continueMonitoring = false; // Stop monitoring if an error occurs
-                            sendStatusToClientService("MONITORING", "API rate limit exceeded", request.getissueString());
-                            return; // Exit
-                        }
-                        logger.error("Error fetching full article content: " + e.getMessage());
-                        continue;
+    /**
+     * This method fetches all the articles of a historical date range with the backfill engine
+     * and sends them to the DataManager Service in batches, in date order.
+     * After each batch delivered, the checkpoint moves to the end of the last window delivered.
+     * @param request
+     * @param checkpoint the checkpoint of the monitor, with the start of the range still to fetch
+     * @param usage the counters of the resources used by the monitor
+     * @return true if all the windows of the range were fetched and delivered
+     */
+    private boolean backfillRange(MonitoringRequest request, MonitoringCheckpoint checkpoint, MonitorUsage usage) {
+        Date startDate = checkpoint.getWindowStart();
+        Date endDate = request.getEndDate();
+        ArrayList<JSONObject> retrievedArticles = new ArrayList<>();
+        // The batches are sent by the DataManagerSender while the next windows are fetched
+        DataManagerSender.Delivery delivery = dataManagerSender.open();
+        // Set at the first window not fully fetched: the checkpoint stays before it, to fetch it again when resumed
+        AtomicBoolean checkpointFrozen = new AtomicBoolean(false);
+        BackfillReport report;
+        try {
+            report = backfillEngine.backfill(request.getissueString(), startDate, endDate,
+                    articles -> {
+                        int known = knownArticleStore.removeKnown(request.getLabel(), articles);
+                        usage.addKnownArticles(known);
+                        return known;
+                    }, window -> {
+                if (!window.isComplete()) {
+                    checkpointFrozen.set(true);
+                }
+                for (Article article : window.getArticles()) {
+                    String bodyText = window.getBodies().get(article.getId());
+                    if (bodyText != null) {
+                        retrievedArticles.add(toArticleJson(request, article, bodyText));
+                        usage.addArticles(1);
                     }
-
-                    // JSON format of the article
-                    JSONObject articleJson = new JSONObject();
-                    /**
-                     * Saving:
-                     * {
-                     *   "id": "article-id",
-                     *   "issueString": "query",
-                     *   "label": "label"
-                     *   "type": "article_type",
-                     *   "sectionId": "section_id",
-                     *   "sectionName": "section_name",
-                     *   "webPublicationDate": "2023-10-01T12:00:00Z",
-                     *   "webTitle": "Article Title",
-                     *   "webUrl": "https://www.theguardian.com/article-url",
-                     *   "bodyText": "Full article body text",
-                     * }
-                     */
-                    articleJson.put("id", article.getId());
-                    articleJson.put("issueString", request.getissueString());
-                    articleJson.put("label", request.getLabel());
-                    articleJson.put("type", article.getType());
-                    articleJson.put("sectionId", article.getSectionId());
-                    articleJson.put("sectionName", article.getSectionName());
-                    articleJson.put("webPublicationDate", article.getWebPublicationDate());
-                    articleJson.put("webTitle", article.getWebTitle());
-                    articleJson.put("webUrl", article.getWebUrl());
-                    articleJson.put("bodyText", bodyText);
-
-                    retrievedArticles.add(articleJson);
-                    logger.info("Article <" + article.getId() + "> retrieved: " + article.getWebTitle() + " at page " + page);
                 }
                 // Check if the retrievedArticles list has reached the batch size
                 if (retrievedArticles.size() >= batchSize) {
                     logger.info("Batch size reached (" + retrievedArticles.size() + "), sending articles to DataManager Service.");
-                    totalArticles += retrievedArticles.size();
-                    // Send the articles to the DataManager Service
-                    sendArticlesToDataManager(retrievedArticles);
-                    // Send the status to the Client Service
-                    if (!monitoringStatusSent) {
-                        monitoringStatusSent = sendStatusToClientService("MONITORING", "Monitoring completed" , request.getissueString());
-                    }
-                    retrievedArticles.clear(); // Clear the list after sending
+                    String lastArticleId = retrievedArticles.get(retrievedArticles.size() - 1).optString("id");
+                    Date nextStart = new Date(window.getToDate().getTime() + 1);
+                    // Once delivered all the windows up to this one are delivered, unless one of them is incomplete
+                    boolean frozen = checkpointFrozen.get();
+                    sendArticlesToDataManager(delivery, retrievedArticles, () -> {
+                        if (!frozen) {
+                            saveCheckpoint(checkpoint, nextStart, 0, lastArticleId);
+                        }
+                    });
+                    sendMonitorStatus(checkpoint, "Monitoring completed", request.getissueString());
+                    retrievedArticles.clear();
                 }
-                // Reset the articles list for the next page
-                articles.clear();
-            }
+            });
+        } catch (InterruptedException e) {
+            logger.error("Monitoring interrupted: " + e.getMessage());
+            Thread.currentThread().interrupt(); // Restore the interrupted status
+            delivery.cancel();
+            return false; // Exit
+        }
+        usage.addApiCalls(report.getApiCalls());
 
-            // If there are still articles left in the retrievedArticles list, send them to the DataManager Service
-            if (!retrievedArticles.isEmpty()) {
-                logger.info("Sending remaining articles (" + retrievedArticles.size() + ") to DataManager Service.");
-                totalArticles += retrievedArticles.size();
-                sendArticlesToDataManager(retrievedArticles);
-                // Send the status to the Client Service
-                if (!monitoringStatusSent) {
-                    monitoringStatusSent = sendStatusToClientService("MONITORING", "Monitoring completed" , request.getissueString());
-                }
-                retrievedArticles.clear(); // Clear the list after sending
+        // If there are still articles left in the retrievedArticles list, send them to the DataManager Service
+        if (!retrievedArticles.isEmpty()) {
+            logger.info("Sending remaining articles (" + retrievedArticles.size() + ") to DataManager Service.");
+            if (!sendArticlesToDataManager(delivery, retrievedArticles, null)) {
+                return false; // Exit
             }
+            sendMonitorStatus(checkpoint, "Monitoring completed", request.getissueString());
+        }
+        // Wait for the batches still being sent
+        boolean delivered;
+        try {
+            delivered = delivery.await();
+        } catch (InterruptedException e) {
+            logger.error("Monitoring interrupted: " + e.getMessage());
+            Thread.currentThread().interrupt(); // Restore the interrupted status
+            delivery.cancel();
+            return false; // Exit
+        }
+        // The date range is completed, so the monitor is not resumed anymore
+        boolean completed = delivered && !checkpointFrozen.get();
+        if (completed) {
+            checkpointStore.delete(checkpoint.getMonitorId());
+        }
+        if (report.isRateLimitExceeded()) {
+            logger.error("API rate limit exceeded. Stopping monitoring.");
+            sendMonitorStatus(checkpoint, "API rate limit exceeded", request.getissueString());
+        }
+        logger.info("Retrieved " + report.getFetched() + " of " + report.getTotal() + " articles (coverage " + String.format("%.3f", report.getCoverage())
+            + ") for the query: " + request.getissueString() + " from " + startDate + " to " + endDate + " in " + report.getWindows() + " windows, with "
+            + report.getApiCalls() + " API calls in " + report.getElapsedMillis() + " ms.");
+        return completed;
+    }
 
-            logger.info("Retrieved " + totalArticles + " articles for the query: " + request.getissueString() + " from " + startDate + " to " + endDate);
-                
-            // Sleep for a while before the next monitoring cycle
-            if (continueMonitoring) {
-                // Clear the total articles count for the next cycle
-                totalArticles = 0;
-                logger.info("End a monitoring cycle, waiting for the next cycle to start.");
-                // Set startDate
-                startDate = endDate; // Set the end date to the current date
-                try {
-                    Thread.sleep(300000); // Sleep for 5 minutes before the next monitoring cycle
-                } catch (InterruptedException e) {
-                    logger.error("Monitoring interrupted: " + e.getMessage());
-                    Thread.currentThread().interrupt(); // Restore the interrupted status
-                }
-            }
-        } while (continueMonitoring);
-        logger.info("Monitoring process completed for query: " + request.getissueString());
+    /**
+     * This method moves the checkpoint of a monitor after the articles delivered and saves it.
+     * @param checkpoint
+     * @param windowStart the start of the window being fetched
+     * @param page the last page of the window delivered
+     * @param lastArticleId the ID of the last article delivered
+     */
+    private void saveCheckpoint(MonitoringCheckpoint checkpoint, Date windowStart, int page, String lastArticleId) {
+        checkpoint.setWindowStart(windowStart);
+        checkpoint.setPage(page);
+        checkpoint.setLastArticleId(lastArticleId);
+        checkpointStore.save(checkpoint);
     }
 
     /**
-     * Sends the retrieved articles to the DataManager Service in batches.
-     * If the DataManager Service is not available, it will retry up to 5 times.
+     * This method builds the JSON of an article to send to the DataManager Service.
+     * @param request
+     * @param article
+     * @param bodyText
+     * @return the JSON of the article
+     */
+    private static JSONObject toArticleJson(MonitoringRequest request, Article article, String bodyText) {
+        // JSON format of the article
+        JSONObject articleJson = new JSONObject();
+        /**
+         * Saving:
+         * {
+         *   "id": "article-id",
+         *   "issueString": "query",
+         *   "label": "label"
+         *   "type": "article_type",
+         *   "sectionId": "section_id",
+         *   "sectionName": "section_name",
+         *   "webPublicationDate": "2023-10-01T12:00:00Z",
+         *   "webTitle": "Article Title",
+         *   "webUrl": "https://www.theguardian.com/article-url",
+         *   "bodyText": "Full article body text",
+         * }
+         */
+        articleJson.put("id", article.getId());
+        articleJson.put("issueString", request.getissueString());
+        articleJson.put("label", request.getLabel());
+        articleJson.put("type", article.getType());
+        articleJson.put("sectionId", article.getSectionId());
+        articleJson.put("sectionName", article.getSectionName());
+        articleJson.put("webPublicationDate", article.getWebPublicationDate());
+        articleJson.put("webTitle", article.getWebTitle());
+        articleJson.put("webUrl", article.getWebUrl());
+        articleJson.put("bodyText", bodyText);
+        return articleJson;
+    }
+
+    /**
+     * This method computes the number of pages to retrieve for a query, from the total number of results
+     * and of pages reported by the first page.
+     * The pages are limited to 40 when there are more than 400 results (see the note on the API quota),
+     * and to 2 for the example query used by the tests.
+     * @param issueString
+     * @param total the total number of results
+     * @param pages the total number of pages
+     * @return the number of pages to retrieve
+     */
+    private int maxPages(String issueString, int total, int pages) {
+        if (issueString.equals("example issue query")) {
+            return Math.min(2, pages);
+        }
+        return total <= 400 ? pages : Math.min(40, pages);
+    }
+
+    /**
+     * Hands over the retrieved articles to the DataManagerSender, which sends them to the DataManager Service
+     * in batches while the monitoring goes on. It waits only if too many batches are waiting to be sent.
+     * @param delivery the delivery of the monitoring run
      * @param retrievedArticles
+     * @param onDelivered the callback run after all the articles are delivered, or null
+     * @return false if the monitoring was interrupted
+     * @throws RuntimeException if the sending of an earlier batch threw it
      */
-    public void sendArticlesToDataManager(ArrayList<JSONObject> retrievedArticles) {        
-        // Take the first batchSize articles from the retrievedArticles list
-        ArrayList<JSONObject> articleBatch = new ArrayList<>(retrievedArticles.subList(0, Math.min(batchSize, retrievedArticles.size())));
-        JSONArray articleBatchJsonArray = new JSONArray(articleBatch);
-        // Send the batch of articles to the DataManager Service
-        ResponseEntity<String> responseDataManager = httpClientService.postRequest("http://datamanager-service:8082/datamanager/save-articles/", articleBatchJsonArray.toString());
-        if (responseDataManager != null && responseDataManager.getStatusCode() == HttpStatus.OK) {
-            logger.info("Batch of articles sent to DataManager Service successfully.");
-            // Remove the sent articles from the retrievedArticles list
-            retrievedArticles.removeAll(articleBatch);
-        } else {
-            // If it fails, the array is not cleared and the next iteration will try to send the same set of articles plus a new one again
-            logger.warn("Failed to send batch of articles to DataManager Service. Status: " + (responseDataManager != null ? responseDataManager.getStatusCode() : "No response received"));
+    private boolean sendArticlesToDataManager(DataManagerSender.Delivery delivery, ArrayList<JSONObject> retrievedArticles, Runnable onDelivered) {
+        try {
+            delivery.submit(retrievedArticles, onDelivered);
+            return true;
+        } catch (InterruptedException e) {
+            logger.error("Monitoring interrupted: " + e.getMessage());
+            Thread.currentThread().interrupt(); // Restore the interrupted status
+            delivery.cancel();
+            return false;
         }
+    }
 
-        // Send the JSON articles left to the DataManager Service
-        int attempts = 0;
-        while (!retrievedArticles.isEmpty() && attempts < 5) {
-            // Take the first batchSize articles from the retrievedArticles list
-            articleBatch = new ArrayList<>(retrievedArticles.subList(0, Math.min(batchSize, retrievedArticles.size())));
-            articleBatchJsonArray = new JSONArray(articleBatch);
-            responseDataManager = httpClientService.postRequest("http://datamanager-service:8082/datamanager/save-articles/", articleBatchJsonArray.toString());
-            if (responseDataManager != null && responseDataManager.getStatusCode() == HttpStatus.OK) {
-                logger.info("Batch of articles sent to DataManager Service successfully after " + (attempts + 1) + " attempts.");
-                // Remove the sent articles from the retrievedArticles list
-                retrievedArticles.removeAll(articleBatch);
-            } else {
-                attempts++;
-                // Sleep for a while before retrying
-                try {
-                    Thread.sleep(1500 * attempts); // Sleep for 2 * attempts seconds before retrying
-                } catch (InterruptedException e) {
-                    logger.error("Retry interrupted: " + e.getMessage());
-                    Thread.currentThread().interrupt(); // Restore the interrupted status
-                }
-                logger.warn("Failed to send batch of articles to DataManager Service. Status: " + (responseDataManager != null ? responseDataManager.getStatusCode() : "No response received"));
-            }
+    /**
+     * This method sends the status of a monitor to the Client Service, unless it is the last status the monitor sent.
+     * The cycles of a continuous monitor repeat the same status, so the Client Service receives the status once
+     * when the monitor starts delivering and once when it is stopped by the daily quota, not at every cycle.
+     * The last status is kept in the checkpoint, so it survives the pauses and the restarts.
+     * @param checkpoint the checkpoint of the monitor
+     * @param message
+     * @param query
+     */
+    private void sendMonitorStatus(MonitoringCheckpoint checkpoint, String message, String query) {
+        if (message.equals(checkpoint.getLastStatus())) {
+            logger.info("Status of the monitor " + checkpoint.getMonitorId() + " already sent: " + message + " for query: " + query);
+            return;
         }
-        // Check if some articles are left
-        if (!retrievedArticles.isEmpty()) {
-            logger.error("Some articles were not sent to the DataManager Service.");
+        if (sendStatusToClientService("MONITORING", message, query, checkpoint.getMonitorId())) {
+            checkpoint.setLastStatus(message);
         }
     }
 
-    public boolean sendStatusToClientService(String status, String message, String query) {
+    public boolean sendStatusToClientService(String status, String message, String query, String monitorId) {
         JSONObject monitoringCompletion = new JSONObject();
         monitoringCompletion.put("status", status);
         monitoringCompletion.put("message", message + " for query: " + query);
+        monitoringCompletion.put("monitorId", monitorId);
         ResponseEntity<String> responseClientService = httpClientService.postRequest("http://client-service:8080/client/status/", monitoringCompletion.toString());
         if (responseClientService != null && responseClientService.getStatusCode() == HttpStatus.OK) {
             logger.info("Monitoring status sent to Client Service successfully.\nStatus: " + status + "\nMessage: " + message + " for query: " + query);
@@ -9,16 +9,42 @@
 package it.unipd.dei.softplat.monitoring;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
@@ -26,34 +52,74 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.apitheguardian.bean.Article;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mashape.unirest.http.Unirest;
 
 import it.unipd.dei.softplat.http.service.HttpClientService;
 import it.unipd.dei.softplat.monitoring.controller.MonitoringController;
+import it.unipd.dei.softplat.monitoring.model.BackfillReport;
+import it.unipd.dei.softplat.monitoring.model.BackfillWindow;
+import it.unipd.dei.softplat.monitoring.model.BodyFetchResult;
+import it.unipd.dei.softplat.monitoring.model.Monitor;
+import it.unipd.dei.softplat.monitoring.model.MonitorIdRequest;
+import it.unipd.dei.softplat.monitoring.model.MonitorState;
+import it.unipd.dei.softplat.monitoring.model.MonitorUsage;
+import it.unipd.dei.softplat.monitoring.model.MonitoringCheckpoint;
 import it.unipd.dei.softplat.monitoring.model.MonitoringRequest;
+import it.unipd.dei.softplat.monitoring.model.SearchPage;
+import it.unipd.dei.softplat.monitoring.service.ArticleBodyFetcher;
+import it.unipd.dei.softplat.monitoring.service.BackfillEngine;
+import it.unipd.dei.softplat.monitoring.service.CheckpointStore;
+import it.unipd.dei.softplat.monitoring.service.DataManagerSender;
+import it.unipd.dei.softplat.monitoring.service.KnownArticleStore;
+import it.unipd.dei.softplat.monitoring.service.GuardianRateLimiter;
+import it.unipd.dei.softplat.monitoring.service.GuardianResponseParser;
+import it.unipd.dei.softplat.monitoring.service.MonitorScheduler;
+import it.unipd.dei.softplat.monitoring.service.MonitoringService;
+import it.unipd.dei.softplat.testutil.GuardianStub;
 import it.unipd.dei.softplat.testutil.TestAsyncConfig;
 
 /**
  * This class is intended to test the MonitoringService.
  * It contains test methods to validate the functionality of the MonitoringController and the MonitoringRequest model.
  */
-@SpringBootTest
+@SpringBootTest(properties = {
+    "monitoring.checkpoint.dir=target/checkpoints-${random.uuid}",
+    "monitoring.known.dir=target/known-${random.uuid}"
+})
 @Import(TestAsyncConfig.class)
 public class MonitoringTest {
 
+    private static final ObjectMapper TREE_MAPPER = new ObjectMapper();
+
     @MockBean
     private HttpClientService httpClientService;
     
     @Autowired @InjectMocks
     private MonitoringController controller_test;
 
+    @Autowired
+    private MonitoringService monitoringService;
+
+    @Autowired
+    private BackfillEngine backfillEngine;
+
     /**
      * This test method is intended to test the startMonitoring method of the MonitoringController.
-     * It creates a valid and an invalid MonitoringRequest and calls the startMonitoring method.
+     * It points the monitoring service to a local stub of The Guardian API, starts a monitor of a date range
+     * and checks that the response contains the ID of the monitor, that its articles are sent to the DataManager Service
+     * and that its status is sent to the Client Service with its ID.
+     * Then it calls the startMonitoring method with invalid requests.
+     * @throws Exception
      */
     @Test
-    public void testStartMonitoring() {
+    public void testStartMonitoring() throws Exception {
         // Mock configuration
         when(httpClientService.postRequest(
                 eq("http://datamanager-service:8082/datamanager/save-articles/"),
@@ -66,41 +132,39 @@ public class MonitoringTest {
             )
         ).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
 
-        // Example of a valid request
+        // Example of a valid request, over the dates of the articles of the stub
+        Date startDate = Date.from(GuardianStub.FIRST_DATE);
+        Date endDate = Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS));
         MonitoringRequest request = new MonitoringRequest();
-        request.setissueString("example issue query");
+        request.setissueString("stub issue query");
         request.setLabel("example label");
-        Calendar cal = Calendar.getInstance();
-        cal.set(2023, Calendar.JANUARY, 1, 0, 0, 0);
-        Date startDate = cal.getTime();
         request.setStartDate(startDate);
-        cal.set(2023, Calendar.DECEMBER, 31, 23, 59, 59);
-        Date endDate = cal.getTime();
         request.setEndDate(endDate);
 
-        // Call the startMonitoring method and check if the ResponseEntity is successful.
-        ResponseEntity <?> response = controller_test.startMonitoring(request);
-        
-        // Assert that the response is not null and has a status code of 200 OK
-        assertNotNull(response, "Response should not be null");
-        assertEquals(HttpStatus.OK, response.getStatusCode(), "Response should have status code 200 OK");
+        Object serviceApiUrl = ReflectionTestUtils.getField(monitoringService, "guardianApiUrl");
+        Object backfillApiUrl = ReflectionTestUtils.getField(backfillEngine, "guardianApiUrl");
+        try (GuardianStub stub = new GuardianStub(50, 0)) {
+            ReflectionTestUtils.setField(monitoringService, "guardianApiUrl", stub.getBaseUrl());
+            ReflectionTestUtils.setField(backfillEngine, "guardianApiUrl", stub.getBaseUrl());
 
-        // To check if the API usage is exceeded
-        ArgumentCaptor<String> bodyCaptor = ArgumentCaptor.forClass(String.class);
-        verify(httpClientService, atLeastOnce()).postRequest(eq("http://client-service:8080/client/status/"), bodyCaptor.capture());
+            // Call the startMonitoring method and check if the ResponseEntity is successful.
+            ResponseEntity <?> response = controller_test.startMonitoring(request);
 
-        // Parse the request body to check if the API usage is exceeded
-        // I need to find: {"message":"API rate limit exceeded for query: example issue query","status":"MONITORING"}
-        boolean found = bodyCaptor.getAllValues().stream().anyMatch(
-            body -> body.contains("\"status\":\"MONITORING\"") &&
-                    body.contains("\"message\":\"API rate limit exceeded for query: example issue query\"")
-        );
+            // Assert that the response is not null and has a status code of 200 OK
+            assertNotNull(response, "Response should not be null");
+            assertEquals(HttpStatus.OK, response.getStatusCode(), "Response should have status code 200 OK");
+            String monitorId = new JSONObject((String) response.getBody()).getString("monitorId");
+            assertEquals(CheckpointStore.monitorId(request), monitorId, "Response should contain the ID of the monitor");
 
-        // Verify that the postRequest method of MonitoringService was called with the correct parameters
-        if (!found) {
-            verify(httpClientService, atLeastOnce()).postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString());
-        } else {
-            System.out.println("API usage limit exceeded!");
+            // Verify that the articles of the monitor are sent to the DataManager Service,
+            // and that its status is sent to the Client Service with the ID of the monitor
+            verify(httpClientService, timeout(10000).atLeastOnce())
+                .postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString());
+            verify(httpClientService, timeout(10000))
+                .postRequest(eq("http://client-service:8080/client/status/"), argThat((String status) -> status.contains("\"monitorId\":\"" + monitorId + "\"")));
+        } finally {
+            ReflectionTestUtils.setField(monitoringService, "guardianApiUrl", serviceApiUrl);
+            ReflectionTestUtils.setField(backfillEngine, "guardianApiUrl", backfillApiUrl);
         }
 
         // Example of an invalid request (start date null)
@@ -160,4 +224,832 @@ public class MonitoringTest {
         request.setEndDate(endDate);
         assertEquals(endDate, request.getEndDate(), "End date should match the set value");
     }
+
+    /**
+     * This test method is intended to measure the concurrent fetching of the article bodies.
+     * It serves the articles from a local stub of The Guardian API, with 50 ms of latency
+     * and a 429 response for the first call, and fetches 100 bodies one at a time and concurrently,
+     * behind a rate limiter of 200 calls per second.
+     * It prints the throughput of both and checks that all the bodies are fetched.
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentBodyFetching() throws Exception {
+        try (GuardianStub stub = new GuardianStub(100, 50)) {
+            stub.throttleNextCall();
+            ObjectMapper mapper = new ObjectMapper();
+            List<Article> articles = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                articles.add(mapper.readValue(stub.searchResult(i, false).toString(), Article.class));
+            }
+
+            ArticleBodyFetcher sequential = new ArticleBodyFetcher(new GuardianRateLimiter(200, 10, 0, 10), "test", 1);
+            long start = System.nanoTime();
+            BodyFetchResult sequentialResult = sequential.fetchBodies(articles);
+            long sequentialNanos = System.nanoTime() - start;
+
+            ArticleBodyFetcher concurrent = new ArticleBodyFetcher(new GuardianRateLimiter(200, 10, 0, 10), "test", 16);
+            start = System.nanoTime();
+            BodyFetchResult concurrentResult = concurrent.fetchBodies(articles);
+            long concurrentNanos = System.nanoTime() - start;
+
+            System.out.println("Body fetching: sequential " + (100 * 1_000_000_000L / sequentialNanos) + " articles/s, concurrent "
+                + (100 * 1_000_000_000L / concurrentNanos) + " articles/s (" + concurrentResult.getApiCalls() + " API calls)");
+            assertEquals(100, sequentialResult.getBodies().size(), "All the bodies should be fetched sequentially, after the 429");
+            assertEquals(100, concurrentResult.getBodies().size(), "All the bodies should be fetched concurrently");
+            assertEquals("Body text of article-42", concurrentResult.getBodies().get("article-42"));
+            assertTrue(concurrentNanos < sequentialNanos, "Concurrent fetching should be faster than sequential fetching");
+        }
+    }
+
+    /**
+     * This test method is intended to compare the API calls per article of the two fetch modes.
+     * It monitors 50 articles served by a local stub of The Guardian API, one of them without body text in the search results,
+     * first fetching each body with its own request (article mode) and then with the search results (page mode).
+     * It prints the API calls per article of both and checks that all the articles are sent to the DataManager Service.
+     * @throws Exception
+     */
+    @Test
+    public void testPageFetchMode() throws Exception {
+        try (GuardianStub stub = new GuardianStub(50, 0)) {
+            stub.omitBodyFromSearch(7);
+            double[] callsPerArticle = new double[2];
+            String[] modes = {MonitoringService.ARTICLE_FETCH_MODE, MonitoringService.PAGE_FETCH_MODE};
+            for (int m = 0; m < modes.length; m++) {
+                HttpClientService dataManager = mock(HttpClientService.class);
+                when(dataManager.postRequest(anyString(), anyString())).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+                MonitoringService service = newMonitoringService(stub, dataManager, modes[m]);
+                int callsBefore = stub.getCalls();
+
+                Date startDate = Date.from(GuardianStub.FIRST_DATE);
+                Date endDate = Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS));
+                assertTrue(service.runMonitoring(new MonitoringRequest("stub issue query", "stub label", startDate, endDate), null, new MonitorUsage()),
+                    "The range should be completed in " + modes[m] + " mode");
+
+                callsPerArticle[m] = (double) (stub.getCalls() - callsBefore) / 50;
+                ArgumentCaptor<String> bodyCaptor = ArgumentCaptor.forClass(String.class);
+                verify(dataManager, atLeastOnce()).postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), bodyCaptor.capture());
+                int sent = bodyCaptor.getAllValues().stream().mapToInt(body -> new JSONArray(body).length()).sum();
+                assertEquals(50, sent, "All the articles should be sent to the DataManager Service in " + modes[m] + " mode");
+            }
+            System.out.println("API calls per article: article mode " + callsPerArticle[0] + ", page mode " + callsPerArticle[1]);
+            assertEquals(55.0 / 50, callsPerArticle[0], 1e-9, "Article mode should make 5 page calls and 50 body calls");
+            assertEquals(2.0 / 50, callsPerArticle[1], 1e-9, "Page mode should make 1 page call and 1 body call for the missing body");
+        }
+    }
+
+    /**
+     * This test method is intended to test the backfill of a historical date range.
+     * The stub serves 3000 articles published during 2023, with 50 results per page and a cap of 4 pages per window,
+     * so a single scan of the range would be truncated at 200 articles.
+     * It checks that the range is split into windows under the cap, that all the articles are fetched
+     * and that the windows are handed over in date order, and it prints the report of the backfill.
+     * Then it stops a backfill at its first window and checks that no window is fetched after it.
+     * @throws Exception
+     */
+    @Test
+    public void testBackfill() throws Exception {
+        try (GuardianStub stub = new GuardianStub(3000, 5)) {
+            GuardianRateLimiter rateLimiter = new GuardianRateLimiter(1000, 100, 0, 10);
+            BackfillEngine engine = new BackfillEngine(rateLimiter, new ArticleBodyFetcher(rateLimiter, "test", 8),
+                "test", stub.getBaseUrl(), 50, 4, 3600, 4);
+
+            List<BackfillWindow> windows = new ArrayList<>();
+            BackfillReport report = engine.backfill("stub issue query", Date.from(GuardianStub.FIRST_DATE),
+                Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS)), windows::add);
+
+            System.out.println("Backfill: " + report.toJSON());
+            assertEquals(3000, report.getTotal(), "The windows should cover all the results");
+            assertEquals(3000, report.getFetched(), "All the articles should be fetched");
+            assertEquals(1.0, report.getCoverage(), 1e-9);
+            assertEquals(0, report.getTruncatedWindows(), "No window should be truncated");
+            assertTrue(report.getWindows() >= 15, "The range should be split into windows of at most 200 articles");
+            Set<String> ids = new HashSet<>();
+            String lastDate = "";
+            for (int i = 0; i < windows.size(); i++) {
+                BackfillWindow window = windows.get(i);
+                assertTrue(window.getPages() <= 4, "Each window should stay under the page cap");
+                if (i > 0) {
+                    assertEquals(windows.get(i - 1).getToDate().getTime() + 1, window.getFromDate().getTime(), "The windows should be contiguous and in order");
+                }
+                for (Article article : window.getArticles()) {
+                    assertTrue(ids.add(article.getId()), "Each article should be fetched once");
+                    assertTrue(article.getWebPublicationDate().compareTo(lastDate) >= 0, "The articles should be in date order");
+                    lastDate = article.getWebPublicationDate();
+                }
+            }
+
+        }
+
+        // A backfill stopped at its first window cancels all its windows, also the parts of the split ones.
+        // Over two years the windows of the first year are split again, when their parts are already running
+        try (GuardianStub stub = new GuardianStub(3000, 20)) {
+            GuardianRateLimiter rateLimiter = new GuardianRateLimiter(1000, 100, 0, 10);
+            BackfillEngine engine = new BackfillEngine(rateLimiter, new ArticleBodyFetcher(rateLimiter, "test", 8),
+                "test", stub.getBaseUrl(), 50, 4, 3600, 4);
+            assertThrows(IllegalStateException.class, () -> engine.backfill("stub issue query", Date.from(GuardianStub.FIRST_DATE),
+                Date.from(GuardianStub.FIRST_DATE.plus(730, ChronoUnit.DAYS)), window -> {
+                    throw new IllegalStateException("Backfill stopped");
+                }));
+            Thread.sleep(100); // Let the requests in flight complete
+            int calls = stub.getCalls();
+            Thread.sleep(1000);
+            assertEquals(calls, stub.getCalls(), "No window should be fetched after the backfill stopped");
+        }
+    }
+
+    /**
+     * This test method is intended to test the resume of a monitor from its checkpoint.
+     * In both fetch modes, the DataManager Service fails at the third batch, either throwing as a crash of the service would
+     * or answering with an error to all the retries, which stops the monitor without sending the later batches.
+     * A new service resumes the monitor from the saved checkpoint.
+     * It checks that all the articles are delivered exactly once, that the pages already delivered
+     * are not fetched again and that the checkpoint is deleted when the range is completed.
+     * @throws Exception
+     */
+    @Test
+    public void testCheckpointResume() throws Exception {
+        try (GuardianStub stub = new GuardianStub(50, 0)) {
+            String[] modes = {MonitoringService.ARTICLE_FETCH_MODE, MonitoringService.PAGE_FETCH_MODE};
+            for (int run = 0; run < 2 * modes.length; run++) {
+                String mode = modes[run / 2];
+                boolean crash = run % 2 == 0;
+                CheckpointStore store = new CheckpointStore("target/checkpoints-" + UUID.randomUUID());
+                MonitoringRequest request = new MonitoringRequest("stub issue query", "stub label",
+                    Date.from(GuardianStub.FIRST_DATE), Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS)));
+                List<String> delivered = new ArrayList<>();
+
+                // The DataManager Service fails at the third batch, and at its 4 retries
+                HttpClientService crashingDataManager = mock(HttpClientService.class);
+                AtomicInteger batches = new AtomicInteger();
+                when(crashingDataManager.postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString())).thenAnswer(invocation -> {
+                    int batch = batches.incrementAndGet();
+                    if (crash && batch == 3) {
+                        throw new IllegalStateException("DataManager Service crashed");
+                    }
+                    if (!crash && batch >= 3 && batch < 8) {
+                        return new ResponseEntity<>("error", HttpStatus.INTERNAL_SERVER_ERROR);
+                    }
+                    new JSONArray(invocation.<String>getArgument(1)).forEach(article -> delivered.add(((JSONObject) article).getString("id")));
+                    return new ResponseEntity<>("ok", HttpStatus.OK);
+                });
+                when(crashingDataManager.postRequest(eq("http://client-service:8080/client/status/"), anyString())).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+                MonitoringService crashing = newMonitoringService(stub, crashingDataManager, mode, 10, 1, store);
+                if (crash) {
+                    assertThrows(IllegalStateException.class, () -> crashing.runMonitoring(request, null, new MonitorUsage()));
+                } else {
+                    assertFalse(crashing.runMonitoring(request, null, new MonitorUsage()), "The range should not be completed in " + mode + " mode");
+                    assertEquals(7, batches.get(), "The batches after the failed one should not be sent in " + mode + " mode");
+                }
+
+                MonitoringCheckpoint checkpoint = store.load(CheckpointStore.monitorId(request));
+                assertNotNull(checkpoint, "The checkpoint should be saved in " + mode + " mode");
+                assertEquals(delivered.get(delivered.size() - 1), checkpoint.getLastArticleId(), "The checkpoint should follow the last article delivered");
+                int deliveredBeforeCrash = delivered.size();
+
+                // A new service resumes the monitor
+                HttpClientService dataManager = mock(HttpClientService.class);
+                when(dataManager.postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString())).thenAnswer(invocation -> {
+                    new JSONArray(invocation.<String>getArgument(1)).forEach(article -> delivered.add(((JSONObject) article).getString("id")));
+                    return new ResponseEntity<>("ok", HttpStatus.OK);
+                });
+                when(dataManager.postRequest(eq("http://client-service:8080/client/status/"), anyString())).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+                int callsBefore = stub.getCalls();
+                assertTrue(newMonitoringService(stub, dataManager, mode, 10, 1, store).runMonitoring(checkpoint.toRequest(), checkpoint, new MonitorUsage()));
+
+                System.out.println("Checkpoint resume (" + mode + " mode, " + (crash ? "crash" : "error") + "): " + deliveredBeforeCrash + " articles delivered before the failure, "
+                    + (delivered.size() - deliveredBeforeCrash) + " after the resume with " + (stub.getCalls() - callsBefore) + " API calls");
+                assertEquals(50, delivered.size(), "All the articles should be delivered once in " + mode + " mode");
+                assertEquals(50, new HashSet<>(delivered).size(), "No article should be delivered twice in " + mode + " mode");
+                assertNull(store.load(checkpoint.getMonitorId()), "The checkpoint should be deleted when the range is completed");
+            }
+        }
+    }
+
+    /**
+     * This test method is intended to test the scheduling of the continuous monitors.
+     * It starts 200 continuous monitors on a scheduler with 2 threads, each one finding the 50 articles of the stub
+     * at its first cycle and no article after, and it waits for 3 cycles of each monitor.
+     * It checks that every monitor delivers its articles and sends its status once, that the poll interval grows
+     * when the monitors are quiet, and that the stopped monitors are removed with their checkpoints.
+     * Before, it runs two cycles delivering articles for the same monitor and checks that its status is sent once.
+     * @throws Exception
+     */
+    @Test
+    public void testMonitorScheduler() throws Exception {
+        try (GuardianStub stub = new GuardianStub(50, 0)) {
+            HttpClientService dataManager = mock(HttpClientService.class);
+            AtomicInteger delivered = new AtomicInteger();
+            when(dataManager.postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString())).thenAnswer(invocation -> {
+                delivered.addAndGet(new JSONArray(invocation.<String>getArgument(1)).length());
+                return new ResponseEntity<>("ok", HttpStatus.OK);
+            });
+            AtomicInteger statuses = new AtomicInteger();
+            when(dataManager.postRequest(eq("http://client-service:8080/client/status/"), anyString())).thenAnswer(invocation -> {
+                statuses.incrementAndGet();
+                return new ResponseEntity<>("ok", HttpStatus.OK);
+            });
+            CheckpointStore store = new CheckpointStore("target/checkpoints-" + UUID.randomUUID());
+            MonitoringService service = newMonitoringService(stub, dataManager, MonitoringService.PAGE_FETCH_MODE, 200, 40, store);
+            MonitorScheduler scheduler = new MonitorScheduler(service, store, 2, 200, 20, 100, 1600, 10);
+
+            // A monitor sends its status to the Client Service once, even if several of its cycles deliver articles
+            MonitoringRequest single = new MonitoringRequest("stub issue query", "single label", Date.from(GuardianStub.FIRST_DATE), null);
+            MonitoringCheckpoint checkpoint = new MonitoringCheckpoint(CheckpointStore.monitorId(single), single);
+            for (int cycle = 0; cycle < 2; cycle++) {
+                checkpoint.setWindowStart(Date.from(GuardianStub.FIRST_DATE));
+                assertEquals(50, service.runCycle(single, checkpoint), "Each cycle should deliver the articles of the window");
+            }
+            assertEquals(1, statuses.get(), "The status of the monitor should be sent once");
+            assertEquals("Monitoring completed", checkpoint.getLastStatus());
+            store.delete(checkpoint.getMonitorId());
+            statuses.set(0);
+            delivered.set(0);
+
+            long start = System.nanoTime();
+            List<Monitor> monitors = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                MonitoringRequest request = new MonitoringRequest("stub issue query", "label-" + i, Date.from(GuardianStub.FIRST_DATE), null);
+                monitors.add(scheduler.start(request));
+            }
+            assertEquals(200, scheduler.list().length(), "All the monitors should be listed");
+            for (Monitor monitor : monitors) {
+                while (monitor.getCycles() < 3 && System.nanoTime() - start < 30_000_000_000L) {
+                    Thread.sleep(10);
+                }
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.println("Scheduler: 200 monitors on 2 threads, " + monitors.stream().mapToInt(Monitor::getCycles).sum()
+                + " cycles in " + elapsedMillis + " ms, " + delivered.get() + " articles delivered");
+            for (Monitor monitor : monitors) {
+                assertTrue(monitor.getCycles() >= 3, "Each monitor should run 3 cycles");
+                assertEquals(50, monitor.getArticles(), "Each monitor should retrieve its articles once");
+                assertTrue(monitor.getPollInterval() >= 200, "The poll interval should grow when the monitor is quiet");
+            }
+            assertEquals(200 * 50, delivered.get(), "All the articles should be delivered once");
+            assertEquals(200, statuses.get(), "Each monitor should send its status once");
+
+            for (Monitor monitor : monitors) {
+                assertTrue(scheduler.cancel(monitor.getMonitorId()));
+            }
+            assertEquals(0, scheduler.list().length(), "The stopped monitors should not be listed");
+            Thread.sleep(100); // Let the cycles running complete
+            assertTrue(store.loadAll().isEmpty(), "The checkpoints of the stopped monitors should be deleted");
+            scheduler.close();
+        }
+
+        // Endpoints
+        assertEquals(HttpStatus.OK, controller_test.listMonitors().getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, controller_test.cancelMonitor(new MonitorIdRequest("unknown")).getStatusCode());
+    }
+
+    /**
+     * This test method is intended to test the lifecycle of the monitors: pause, resume and cancel.
+     * A local stub of The Guardian API answers after 1 second, so a cycle is paused while its request is in flight:
+     * it checks that the cycle stops right away without delivering, that the checkpoint is kept as paused
+     * (and restored as paused by a new scheduler), and that the resumed monitor delivers its articles once.
+     * Then it cancels a continuous monitor and a monitor of a date range during their runs,
+     * and checks that they deliver nothing more and that their checkpoints are deleted.
+     * @throws Exception
+     */
+    @Test
+    public void testMonitorLifecycle() throws Exception {
+        try (GuardianStub stub = new GuardianStub(50, 1000)) {
+            Map<String, AtomicInteger> delivered = new ConcurrentHashMap<>();
+            HttpClientService dataManager = mock(HttpClientService.class);
+            when(dataManager.postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString())).thenAnswer(invocation -> {
+                new JSONArray(invocation.<String>getArgument(1)).forEach(article -> delivered
+                    .computeIfAbsent(((JSONObject) article).getString("label"), label -> new AtomicInteger()).incrementAndGet());
+                return new ResponseEntity<>("ok", HttpStatus.OK);
+            });
+            when(dataManager.postRequest(eq("http://client-service:8080/client/status/"), anyString())).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+            CheckpointStore store = new CheckpointStore("target/checkpoints-" + UUID.randomUUID());
+            MonitoringService service = newMonitoringService(stub, dataManager, MonitoringService.PAGE_FETCH_MODE, 200, 40, store);
+            MonitorScheduler scheduler = new MonitorScheduler(service, store, 2, 200, 20, 100, 1600, 10);
+
+            // Pause a cycle during its request
+            Monitor monitor = scheduler.start(new MonitoringRequest("stub issue query", "paused label", Date.from(GuardianStub.FIRST_DATE), null));
+            Thread.sleep(300);
+            long start = System.nanoTime();
+            assertTrue(scheduler.pause(monitor.getMonitorId()));
+            while (monitor.getCycles() < 1 && System.nanoTime() - start < 5_000_000_000L) {
+                Thread.sleep(10);
+            }
+            long stopMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Monitor paused during a request in " + stopMillis + " ms, usage " + monitor.getUsage().toJSON());
+            assertTrue(stopMillis < 500, "The request in flight should be aborted");
+            assertEquals(-1, monitor.getLastYield());
+            assertEquals(MonitorState.PAUSED, monitor.getState());
+            assertFalse(scheduler.pause(monitor.getMonitorId()), "A paused monitor cannot be paused again");
+            assertTrue(store.load(monitor.getMonitorId()).isPaused(), "The checkpoint should be kept as paused");
+            assertNull(delivered.get("paused label"));
+
+            // A new scheduler restores the monitor as paused, without running it
+            MonitorScheduler restarted = new MonitorScheduler(service, store, 1, 200, 20, 100, 1600, 10);
+            assertEquals(MonitorState.PAUSED, restarted.restore(store.load(monitor.getMonitorId())).getState());
+            restarted.close();
+
+            // Resume the monitor until its articles are delivered
+            assertTrue(scheduler.resume(monitor.getMonitorId()));
+            assertFalse(scheduler.resume(monitor.getMonitorId()), "A running monitor cannot be resumed");
+            while (monitor.getArticles() < 50 && System.nanoTime() - start < 10_000_000_000L) {
+                Thread.sleep(10);
+            }
+            assertEquals(50, monitor.getArticles());
+            assertFalse(store.load(monitor.getMonitorId()).isPaused());
+            assertTrue(monitor.getUsage().getApiCalls() >= 2, "The aborted request should be accounted");
+            assertEquals(1, scheduler.list().length());
+            assertEquals(50, scheduler.list().getJSONObject(0).getJSONObject("usage").getLong("articles"));
+
+            // Cancel a continuous monitor and a monitor of a date range during their requests
+            Monitor range = scheduler.start(new MonitoringRequest("stub issue query", "range label",
+                Date.from(GuardianStub.FIRST_DATE), Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS))));
+            assertFalse(range.isContinuous());
+            Thread.sleep(300);
+            assertTrue(scheduler.cancel(monitor.getMonitorId()));
+            assertTrue(scheduler.cancel(range.getMonitorId()));
+            assertFalse(scheduler.cancel(range.getMonitorId()), "A cancelled monitor is removed");
+            Thread.sleep(1500); // Longer than a request
+            assertEquals(MonitorState.CANCELLED, range.getState());
+            assertNull(delivered.get("range label"), "The cancelled run should not deliver its articles");
+            assertEquals(50, delivered.get("paused label").get(), "The articles should be delivered once");
+            assertEquals(0, scheduler.list().length());
+            assertTrue(store.loadAll().isEmpty(), "The checkpoints of the cancelled monitors should be deleted");
+            scheduler.close();
+        }
+
+        // Endpoints
+        assertEquals(HttpStatus.NOT_FOUND, controller_test.pauseMonitor(new MonitorIdRequest("unknown")).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, controller_test.resumeMonitor(new MonitorIdRequest("unknown")).getStatusCode());
+    }
+
+    /**
+     * This test method is intended to test the adaptive rate controller of the calls to The Guardian API.
+     * It checks that a 429 halves the rate only once per pause, that the successes raise it back to the limit
+     * and that the Retry-After header, in seconds or as an HTTP date, sets the pause.
+     * Then it fetches 300 bodies from a local stub of The Guardian API that answers 429 over 100 calls per second,
+     * starting at 1000 calls per second, and checks that the rate adapts so that only a few calls are rejected.
+     * @throws Exception
+     */
+    @Test
+    public void testAdaptiveRateController() throws Exception {
+        GuardianRateLimiter rateLimiter = new GuardianRateLimiter(10, 1, 0, 50, 1, 5, 0.5);
+        assertEquals(10, rateLimiter.getRate(), 1e-9);
+        rateLimiter.onThrottled(null);
+        rateLimiter.onThrottled(null);
+        assertEquals(5, rateLimiter.getRate(), 1e-9, "A 429 during the pause should not decrease the rate again");
+        assertEquals(1, rateLimiter.getStats().getLong("rateDecreases"));
+        assertEquals(2, rateLimiter.getStats().getLong("throttledCalls"));
+        assertTrue(rateLimiter.getStats().getLong("pausedMillis") > 0, "The calls should be paused after a 429");
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.onSuccess();
+        }
+        assertTrue(rateLimiter.getRate() > 8 && rateLimiter.getRate() < 10, "The rate should increase additively");
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.onSuccess();
+        }
+        assertEquals(10, rateLimiter.getRate(), 1e-9, "The rate should not exceed the limit");
+
+        assertEquals(2000, GuardianRateLimiter.retryAfterMillis(Map.of("retry-after", List.of("2"))));
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(5));
+        long dateMillis = GuardianRateLimiter.retryAfterMillis(Map.of("Retry-After", List.of(date)));
+        assertTrue(dateMillis > 3000 && dateMillis <= 5000, "The Retry-After date should set the pause");
+        assertEquals(-1, GuardianRateLimiter.retryAfterMillis(Map.of("Retry-After", List.of("soon"))));
+        assertEquals(-1, GuardianRateLimiter.retryAfterMillis(Map.of()));
+
+        try (GuardianStub stub = new GuardianStub(300, 0)) {
+            stub.limitRate(100);
+            stub.setRetryAfter("1");
+            ObjectMapper mapper = new ObjectMapper();
+            List<Article> articles = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                articles.add(mapper.readValue(stub.searchResult(i, false).toString(), Article.class));
+            }
+            GuardianRateLimiter adaptive = new GuardianRateLimiter(1000, 10, 0, 10, 1, 20, 0.5);
+            ArticleBodyFetcher fetcher = new ArticleBodyFetcher(adaptive, "test", 16);
+            long start = System.nanoTime();
+            BodyFetchResult result = fetcher.fetchBodies(articles);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            JSONObject stats = adaptive.getStats();
+            System.out.println("Adaptive rate: " + result.getBodies().size() + " bodies in " + elapsedMillis + " ms, "
+                + result.getApiCalls() + " API calls, stats " + stats);
+            assertEquals(300, result.getBodies().size(), "All the bodies should be fetched after the 429");
+            assertTrue(stats.getLong("retryAfterPauses") > 0, "The Retry-After header should be honored");
+            assertTrue(stats.getDouble("permitsPerSecond") < 1000, "The rate should decrease after the 429");
+            assertTrue(stats.getLong("throttledCalls") < result.getApiCalls() / 4, "Most of the calls should not be rejected");
+        }
+    }
+
+    /**
+     * This test method is intended to compare the parsing of the search responses of The Guardian API.
+     * It records 10 pages of 200 results with their body texts from a local stub of The Guardian API
+     * and parses them repeatedly, first as the JSON tree used before (parsing the page, serializing each result
+     * and parsing it again to an Article) and then with the streaming parser.
+     * It prints the throughput of both and checks that the streaming parser returns the same articles and body texts.
+     * @throws Exception
+     */
+    @Test
+    public void testStreamingParsing() throws Exception {
+        List<byte[]> payloads = new ArrayList<>();
+        try (GuardianStub stub = new GuardianStub(2000, 0)) {
+            for (int page = 1; page <= 10; page++) {
+                payloads.add(Unirest.get(stub.getBaseUrl() + "/search").queryString("page", page).queryString("page-size", 200)
+                    .queryString("show-fields", "bodyText").asBinary().getBody().readAllBytes());
+            }
+        }
+
+        SearchPage searchPage = GuardianResponseParser.parseSearchPage(new ByteArrayInputStream(payloads.get(1)));
+        assertEquals(2000, searchPage.getTotal());
+        assertEquals(10, searchPage.getPages());
+        assertEquals(2, searchPage.getCurrentPage());
+        assertEquals(200, searchPage.getResults().size());
+        assertEquals(200, searchPage.getBodies().size());
+        Article article = searchPage.getResults().get(0);
+        Article expected = parseWithTree(payloads.get(1)).get(0);
+        assertEquals("article-200", article.getId());
+        assertEquals(expected.getWebTitle(), article.getWebTitle());
+        assertEquals(expected.getWebPublicationDate(), article.getWebPublicationDate());
+        assertEquals(expected.getApiUrl(), article.getApiUrl());
+        assertEquals("Body text of article-200", searchPage.getBodies().get("article-200"));
+        String item = "{\"response\":{\"status\":\"ok\",\"content\":{\"id\":\"article-1\",\"tags\":[{\"id\":\"world\"}],"
+            + "\"fields\":{\"bodyText\":\"Body text of article-1\"}}}}";
+        assertEquals("Body text of article-1", GuardianResponseParser.parseBodyText(new ByteArrayInputStream(item.getBytes(StandardCharsets.UTF_8))));
+        assertNull(GuardianResponseParser.parseBodyText(new ByteArrayInputStream("{\"response\":{\"content\":{}}}".getBytes(StandardCharsets.UTF_8))));
+
+        // Warm up both parsings, then measure them
+        for (int round = 0; round < 20; round++) {
+            timeParsing(payloads, false);
+            timeParsing(payloads, true);
+        }
+        long treeNanos = 0;
+        long streamingNanos = 0;
+        for (int round = 0; round < 20; round++) {
+            treeNanos += timeParsing(payloads, false);
+            streamingNanos += timeParsing(payloads, true);
+        }
+        long bytes = payloads.stream().mapToLong(payload -> payload.length).sum() * 20;
+        System.out.println("Search page parsing: JSON tree " + (bytes * 1000 / treeNanos) + " MB/s, streaming " + (bytes * 1000 / streamingNanos)
+            + " MB/s (" + (40_000L * 1_000_000_000L / treeNanos) + " vs " + (40_000L * 1_000_000_000L / streamingNanos) + " articles/s)");
+        assertTrue(streamingNanos < treeNanos, "The streaming parser should be faster than the JSON tree");
+    }
+
+    /**
+     * This test method is intended to test the pipelined delivery of the articles to the DataManager Service.
+     * It runs a cycle over 10 pages of a local stub of The Guardian API answering in 50 ms,
+     * with a DataManager Service answering in 50 ms, and checks that the pages are fetched while the earlier batches
+     * are sent, that all the articles are delivered in order and that the checkpoint follows them.
+     * Then it hands over 5 batches to a sender with a queue of 1 batch, and checks that the caller waits for the queue,
+     * and that a batch answered 429 more times than its attempts is delivered once the DataManager Service accepts it.
+     * @throws Exception
+     */
+    @Test
+    public void testPipelinedDelivery() throws Exception {
+        try (GuardianStub stub = new GuardianStub(100, 50)) {
+            List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+            HttpClientService dataManager = mock(HttpClientService.class);
+            when(dataManager.postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString())).thenAnswer(invocation -> {
+                Thread.sleep(50);
+                new JSONArray(invocation.<String>getArgument(1)).forEach(article -> delivered.add(((JSONObject) article).getString("id")));
+                return new ResponseEntity<>("ok", HttpStatus.OK);
+            });
+            when(dataManager.postRequest(eq("http://client-service:8080/client/status/"), anyString())).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+            CheckpointStore store = new CheckpointStore("target/checkpoints-" + UUID.randomUUID());
+            MonitoringService service = newMonitoringService(stub, dataManager, MonitoringService.PAGE_FETCH_MODE, 10, 40, store);
+            MonitoringRequest request = new MonitoringRequest("stub issue query", "stub label",
+                Date.from(GuardianStub.FIRST_DATE), Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS)));
+            MonitoringCheckpoint checkpoint = new MonitoringCheckpoint(CheckpointStore.monitorId(request), request);
+
+            long start = System.nanoTime();
+            int retrieved = service.runCycle(request, checkpoint);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            DataManagerSender sender = (DataManagerSender) ReflectionTestUtils.getField(service, "dataManagerSender");
+            System.out.println("Pipelined delivery: " + retrieved + " articles in " + elapsedMillis + " ms (1000 ms if sequential), stats " + sender.getStats());
+            assertEquals(100, retrieved);
+            assertEquals(100, delivered.size(), "All the articles should be delivered before the end of the cycle");
+            for (int i = 0; i < 100; i++) {
+                assertEquals("article-" + i, delivered.get(i), "The articles should be delivered in order");
+            }
+            assertEquals(10, sender.getStats().getLong("deliveredBatches"));
+            assertEquals("article-99", store.load(checkpoint.getMonitorId()).getLastArticleId(), "The checkpoint should follow the last article delivered");
+            assertTrue(elapsedMillis < 900, "The pages should be fetched while the batches are sent");
+        }
+
+        HttpClientService slowDataManager = mock(HttpClientService.class);
+        when(slowDataManager.postRequest(anyString(), anyString())).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return new ResponseEntity<>("ok", HttpStatus.OK);
+        });
+        DataManagerSender sender = new DataManagerSender(slowDataManager, new KnownArticleStore(slowDataManager, "target/known-" + UUID.randomUUID(), 1000, false), 10, 1, 10);
+        DataManagerSender.Delivery delivery = sender.open();
+        AtomicInteger callbacks = new AtomicInteger();
+        List<JSONObject> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(new JSONObject().put("id", "article-" + i));
+        }
+        for (int i = 0; i < 5; i++) {
+            delivery.submit(batch, callbacks::incrementAndGet);
+        }
+        assertTrue(delivery.await(), "All the batches should be delivered");
+        assertEquals(5, callbacks.get());
+        assertTrue(sender.getStats().getLong("blockedMillis") >= 20, "The caller should wait when the queue is full");
+        sender.close();
+
+        // The DataManager Service answers 429 more times than the attempts of a batch
+        HttpClientService busyDataManager = mock(HttpClientService.class);
+        AtomicInteger requests = new AtomicInteger();
+        when(busyDataManager.postRequest(anyString(), anyString())).thenAnswer(invocation -> requests.incrementAndGet() <= 6
+            ? ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "0").body("busy")
+            : new ResponseEntity<>("ok", HttpStatus.OK));
+        DataManagerSender busySender = new DataManagerSender(busyDataManager, new KnownArticleStore(busyDataManager, "target/known-" + UUID.randomUUID(), 1000, false), 10, 1, 10);
+        delivery = busySender.open();
+        delivery.submit(batch, callbacks::incrementAndGet);
+        assertTrue(delivery.await(), "The batch should be delivered after the 429 responses");
+        assertEquals(6, busySender.getStats().getLong("throttledRequests"));
+        assertEquals(0, busySender.getStats().getLong("retries"), "The 429 responses should not use the attempts");
+        busySender.close();
+    }
+
+    /**
+     * This test method is intended to check that the articles already stored are not fetched again.
+     * It monitors 50 articles served by a local stub of The Guardian API in article mode twice, on the same window and label,
+     * and checks that the second cycle makes no body requests and delivers nothing.
+     * Then it checks that the IDs are loaded again from their file, that in page mode the known articles are sent again
+     * with the body texts of their pages (by a cycle and by a backfill), and that the articles reported as stored
+     * by the MongoDB Service are skipped as well.
+     * @throws Exception
+     */
+    @Test
+    public void testKnownArticles() throws Exception {
+        try (GuardianStub stub = new GuardianStub(50, 0)) {
+            List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+            HttpClientService dataManager = mock(HttpClientService.class);
+            when(dataManager.postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString())).thenAnswer(invocation -> {
+                new JSONArray(invocation.<String>getArgument(1)).forEach(article -> delivered.add(((JSONObject) article).getString("id")));
+                return new ResponseEntity<>("ok", HttpStatus.OK);
+            });
+            when(dataManager.postRequest(eq("http://client-service:8080/client/status/"), anyString())).thenReturn(new ResponseEntity<>("ok", HttpStatus.OK));
+            JSONArray stored = new JSONArray();
+            for (int i = 0; i < 20; i++) {
+                stored.put("article-" + i);
+            }
+            when(dataManager.postRequest(eq("http://mongodb-service:8085/mongodb/existing-ids/"), anyString())).thenReturn(new ResponseEntity<>(stored.toString(), HttpStatus.OK));
+            MonitoringRequest request = new MonitoringRequest("stub issue query", "stub label",
+                Date.from(GuardianStub.FIRST_DATE), Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS)));
+
+            String directory = "target/known-" + UUID.randomUUID();
+            KnownArticleStore knownArticleStore = new KnownArticleStore(dataManager, directory, 1000, false);
+            MonitoringService service = newMonitoringService(stub, dataManager, MonitoringService.ARTICLE_FETCH_MODE, 200, 40,
+                new CheckpointStore("target/checkpoints-" + UUID.randomUUID()), knownArticleStore);
+            assertEquals(50, service.runCycle(request, new MonitoringCheckpoint(CheckpointStore.monitorId(request), request)));
+            int firstCalls = stub.getCalls();
+            assertEquals(55, firstCalls, "The first cycle should fetch 5 pages and 50 bodies");
+
+            assertEquals(0, service.runCycle(request, new MonitoringCheckpoint(CheckpointStore.monitorId(request), request)));
+            System.out.println("Known articles: first cycle " + firstCalls + " API calls, second cycle " + (stub.getCalls() - firstCalls)
+                + " API calls, stats " + knownArticleStore.getStats());
+            assertEquals(5, stub.getCalls() - firstCalls, "The second cycle should fetch only the pages");
+            assertEquals(50, delivered.size(), "The articles already delivered should not be sent again");
+
+            KnownArticleStore reloaded = new KnownArticleStore(dataManager, directory, 1000, false);
+            assertTrue(reloaded.contains("stub label", "article-49"), "The IDs should be loaded again from their file");
+            assertFalse(reloaded.contains("other label", "article-49"), "The IDs should be kept by label");
+
+            // In page mode the body texts come with the pages, so the known articles are sent again
+            // and the MongoDB Service keeps their updated versions by their content hash
+            delivered.clear();
+            MonitoringService pageService = newMonitoringService(stub, dataManager, MonitoringService.PAGE_FETCH_MODE, 200, 40,
+                new CheckpointStore("target/checkpoints-" + UUID.randomUUID()), knownArticleStore);
+            int pageCalls = stub.getCalls();
+            assertEquals(50, pageService.runCycle(request, new MonitoringCheckpoint(CheckpointStore.monitorId(request), request)));
+            assertTrue(pageService.runMonitoring(request, null, new MonitorUsage()), "The backfill of the range should complete");
+            assertEquals(100, delivered.size(), "The known articles with their body text should be sent again");
+            assertTrue(stub.getCalls() - pageCalls <= 3, "Only the pages should be fetched");
+
+            // The MongoDB Service reports 20 of the articles as already stored
+            delivered.clear();
+            KnownArticleStore remote = new KnownArticleStore(dataManager, "target/known-" + UUID.randomUUID(), 1000, true);
+            service = newMonitoringService(stub, dataManager, MonitoringService.ARTICLE_FETCH_MODE, 200, 40,
+                new CheckpointStore("target/checkpoints-" + UUID.randomUUID()), remote);
+            int calls = stub.getCalls();
+            assertEquals(30, service.runCycle(request, new MonitoringCheckpoint(CheckpointStore.monitorId(request), request)));
+            assertEquals(35, stub.getCalls() - calls, "Only the bodies of the articles not stored should be fetched");
+            assertFalse(delivered.contains("article-0"));
+            assertEquals(20, remote.getStats().getLong("knownRemotely"));
+        }
+    }
+
+    /**
+     * This test method is intended to measure the monitoring pipeline under load, against a local stub of The Guardian API.
+     * The number of articles and the latency of the stub can be set with -Dload.articles and -Dload.latency
+     * (1000 articles and 20 ms by default, so the test stays short in the build).
+     * It monitors the articles in both fetch modes (at most 400 in article mode, because of its page cap)
+     * and prints the articles per second and the API calls per article.
+     * Then it monitors a fifth of them with the stub answering 429 over 100 calls per second, with a Retry-After of 1 second,
+     * and prints the recovery times, from the first 429 of a sequence to the next success.
+     * Last, it checks that the monitor stops calling the API once the daily quota of the stub is used.
+     * @throws Exception
+     */
+    @Test
+    public void testLoad() throws Exception {
+        int articles = Integer.getInteger("load.articles", 1000);
+        int latencyMillis = Integer.getInteger("load.latency", 20);
+        MonitoringRequest request = new MonitoringRequest("stub issue query", "load label",
+            Date.from(GuardianStub.FIRST_DATE), Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS)));
+
+        for (String mode : new String[] {MonitoringService.PAGE_FETCH_MODE, MonitoringService.ARTICLE_FETCH_MODE}) {
+            try (GuardianStub stub = new GuardianStub(articles, latencyMillis)) {
+                Map<String, String> delivered = new ConcurrentHashMap<>();
+                List<String> messages = Collections.synchronizedList(new ArrayList<>());
+                MonitoringService service = newMonitoringService(stub, collectingDataManager(delivered, messages), mode, 200, 40,
+                    new CheckpointStore("target/checkpoints-" + UUID.randomUUID()));
+                MonitorUsage usage = new MonitorUsage();
+                long start = System.nanoTime();
+                assertTrue(service.runMonitoring(request, null, usage), "The range should be completed in " + mode + " mode");
+                long elapsedNanos = System.nanoTime() - start;
+
+                // The article mode stops at 40 pages of 10 articles, to stay within the daily quota
+                int expected = MonitoringService.ARTICLE_FETCH_MODE.equals(mode) ? Math.min(articles, 400) : articles;
+                System.out.println("Load in " + mode + " mode (" + expected + " articles, " + latencyMillis + " ms of latency): "
+                    + (expected * 1_000_000_000L / elapsedNanos) + " articles/s, " + ((double) stub.getCalls() / expected)
+                    + " API calls/article, usage " + usage.toJSON());
+                assertEquals(expected, delivered.size(), "All the articles should be delivered in " + mode + " mode");
+                assertEquals(stub.getCalls(), usage.getApiCalls(), "The usage should account for all the API calls");
+            }
+        }
+
+        // 429 responses over 100 calls per second
+        try (GuardianStub stub = new GuardianStub(articles / 5, latencyMillis)) {
+            stub.limitRate(100);
+            stub.setRetryAfter("1");
+            Map<String, String> delivered = new ConcurrentHashMap<>();
+            MonitoringService service = newMonitoringService(stub, collectingDataManager(delivered, new ArrayList<>()),
+                MonitoringService.ARTICLE_FETCH_MODE, 200, 40, new CheckpointStore("target/checkpoints-" + UUID.randomUUID()));
+            assertTrue(service.runMonitoring(request, null, new MonitorUsage()));
+
+            List<Long> recoveries = stub.getRecoveryMillis();
+            System.out.println("429 recovery: " + stub.getThrottledResponses() + " responses 429 of " + stub.getCalls() + " API calls, recovery times "
+                + recoveries + " ms (max " + recoveries.stream().mapToLong(Long::longValue).max().orElse(0) + " ms)");
+            assertEquals(articles / 5, delivered.size(), "All the articles should be delivered after the 429");
+            assertFalse(recoveries.isEmpty(), "The stub should answer 429 over its rate");
+            assertTrue(recoveries.stream().allMatch(millis -> millis < 3000), "The calls should succeed again soon after the Retry-After");
+        }
+
+        // Daily quota of 30 calls
+        try (GuardianStub stub = new GuardianStub(articles, 0)) {
+            stub.setDailyQuota(30);
+            Map<String, String> delivered = new ConcurrentHashMap<>();
+            List<String> messages = Collections.synchronizedList(new ArrayList<>());
+            MonitoringService service = newMonitoringService(stub, collectingDataManager(delivered, messages),
+                MonitoringService.ARTICLE_FETCH_MODE, 200, 40, new CheckpointStore("target/checkpoints-" + UUID.randomUUID()));
+            assertFalse(service.runMonitoring(request, null, new MonitorUsage()), "The range cannot be completed over the quota");
+
+            System.out.println("Daily quota: " + stub.getCalls() + " API calls, " + delivered.size() + " articles delivered");
+            assertTrue(stub.getCalls() <= 30 + 16, "The calls should stop once the quota is used");
+            assertTrue(delivered.size() < articles);
+            assertTrue(messages.stream().anyMatch(message -> message.contains("API rate limit exceeded")), "The client should be notified");
+        }
+    }
+
+    /**
+     * This test method is intended to test the replay of a recorded search response of The Guardian API.
+     * It monitors the articles of the recording in page mode, with one body text missing from the search results,
+     * and checks that all the articles are delivered with their recorded body text.
+     * @throws Exception
+     */
+    @Test
+    public void testReplayRecording() throws Exception {
+        try (InputStream recording = getClass().getResourceAsStream("/guardian/search-recording.json");
+                GuardianStub stub = GuardianStub.replay(recording, 0)) {
+            stub.omitBodyFromSearch(2);
+            assertEquals(6, stub.getTotal());
+            Map<String, String> delivered = new ConcurrentHashMap<>();
+            MonitoringService service = newMonitoringService(stub, collectingDataManager(delivered, new ArrayList<>()),
+                MonitoringService.PAGE_FETCH_MODE, 200, 40, new CheckpointStore("target/checkpoints-" + UUID.randomUUID()));
+            MonitoringRequest request = new MonitoringRequest("artificial intelligence", "ai",
+                Date.from(GuardianStub.FIRST_DATE), Date.from(GuardianStub.FIRST_DATE.plus(365, ChronoUnit.DAYS)));
+            assertTrue(service.runMonitoring(request, null, new MonitorUsage()));
+
+            assertEquals(6, delivered.size());
+            assertEquals(2, stub.getCalls(), "The missing body text should be fetched with its own request");
+            assertTrue(delivered.get("business/2023/apr/18/ai-startups-funding").startsWith("Funding for artificial intelligence"));
+            assertTrue(delivered.get("world/2023/jun/14/eu-ai-act-vote").startsWith("Lawmakers backed rules"));
+        }
+    }
+
+    /**
+     * This method parses all the payloads, as the JSON tree used before or with the streaming parser.
+     * @param payloads the bodies of the search responses
+     * @param streaming
+     * @return the time spent, in nanoseconds
+     * @throws Exception
+     */
+    private static long timeParsing(List<byte[]> payloads, boolean streaming) throws Exception {
+        long start = System.nanoTime();
+        int articles = 0;
+        for (byte[] payload : payloads) {
+            if (streaming) {
+                articles += GuardianResponseParser.parseSearchPage(new ByteArrayInputStream(payload)).getResults().size();
+            } else {
+                articles += parseWithTree(payload).size();
+            }
+        }
+        assertEquals(2000, articles);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * This method parses a search response as the service did before the streaming parser:
+     * the page to a JSON tree, then each result to a string and again to an Article.
+     * @param payload the body of the search response
+     * @return the articles
+     * @throws Exception
+     */
+    private static List<Article> parseWithTree(byte[] payload) throws Exception {
+        JSONArray results = new JSONObject(new String(payload, StandardCharsets.UTF_8)).getJSONObject("response").getJSONArray("results");
+        List<Article> articles = new ArrayList<>(results.length());
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject articleJson = results.getJSONObject(i);
+            articleJson.remove("fields");
+            articles.add(TREE_MAPPER.readValue(articleJson.toString(), Article.class));
+        }
+        return articles;
+    }
+
+    /**
+     * This method builds a MonitoringService calling a stub of The Guardian API.
+     * @param stub
+     * @param dataManager the HTTP client used to send the articles and the status
+     * @param fetchMode
+     * @return the monitoring service
+     */
+    private static MonitoringService newMonitoringService(GuardianStub stub, HttpClientService dataManager, String fetchMode) {
+        return newMonitoringService(stub, dataManager, fetchMode, 200, 40, new CheckpointStore("target/checkpoints-" + UUID.randomUUID()));
+    }
+
+    /**
+     * This method builds a mock of the HTTP client that collects the articles sent to the DataManager Service
+     * and the status messages sent to the Client Service.
+     * @param delivered the body texts of the articles, by ID
+     * @param messages the status messages
+     * @return the mock of the HTTP client
+     */
+    private static HttpClientService collectingDataManager(Map<String, String> delivered, List<String> messages) {
+        HttpClientService dataManager = mock(HttpClientService.class);
+        when(dataManager.postRequest(eq("http://datamanager-service:8082/datamanager/save-articles/"), anyString())).thenAnswer(invocation -> {
+            new JSONArray(invocation.<String>getArgument(1)).forEach(article ->
+                delivered.put(((JSONObject) article).getString("id"), ((JSONObject) article).getString("bodyText")));
+            return new ResponseEntity<>("ok", HttpStatus.OK);
+        });
+        when(dataManager.postRequest(eq("http://client-service:8080/client/status/"), anyString())).thenAnswer(invocation -> {
+            messages.add(new JSONObject(invocation.<String>getArgument(1)).getString("message"));
+            return new ResponseEntity<>("ok", HttpStatus.OK);
+        });
+        return dataManager;
+    }
+
+    /**
+     * This method builds a MonitoringService calling a stub of The Guardian API,
+     * saving its checkpoints in the given store.
+     * @param stub
+     * @param dataManager the HTTP client used to send the articles and the status
+     * @param fetchMode
+     * @param pageSize the number of results per page in the page fetch mode
+     * @param maxPages the maximum number of pages of a backfill window
+     * @param checkpointStore
+     * @return the monitoring service
+     */
+    private static MonitoringService newMonitoringService(GuardianStub stub, HttpClientService dataManager, String fetchMode,
+            int pageSize, int maxPages, CheckpointStore checkpointStore) {
+        return newMonitoringService(stub, dataManager, fetchMode, pageSize, maxPages, checkpointStore,
+            new KnownArticleStore(dataManager, "target/known-" + UUID.randomUUID(), 1000, false));
+    }
+
+    /**
+     * This method builds a MonitoringService calling a stub of The Guardian API,
+     * saving its checkpoints and the articles delivered in the given stores.
+     * @param stub
+     * @param dataManager the HTTP client used to send the articles and the status
+     * @param fetchMode
+     * @param pageSize the number of results per page in the page fetch mode
+     * @param maxPages the maximum number of pages of a backfill window
+     * @param checkpointStore
+     * @param knownArticleStore
+     * @return the monitoring service
+     */
+    private static MonitoringService newMonitoringService(GuardianStub stub, HttpClientService dataManager, String fetchMode,
+            int pageSize, int maxPages, CheckpointStore checkpointStore, KnownArticleStore knownArticleStore) {
+        GuardianRateLimiter rateLimiter = new GuardianRateLimiter(1000, 100, 0, 10);
+        ArticleBodyFetcher bodyFetcher = new ArticleBodyFetcher(rateLimiter, "test", 8);
+        BackfillEngine backfillEngine = new BackfillEngine(rateLimiter, bodyFetcher, "test", stub.getBaseUrl(), pageSize, maxPages, 3600, 4);
+        DataManagerSender dataManagerSender = new DataManagerSender(dataManager, knownArticleStore, 10, 8, 10);
+        MonitoringService service = new MonitoringService("test", dataManager, rateLimiter, bodyFetcher, backfillEngine, checkpointStore,
+            dataManagerSender, knownArticleStore);
+        ReflectionTestUtils.setField(service, "batchSize", 10);
+        ReflectionTestUtils.setField(service, "guardianApiUrl", stub.getBaseUrl());
+        ReflectionTestUtils.setField(service, "fetchMode", fetchMode);
+        ReflectionTestUtils.setField(service, "pageSize", pageSize);
+        return service;
+    }
 }
@@ -0,0 +1,420 @@
+/**
+ * GuardianStub.java
+ *
+ * @author Francesco Chemello
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+
+package it.unipd.dei.softplat.testutil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class represents a local stand-in of The Guardian Open Platform API (content.guardianapis.com),
+ * so that the monitoring pipeline can be tested and benchmarked without using the quota of a real API key.
+ * It serves either synthetic articles, published at regular intervals during 2023, or the results of recorded
+ * search responses, from /search (10 per page, or page-size, filtered by from-date and to-date)
+ * and their body texts from /item/{id}, with a configurable latency.
+ * Like the real API, it rejects the pages larger than the maximum page size and, once the daily quota is used,
+ * answers 429 with "API rate limit exceeded". It can also answer 429 to the next calls or to the calls over a rate,
+ * with a Retry-After header, and it measures the time from the first 429 of a sequence to the next success.
+ * The monitoring service uses it by setting guardian.api.url to its base URL.
+ * It can also be started on its own, see {@link #main(String[])}.
+ */
+public final class GuardianStub implements AutoCloseable {
+
+    public static final Instant FIRST_DATE = Instant.parse("2023-01-01T00:00:00Z");
+
+    private final HttpServer server;
+    private final String host;
+    private final int total;
+    private final int latencyMillis;
+    // The recorded results, in date order, or null for synthetic articles
+    private final List<JSONObject> recorded;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger throttledCalls = new AtomicInteger();
+    private final AtomicInteger throttledResponses = new AtomicInteger();
+    private final Set<Integer> withoutSearchBody = ConcurrentHashMap.newKeySet();
+    private final List<Long> recoveryMillis = Collections.synchronizedList(new ArrayList<>());
+    private volatile String retryAfter;
+    private volatile int maxCallsPerSecond;
+    private volatile int maxPageSize = 200;
+    private volatile int dailyQuota;
+    private long currentSecond;
+    private int callsInSecond;
+    private long throttledSinceNanos;
+
+    /**
+     * Constructor for GuardianStub serving synthetic articles on a free local port.
+     * @param total the number of articles
+     * @param latencyMillis the latency of each response, in milliseconds
+     * @throws IOException if the server cannot be started
+     */
+    public GuardianStub(int total, int latencyMillis) throws IOException {
+        this(new InetSocketAddress("localhost", 0), total, latencyMillis, null);
+    }
+
+    /**
+     * Constructor for GuardianStub.
+     * @param address the address of the server
+     * @param total the number of articles
+     * @param latencyMillis the latency of each response, in milliseconds
+     * @param recorded the recorded results, or null for synthetic articles
+     * @throws IOException if the server cannot be started
+     */
+    private GuardianStub(InetSocketAddress address, int total, int latencyMillis, List<JSONObject> recorded) throws IOException {
+        this.total = total;
+        this.latencyMillis = latencyMillis;
+        this.recorded = recorded;
+        // Without TCP_NODELAY the small responses wait for the delayed ACK of the client (about 40 ms)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(address, 0);
+        this.host = address.getAddress().isAnyLocalAddress() ? "localhost" : address.getHostString();
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * This method starts a stub replaying recorded search responses of The Guardian API on a free local port.
+     * The recording is a search response, as saved from /search with show-fields=bodyText,
+     * or a JSON array of them: their results are served in date order, with the API URL of each article
+     * pointing to the stub and its body text served from /item/{id}.
+     * @param recording
+     * @param latencyMillis the latency of each response, in milliseconds
+     * @return the stub
+     * @throws IOException if the server cannot be started
+     */
+    public static GuardianStub replay(InputStream recording, int latencyMillis) throws IOException {
+        return replay(new InetSocketAddress("localhost", 0), recording, latencyMillis);
+    }
+
+    private static GuardianStub replay(InetSocketAddress address, InputStream recording, int latencyMillis) throws IOException {
+        Object parsed = new JSONTokener(new String(recording.readAllBytes(), StandardCharsets.UTF_8)).nextValue();
+        JSONArray responses = parsed instanceof JSONArray array ? array : new JSONArray().put(parsed);
+        Map<String, JSONObject> results = new HashMap<>();
+        for (int i = 0; i < responses.length(); i++) {
+            JSONObject response = responses.getJSONObject(i);
+            JSONArray pageResults = response.has("response") ? response.getJSONObject("response").getJSONArray("results") : response.getJSONArray("results");
+            for (int j = 0; j < pageResults.length(); j++) {
+                JSONObject result = pageResults.getJSONObject(j);
+                results.put(result.getString("id"), result);
+            }
+        }
+        List<JSONObject> recorded = new ArrayList<>(results.values());
+        recorded.sort(Comparator.comparing(result -> Instant.parse(result.getString("webPublicationDate"))));
+        return new GuardianStub(address, recorded.size(), latencyMillis, recorded);
+    }
+
+    /**
+     * This method starts a stub that runs until the process is stopped, e.g. to point a monitoring service to it
+     * with GUARDIAN_API_URL=http://host:port.
+     * Arguments: port (default 8090), number of synthetic articles (default 1000), latency in milliseconds (default 0),
+     * daily quota (default 0, no limit) and the file of a recording to replay instead of the synthetic articles.
+     * @param args
+     * @throws IOException if the server cannot be started
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8090;
+        int total = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int latencyMillis = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int dailyQuota = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        InetSocketAddress address = new InetSocketAddress(port);
+        GuardianStub stub;
+        if (args.length > 4) {
+            try (InputStream recording = Files.newInputStream(Paths.get(args[4]))) {
+                stub = replay(address, recording, latencyMillis);
+            }
+        } else {
+            stub = new GuardianStub(address, total, latencyMillis, null);
+        }
+        stub.setDailyQuota(dailyQuota);
+        System.out.println("The Guardian API stub is serving " + stub.total + " articles at " + stub.getBaseUrl());
+    }
+
+    /**
+     * Returns the base URL of the stub.
+     * @return the base URL
+     */
+    public String getBaseUrl() {
+        return "http://" + host + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of articles served.
+     * @return the number of articles
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * Returns the number of calls received.
+     * @return the calls
+     */
+    public int getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Returns the number of calls answered with 429.
+     * @return the throttled calls
+     */
+    public int getThrottledResponses() {
+        return throttledResponses.get();
+    }
+
+    /**
+     * Returns the recovery times: for each sequence of 429 responses, the time from the first 429
+     * to the next successful response.
+     * @return the recovery times, in milliseconds
+     */
+    public List<Long> getRecoveryMillis() {
+        synchronized (recoveryMillis) {
+            return new ArrayList<>(recoveryMillis);
+        }
+    }
+
+    /**
+     * This method makes the stub answer 429 to the next call.
+     */
+    public void throttleNextCall() {
+        throttleNextCalls(1);
+    }
+
+    /**
+     * This method makes the stub answer 429 to the next calls.
+     * @param count
+     */
+    public void throttleNextCalls(int count) {
+        throttledCalls.addAndGet(count);
+    }
+
+    /**
+     * Sets the Retry-After header of the 429 responses, null for none.
+     * @param retryAfter
+     */
+    public void setRetryAfter(String retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * This method makes the stub answer 429 to the calls over a rate.
+     * @param maxCallsPerSecond the calls allowed per second (0 for no limit)
+     */
+    public void limitRate(int maxCallsPerSecond) {
+        this.maxCallsPerSecond = maxCallsPerSecond;
+    }
+
+    /**
+     * Sets the maximum page size: the search requests with a larger page-size are answered with 400.
+     * @param maxPageSize
+     */
+    public void setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Sets the daily quota: the calls over it are answered with 429 and "API rate limit exceeded".
+     * @param dailyQuota the calls allowed (0 for no limit)
+     */
+    public void setDailyQuota(int dailyQuota) {
+        this.dailyQuota = dailyQuota;
+    }
+
+    /**
+     * This method omits the body text of an article from the search results, so it must be fetched from /item/{id}.
+     * @param index the index of the article, in date order
+     */
+    public void omitBodyFromSearch(int index) {
+        withoutSearchBody.add(index);
+    }
+
+    /**
+     * This method returns an article as a result of a search response.
+     * @param index the index of the article, in date order
+     * @param withBody true to include its body text
+     * @return the JSON of the result
+     */
+    public JSONObject searchResult(int index, boolean withBody) {
+        if (recorded != null) {
+            JSONObject result = new JSONObject(recorded.get(index).toMap());
+            String id = result.getString("id");
+            result.put("apiUrl", getBaseUrl() + "/item/" + id);
+            result.remove("fields");
+            if (withBody) {
+                result.put("fields", new JSONObject().put("bodyText", bodyText(index)));
+            }
+            return result;
+        }
+        JSONObject result = new JSONObject()
+            .put("id", "article-" + index)
+            .put("type", "article")
+            .put("sectionId", "world")
+            .put("sectionName", "World news")
+            .put("webPublicationDate", publicationDate(index).toString())
+            .put("webTitle", "Article " + index)
+            .put("webUrl", "https://www.theguardian.com/article-" + index)
+            .put("apiUrl", getBaseUrl() + "/item/article-" + index);
+        if (withBody) {
+            result.put("fields", new JSONObject().put("bodyText", bodyText(index)));
+        }
+        return result;
+    }
+
+    private Instant publicationDate(int index) {
+        if (recorded != null) {
+            return Instant.parse(recorded.get(index).getString("webPublicationDate"));
+        }
+        return FIRST_DATE.plusMillis(365L * 24 * 3600 * 1000 * index / total);
+    }
+
+    private String bodyText(int index) {
+        if (recorded != null) {
+            JSONObject fields = recorded.get(index).optJSONObject("fields");
+            return fields != null ? fields.optString("bodyText", "") : "";
+        }
+        return "Body text of article-" + index;
+    }
+
+    private int indexOf(String id) {
+        if (recorded == null) {
+            return id.startsWith("article-") ? Integer.parseInt(id.substring("article-".length())) : -1;
+        }
+        for (int i = 0; i < recorded.size(); i++) {
+            if (recorded.get(i).getString("id").equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized boolean overRate() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != currentSecond) {
+            currentSecond = second;
+            callsInSecond = 0;
+        }
+        return ++callsInSecond > maxCallsPerSecond;
+    }
+
+    private synchronized void recordStatus(int status) {
+        long now = System.nanoTime();
+        if (status == 429) {
+            throttledResponses.incrementAndGet();
+            if (throttledSinceNanos == 0) {
+                throttledSinceNanos = now;
+            }
+        } else if (status == 200 && throttledSinceNanos != 0) {
+            recoveryMillis.add((now - throttledSinceNanos) / 1_000_000);
+            throttledSinceNanos = 0;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int call = calls.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (dailyQuota > 0 && call > dailyQuota) {
+            respond(exchange, 429, "{\"message\":\"API rate limit exceeded\"}");
+            return;
+        }
+        if (throttledCalls.getAndUpdate(n -> Math.max(0, n - 1)) > 0 || (maxCallsPerSecond > 0 && overRate())) {
+            if (retryAfter != null) {
+                exchange.getResponseHeaders().set("Retry-After", retryAfter);
+            }
+            respond(exchange, 429, "{\"message\":\"Too Many Requests\"}");
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> query = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        for (String parameter : rawQuery == null ? new String[0] : rawQuery.split("&")) {
+            String[] pair = parameter.split("=", 2);
+            query.put(pair[0], pair.length > 1 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "");
+        }
+        JSONObject response = new JSONObject().put("status", "ok");
+        if (path.equals("/search")) {
+            int pageSize = Integer.parseInt(query.getOrDefault("page-size", "10"));
+            int page = Integer.parseInt(query.getOrDefault("page", "1"));
+            if (pageSize < 1 || pageSize > maxPageSize) {
+                respond(exchange, 400, new JSONObject().put("response", new JSONObject().put("status", "error")
+                    .put("message", "page-size must be an integer between 0 and " + maxPageSize)).toString());
+                return;
+            }
+            boolean withBodies = "bodyText".equals(query.get("show-fields"));
+            Instant from = query.containsKey("from-date") ? Instant.parse(query.get("from-date")) : Instant.MIN;
+            Instant to = query.containsKey("to-date") ? Instant.parse(query.get("to-date")) : Instant.MAX;
+            List<Integer> matches = new ArrayList<>();
+            for (int i = 0; i < total; i++) {
+                if (!publicationDate(i).isBefore(from) && !publicationDate(i).isAfter(to)) {
+                    matches.add(i);
+                }
+            }
+            JSONArray results = new JSONArray();
+            for (int i = (page - 1) * pageSize; i < Math.min(matches.size(), page * pageSize); i++) {
+                int index = matches.get(i);
+                results.put(searchResult(index, withBodies && !withoutSearchBody.contains(index)));
+            }
+            response.put("total", matches.size()).put("pages", (matches.size() + pageSize - 1) / pageSize).put("currentPage", page).put("results", results);
+        } else if (path.startsWith("/item/")) {
+            String id = path.substring("/item/".length());
+            int index = indexOf(id);
+            if (index < 0 || index >= total) {
+                respond(exchange, 404, "{\"message\":\"Not Found\"}");
+                return;
+            }
+            response.put("content", new JSONObject().put("id", id).put("fields", new JSONObject().put("bodyText", bodyText(index))));
+        } else {
+            respond(exchange, 404, "{\"message\":\"Not Found\"}");
+            return;
+        }
+        respond(exchange, 200, new JSONObject().put("response", response).toString());
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        recordStatus(status);
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}